@@ -16,17 +16,25 @@ public class CommandLineOptions {
 
 	public enum Action {
 		REPL, SERVER, DUMP, LOAD, CHECK, VERSION, REBUILD, COMPACT, DBDUMP, HELP,
-		ERROR, TESTCLIENT, TESTSERVER, CLIENT, LOAD2, COMPACT2, REBUILD2, REBUILD3
+		ERROR, TESTCLIENT, TESTSERVER, CLIENT, LOAD2, COMPACT2, REBUILD2, REBUILD3,
+		REPLICA
 	}
 
 	public Action action;
 	public String actionArg;
 	public int serverPort = -1;
+	/** for -replica, the port of the server it follows */
+	public int primaryPort = -1;
 	public String remainder = "";
 	private static final int DEFAULT_TIMEOUT = 4 * 60; // 4 hours
 	public int timeoutMin = DEFAULT_TIMEOUT;
 	public int max_update_tran_sec = 0;
 	public int max_writes_per_tran = 0;
+	public boolean group_commit = false;
+	public int storage_align = 0;
+	public boolean compress = false;
+	public int record_cache = 0;
+	public int query_memory = 0;
 	public boolean unattended = false;
 
 	public static CommandLineOptions parse(String... args) {
@@ -49,6 +57,16 @@ public class CommandLineOptions {
 				setAction(Action.REPL);
 			else if (arg.equals("-server") || arg.equals("-s"))
 				setAction(Action.SERVER);
+			else if (arg.equals("-replica")) {
+				setAction(Action.REPLICA);
+				if (arg_i + 1 < args.length && !args[arg_i + 1].startsWith("-")) {
+					primaryPort = getIntArg();
+					if (primaryPort <= 0 | 65535 < primaryPort) {
+						setAction(Action.ERROR);
+						actionArg = "invalid primary port: " + args[arg_i];
+					}
+				}
+			}
 			else if (arg.equals("-client") || arg.equals("-c")) {
 				setAction(Action.CLIENT);
 				if (arg_i + 1 < args.length && !args[arg_i + 1].startsWith("-"))
@@ -102,6 +120,16 @@ public class CommandLineOptions {
 				max_update_tran_sec = getIntArg();
 			else if (arg.equals("-mw"))
 				max_writes_per_tran = getIntArg();
+			else if (arg.equals("-gc"))
+				group_commit = true;
+			else if (arg.equals("-align"))
+				storage_align = getIntArg();
+			else if (arg.equals("-compress"))
+				compress = true;
+			else if (arg.equals("-rc"))
+				record_cache = getIntArg();
+			else if (arg.equals("-qm"))
+				query_memory = getIntArg();
 			else if (arg.equals("-unattended") || arg.equals("-u"))
 				unattended = true;
 			else
@@ -163,16 +191,22 @@ public class CommandLineOptions {
 	private void defaults() {
 		if (action == null)
 			action = Action.REPL;
-		if (serverPort == -1
-				&& (action == Action.SERVER || action == Action.CLIENT))
+		if (serverPort == -1 && (action == Action.SERVER ||
+				action == Action.REPLICA || action == Action.CLIENT))
 			serverPort = DEFAULT_PORT;
+		if (primaryPort == -1 && action == Action.REPLICA)
+			primaryPort = DEFAULT_PORT;
 	}
 
 	private void validate() {
 		if (serverPort != -1 && action != Action.SERVER
-				&& action != Action.CLIENT)
-			error("port should only be specifed with -server or -client, not "
+				&& action != Action.REPLICA && action != Action.CLIENT)
+			error("port should only be specifed with -server, -replica, or -client, not "
 					+ action);
+		// the monitor uses port + 1
+		else if (action == Action.REPLICA && Math.abs(serverPort - primaryPort) <= 1)
+			error("replica port (" + serverPort + ") must differ from the primary's port ("
+					+ primaryPort + ") by more than 1, use -port");
 	}
 
 	private void remainder() {
@@ -193,6 +227,8 @@ public class CommandLineOptions {
 		if (action != Action.ERROR) {
 			if (serverPort != -1 && serverPort != DEFAULT_PORT)
 				sb.append(" port=" + serverPort);
+			if (primaryPort != -1 && primaryPort != DEFAULT_PORT)
+				sb.append(" primary=" + primaryPort);
 			if (remainder != "")
 				sb.append(" rest: ").append(remainder);
 		}
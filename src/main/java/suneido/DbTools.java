@@ -9,6 +9,7 @@ import static suneido.database.immudb.Dbpkg.printObserver;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Stopwatch;
 
@@ -86,7 +87,7 @@ public class DbTools {
 			Stopwatch sw = Stopwatch.createStarted();
 			int n = Dbpkg.loadDatabase(db, fin.getChannel());
 			System.out.println("loaded " + n + " tables from " + filename +
-					" in " + sw);
+					" in " + sw + " " + rowsPerSec(db.nrows(), sw));
 		} catch (Exception e) {
 			throw new RuntimeException("load failed", e);
 		}
@@ -97,10 +98,12 @@ public class DbTools {
 				? Dbpkg.open(dbFilename) : Dbpkg.create(dbFilename)) {
 			if (db == null)
 				throw new RuntimeException("can't open database");
+			Stopwatch sw = Stopwatch.createStarted();
 			int n = loadTable(db, tablename);
 			tablename = stripsu(tablename);
 			System.out.println("loaded " + n + " records " +
-					"from " + tablename + ".su into " + tablename + " in " + dbFilename);
+					"from " + tablename + ".su into " + tablename + " in " + dbFilename +
+					" in " + sw + " " + rowsPerSec(n, sw));
 		} catch (Exception e) {
 			throw new RuntimeException("load " + tablename + " failed", e);
 		}
@@ -115,6 +118,11 @@ public class DbTools {
 		}
 	}
 
+	private static String rowsPerSec(long nrows, Stopwatch sw) {
+		long ms = Math.max(1, sw.elapsed(TimeUnit.MILLISECONDS));
+		return String.format("(%,d rows, %,d rows/sec)", nrows, nrows * 1000 / ms);
+	}
+
 	private static String stripsu(String tablename) {
 		if (tablename.endsWith(".su"))
 			tablename = tablename.substring(0, tablename.length() - 3);
@@ -157,7 +165,7 @@ public class DbTools {
 			Stopwatch sw = Stopwatch.createStarted();
 			int n = Dbpkg.compact(srcdb, dstdb);
 			System.out.println("Compacted " + n + " tables in " + dbFilename +
-					" in " + sw);
+					" in " + sw + " " + rowsPerSec(dstdb.nrows(), sw));
 			System.out.printf("size after: %,d%n", dstdb.size());
 		}
 	}
@@ -19,6 +19,9 @@ import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 
 import suneido.Suneido;
+import suneido.database.immudb.Dbpkg;
+import suneido.database.server.Dbms;
+import suneido.database.server.DbmsLocal;
 import suneido.runtime.builtin.SuThread;
 import suneido.util.Errlog;
 
@@ -123,6 +126,17 @@ public class HttpServerMonitor {
 			sb.append("<p>Database Size: ")
 					.append(mb(TheDbms.dbms().size()))
 					.append("mb</p>\r\n");
+			String persistStats = persistStats();
+			if (! persistStats.isEmpty())
+				sb.append("<p>Persist: ")
+						.append(persistStats)
+						.append("</p>\r\n");
+
+			String recordCacheStats = Dbpkg.recordCacheStats();
+			if (! recordCacheStats.isEmpty())
+				sb.append("<p>Record Cache: ")
+						.append(recordCacheStats)
+						.append("</p>\r\n");
 
 			List<String> conns = Suneido.server.connections();
 			sb.append("<p>Connections: (").append(conns.size()).append(") ");
@@ -144,6 +158,12 @@ public class HttpServerMonitor {
 			return sb.toString();
 		}
 
+		private static String persistStats() {
+			Dbms dbms = TheDbms.dbms();
+			return (dbms instanceof DbmsLocal)
+					? ((DbmsLocal) dbms).getDb().persistStats() : "";
+		}
+
 		private static long mb(long n) {
 			return ((n + 512 * 1024) / (1024 * 1024));
 		}
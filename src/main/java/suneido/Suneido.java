@@ -21,6 +21,7 @@ import suneido.compiler.Compiler;
 import suneido.database.immudb.Database;
 import suneido.database.immudb.Dbpkg;
 import suneido.database.immudb.Dump;
+import suneido.database.server.DbmsLocal;
 import suneido.database.server.DbmsServer;
 import suneido.runtime.ContextLayered;
 import suneido.runtime.Contexts;
@@ -59,6 +60,18 @@ public class Suneido {
 			Dbpkg.setOption("max_update_tran_sec", cmdlineoptions.max_update_tran_sec);
 		if (cmdlineoptions.max_writes_per_tran != 0)
 			Dbpkg.setOption("max_writes_per_tran", cmdlineoptions.max_writes_per_tran);
+		if (cmdlineoptions.group_commit)
+			Dbpkg.setOption("group_commit", true);
+		if (cmdlineoptions.storage_align != 0)
+			Dbpkg.setOption("storage_align", cmdlineoptions.storage_align);
+		if (cmdlineoptions.compress) {
+			Dbpkg.setOption("compress_records", true);
+			Dbpkg.setOption("compress_nodes", true);
+		}
+		if (cmdlineoptions.record_cache != 0)
+			Dbpkg.setOption("record_cache", cmdlineoptions.record_cache);
+		if (cmdlineoptions.query_memory != 0)
+			Dbpkg.setOption("query_memory", cmdlineoptions.query_memory);
 		try {
 			doAction();
 		} catch (Throwable e) {
@@ -77,6 +90,11 @@ public class Suneido {
 			Print.timestamped("starting server");
 			startServer(); // does not return
 			break;
+		case REPLICA:
+			TheDbms.setPort(cmdlineoptions.serverPort);
+			Print.timestamped("starting replica server");
+			startServer(); // does not return
+			break;
 		case CLIENT:
 			TheDbms.remote(cmdlineoptions.actionArg, cmdlineoptions.serverPort);
 			scheduleAtFixedRate(TheDbms.closer, 30, TimeUnit.SECONDS);
@@ -149,7 +167,10 @@ public class Suneido {
 	private static void startServer() {
 		scheduleAtFixedRate(Deadlock::check, 5, TimeUnit.MINUTES);
 		HttpServerMonitor.run(cmdlineoptions.serverPort + 1);
-		openDbms();
+		if (cmdlineoptions.action == CommandLineOptions.Action.REPLICA)
+			openReplica();
+		else
+			openDbms();
 		server = new DbmsServer(cmdlineoptions.timeoutMin);
 		server.open(cmdlineoptions.serverPort);
 		try {
@@ -165,6 +186,8 @@ public class Suneido {
 	private static Database db;
 
 	public static void openDbms() {
+		if (Dbpkg.finishCompactOnline(Dbpkg.DB_FILENAME))
+			Errlog.info("switched to online compacted database");
 		db = Dbpkg.open(Dbpkg.DB_FILENAME);
 		if (db == null) {
 			Errlog.error("database corrupt, rebuilding");
@@ -176,12 +199,28 @@ public class Suneido {
 				Errlog.fatal("could not open database after rebuild");
 		}
 		TheDbms.set(db);
+		// use the current database since Database.Compact can switch it
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			exiting = true;
+			localDb().close();
+		}));
+		scheduleAtFixedRate(() -> localDb().limitOutstandingTransactions(),
+				1, TimeUnit.SECONDS);
+		scheduleAtFixedRate(() -> localDb().force(), 1, TimeUnit.MINUTES);
+	}
+
+	private static Database localDb() {
+		return ((DbmsLocal) TheDbms.dbms()).getDb();
+	}
+
+	/** a read-only database following a server running on this machine */
+	private static void openReplica() {
+		TheDbms.set(Dbpkg.openReplica(Dbpkg.DB_FILENAME));
 		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
 			exiting = true;
-			Suneido.db.close();
+			localDb().close();
 		}));
-		scheduleAtFixedRate(db::limitOutstandingTransactions, 1, TimeUnit.SECONDS);
-		scheduleAtFixedRate(db::force, 1, TimeUnit.MINUTES);
+		scheduleAtFixedRate(() -> localDb().pollReplica(), 1, TimeUnit.SECONDS);
 	}
 
 	private static void tryToCloseMemoryMappings() {
@@ -195,6 +234,7 @@ public class Suneido {
 		System.out.println("usage: [options] [--] [arguments]");
 		System.out.println("options:");
 		System.out.println("-s[erver]                 start the server");
+		System.out.println("-replica [primary port]   start a read-only server following a server on this machine (default primary port 3147, use a different -port)");
 		System.out.println("-c[lient]                 run as client");
 		System.out.println("-p[ort] #                 the TCP/IP port for server or client (default 3147)");
 		System.out.println("-repl                     (default) interactive read-eval-print-loop command line");
@@ -208,6 +248,11 @@ public class Suneido {
 		System.out.println("-t[ime]o[ut] #            time out in minutes for idle clients (default is 240)");
 		System.out.println("-ut #                     set max update tran duration in seconds (default 10)");
 		System.out.println("-mw #                     set max writes per update transaction (default 10000)");
+		System.out.println("-gc                       group concurrent update transaction commits");
+		System.out.println("-align #                  storage alignment for new database files e.g. with -compact (8, 16, 32 or 64, default 8)");
+		System.out.println("-compress                 compress larger data records and btree node keys as they are written e.g. with -compact");
+		System.out.println("-rc #                     cache up to # recently read data records (default 0, disabled)");
+		System.out.println("-qm #                     memory budget in mb for in-memory query operations (default 256)");
 		System.out.println("-u[nattended]             redirect stdout and stderr to output.log and error.log");
 		System.out.println("-dbdump                   output database structure (for debugging)");
 		System.out.println("-h[elp] or -?             print this message");
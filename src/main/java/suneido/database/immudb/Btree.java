@@ -31,7 +31,9 @@ import suneido.util.NotThreadSafe;
  */
 @NotThreadSafe
 class Btree implements TranIndex {
-	protected int splitSize() { return 20; } // overridden by tests
+	/** nodes are split when they reach this size, see also {@link BtreeBuilder} */
+	static final int MAX_NODE_SIZE = 20;
+	protected int splitSize() { return MAX_NODE_SIZE; } // overridden by tests
 	final Tran tran;
 	int treeLevels;
 	int nnodes;
@@ -79,8 +81,8 @@ class Btree implements TranIndex {
 		BtreeNode node = rootNode;
 		for (int level = treeLevels - 1; level >= 0; --level)
 			node = childNode(node, node.findPos(key));
-		BtreeKey slot = node.find(key);
-		return slot != null && key.key.equals(slot.key) ? slot.adr() : 0;
+		int at = node.findPos(key);
+		return at < node.size() && node.keyEquals(at, key.key) ? node.adr(at) : 0;
 	}
 
 	private BtreeNode childNode(BtreeNode node, int i) {
@@ -604,7 +606,7 @@ class Btree implements TranIndex {
 	}
 
 	static BtreeNode nodeAt(Storage stor, int level, int adr) {
-		return new BtreeDbNode(level, stor.buffer(adr), adr);
+		return BtreeDbNode.from(level, stor.buffer(adr), adr);
 	}
 
 	void freeze() {
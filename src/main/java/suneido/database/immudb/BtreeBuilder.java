@@ -0,0 +1,159 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import suneido.util.NotThreadSafe;
+
+/**
+ * Builds a btree bottom up from keys added in sorted order,
+ * rather than adding them one at a time with {@link Btree}.add
+ * <p>
+ * Nodes are completely filled,
+ * the same as adding keys in order to a Btree would produce,
+ * but without the path copying and splitting.
+ * Tree keys are the same as Btree split would make.
+ * <p>
+ * If given a Storage, each node (except the root) is stored as soon as it is
+ * finished, so memory use is proportional to the tree height, not its size.
+ * This must be done within a persist (see {@link BulkTransaction}.btreeBuilder)
+ * Otherwise the btree is built in memory and stored by the next persist.
+ * <p>
+ * Used by {@link ParallelRebuild}, {@link DbLoad}, and {@link TableBuilder}
+ */
+@NotThreadSafe
+class BtreeBuilder {
+	private final Storage stor;
+	private final int nodeSize;
+	/** the keys for the current (unfinished) node at each level */
+	private final List<List<BtreeKey>> levels = new ArrayList<>();
+	/** the last key of the previous leaf node, for the separator */
+	private BtreeKey prevLast = null;
+	private BtreeKey prev = null;
+	private int nnodes = 0;
+	private int totalSize = 0;
+	private int nkeys = 0;
+
+	BtreeBuilder() {
+		this(null, Btree.MAX_NODE_SIZE);
+	}
+
+	BtreeBuilder(Storage stor) {
+		this(stor, Btree.MAX_NODE_SIZE);
+	}
+
+	/** used by tests */
+	BtreeBuilder(int nodeSize) {
+		this(null, nodeSize);
+	}
+
+	BtreeBuilder(Storage stor, int nodeSize) {
+		this.stor = stor;
+		this.nodeSize = nodeSize;
+		levels.add(new ArrayList<>());
+	}
+
+	/** Keys must be added in order, without duplicates */
+	void add(BtreeKey key) {
+		assert prev == null || prev.compareTo(key) < 0 : "keys out of order";
+		prev = key;
+		totalSize += key.keySize();
+		++nkeys;
+		add(0, key);
+	}
+
+	private void add(int level, BtreeKey key) {
+		List<BtreeKey> keys = levels.get(level);
+		if (keys.size() >= nodeSize)
+			keys = finishNode(level);
+		keys.add(key);
+	}
+
+	/**
+	 * Make a node from the keys for a level
+	 * and add a tree key for it to the level above.
+	 * @return The (empty) list for the next node at the level
+	 */
+	private List<BtreeKey> finishNode(int level) {
+		List<BtreeKey> keys = levels.get(level);
+		if (level + 1 >= levels.size())
+			levels.add(new ArrayList<>());
+		boolean first = levels.get(level + 1).isEmpty() && ! hasParent(level);
+		BtreeKey treeKey;
+		BtreeNode node;
+		if (first) {
+			node = node(level, keys);
+			treeKey = treeKey(Record.EMPTY, 0, node);
+		} else if (level == 0) {
+			node = node(level, keys);
+			treeKey = separator(prevLast, node);
+		} else {
+			// like Btree split, move the first key up and minimize it
+			BtreeKey firstKey = keys.get(0);
+			keys.set(0, firstKey.minimize());
+			node = node(level, keys);
+			treeKey = treeKey(firstKey.key, firstKey.dataAdr, node);
+		}
+		if (level == 0)
+			prevLast = node.last();
+		add(level + 1, treeKey);
+		List<BtreeKey> next = new ArrayList<>(nodeSize);
+		levels.set(level, next);
+		return next;
+	}
+
+	/** whether any nodes have been finished at level + 1 */
+	private boolean hasParent(int level) {
+		return level + 2 < levels.size();
+	}
+
+	/**
+	 * Like Btree split, if the keys differ (ignoring the data address)
+	 * then the separator data address is set to MAXADR
+	 */
+	private BtreeTreeKey separator(BtreeKey last, BtreeNode node) {
+		boolean max = ! last.key.equals(node.first().key);
+		return treeKey(last.key, max ? IntRefs.MAXADR : last.adr(), node);
+	}
+
+	/**
+	 * If storing, the node is stored
+	 * and the tree key only references it by address
+	 */
+	private BtreeTreeKey treeKey(Record key, int dataAdr, BtreeNode node) {
+		if (stor == null)
+			return new BtreeTreeKey(key, dataAdr, 0, node);
+		return new BtreeTreeKey(key, dataAdr, node.store(stor).address());
+	}
+
+	private BtreeNode node(int level, List<BtreeKey> keys) {
+		++nnodes;
+		return BtreeMemNode.from(level, keys.toArray(new BtreeKey[keys.size()]));
+	}
+
+	/** @return The number of keys added */
+	int nkeys() {
+		return nkeys;
+	}
+
+	/**
+	 * Finishes the partial nodes at each level.
+	 * The builder should not be used after this.
+	 * @return The info for the btree, the root node is not stored
+	 */
+	BtreeInfo build() {
+		if (nkeys == 0)
+			return new Btree(null).info();
+		int level = 0;
+		while (level + 1 < levels.size())
+			finishNode(level++);
+		BtreeNode root = node(level, levels.get(level));
+		root.freeze();
+		return new BtreeInfo(0, root, level, nnodes, totalSize);
+	}
+
+}
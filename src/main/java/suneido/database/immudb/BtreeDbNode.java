@@ -19,8 +19,19 @@ class BtreeDbNode extends BtreeNode {
 	private SoftReference<BtreeDbNode>[] refs = null; // cache child nodes
 
 	BtreeDbNode(int level, ByteBuffer buf, int adr) {
+		this(level, Record.from(adr, buf, 0));
+	}
+
+	protected BtreeDbNode(int level, BufRecord rec) {
 		super(level);
-		rec = Record.from(adr, buf, 0);
+		this.rec = rec;
+	}
+
+	/** @return A BtreeDbNode or a {@link BtreePrefixNode} depending on the format */
+	static BtreeDbNode from(int level, ByteBuffer buf, int adr) {
+		return BtreePrefixNode.isPrefixNode(buf)
+				? new BtreePrefixNode(level, buf, adr)
+				: new BtreeDbNode(level, buf, adr);
 	}
 
 	@Override
@@ -33,6 +44,49 @@ class BtreeDbNode extends BtreeNode {
 				: BtreeTreeKey.unpack(buf, pos, ref(i));
 	}
 
+	/** compare in place, without allocation, tree keys have a child address */
+	@Override
+	int compare(int i, BtreeKey key) {
+		int pos = rec.fieldOffset(i);
+		return BtreeKey.compare(rec.fieldBuffer(i),
+				isLeaf() ? pos : pos + Integer.BYTES, key);
+	}
+
+	@Override
+	boolean keyEquals(int i, Record key) {
+		return 0 == BufRecord.compare(rec.fieldBuffer(i), keyPos(i), key);
+	}
+
+	@Override
+	int adr(int i) {
+		return rec.fieldBuffer(i).getInt(keyPos(i) - Integer.BYTES);
+	}
+
+	/** @return The position of the record part of the i'th key */
+	protected int keyPos(int i) {
+		checkElementIndex(i, rec.size());
+		int pos = rec.fieldOffset(i) + Integer.BYTES; // data address
+		return isLeaf() ? pos : pos + Integer.BYTES; // child address
+	}
+
+	protected int childAddress(int i) {
+		return rec.fieldBuffer(i).getInt(rec.fieldOffset(i));
+	}
+
+	/** @return The packed size of the i'th key, used by BtreeMemNode */
+	int keyLength(int i) {
+		return rec.fieldLength(i);
+	}
+
+	/** Copy the packed i'th key to dst, used by BtreeMemNode */
+	void packKey(ByteBuffer dst, int i) {
+		int len = rec.fieldLength(i);
+		int off = rec.fieldOffset(i);
+		ByteBuffer src = rec.fieldBuffer(i);
+		for (int j = 0; j < len; ++j)
+			dst.put(src.get(off + j));
+	}
+
 	protected BtreeDbNode ref(int i) {
 		return refs == null || refs[i] == null ? null : refs[i].get();
 	}
@@ -102,7 +156,7 @@ class BtreeDbNode extends BtreeNode {
 		BtreeDbNode ref = ref(i);
 		if (ref != null)
 			return ref;
-		int childAdr = ((BtreeTreeKey) get(i)).childAddress();
+		int childAdr = childAddress(i);
 		BtreeDbNode child = (BtreeDbNode) Btree.nodeAt(stor, level - 1, childAdr);
 		if (refs == null)
 			refs = new SoftReference[rec.size()];
@@ -81,6 +81,16 @@ class BtreeKey implements Comparable<BtreeKey> {
 		key.pack(buf);
 	}
 
+	/**
+	 * Compare a packed key at pos in buf to key
+	 * without unpacking it, the same as compareTo
+	 */
+	static int compare(ByteBuffer buf, int pos, BtreeKey key) {
+		int cmp = BufRecord.compare(buf, pos + Integer.BYTES, key.key);
+		return (cmp != 0) ? cmp
+				: UnsignedInts.compare(buf.getInt(pos), key.dataAdr);
+	}
+
 	static BtreeKey unpack(ByteBuffer buf, int pos) {
 		int adr = buf.getInt(pos);
 		assert adr != 0;
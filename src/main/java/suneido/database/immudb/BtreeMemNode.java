@@ -251,29 +251,60 @@ class BtreeMemNode extends BtreeNode {
 
 	// store -------------------------------------------------------------------
 
+	/**
+	 * Frozen nodes that have already been stored are not stored again,
+	 * so persisting a btree only writes the nodes modified since.
+	 */
 	@Override
 	BtreeDbNode store(Storage stor) {
+		return store(stor, null);
+	}
+
+	/**
+	 * @param stored If not null, the nodes that are stored are added to it
+	 * so Persist can {@link #unstore} them if it aborts
+	 */
+	BtreeDbNode store(Storage stor, List<BtreeMemNode> stored) {
+		if (immutable && address != 0)
+			return BtreeDbNode.from(level, stor.buffer(address), address);
 		if (isTree())
-			storeChildren(stor);
-		address = stor.alloc(length());
-		ByteBuffer buf = stor.buffer(address);
-		pack(buf);
-		BtreeDbNode node = new BtreeDbNode(level, buf, address);
+			storeChildren(stor, stored);
+		int length = length();
+		address = BtreePrefixNode.enabled
+				? BtreePrefixNode.store(stor, this, length) : 0;
+		if (address == 0) {
+			address = stor.alloc(length);
+			pack(stor.buffer(address));
+		}
+		if (stored != null)
+			stored.add(this);
+		BtreeDbNode node = BtreeDbNode.from(level, stor.buffer(address), address);
 		assert node.address() == address;
 		return node;
 	}
 
-	private void storeChildren(Storage stor) {
+	private void storeChildren(Storage stor, List<BtreeMemNode> stored) {
 		for (int i = 0; i < size(); ++i) {
 			byte idx = index.get(i);
 			if (idx < 0) {
 				BtreeTreeKey key = (BtreeTreeKey) added.get(-idx - 1);
-				if (key.child() != null)
-					key.child().store(stor); // recursive
+				BtreeNode child = key.child();
+				if (child instanceof BtreeMemNode)
+					((BtreeMemNode) child).store(stor, stored); // recursive
+				else if (child != null)
+					child.store(stor);
 			}
 		}
 	}
 
+	/**
+	 * Used by Persist when it aborts,
+	 * so the node is not reused from the aborted storage
+	 */
+	void unstore() {
+		address = 0;
+	}
+
 	int length() {
 		int datasize = 0;
 		for (int i = 0; i < size(); ++i)
@@ -284,7 +315,7 @@ class BtreeMemNode extends BtreeNode {
 	private int length(int i) {
 		int idx = index.get(i);
 		return idx >= 0
-				? dbnode.rec.fieldLength(idx)
+				? dbnode.keyLength(idx)
 				: added.get(-idx - 1).packSize();
 	}
 
@@ -305,13 +336,8 @@ class BtreeMemNode extends BtreeNode {
 		int idx = index.get(i);
 		if (idx < 0)
 			added.get(-idx - 1).pack(buf);
-		else {
-			int len = dbnode.rec.fieldLength(idx);
-			int off = dbnode.rec.fieldOffset(idx);
-			ByteBuffer src = dbnode.rec.fieldBuffer(idx);
-			for (int j = 0; j < len; ++j)
-				buf.put(src.get(off + j));
-		}
+		else
+			dbnode.packKey(buf, idx);
 	}
 
 	@Override
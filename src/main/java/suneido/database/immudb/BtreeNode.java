@@ -111,8 +111,19 @@ abstract class BtreeNode {
 		return first;
 	}
 
-	private int compare(int middle, BtreeKey key) {
-		return get(middle).compareTo(key);
+	/** overridden by BtreeDbNode to avoid unpacking the key */
+	int compare(int i, BtreeKey key) {
+		return get(i).compareTo(key);
+	}
+
+	/** @return Whether the record part of the i'th key equals key */
+	boolean keyEquals(int i, Record key) {
+		return get(i).key.equals(key);
+	}
+
+	/** @return The data address of the i'th key */
+	int adr(int i) {
+		return get(i).adr();
 	}
 
 	BtreeKey first() {
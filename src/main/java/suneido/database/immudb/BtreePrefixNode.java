@@ -0,0 +1,289 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.primitives.UnsignedInts;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * A {@link BtreeDbNode} stored with the prefix common to all its keys
+ * removed from the individual keys.
+ * e.g. composite keys with the same leading fields
+ * or string keys with the same leading characters.
+ * <p>
+ * Stored as:
+ * the mode byte 'p' (normal nodes are records starting with 'c', 's', or 'l'),
+ * a flags byte,
+ * a record of the prefix fields (the last of which is partial if PARTIAL)
+ * and then a normal node record of the keys with the prefix removed.
+ * If FIRST_RAW, the first key is stored as is, without removing the prefix.
+ * This is used for the minimal (empty) first key in tree nodes.
+ * <p>
+ * Searching compares in place, without reconstructing the keys.
+ * Stored nodes are only written by {@link BtreeMemNode}.store,
+ * and only if it makes the node smaller.
+ */
+class BtreePrefixNode extends BtreeDbNode {
+	/** set by Dbpkg.setOption("compress_nodes") */
+	static boolean enabled = false;
+	static final byte MODE = 'p';
+	private static final int FIRST_RAW = 1;
+	private static final int PARTIAL = 2;
+	private static final int HEADER_SIZE = 2;
+	private final boolean firstRaw;
+	private final boolean partial;
+	/** the common leading fields, the last one is partial if partial */
+	private final BufRecord prefix;
+	/** the number of full fields in prefix */
+	private final int nfull;
+
+	BtreePrefixNode(int level, ByteBuffer buf, int adr) {
+		super(level, keys(buf, adr));
+		int flags = buf.get(1);
+		firstRaw = (flags & FIRST_RAW) != 0;
+		partial = (flags & PARTIAL) != 0;
+		prefix = new BufRecord(buf, HEADER_SIZE);
+		nfull = prefix.size() - (partial ? 1 : 0);
+	}
+
+	private static BufRecord keys(ByteBuffer buf, int adr) {
+		int prefixSize = new BufRecord(buf, HEADER_SIZE).packSize();
+		return Record.from(adr, buf, HEADER_SIZE + prefixSize);
+	}
+
+	static boolean isPrefixNode(ByteBuffer buf) {
+		return buf.get(0) == MODE;
+	}
+
+	private boolean raw(int i) {
+		return i == 0 && firstRaw;
+	}
+
+	// read --------------------------------------------------------------------
+
+	@Override
+	BtreeKey get(int i) {
+		Record key = key(i);
+		return isLeaf()
+				? new BtreeKey(key, adr(i))
+				: new BtreeTreeKey(key, adr(i), childAddress(i), ref(i));
+	}
+
+	/** @return The reconstructed record part of the i'th key */
+	private Record key(int i) {
+		BufRecord rest = new BufRecord(rec.fieldBuffer(i), keyPos(i));
+		if (raw(i))
+			return rest;
+		RecordBuilder rb = new RecordBuilder().addPrefix(prefix, nfull);
+		int r = 0;
+		if (partial) {
+			int plen = prefix.fieldLength(nfull);
+			int rlen = rest.fieldLength(0);
+			ByteBuffer field = ByteBuffer.allocate(plen + rlen);
+			copy(prefix.fieldBuffer(nfull), prefix.fieldOffset(nfull), plen, field);
+			copy(rest.fieldBuffer(0), rest.fieldOffset(0), rlen, field);
+			field.flip();
+			rb.add(field);
+			r = 1;
+		}
+		for (; r < rest.size(); ++r)
+			rb.add(rest, r);
+		return rb.bufRec();
+	}
+
+	private static void copy(ByteBuffer src, int off, int len, ByteBuffer dst) {
+		for (int i = 0; i < len; ++i)
+			dst.put(src.get(off + i));
+	}
+
+	@Override
+	int compare(int i, BtreeKey key) {
+		int cmp = compareKey(i, key.key);
+		return (cmp != 0) ? cmp : UnsignedInts.compare(adr(i), key.dataAdr);
+	}
+
+	@Override
+	boolean keyEquals(int i, Record key) {
+		return 0 == compareKey(i, key);
+	}
+
+	/** Same as Record.compareTo for the reconstructed key, but in place */
+	private int compareKey(int i, Record key) {
+		ByteBuffer buf = rec.fieldBuffer(i);
+		int pos = keyPos(i);
+		if (raw(i))
+			return BufRecord.compare(buf, pos, key);
+		int n1 = nfull + BufRecord.size(buf, pos);
+		int n2 = key.size();
+		int n = Math.min(n1, n2);
+		for (int j = 0; j < n; ++j) {
+			int cmp;
+			if (j < nfull)
+				cmp = Record.compare1(
+						prefix.fieldBuffer(j), prefix.fieldOffset(j), prefix.fieldLength(j),
+						key.fieldBuffer(j), key.fieldOffset(j), key.fieldLength(j));
+			else {
+				int r = j - nfull;
+				int off = BufRecord.fieldOffset(buf, pos, r);
+				int len = BufRecord.fieldOffset(buf, pos, r - 1) - off;
+				cmp = (r == 0 && partial)
+						? compare2(prefix.fieldBuffer(nfull), prefix.fieldOffset(nfull),
+								prefix.fieldLength(nfull), buf, off, len,
+								key.fieldBuffer(j), key.fieldOffset(j), key.fieldLength(j))
+						: Record.compare1(buf, off, len,
+								key.fieldBuffer(j), key.fieldOffset(j), key.fieldLength(j));
+			}
+			if (cmp != 0)
+				return cmp;
+		}
+		return n1 - n2;
+	}
+
+	/** compare the concatenation of a and b to k */
+	private static int compare2(ByteBuffer abuf, int aoff, int alen,
+			ByteBuffer bbuf, int boff, int blen,
+			ByteBuffer kbuf, int koff, int klen) {
+		int cmp = Record.compare1(abuf, aoff, alen,
+				kbuf, koff, Math.min(alen, klen));
+		if (cmp != 0)
+			return cmp;
+		return Record.compare1(bbuf, boff, blen, kbuf, koff + alen, klen - alen);
+	}
+
+	/** the length of the reconstructed key, as packed by get(i).pack */
+	@Override
+	int keyLength(int i) {
+		if (raw(i))
+			return super.keyLength(i);
+		int pos = keyPos(i);
+		BufRecord rest = new BufRecord(rec.fieldBuffer(i), pos);
+		int nfields = nfull + rest.size();
+		int datasize = prefix.dataSize() + rest.dataSize();
+		return (pos - rec.fieldOffset(i)) + ArrayRecord.length(nfields, datasize);
+	}
+
+	@Override
+	void packKey(ByteBuffer dst, int i) {
+		if (raw(i))
+			super.packKey(dst, i);
+		else
+			get(i).pack(dst);
+	}
+
+	@Override
+	String printName() {
+		return "PrefixNode @ " + address();
+	}
+
+	// store -------------------------------------------------------------------
+
+	/**
+	 * Store the node with the common prefix removed from the keys
+	 * @param length The size of the node in the normal format
+	 * @return The address of the stored node,
+	 * or 0 if it would not be smaller than the normal format.
+	 */
+	static int store(Storage stor, BtreeNode node, int length) {
+		int n = node.size();
+		if (n < 2)
+			return 0;
+		List<BtreeKey> keys = new ArrayList<>(n);
+		for (int i = 0; i < n; ++i)
+			keys.add(node.get(i));
+		int first = keys.get(0).key.isEmpty() ? 1 : 0;
+		Record ref = keys.get(first).key;
+		int nfull = ref.size();
+		for (int i = first + 1; i < n; ++i)
+			nfull = commonFields(ref, keys.get(i).key, nfull);
+		boolean allLonger = true;
+		for (int i = first; i < n; ++i)
+			allLonger = allLonger && keys.get(i).key.size() > nfull;
+		int pbytes = 0;
+		if (allLonger) {
+			pbytes = ref.fieldLength(nfull);
+			for (int i = first + 1; i < n && pbytes > 0; ++i)
+				pbytes = commonBytes(ref, keys.get(i).key, nfull, pbytes);
+		}
+		if (nfull == 0 && pbytes == 0)
+			return 0;
+
+		RecordBuilder rb = new RecordBuilder().addPrefix(ref, nfull);
+		if (pbytes > 0)
+			rb.add(ref.fieldBuffer(nfull), ref.fieldOffset(nfull), pbytes);
+		BufRecord prefix = rb.bufRec();
+		List<BtreeKey> rest = new ArrayList<>(n);
+		TIntArrayList lens = new TIntArrayList(n);
+		int datasize = 0;
+		for (int i = 0; i < n; ++i) {
+			BtreeKey key = keys.get(i);
+			if (i >= first)
+				key = withoutPrefix(key, nfull, pbytes);
+			rest.add(key);
+			lens.add(key.packSize());
+			datasize += key.packSize();
+		}
+		int keysLength = ArrayRecord.length(n, datasize);
+		if (HEADER_SIZE + prefix.packSize() + keysLength >= length)
+			return 0;
+
+		int adr = stor.alloc(HEADER_SIZE + prefix.packSize() + keysLength);
+		ByteBuffer buf = stor.buffer(adr);
+		buf.put(MODE);
+		buf.put((byte) ((first == 1 ? FIRST_RAW : 0) | (pbytes > 0 ? PARTIAL : 0)));
+		prefix.pack(buf);
+		ArrayRecord.packHeader(buf, keysLength, lens);
+		for (int i = n - 1; i >= 0; --i)
+			rest.get(i).pack(buf);
+		return adr;
+	}
+
+	/** @return The number of leading fields (up to max) that are equal */
+	private static int commonFields(Record x, Record y, int max) {
+		int n = Math.min(max, Math.min(x.size(), y.size()));
+		for (int i = 0; i < n; ++i)
+			if (0 != Record.compare1(
+					x.fieldBuffer(i), x.fieldOffset(i), x.fieldLength(i),
+					y.fieldBuffer(i), y.fieldOffset(i), y.fieldLength(i)))
+				return i;
+		return n;
+	}
+
+	/** @return The number of leading bytes (up to max) of field f that are equal */
+	private static int commonBytes(Record x, Record y, int f, int max) {
+		int n = Math.min(max, y.fieldLength(f));
+		ByteBuffer xbuf = x.fieldBuffer(f);
+		int xoff = x.fieldOffset(f);
+		ByteBuffer ybuf = y.fieldBuffer(f);
+		int yoff = y.fieldOffset(f);
+		for (int i = 0; i < n; ++i)
+			if (xbuf.get(xoff + i) != ybuf.get(yoff + i))
+				return i;
+		return n;
+	}
+
+	private static BtreeKey withoutPrefix(BtreeKey key, int nfull, int pbytes) {
+		Record rec = key.key;
+		RecordBuilder rb = new RecordBuilder();
+		int f = nfull;
+		if (pbytes > 0) {
+			rb.add(rec.fieldBuffer(f), rec.fieldOffset(f) + pbytes,
+					rec.fieldLength(f) - pbytes);
+			++f;
+		}
+		for (; f < rec.size(); ++f)
+			rb.add(rec, f);
+		BufRecord rest = rb.bufRec();
+		return (key instanceof BtreeTreeKey)
+				? new BtreeTreeKey(rest, key.dataAdr,
+						((BtreeTreeKey) key).childAddress())
+				: new BtreeKey(rest, key.dataAdr);
+	}
+
+}
@@ -49,6 +49,10 @@ class BufRecord extends Record {
 
 	@Override
 	public int size() {
+		return size(buf, bufpos);
+	}
+
+	static int size(ByteBuffer buf, int bufpos) {
 		int si = bufpos + Offset.NFIELDS;
 		return (buf.get(si) & 0xff) + ((buf.get(si + 1) & 0xff) << 8);
 	}
@@ -65,9 +69,13 @@ class BufRecord extends Record {
 
 	@Override
 	public int fieldOffset(int i) {
+		return fieldOffset(buf, bufpos, i);
+	}
+
+	static int fieldOffset(ByteBuffer buf, int bufpos, int i) {
 		assert i >= -1;
 		// to match cSuneido use little endian (least significant first)
-		switch (mode()) {
+		switch (buf.get(bufpos + Offset.MODE)) {
 		case Mode.BYTE:
 			return bufpos + (buf.get(bufpos + Offset.BODY + i + 1) & 0xff);
 		case Mode.SHORT:
@@ -80,8 +88,29 @@ class BufRecord extends Record {
 			 		((buf.get(ii + 2) & 0xff) << 16) |
 			 		((buf.get(ii + 3) & 0xff) << 24));
 		default:
-			throw new Error("invalid record type: " + mode());
+			throw new Error("invalid record type: " + buf.get(bufpos + Offset.MODE));
+		}
+	}
+
+	/**
+	 * Compare the record at bufpos in buf to another record
+	 * without creating a BufRecord, the same as Record.compareTo
+	 * Used to search BtreeDbNode's without allocation.
+	 */
+	static int compare(ByteBuffer buf, int bufpos, Record that) {
+		int len1 = size(buf, bufpos);
+		int len2 = that.size();
+		int n = Math.min(len1, len2);
+		int end = fieldOffset(buf, bufpos, -1);
+		for (int i = 0; i < n; ++i) {
+			int off = fieldOffset(buf, bufpos, i);
+			int cmp = compare1(buf, off, end - off,
+					that.fieldBuffer(i), that.fieldOffset(i), that.fieldLength(i));
+			if (cmp != 0)
+				return cmp;
+			end = off;
 		}
+		return len1 - len2;
 	}
 
 	/** Number of bytes e.g. for storing */
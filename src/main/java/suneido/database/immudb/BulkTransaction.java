@@ -21,6 +21,7 @@ import suneido.util.ThreadConfined;
 @ThreadConfined
 class BulkTransaction extends ReadWriteTransaction {
 	private boolean storeStarted = false;
+	/** while not null we hold the database persist lock */
 	private Persist persist = null;
 
 	BulkTransaction(int num, Database db) {
@@ -68,9 +69,33 @@ class BulkTransaction extends ReadWriteTransaction {
 	void saveBtrees() {
 		ensurePersist();
 		freezeBtrees();
+		storeBtrees();
+	}
+
+	/**
+	 * Used by DbLoad createIndex.
+	 * The nodes are stored directly into the index file
+	 * as part of this transaction's persist.
+	 */
+	BtreeBuilder btreeBuilder() {
+		ensurePersist();
+		return new BtreeBuilder(db.istor);
+	}
+
+	/** Persist a btree from btreeBuilder, replacing the existing index */
+	void saveBtree(Index index, BtreeInfo info) {
+		ensurePersist();
+		freezeBtrees();
+		indexes.put(index, new Btree(tran, info)); // already frozen
+		storeBtrees();
+	}
+
+	private void storeBtrees() {
 		updateDbInfo(indexes);
 		dbinfo = persist.storeBtrees(dbinfo);
-		tidelta.clear();
+		// only the tables with indexes saved have had their deltas applied
+		for (Index index : indexes.keySet())
+			tidelta.remove(index.tblnum);
 		indexes.clear();
 		indexedData.clear();
 	}
@@ -78,6 +103,7 @@ class BulkTransaction extends ReadWriteTransaction {
 	private void ensurePersist() {
 		if (persist != null)
 			return;
+		db.persistLock(); // so a concurrent Persist doesn't write to istor
 		persist = new Persist(dbinfo, db.istor);
 		persist.startStore();
 	}
@@ -103,6 +129,7 @@ class BulkTransaction extends ReadWriteTransaction {
 		Tran.StoreInfo info = endDataStore();
 		persist.finish(db, schema, info.cksum, info.adr);
 		trans.commit(this);
+		releasePersist();
 	}
 
 	private Tran.StoreInfo endDataStore() {
@@ -117,11 +144,18 @@ class BulkTransaction extends ReadWriteTransaction {
 			UpdateTransaction.endCommit(tran.dstor); // so dump works
 			tran.abortIncompleteStore();
 		}
-		if (persist != null)
+		if (persist != null) {
 			persist.abort(db.state);
+			releasePersist();
+		}
 		super.abort();
 	}
 
+	private void releasePersist() {
+		persist = null;
+		db.persistUnlock();
+	}
+
 	@Override
 	public String toString() {
 		return "bt" + num;
@@ -6,11 +6,13 @@ package suneido.database.immudb;
 
 import java.nio.ByteBuffer;
 import java.util.Date;
+import java.util.function.IntPredicate;
 
 import suneido.util.Immutable;
 
 import com.google.common.base.MoreObjects;
 
+import suneido.database.immudb.Dbpkg.Observer;
 import suneido.util.Errlog;
 
 /**
@@ -33,6 +35,7 @@ class Check {
 	private StorageIter iIter;
 	private long dOkSize = 0;
 	private long iOkSize = 0;
+	private Observer ob = Dbpkg.nullObserver;
 
 	/**
 	 * Used when opening a database to quickly check it,
@@ -57,14 +60,26 @@ class Check {
 		return this;
 	}
 
+	/** Used by fullcheck to report progress and throughput */
+	Check observer(Observer ob) {
+		this.ob = ob;
+		return this;
+	}
+
 	/**
 	 * Checks entire database. Used by DbCheck and DbRebuild.
 	 * Verifies checksums and confirms that they match between data and index files.
+	 * The checksums are verified in parallel by {@link ParallelChecksums}
 	 * @return true if the entire database appears valid
 	 */
 	boolean fullcheck() {
 		try {
-			return checkFrom(Storage.FIRST_ADR, Storage.FIRST_ADR);
+			ParallelChecksums dChecksums = ParallelChecksums.verify(dstor,
+					Storage.FIRST_ADR, dUpTo, "dbd", ob);
+			ParallelChecksums iChecksums = ParallelChecksums.verify(istor,
+					Storage.FIRST_ADR, iUpTo, "dbi", ob);
+			return checkFrom(Storage.FIRST_ADR, Storage.FIRST_ADR,
+					dChecksums::ok, iChecksums::ok);
 		} catch (Throwable e) {
 			Errlog.error("fullcheck", e);
 			return false;
@@ -74,8 +89,8 @@ class Check {
 	/** check the last FAST_NPERSISTS persists */
 	boolean fastcheck() {
 		try {
-			if (0 != (dstor.sizeFrom(0) % Storage.ALIGN) ||
-					0 != (istor.sizeFrom(0) % Storage.ALIGN))
+			if (0 != (dstor.sizeFrom(0) % dstor.ALIGN) ||
+					0 != (istor.sizeFrom(0) % istor.ALIGN))
 				return false;
 			int adr = findLast(FAST_NPERSISTS);
 			return (adr != CORRUPT) && ((adr == EMPTY) || checkFrom(lastadr, adr));
@@ -93,13 +108,13 @@ class Check {
 			adr = iter.prev();
 		if (adr == 0)
 			return EMPTY;
-		long size = Storage.intToSize(istor.buffer(adr).getInt());
+		long size = istor.intToSize(istor.buffer(adr).getInt());
 		lastadr = info(istor, adr, size).lastadr;
 		return adr;
 	}
 
 	static PersistInfo info(Storage istor, int adr, long size) {
-		adr = istor.advance(adr, size - Persist.ENDING_SIZE - Persist.TAIL_SIZE);
+		adr = istor.advance(adr, size - Persist.endingSize(istor));
 		ByteBuffer buf = istor.buffer(adr);
 		int dbinfoadr = buf.getInt();
 		int maxtblnum = buf.getInt();
@@ -124,9 +139,9 @@ class Check {
 		@Override
 		public String toString() {
 			return MoreObjects.toStringHelper(this)
-					.add("dbinfoadr", Storage.adrToOffset(dbinfoadr))
+					.add("dbinfoadr", dbinfoadr)
 					.add("maxtblnum", maxtblnum)
-					.add("lastadr", Storage.adrToOffset(lastadr))
+					.add("lastadr", lastadr)
 					.add("lastcksum", Integer.toHexString(lastcksum))
 					.toString();
 		}
@@ -137,8 +152,18 @@ class Check {
 	 * @return true if no problems found
 	 */
 	private boolean checkFrom(int dAdr, int iAdr) {
-		dIter = new StorageIter(dstor, dAdr).upTo(dUpTo).checkType();
-		iIter = new StorageIter(istor, iAdr).upTo(iUpTo);
+		return checkFrom(dAdr, iAdr, null, null);
+	}
+
+	/**
+	 * @param dChecksumOk If not null, used instead of verifying dstor checksums
+	 * @param iChecksumOk If not null, used instead of verifying istor checksums
+	 */
+	private boolean checkFrom(int dAdr, int iAdr,
+			IntPredicate dChecksumOk, IntPredicate iChecksumOk) {
+		dIter = new StorageIter(dstor, dAdr, dChecksumOk)
+				.upTo(dUpTo).checkType().readAhead();
+		iIter = new StorageIter(istor, iAdr, iChecksumOk).upTo(iUpTo).readAhead();
 		PersistInfo iInfo = null;
 		while (dIter.notFinished() && iIter.notFinished()) {
 			if (iInfo == null)
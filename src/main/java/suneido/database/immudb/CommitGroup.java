@@ -0,0 +1,205 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import suneido.util.Errlog;
+import suneido.util.ThreadSafe;
+
+/**
+ * Group commit for {@link UpdateTransaction}.
+ * <p>
+ * Committing transactions are queued, then whichever thread gets the
+ * commit lock next commits all the queued transactions together
+ * as a single data store commit,
+ * i.e. one Tran head and tail (checksum) and one Database.State update.
+ * Threads whose transaction was taken by another thread
+ * wait for it to be marked done.
+ * Every member that is taken is marked done, even if the group fails.
+ * <p>
+ * Each transaction is still validated individually,
+ * against the overlapping transactions
+ * and against the earlier members of the group,
+ * so conflicts are the same as with serial commits.
+ * A transaction that fails validation is simply left out of the group.
+ * If a transaction fails after it has started storing,
+ * the group's commit is aborted and the rest are retried as a new group.
+ * <p>
+ * Only plain update transactions are grouped,
+ * schema and bulk transactions always commit by themselves.
+ */
+@ThreadSafe
+class CommitGroup {
+	/** set by Dbpkg.setOption("group_commit") */
+	static boolean enabled = false;
+	private final Database db;
+	private final ConcurrentLinkedQueue<Member> queue =
+			new ConcurrentLinkedQueue<>();
+	/** only updated while holding the commit lock */
+	private long ngroups = 0;
+	private long ntrans = 0;
+
+	CommitGroup(Database db) {
+		this.db = db;
+	}
+
+	/** Called by UpdateTransaction.commit, throws if the commit failed */
+	void commit(UpdateTransaction t) {
+		Member m = new Member(t);
+		queue.add(m);
+		try {
+			db.withCommitLock(this::run);
+		} catch (RuntimeException e) {
+			// e.g. timed out waiting for the commit lock
+			if (queue.remove(m))
+				throw e; // not committed
+			// else another thread has taken it and is committing it
+		}
+		m.await();
+		if (m.error != null) {
+			Throwables.throwIfUnchecked(m.error);
+			throw new RuntimeException(m.error);
+		}
+	}
+
+	/** Commits everything queued so far. Called holding the commit lock. */
+	private void run() {
+		List<Member> taken = new ArrayList<>();
+		for (Member m; null != (m = queue.poll()); )
+			taken.add(m);
+		Throwable error = null;
+		try {
+			List<Member> group = taken;
+			while (! group.isEmpty())
+				group = commit(group);
+		} catch (Throwable e) {
+			error = e;
+			throw e;
+		} finally {
+			// don't leave any waiting threads hanging
+			for (Member m : taken)
+				if (! m.isDone())
+					m.fail(error != null ? error
+							: new RuntimeException("group commit failed"));
+		}
+	}
+
+	/** @return The members that need to be retried, normally empty */
+	private List<Member> commit(List<Member> group) {
+		Tran tran = null;
+		DbHashTrie dbinfo = db.state.dbinfo;
+		List<UpdateTransaction> stored = new ArrayList<>(group.size());
+		for (int i = 0; i < group.size(); ++i) {
+			Member m = group.get(i);
+			try {
+				m.t.groupCheck(stored);
+			} catch (Throwable e) {
+				m.fail(e);
+				continue;
+			}
+			if (tran == null) {
+				tran = new Tran(db.dstor, db.istor);
+				tran.allowStore();
+				UpdateTransaction.startCommit(db.dstor, 'u');
+			}
+			try {
+				dbinfo = m.t.groupStore(dbinfo);
+			} catch (Throwable e) {
+				m.fail(e);
+				return abort(tran, group, i, stored);
+			}
+			stored.add(m.t);
+		}
+		if (tran != null)
+			finish(tran, dbinfo, group, stored);
+		return new ArrayList<>();
+	}
+
+	private static List<Member> abort(Tran tran, List<Member> group,
+			int failed, List<UpdateTransaction> stored) {
+		UpdateTransaction.endCommit(tran.dstor); // so dump works
+		tran.abortIncompleteStore();
+		group.get(failed).t.groupAbort();
+		for (UpdateTransaction t : stored)
+			t.groupAbort();
+		List<Member> retry = new ArrayList<>();
+		for (Member m : group)
+			if (! m.isDone())
+				retry.add(m);
+		return retry;
+	}
+
+	/**
+	 * This is the final step that makes the commit permanent.
+	 * Like UpdateTransaction.finish, an exception here will be bad.
+	 */
+	private void finish(Tran tran, DbHashTrie dbinfo, List<Member> group,
+			List<UpdateTransaction> stored) {
+		try {
+			UpdateTransaction.endCommit(tran.dstor);
+			Tran.StoreInfo info = tran.endStore();
+			Database.State state = db.state;
+			db.setState(state.dbinfoadr, dbinfo, state.schema,
+					info.cksum, info.adr);
+			for (UpdateTransaction t : stored)
+				t.groupFinish();
+			++ngroups;
+			ntrans += stored.size();
+		} catch (Throwable e) {
+			Errlog.fatal("ERROR in CommitGroup.finish", e);
+		}
+		for (Member m : group)
+			m.succeed();
+	}
+
+	/** @return The number of group commits done */
+	long groupCount() {
+		return ngroups;
+	}
+
+	/** @return The number of transactions committed by group commits */
+	long tranCount() {
+		return ntrans;
+	}
+
+	private static class Member {
+		final UpdateTransaction t;
+		/** counted down (only while holding the commit lock) when done */
+		private final CountDownLatch done = new CountDownLatch(1);
+		/** set before done, so visible after await */
+		Throwable error = null;
+
+		Member(UpdateTransaction t) {
+			this.t = t;
+		}
+
+		boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		void succeed() {
+			done.countDown();
+		}
+
+		void fail(Throwable e) {
+			if (isDone())
+				return;
+			error = e;
+			done.countDown();
+		}
+
+		void await() {
+			Uninterruptibles.awaitUninterruptibly(done);
+		}
+	}
+
+}
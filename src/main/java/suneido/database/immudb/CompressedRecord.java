@@ -0,0 +1,104 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression of data records in the data file
+ * using the JDK Deflater (the same as the Zlib builtin).
+ * <p>
+ * Compressed records are stored (after the table number) as:
+ * the mode byte 'z', a zero byte,
+ * the uncompressed size and the compressed size (int's),
+ * followed by the compressed data.
+ * Since the normal record modes are 'c', 's', and 'l'
+ * compressed and uncompressed records can be mixed,
+ * so compression can be turned on or off for an existing database
+ * and records are always decompressed as required.
+ * <p>
+ * Only records of at least MIN_SIZE are compressed,
+ * and only if it saves at least 1/8 of the size.
+ * Keys are not compressed since they are stored in the btree nodes.
+ */
+class CompressedRecord {
+	/** set by Dbpkg.setOption("compress_records") */
+	static boolean enabled = false;
+	static final byte MODE = 'z';
+	static final int HEADER_SIZE = 2 + 2 * Integer.BYTES;
+	static final int MIN_SIZE = 256;
+	private static final ThreadLocal<Deflater> deflater =
+			ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+	private static final ThreadLocal<Inflater> inflater =
+			ThreadLocal.withInitial(Inflater::new);
+
+	/**
+	 * @return The compressed form of the record (including the header)
+	 * or null if it should be stored uncompressed.
+	 */
+	static byte[] compress(Record rec) {
+		int size = rec.bufSize();
+		if (! enabled || size < MIN_SIZE)
+			return null;
+		byte[] data = new byte[size];
+		rec.pack(ByteBuffer.wrap(data));
+		Deflater d = deflater.get();
+		d.reset();
+		d.setInput(data);
+		d.finish();
+		int limit = size - size / 8;
+		byte[] zip = new byte[limit];
+		int n = HEADER_SIZE;
+		while (! d.finished() && n < limit)
+			n += d.deflate(zip, n, limit - n);
+		if (! d.finished())
+			return null; // not worth it
+		ByteBuffer.wrap(zip).put(MODE).put((byte) 0)
+				.putInt(size).putInt(n - HEADER_SIZE);
+		return n == zip.length ? zip : Arrays.copyOf(zip, n);
+	}
+
+	static boolean isCompressed(ByteBuffer buf, int pos) {
+		return buf.get(pos) == MODE;
+	}
+
+	/** @return The stored size, not including the table number */
+	static int storedSize(ByteBuffer buf, int pos) {
+		return HEADER_SIZE + buf.getInt(pos + 2 + Integer.BYTES);
+	}
+
+	/** @return A heap buffer containing the uncompressed record */
+	static ByteBuffer decompress(ByteBuffer buf, int pos) {
+		int size = buf.getInt(pos + 2);
+		int zipSize = buf.getInt(pos + 2 + Integer.BYTES);
+		byte[] zip = new byte[zipSize];
+		ByteBuffer src = buf.duplicate();
+		src.position(pos + HEADER_SIZE);
+		src.get(zip);
+		byte[] data = new byte[size];
+		Inflater inf = inflater.get();
+		inf.reset();
+		inf.setInput(zip);
+		try {
+			int n = 0;
+			while (n < size && ! inf.finished()) {
+				int nr = inf.inflate(data, n, size - n);
+				if (nr == 0 && (inf.needsInput() || inf.needsDictionary()))
+					break;
+				n += nr;
+			}
+			if (n != size)
+				throw new RuntimeException("compressed record size mismatch");
+		} catch (DataFormatException e) {
+			throw new RuntimeException("bad compressed record", e);
+		}
+		return ByteBuffer.wrap(data);
+	}
+
+}
@@ -17,19 +17,29 @@ class DataRecord extends BufRecord {
 	private static final int TBLNUM_SIZE = Short.BYTES;
 	private int address;
 	private int tblnum;
+	/** the stored size (without tblnum) if compressed, otherwise 0 */
+	private int zipSize = 0;
 
 	DataRecord(ByteBuffer buf) {
 		super(buf);
 	}
 
+	/**
+	 * From the stored form, which may be compressed.
+	 * bufpos is after the table number.
+	 */
 	DataRecord(ByteBuffer buf, int bufpos) {
-		super(buf, bufpos);
+		super(CompressedRecord.isCompressed(buf, bufpos)
+				? CompressedRecord.decompress(buf, bufpos) : buf,
+				CompressedRecord.isCompressed(buf, bufpos) ? 0 : bufpos);
+		tblnum = buf.getShort(bufpos - TBLNUM_SIZE);
+		if (CompressedRecord.isCompressed(buf, bufpos))
+			zipSize = CompressedRecord.storedSize(buf, bufpos);
 	}
 
 	DataRecord(Storage stor, int address) {
-		super(stor.bufferBase(address), stor.bufferPos(address) + TBLNUM_SIZE);
+		this(stor.bufferBase(address), stor.bufferPos(address) + TBLNUM_SIZE);
 		this.address = address;
-		tblnum = buf.getShort(bufpos - TBLNUM_SIZE);
 	}
 
 	DataRecord(int address, ByteBuffer buf, int bufpos) {
@@ -39,15 +49,21 @@ class DataRecord extends BufRecord {
 
 	int store(Storage stor) {
 		assert 1 <= tblnum && tblnum < Short.MAX_VALUE : "invalid tblnum " + tblnum;
+		byte[] zip = CompressedRecord.compress(this);
+		zipSize = (zip == null) ? 0 : zip.length;
 		address = stor.alloc(storSize());
 		ByteBuffer buf = stor.buffer(address);
 		buf.putShort((short) tblnum);
-		pack(buf);
+		if (zip == null)
+			pack(buf);
+		else
+			buf.put(zip);
 		return address;
 	}
 
+	/** @return The size in storage, which may be compressed */
 	int storSize() {
-		return TBLNUM_SIZE + bufSize();
+		return TBLNUM_SIZE + (zipSize != 0 ? zipSize : bufSize());
 	}
 
 	@Override
@@ -64,6 +80,14 @@ class DataRecord extends BufRecord {
 		this.address = address;
 	}
 
+	/** @return A new DataRecord sharing the same buffer, used by RecordCache */
+	DataRecord copy() {
+		DataRecord r = new DataRecord(address, buf, bufpos);
+		r.tblnum = tblnum;
+		r.zipSize = zipSize;
+		return r;
+	}
+
 	int tblnum() {
 		return tblnum;
 	}
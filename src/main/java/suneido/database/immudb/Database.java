@@ -27,15 +27,31 @@ import suneido.util.ThreadSafe;
 @ThreadSafe
 public class Database implements AutoCloseable {
 	final Transactions trans = new Transactions();
+	final CommitGroup commitGroup = new CommitGroup(this);
 	final String filename;
 	final Storage dstor;
 	final Storage istor;
 	private final Triggers triggers = new Triggers();
 	private final ReentrantLock commit_lock = new ReentrantLock();
+	/**
+	 * Serializes writes to istor by Persist and BulkTransaction.
+	 * Must be acquired before the commit lock, never after.
+	 */
+	private final ReentrantLock persist_lock = new ReentrantLock();
+	final PersistStats persistStats = new PersistStats();
+	final RecordCache records;
+	final IndexStatsCache indexStats = new IndexStatsCache();
 	/** only updated when holding commitLock */
 	volatile State state;
+	/** only accessed when holding persist_lock */
 	private State lastPersistState;
 	private boolean corrupt = false;
+	/** set if this is a read-only {@link Replica}, prevents writes */
+	private volatile Replica replica = null;
+	/** set by {@link OnlineCompact}, prevents schema changes and bulk loads */
+	private volatile boolean compacting = false;
+	/** set by {@link OnlineCompact} when it switches to the compacted database */
+	private volatile boolean replaced = false;
 	private enum Ck { CHECK, NOCHECK }
 
 	private volatile boolean closed = false;
@@ -45,6 +61,7 @@ public class Database implements AutoCloseable {
 	static Database create(String dbfilename) {
 		FileUtils.deleteIfExisting(dbfilename + "d");
 		FileUtils.deleteIfExisting(dbfilename + "i");
+		FileUtils.deleteIfExisting(dbfilename + "t");
 		return create(dbfilename,
 				new MmapFile(dbfilename + "d", "rw"),
 				new MmapFile(dbfilename + "i", "rw"));
@@ -63,6 +80,7 @@ public class Database implements AutoCloseable {
 		this.filename = filename;
 		this.dstor = dstor;
 		this.istor = istor;
+		records = new RecordCache(dstor);
 		state = lastPersistState = new State(0, dbinfo, schema, 0, 0);
 	}
 
@@ -126,7 +144,8 @@ public class Database implements AutoCloseable {
 	private static boolean fullCheck(Storage dstor, Storage istor) {
 		Errlog.warn("full check required - database not shut down properly?");
 		HttpServerMonitor.checking();
-		boolean ok = new Check(dstor, istor).fullcheck();
+		boolean ok = new Check(dstor, istor)
+				.observer(msg -> Errlog.info(msg.trim())).fullcheck();
 		//BUG: if check fails, then rebuild will do another redundant check
 		HttpServerMonitor.starting();
 		return ok;
@@ -141,15 +160,39 @@ public class Database implements AutoCloseable {
 	}
 
 	private Database(String filename, Storage dstor, Storage istor) {
+		this(filename, dstor, istor,
+				Persist.dbinfoadr(istor), Persist.maxTblnum(istor), 0, 0);
+	}
+
+	/** Used by {@link Replica} to open at a specific persist */
+	Database(String filename, Storage dstor, Storage istor,
+			int dbinfoadr, int maxTblnum, int lastcksum, int lastadr) {
 		this.filename = filename;
 		this.dstor = dstor;
 		this.istor = istor;
-		int dbinfoadr = Persist.dbinfoadr(istor);
-		int maxTblnum = Persist.maxTblnum(istor);
+		records = new RecordCache(dstor);
+		state = lastPersistState =
+				load(dbinfoadr, maxTblnum, lastcksum, lastadr);
+		if (! filename.equals(""))
+			indexStats.load(this, filename + "t");
+	}
+
+	/**
+	 * Used by {@link Replica} to switch to a newer persist.
+	 * Called holding the commit lock.
+	 */
+	void loadPersist(int dbinfoadr, int maxTblnum, int lastcksum, int lastadr) {
+		state = lastPersistState =
+				load(dbinfoadr, maxTblnum, lastcksum, lastadr);
+	}
+
+	private State load(int dbinfoadr, int maxTblnum, int lastcksum, int lastadr) {
 		DbHashTrie dbinfo = DbHashTrie.load(istor, dbinfoadr, new DbinfoLoader(istor));
-		state = new State(0, dbinfo, null, 0, 0); // enough to load schema
-		Tables schema = SchemaLoader.load(readTransaction(), maxTblnum);
-		state = lastPersistState = new State(dbinfoadr, dbinfo, schema, 0, 0);
+		// enough to load schema
+		State s = new State(0, dbinfo, null, 0, 0);
+		Tables schema = SchemaLoader.load(
+				new ReadTransaction(trans.nextNum(true), this, s), maxTblnum);
+		return new State(dbinfoadr, dbinfo, schema, lastcksum, lastadr);
 	}
 
 	static class DbinfoLoader implements DbHashTrie.Translator {
@@ -182,12 +225,13 @@ public class Database implements AutoCloseable {
 	}
 
 	public String check() {
+		checkWritable();
 		UpTo upto = new UpTo();
-		withCommitLock(() -> {
+		withPersistLock(() -> withCommitLock(() -> {
 			persist();
 			upto.d = dstor.upTo();
 			upto.i = istor.upTo();
-		});
+		}));
 		StringObserver so = new StringObserver();
 		Status status = DbCheck.check(filename, this, upto.d, upto.i, so);
 		if (status != Status.OK) {
@@ -203,19 +247,32 @@ public class Database implements AutoCloseable {
 	}
 
 	public ReadTransaction readTransaction() {
+		checkNotReplaced();
 		int num = trans.nextNum(true);
 		return new ReadTransaction(num, this);
 	}
 
 	public UpdateTransaction updateTransaction() {
+		checkWritable();
 		int num = trans.nextNum(false);
 		return new UpdateTransaction(num, this);
 	}
 
+	/**
+	 * Only holds the commit lock briefly at the end, see {@link Persist}
+	 */
 	void persist() {
-		if (state == lastPersistState)
-			return;
-		Persist.persist(this);
+		if (replica != null)
+			return; // the primary persists
+		withPersistLock(() -> {
+			if (state != lastPersistState)
+				Persist.persist(this);
+		});
+	}
+
+	/** used by HttpServerMonitor, empty if no persists yet */
+	public String persistStats() {
+		return persistStats.count() == 0 ? "" : persistStats.toString();
 	}
 
 	// called by Persist when it's finished
@@ -224,14 +281,87 @@ public class Database implements AutoCloseable {
 	}
 
 	SchemaTransaction schemaTransaction() {
+		checkWritable();
 		int num = trans.nextNum(false);
-		return new SchemaTransaction(num, this);
+		return checkNotCompacting(new SchemaTransaction(num, this));
 	}
 
 	BulkTransaction bulkTransaction() {
+		checkWritable();
 		persist();
 		int num = trans.nextNum(false);
-		return new BulkTransaction(num, this);
+		return checkNotCompacting(new BulkTransaction(num, this));
+	}
+
+	// online compact ----------------------------------------------------------
+
+	/**
+	 * Checks after the transaction is added (the reverse of startCompacting)
+	 * so a concurrent compact will see one or the other.
+	 */
+	private <T extends ReadWriteTransaction> T checkNotCompacting(T t) {
+		if (compacting) {
+			t.abort();
+			throw new SuException(
+					"can't change schema or load while compacting");
+		}
+		return t;
+	}
+
+	/** Called by OnlineCompact, only one compact runs at a time */
+	void startCompacting() {
+		compacting = true;
+		if (trans.hasSchemaOrBulk()) {
+			compacting = false;
+			throw new SuException(
+					"can't compact while schema changes or loads are in progress");
+		}
+	}
+
+	void endCompacting() {
+		compacting = false;
+	}
+
+	/**
+	 * Called by OnlineCompact, holding the commit lock,
+	 * when it has switched to the compacted database.
+	 * After this, transactions can no longer start or commit.
+	 */
+	void setReplaced() {
+		replaced = true;
+	}
+
+	void checkNotReplaced() {
+		if (replaced)
+			throw new SuException("database was replaced by online compact");
+	}
+
+	/** @return true if there are no active transactions */
+	boolean isIdle() {
+		return trans.isEmpty();
+	}
+
+	// replica -----------------------------------------------------------------
+
+	void setReplica(Replica replica) {
+		this.replica = replica;
+	}
+
+	private void checkWritable() {
+		if (replica != null)
+			throw new SuException("can't update a read-only replica database");
+		checkNotReplaced();
+	}
+
+	/**
+	 * For a replica, catch up with the primary.
+	 * Should be called periodically.
+	 */
+	public void pollReplica() {
+		if (replica != null) {
+			replica.poll();
+			indexStats.update(this);
+		}
 	}
 
 	// schema updates ----------------------------------------------------------
@@ -312,14 +442,15 @@ public class Database implements AutoCloseable {
 		if (closed)
 			return;
 		closed = true;
+		saveIndexStats();
 		long[] size = new long[1];
-		withCommitLock(() -> {
+		withPersistLock(() -> withCommitLock(() -> {
 			persist();
 			size[0] = dstor.sizeFrom(0);
 			dstor.close();
 			istor.close();
-		});
-		if (! corrupt && ! filename.equals(""))
+		}));
+		if (! corrupt && ! filename.equals("") && replica == null)
 			DbGood.create(filename + "c", size[0]);
 	}
 
@@ -327,6 +458,20 @@ public class Database implements AutoCloseable {
 		return dstor.sizeFrom(0) + istor.sizeFrom(0);
 	}
 
+	/** @return The total number of rows, used to report load throughput */
+	public long nrows() {
+		ReadTransaction t = readTransaction();
+		try {
+			long n = 0;
+			for (int tblnum = 1; tblnum < t.nextTableNum(); ++tblnum)
+				if (t.getTable(tblnum) != null)
+					n += t.tableCount(tblnum);
+			return n;
+		} finally {
+			t.complete();
+		}
+	}
+
 	public String getSchema(String tableName) {
 		ReadTransaction t = readTransaction();
 		try {
@@ -355,6 +500,13 @@ public class Database implements AutoCloseable {
 		dstor.force();
 		persist();
 		istor.force();
+		indexStats.update(this);
+		saveIndexStats();
+	}
+
+	private void saveIndexStats() {
+		if (! corrupt && ! replaced && ! filename.equals("") && replica == null)
+			indexStats.save(this, filename + "t");
 	}
 
 	public void disableTrigger(String table) {
@@ -431,6 +583,27 @@ public class Database implements AutoCloseable {
 		}
 	}
 
+	void withPersistLock(Runnable fn) {
+		persistLock();
+		try {
+			fn.run();
+		} finally {
+			persistUnlock();
+		}
+	}
+
+	/** used by BulkTransaction since it writes to istor */
+	void persistLock() {
+		assert ! commit_lock.isHeldByCurrentThread() ||
+				persist_lock.isHeldByCurrentThread()
+				: "persist lock must be acquired before commit lock";
+		persist_lock.lock();
+	}
+
+	void persistUnlock() {
+		persist_lock.unlock();
+	}
+
 	private void commitLock() {
 		try {
 			if (!commit_lock.tryLock(30, TimeUnit.SECONDS))
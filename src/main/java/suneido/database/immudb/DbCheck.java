@@ -72,7 +72,7 @@ class DbCheck {
 	private Status check(Check check, Database db) {
 		println("checksums...");
 		Status status = Status.CORRUPTED;
-		boolean ok = check.fullcheck();
+		boolean ok = check.observer(ob).fullcheck();
 		last_good_commit = check.lastOkDate();
 		if (ok) {
 			if (check_data_and_indexes(db))
@@ -9,25 +9,29 @@ import java.util.List;
 import suneido.database.query.Request;
 
 class DbCompact {
-	private final Database oldDB;
+	private final ReadTransaction rt;
 	private final Database newDB;
-	private ReadTransaction rt;
 
 	static int compact(Database olddb, Database newdb) {
-		return new DbCompact(olddb, newdb).compact();
+		ReadTransaction rt = olddb.readTransaction();
+		try {
+			return compact(rt, newdb);
+		} finally {
+			rt.complete();
+		}
 	}
 
-	private DbCompact(Database olddb, Database newdb) {
-		this.oldDB = olddb;
-		this.newDB = newdb;
+	/** Copy from a snapshot, used by {@link OnlineCompact} */
+	static int compact(ReadTransaction rt, Database newdb) {
+		return new DbCompact(rt, newdb).copy();
 	}
 
-	private int compact() {
-		return copy();
+	private DbCompact(ReadTransaction rt, Database newdb) {
+		this.rt = rt;
+		this.newDB = newdb;
 	}
 
 	private int copy() {
-		rt = oldDB.readTransaction();
 		copySchema();
 		return copyData() + 1; // + 1 for views
 	}
@@ -9,12 +9,18 @@ import static suneido.util.ByteBuffers.stringToBuffer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 class DbDump {
 
+	static final String FILE_HEADER = "Suneido dump 1.0\n";
+
+	/** Larger databases are dumped in parallel if out is a file */
 	static int dumpDatabase(Database db, WritableByteChannel out) {
+		if (out instanceof FileChannel && ParallelDump.worthwhile(db))
+			return ParallelDump.dumpDatabase(db, (FileChannel) out);
 		ReadTransaction t = db.readTransaction();
 		try {
 			writeFileHeader(out);
@@ -50,7 +56,7 @@ class DbDump {
 	}
 
 	private static void writeFileHeader(WritableByteChannel out) throws IOException {
-		write(out, "Suneido dump 1.0\n");
+		write(out, FILE_HEADER);
 	}
 
 	private static int dump1(WritableByteChannel out, ReadTransaction t, String tablename,
@@ -61,12 +67,16 @@ class DbDump {
 
 	private static void writeTableHeader(WritableByteChannel out, ReadTransaction t,
 			String tablename, boolean outputName) throws IOException {
+		write(out, tableHeader(t, tablename, outputName));
+	}
+
+	static String tableHeader(ReadTransaction t, String tablename,
+			boolean outputName) {
 		String schema = t.ck_getTable(tablename).schema();
 		String header = "====== ";
 		if (outputName)
 			header += tablename + " ";
-		header += schema + "\n";
-		write(out, header);
+		return header + schema + "\n";
 	}
 
 	private static int writeTableData(WritableByteChannel out, ReadTransaction t,
@@ -12,14 +12,21 @@ import static suneido.util.Verify.verify;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import suneido.database.query.Request;
 
 class DbLoad {
 
+	/** Larger dumps are loaded in parallel if in is a file */
 	static int loadDatabase(Database db, ReadableByteChannel in) {
 		try {
+			if (in instanceof FileChannel && ParallelLoad.worthwhile((FileChannel) in))
+				return ParallelLoad.loadDatabase(db, (FileChannel) in);
 			verifyFileHeader(in);
 			String schema;
 			int n = 0;
@@ -76,34 +83,46 @@ class DbLoad {
 	private static int load_data(Database db, ReadableByteChannel in, String tablename)
 			throws IOException {
 		print(tablename);
-		int nrecs = 0;
-		ByteBuffer intbuf = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
-		ByteBuffer recbuf = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
 		BulkTransaction t = db.bulkTransaction();
 		try {
 			Table table = t.getTable(tablename);
-			int first = 0;
-			int last = 0;
-			for (;; ++nrecs) {
-				if (nrecs % 10000 == 0)
-					print(".");
-				int n = readInt(in, intbuf);
-				if (n == 0)
-					break;
-				if (n > recbuf.capacity())
-					recbuf = ByteBuffer.allocate(Math.max(n, 2 * recbuf.capacity()))
-							.order(ByteOrder.LITTLE_ENDIAN);
-				last = load_data_record(in, table.num, t, recbuf, n);
-				if (first == 0)
-					first = last;
-			}
-			print(nrecs + "\n");
-			createIndexes(t, table, first, last);
+			Loaded loaded = loadRecords(in, t, table.num);
+			createIndexes(t, table, loaded.first, loaded.last);
 			t.ck_complete();
+			return loaded.nrecs;
 		} finally {
 			t.abortIfNotComplete();
 		}
-		return nrecs;
+	}
+
+	/** The number of records and the range of addresses loaded for a table */
+	static class Loaded {
+		int nrecs = 0;
+		int first = 0;
+		int last = 0;
+	}
+
+	/** also used by ParallelLoad */
+	static Loaded loadRecords(ReadableByteChannel in, BulkTransaction t, int tblnum)
+			throws IOException {
+		Loaded loaded = new Loaded();
+		ByteBuffer intbuf = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer recbuf = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+		for (;; ++loaded.nrecs) {
+			if (loaded.nrecs % 10000 == 0)
+				print(".");
+			int n = readInt(in, intbuf);
+			if (n == 0)
+				break;
+			if (n > recbuf.capacity())
+				recbuf = ByteBuffer.allocate(Math.max(n, 2 * recbuf.capacity()))
+						.order(ByteOrder.LITTLE_ENDIAN);
+			loaded.last = load_data_record(in, tblnum, t, recbuf, n);
+			if (loaded.first == 0)
+				loaded.first = loaded.last;
+		}
+		print(loaded.nrecs + "\n");
+		return loaded;
 	}
 
 	private static int load_data_record(ReadableByteChannel in, int tblnum,
@@ -123,21 +142,44 @@ class DbLoad {
 		}
 	}
 
+	/**
+	 * Sorts the keys and then builds the btree bottom up,
+	 * storing full nodes directly, rather than adding the keys one at a time.
+	 * Loaded data is assumed valid so unique indexes are not checked.
+	 * Normally the table is new, but any existing keys are included.
+	 */
 	private static void createIndex(BulkTransaction t, int first, int last, Index index) {
-		TranIndex btree = t.getIndex(index.tblnum, index.colNums);
+		List<BtreeKey> keys = existingKeys(t, index);
 		StoredRecordIterator iter = t.storedRecordIterator(first, last);
-		int i = 0;
+		BtreeInfo info = buildIndex(keys, iter, index.colNums, t.btreeBuilder());
+		t.saveBtree(index, info);
+		print("\n");
+	}
+
+	static List<BtreeKey> existingKeys(BulkTransaction t, Index index) {
+		List<BtreeKey> keys = new ArrayList<>();
+		Btree btree = (Btree) t.getIndex(index.tblnum, index.colNums);
+		Btree.Iter iter = btree.iterator();
+		for (iter.next(); ! iter.eof(); iter.next())
+			keys.add(iter.cur());
+		return keys;
+	}
+
+	/** Does not use the transaction so ParallelLoad can run it in parallel */
+	static BtreeInfo buildIndex(List<BtreeKey> keys, StoredRecordIterator iter,
+			int[] colNums, BtreeBuilder builder) {
 		while (iter.hasNext()) {
-			if (i++ % 10000 == 0)
+			if (keys.size() % 10000 == 0)
 				print(".");
 			int adr = iter.nextAdr();
 			Record rec = iter.next();
-			BtreeKey key = IndexedData.key(rec, index.colNums, adr);
-			btree.add(key, false);
+			keys.add(IndexedData.key(rec, colNums, adr));
 		}
+		Collections.sort(keys);
 		print("^");
-		t.saveBtrees();
-		print("\n");
+		for (BtreeKey key : keys)
+			builder.add(key);
+		return builder.build();
 	}
 
 	private static void print(String s) {
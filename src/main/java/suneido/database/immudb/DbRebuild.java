@@ -28,7 +28,20 @@ class DbRebuild {
 		return new DbRebuild(oldFilename, newFilename, false).rebuild();
 	}
 
+	/**
+	 * Uses {@link ParallelRebuild},
+	 * falling back to replaying all the commits if that fails.
+	 */
 	public static String rebuildFromData(String oldFilename, String newFilename) {
+		String result = ParallelRebuild.rebuild(oldFilename, newFilename);
+		if (result != null)
+			return result;
+		System.out.println("Parallel rebuild failed, reprocessing all data...");
+		return reprocessFromData(oldFilename, newFilename);
+	}
+
+	/** Rebuild by reprocessing every commit, also used by TestParallelRebuild */
+	static String reprocessFromData(String oldFilename, String newFilename) {
 		return new DbRebuild(oldFilename, newFilename, true).rebuildFromData();
 	}
 
@@ -51,7 +64,7 @@ class DbRebuild {
 	protected String rebuild() {
 		try {
 			System.out.println("Checking...");
-			Check check = new Check(dstor, istor);
+			Check check = new Check(dstor, istor).observer(Dbpkg.printObserver);
 			System.out.println("checksums...");
 			if (check.fullcheck()) {
 				if (check_data_and_indexes(dstor, istor)) {
@@ -171,12 +184,12 @@ class DbRebuild {
 		Date lastOkDate = check.lastOkDate();
 		long lastOkSize = check.dOkSize();
 		StorageIter dIter = new StorageIter(dstor,
-				lastOkSize == 0 ? Storage.FIRST_ADR : Storage.offsetToAdr(lastOkSize));
+				lastOkSize == 0 ? Storage.FIRST_ADR : dstor.offsetToAdr(lastOkSize));
 		while (dIter.notFinished()) {
 			try {
 				new Proc(db, check.dOkSize(), dstor, dIter.adr()).process();
 			} catch(Throwable e) {
-				System.err.println("offset: " + Storage.adrToOffset(dIter.adr()));
+				System.err.println("offset: " + dstor.adrToOffset(dIter.adr()));
 				System.err.println(e);
 				throw e;
 			}
@@ -333,7 +346,7 @@ class DbRebuild {
 		}
 
 		void clearAddress(DataRecord r) {
-			if (Storage.adrToOffset(r.address()) >= copiedDataSize)
+			if (stor.adrToOffset(r.address()) >= copiedDataSize)
 				r.address(0); // may have changed
 		}
 
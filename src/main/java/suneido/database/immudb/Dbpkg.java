@@ -8,6 +8,7 @@ import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.function.Consumer;
 
 import suneido.util.FileUtils;
 
@@ -35,6 +36,11 @@ public class Dbpkg {
 		return Database.openReadonly(filename);
 	}
 
+	/** @see Replica */
+	public static Database openReplica(String filename) {
+		return Replica.open(filename);
+	}
+
 	public static Database testdb() {
 		return Database.create("", new HeapStorage(), new HeapStorage());
 	}
@@ -75,6 +81,19 @@ public class Dbpkg {
 		return DbCompact.compact(srcdb, dstdb);
 	}
 
+	/**
+	 * Compact while running, see {@link OnlineCompact}
+	 * switchTo is called (holding the commit lock) with the new database
+	 */
+	public static String compactOnline(Database db, Consumer<Database> switchTo) {
+		return OnlineCompact.compact(db, switchTo);
+	}
+
+	/** Rename an online compacted database to replace the old one */
+	public static boolean finishCompactOnline(String dbFilename) {
+		return OnlineCompact.finish(dbFilename);
+	}
+
 	public static String rebuild(String dbFilename, String tempfilename) {
 		return DbRebuild.rebuild(dbFilename, tempfilename);
 	}
@@ -88,17 +107,60 @@ public class Dbpkg {
 		FileUtils.renameWithBackup(tempfile + "i", dbFilename + "i");
 		if (new File(tempfile + "c").exists())
 			FileUtils.renameWithBackup(tempfile + "c", dbFilename + "c");
+		// index statistics belong to the old database
+		if (new File(tempfile + "t").exists())
+			FileUtils.renameWithBackup(tempfile + "t", dbFilename + "t");
+		else
+			FileUtils.deleteIfExisting(dbFilename + "t");
 	}
 
 	public static RecordStore recordStore() {
 		return new RecordStore();
 	}
 
+	public static RecordSorter recordSorter() {
+		return new RecordSorter(RecordStore.memoryLimit);
+	}
+
+	public static RecordMultiMap recordMultiMap() {
+		return new RecordMultiMap(RecordStore.memoryLimit);
+	}
+
+	public static RecordLookup recordLookup() {
+		return new RecordLookup(RecordStore.memoryLimit);
+	}
+
 	public static void setOption(String name, Object value) {
 		if (name.equals("max_update_tran_sec"))
 			Transactions.MAX_UPDATE_TRAN_DURATION_SEC = (Integer) value;
 		if (name.equals("max_writes_per_tran"))
 			UpdateTransaction.MAX_WRITES_PER_TRANSACTION = (Integer) value;
+		if (name.equals("group_commit"))
+			CommitGroup.enabled = (Boolean) value;
+		if (name.equals("storage_align"))
+			MmapFile.newFileShift = alignToShift((Integer) value);
+		if (name.equals("compress_records"))
+			CompressedRecord.enabled = (Boolean) value;
+		if (name.equals("compress_nodes"))
+			BtreePrefixNode.enabled = (Boolean) value;
+		if (name.equals("record_cache"))
+			RecordCache.size = (Integer) value;
+		if (name.equals("query_memory"))
+			RecordStore.memoryLimit = (Integer) value * 1024L * 1024;
+	}
+
+	private static int alignToShift(int align) {
+		int shift = Integer.numberOfTrailingZeros(align);
+		if (align != (1 << shift))
+			throw new IllegalArgumentException(
+					"storage alignment must be a power of 2");
+		Storage.checkShift(shift);
+		return shift;
+	}
+
+	/** @return The record cache statistics, "" if it is not enabled */
+	public static String recordCacheStats() {
+		return RecordCache.stats();
 	}
 
 	public static boolean dbExists(String dbFilename) {
@@ -62,7 +62,7 @@ public class Dump {
 		for (StorageIter iter = new StorageIter(istor, iAdr).dontChecksum();
 				! iter.eof(); iter.advance2()) {
 			assert iter.status() == StorageIter.Status.OK : "CORRUPT!";
-			System.out.println(Storage.adrToOffset(iter.adr()) + ":" +
+			System.out.println(istor.adrToOffset(iter.adr()) + ":" +
 					" size " + iter.size() +
 					" date " + Util.displayDate(iter.date()) +
 					" checksum " + Integer.toHexString(iter.cksum()) +
@@ -78,7 +78,7 @@ public class Dump {
 			int typeAdr = dstor.advance(iter.adr(), Tran.HEAD_SIZE);
 			buf = dstor.buffer(typeAdr);
 			char type = (char) buf.get();
-			System.out.println(Storage.adrToOffset(iter.adr()) + ":" +
+			System.out.println(dstor.adrToOffset(iter.adr()) + ":" +
 					" type " + type +
 					" size " + iter.size() +
 					" date " + (iter.date() == null ? "ABORTED" : Util.displayDate(iter.date())) +
@@ -21,6 +21,10 @@ class HeapStorage extends Storage {
 		super(chunkSize);
 	}
 
+	HeapStorage(int chunkSize, int shift) {
+		super(chunkSize, shift);
+	}
+
 	@Override
 	protected ByteBuffer get(int chunk) {
 		return ByteBuffer.allocate(CHUNK_SIZE);
@@ -70,7 +70,7 @@ public class HistoryIterator {
 				rewound = false;
 				adr = Storage.FIRST_ADR;
 			} else {
-				long size = Storage.intToSize(dstor.buffer(adr).getInt());
+				long size = dstor.intToSize(dstor.buffer(adr).getInt());
 				adr = dstor.advance(adr, size);
 				if (!dstor.isValidAdr(adr))
 					return false; // eof
@@ -123,7 +123,7 @@ public class HistoryIterator {
 	}
 
 	int getPrevSize(int adr) {
-		ByteBuffer buf = dstor.buffer(adr - 1);
+		ByteBuffer buf = dstor.tail(dstor.adrToOffset(adr), Tran.TAIL_SIZE);
 		buf.getInt(); // skip checksum
 		return buf.getInt();
 	}
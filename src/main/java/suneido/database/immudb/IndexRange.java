@@ -10,12 +10,18 @@ import com.google.common.collect.Ordering;
  * A mutable range of records.
  * Used to track the range of an index scanned by an iterator.
  * Needs to be mutable because it is passed to the iterator which updates it.
+ * The iterator uses setLo and setHi
+ * so {@link TransactionReads} is notified of changes after it merges it.
  * Based somewhat on Guava Range (but it's immutable)
  */
 class IndexRange implements Comparable<IndexRange> {
 	private static final Ordering<Record> ord = Ordering.natural();
 	Record lo;
 	Record hi;
+	/** set by TransactionReads.add */
+	TransactionReads owner;
+	/** whether this is in owner's pending list, maintained by owner */
+	boolean pending;
 
 	/** create an empty range (lo > hi) */
 	public IndexRange() {
@@ -28,6 +34,25 @@ class IndexRange implements Comparable<IndexRange> {
 		this.hi = hi;
 	}
 
+	void setLo(Record lo) {
+		this.lo = lo;
+		changed();
+	}
+
+	void setHi(Record hi) {
+		this.hi = hi;
+		changed();
+	}
+
+	private void changed() {
+		if (owner != null && ! pending)
+			owner.changed(this);
+	}
+
+	boolean isEmpty() {
+		return lo.compareTo(hi) > 0;
+	}
+
 	boolean isConnected(IndexRange that) {
 		return this.contains(that.lo) || that.contains(this.lo);
 	}
@@ -0,0 +1,175 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.MoreObjects;
+
+import suneido.util.Immutable;
+
+/**
+ * Statistics for one index, used by the query optimizer (via rangefrac)
+ * instead of estimating from the btree structure.
+ * <ul>
+ * <li>the number of distinct values of each prefix of the index columns
+ * <li>an equi-depth histogram of the keys
+ * i.e. the keys at NBUCKETS + 1 evenly spaced positions
+ * </ul>
+ * Frequent values span several buckets so skewed data is handled.
+ * Values within a single bucket are estimated from the distinct count.
+ * <p>
+ * Computed by a single pass through the (sorted) index.
+ * Saved and loaded with write and read.
+ * @see IndexStatsCache
+ */
+@Immutable
+class IndexStats {
+	static final int NBUCKETS = 64;
+	/** the number of keys when the statistics were computed */
+	final int nkeys;
+	/** the number of distinct values of each prefix, ndistinct[i] is 1..i+1 */
+	private final int[] ndistinct;
+	/** sorted, first and last are the minimum and maximum keys */
+	private final Record[] bounds;
+
+	private IndexStats(int nkeys, int[] ndistinct, Record[] bounds) {
+		this.nkeys = nkeys;
+		this.ndistinct = ndistinct;
+		this.bounds = bounds;
+	}
+
+	/**
+	 * @param nkeys The expected number of keys, used to space the histogram
+	 * @param ncols The number of index columns
+	 */
+	static IndexStats compute(IndexIter iter, int nkeys, int ncols) {
+		int[] ndistinct = new int[ncols];
+		List<Record> bounds = new ArrayList<>();
+		double step = Math.max(1.0, (nkeys - 1) / (double) NBUCKETS);
+		double next = 0;
+		Record prev = null;
+		Record key = null;
+		int n = 0;
+		for (iter.next(); ! iter.eof(); iter.next(), ++n) {
+			key = iter.curKey();
+			for (int i = differ(prev, key, ncols); i < ncols; ++i)
+				++ndistinct[i];
+			if (n >= next) {
+				bounds.add(key);
+				next += step;
+			}
+			prev = key;
+		}
+		if (n > 1 && bounds.get(bounds.size() - 1) != key)
+			bounds.add(key); // the maximum
+		return new IndexStats(n, ndistinct, bounds.toArray(new Record[0]));
+	}
+
+	/** @return The index of the first of the first ncols fields that differs */
+	private static int differ(Record prev, Record key, int ncols) {
+		if (prev == null)
+			return 0;
+		for (int i = 0; i < ncols; ++i)
+			if (! field(prev, i).equals(field(key, i)))
+				return i;
+		return ncols;
+	}
+
+	private static ByteBuffer field(Record r, int i) {
+		return i < r.size() ? r.getRaw(i) : Record.MIN_FIELD;
+	}
+
+	/**
+	 * Same interface as {@link Btree#rangefrac}
+	 * from is inclusive, to is exclusive.
+	 * @param nfields For a single value (e.g. from is x and to is x + MAX)
+	 * the number of fields in the value, otherwise 0
+	 */
+	float rangefrac(Record from, Record to, int nfields) {
+		if (nkeys == 0)
+			return Btree.MIN_FRAC;
+		float frac = pos(to) - pos(from);
+		if (nfields > 0) {
+			float avg = 1.0f / ndistinct[Math.min(nfields, ndistinct.length) - 1];
+			frac = Math.max(frac, Math.min(avg, 1.0f / nbuckets()));
+		} else if (frac == 0)
+			frac = .5f / nbuckets(); // within a single bucket
+		return Math.min(1, Math.max(frac, Btree.MIN_FRAC));
+	}
+
+	/** @return The estimated fraction of the keys that are less than key */
+	private float pos(Record key) {
+		int m = nbuckets();
+		int c = lowerBound(key);
+		if (c == 0)
+			return 0;
+		if (c > m)
+			return 1;
+		return (c - .5f) / m;
+	}
+
+	private int nbuckets() {
+		return Math.max(1, bounds.length - 1);
+	}
+
+	/** @return The number of bounds that are less than key */
+	private int lowerBound(Record key) {
+		int i = Arrays.binarySearch(bounds, key);
+		if (i < 0)
+			return -i - 1;
+		while (i > 0 && bounds[i - 1].compareTo(key) == 0)
+			--i;
+		return i;
+	}
+
+	int ndistinct(int nfields) {
+		return ndistinct[nfields - 1];
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeInt(nkeys);
+		out.writeInt(ndistinct.length);
+		for (int nd : ndistinct)
+			out.writeInt(nd);
+		out.writeInt(bounds.length);
+		for (Record r : bounds) {
+			ByteBuffer buf = ByteBuffer.allocate(r.packSize());
+			r.pack(buf);
+			out.writeInt(buf.capacity());
+			out.write(buf.array());
+		}
+	}
+
+	static IndexStats read(DataInput in) throws IOException {
+		int nkeys = in.readInt();
+		int[] ndistinct = new int[in.readInt()];
+		for (int i = 0; i < ndistinct.length; ++i)
+			ndistinct[i] = in.readInt();
+		Record[] bounds = new Record[in.readInt()];
+		for (int i = 0; i < bounds.length; ++i) {
+			byte[] b = new byte[in.readInt()];
+			in.readFully(b);
+			bounds[i] = new BufRecord(ByteBuffer.wrap(b));
+		}
+		return new IndexStats(nkeys, ndistinct, bounds);
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+			.add("nkeys", nkeys)
+			.add("ndistinct", Arrays.toString(ndistinct))
+			.add("nbuckets", nbuckets())
+			.toString();
+	}
+
+}
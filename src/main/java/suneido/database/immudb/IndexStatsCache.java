@@ -0,0 +1,166 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.primitives.Ints;
+
+import suneido.util.Errlog;
+
+/**
+ * Holds the {@link IndexStats} for a Database.
+ * <p>
+ * Statistics are requested by the optimizer (via rangefrac and ndistinct).
+ * If they are missing, or stale (the number of rows has changed
+ * by more than STALE since they were computed) they are queued
+ * and computed by update, which is called by Database.force
+ * (after persist, once a minute on the server)
+ * so queries never wait for a scan.
+ * update also queues any existing statistics that have gone stale.
+ * Stale statistics are still used until they are replaced.
+ * <p>
+ * Statistics are saved to a file beside the database (e.g. suneido.dbt)
+ * after they are updated and when the database is closed,
+ * and loaded when the database is opened.
+ * The file starts with VERSION, if it doesn't match the file is ignored.
+ * Each entry includes the table name,
+ * entries that don't match the schema are ignored.
+ * Indexes smaller than MIN_KEYS use the btree structure instead.
+ */
+class IndexStatsCache {
+	private static final int VERSION = 1;
+	private static final float STALE = .1f;
+	private static final int MIN_KEYS = 1000;
+	private final ConcurrentHashMap<String,IndexStats> stats =
+			new ConcurrentHashMap<>();
+	private final Set<String> wanted = ConcurrentHashMap.newKeySet();
+	/** set when stats changes, cleared by save */
+	private volatile boolean dirty = false;
+
+	/** @return The statistics for an index, or null if not available */
+	IndexStats get(int tblnum, int[] colNums, int nrows) {
+		if (nrows < MIN_KEYS || colNums.length == 0)
+			return null;
+		String key = key(tblnum, colNums);
+		IndexStats s = stats.get(key);
+		if (s == null || isStale(s, nrows))
+			wanted.add(key);
+		return s;
+	}
+
+	private static boolean isStale(IndexStats s, int nrows) {
+		return Math.abs(nrows - s.nkeys) > STALE * s.nkeys;
+	}
+
+	/** Compute the wanted statistics from a snapshot of the database */
+	void update(Database db) {
+		ReadTransaction t = db.readTransaction();
+		try {
+			for (Map.Entry<String,IndexStats> e : stats.entrySet()) {
+				int tblnum = tblnum(e.getKey());
+				if (t.getTable(tblnum) == null ||
+						isStale(e.getValue(), t.tableCount(tblnum)))
+					wanted.add(e.getKey());
+			}
+			for (String key : wanted) {
+				wanted.remove(key);
+				dirty = true;
+				int tblnum = tblnum(key);
+				int[] colNums = colNums(key);
+				if (t.getTable(tblnum) == null ||
+						t.index(tblnum, colNums) == null) {
+					stats.remove(key); // dropped
+					continue;
+				}
+				stats.put(key, IndexStats.compute(
+						t.getIndex(tblnum, colNums).iterator(),
+						t.tableCount(tblnum), colNums.length));
+			}
+		} finally {
+			t.complete();
+		}
+	}
+
+	/** Write the statistics to a file, if they have changed */
+	void save(Database db, String filename) {
+		if (! dirty)
+			return;
+		dirty = false;
+		ReadTransaction t = db.readTransaction();
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(filename)))) {
+			out.writeInt(VERSION);
+			for (Map.Entry<String,IndexStats> e : stats.entrySet()) {
+				Table table = t.getTable(tblnum(e.getKey()));
+				if (table == null)
+					continue;
+				out.writeBoolean(true);
+				out.writeUTF(e.getKey());
+				out.writeUTF(table.name());
+				e.getValue().write(out);
+			}
+			out.writeBoolean(false);
+		} catch (IOException e) {
+			Errlog.error("IndexStatsCache save", e);
+		} finally {
+			t.complete();
+		}
+	}
+
+	/** Read the statistics saved by save, if the file exists */
+	void load(Database db, String filename) {
+		File file = new File(filename);
+		if (! file.canRead())
+			return;
+		ReadTransaction t = db.readTransaction();
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != VERSION)
+				return;
+			while (in.readBoolean()) {
+				String key = in.readUTF();
+				String tableName = in.readUTF();
+				IndexStats s = IndexStats.read(in);
+				Table table = t.getTable(tblnum(key));
+				if (table != null && table.name().equals(tableName) &&
+						table.getIndex(colNums(key)) != null)
+					stats.put(key, s);
+			}
+		} catch (IOException | RuntimeException e) {
+			Errlog.warn("IndexStatsCache load " + filename + " " + e);
+			stats.clear();
+		} finally {
+			t.complete();
+		}
+	}
+
+	private static String key(int tblnum, int[] colNums) {
+		return tblnum + ":" + Ints.join(",", colNums);
+	}
+
+	private static int tblnum(String key) {
+		return Integer.parseInt(key.substring(0, key.indexOf(':')));
+	}
+
+	private static int[] colNums(String key) {
+		String[] cols = key.substring(key.indexOf(':') + 1).split(",");
+		int[] colNums = new int[cols.length];
+		for (int i = 0; i < cols.length; ++i)
+			colNums[i] = Integer.parseInt(cols[i]);
+		return colNums;
+	}
+
+}
@@ -56,6 +56,11 @@ class IntRefs {
 		adrs = new int[list.size()];
 	}
 
+	/** discard the addresses so startStore can be done again */
+	void abortStore() {
+		adrs = null;
+	}
+
 	/** record the adr that a ref has been persisted at */
 	void setAdr(int intref, int adr) {
 		assert ! isIntRef(adr);
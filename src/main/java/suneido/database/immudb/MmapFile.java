@@ -13,19 +13,46 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import suneido.SuException;
 import suneido.util.Errlog;
 
 /**
  * Memory mapped file access.
+ * <p>
+ * The first unit of the file holds MAGIC and VERSION.
+ * Version 1 files are 8 byte aligned.
+ * Version 2 files also hold the alignment (as a shift)
+ * which allows larger files (see {@link Storage}).
+ * New files get newFileShift, existing files keep their alignment,
+ * to change it, compact (or dump and load) the database.
+ * <p>
+ * The high bits of the version are flags for format extensions
+ * e.g. COMPRESSED_RECORDS, so older versions will not open the file.
+ * Files opened for writing get the flags for the enabled extensions.
+ * <p>
+ * Only the last chunk is mapped when the file is opened,
+ * the rest are mapped on demand by Storage.chunk
+ * so startup time does not depend on the size of the file.
  * @see HeapStorage
  */
 class MmapFile extends Storage {
 	static final int MMAP_CHUNK_SIZE = 64 * 1024 * 1024; // 64 mb
 	static final byte[] MAGIC = { 's', 'n', 'd', 'o' };
 	static final ByteBuffer magic = ByteBuffer.allocate(4).put(MAGIC);
-	static final int VERSION = 1;
+	static final int VERSION = 2;
+	/** version 1 files have the default alignment */
+	private static final int VERSION_1 = 1;
+	private static final int VERSION_MASK = 0xffff;
+	/** set if CompressedRecord may have been used to write the database */
+	static final int COMPRESSED_RECORDS = 1 << 16;
+	private static final int KNOWN_FLAGS = COMPRESSED_RECORDS;
+	/** set by Dbpkg.setOption("storage_align") */
+	static int newFileShift = DEFAULT_SHIFT;
 	private final File file;
 	private final FileChannel.MapMode mode;
 	private final RandomAccessFile fin;
@@ -34,6 +61,12 @@ class MmapFile extends Storage {
 			new CopyOnWriteArrayList<>();
 	private boolean open = false;
 	private long lastForceSize;
+	private volatile int readAheadChunk = -1;
+	private static final ExecutorService readAheadExecutor =
+			Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+					.setNameFormat("MmapFile-read-ahead")
+					.setDaemon(true)
+					.build());
 
 	/** @param mode Must be "r" or "rw" */
 	MmapFile(String filename, String mode) {
@@ -42,7 +75,7 @@ class MmapFile extends Storage {
 
 	/** @param mode Must be "r" or "rw" */
 	MmapFile(File file, String mode) {
-		super(MMAP_CHUNK_SIZE);
+		super(MMAP_CHUNK_SIZE, shift(file));
 		this.file = file;
 		switch (mode) {
 		case "r":
@@ -68,7 +101,7 @@ class MmapFile extends Storage {
 			lock();
 		open = true;
 		storSize = fileLength();
-		mapAll();
+		chunk(offsetToChunk(storSize - 1)); // map the last chunk
 		findEnd();
 		version();
 		protect();
@@ -84,10 +117,32 @@ class MmapFile extends Storage {
 		}
 	}
 
+	/**
+	 * Called before the file is mapped
+	 * @return The shift from the file header, or newFileShift for a new file
+	 */
+	private static int shift(File file) {
+		if (file.length() == 0)
+			return newFileShift;
+		try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+			if (f.length() < MAGIC.length + 2 * Integer.BYTES)
+				return DEFAULT_SHIFT; // let version() report problems
+			f.skipBytes(MAGIC.length);
+			int ver = f.readInt() & VERSION_MASK;
+			return ver == VERSION ? f.readInt() : DEFAULT_SHIFT;
+		} catch (IOException e) {
+			throw new SuException("can't read " + file, e);
+		}
+	}
+
 	private void version() {
 		if (storSize == ALIGN) { // newly created file
 			ByteBuffer buf = buf(0);
-			buf.put(MAGIC).putInt(VERSION);
+			buf.put(MAGIC);
+			if (SHIFT == DEFAULT_SHIFT)
+				buf.putInt(VERSION_1 | flags()); // so older versions can read it
+			else
+				buf.putInt(VERSION | flags()).putInt(SHIFT);
 			assert buf.position() <= ALIGN;
 		} else {
 			ByteBuffer buf = buf(0);
@@ -95,13 +150,31 @@ class MmapFile extends Storage {
 			buf.get(magic);
 			if (!Arrays.equals(magic, MAGIC))
 				throw new SuException("invalid database file");
-			int ver = buf.getInt();
-			if (ver != VERSION)
-				throw new SuException("invalid database version, got " + ver +
-						", expected " + VERSION);
+			int flagged = buf.getInt();
+			int ver = flagged & VERSION_MASK;
+			if ((ver != VERSION && ver != VERSION_1) ||
+					(flagged & ~VERSION_MASK & ~KNOWN_FLAGS) != 0)
+				throw new SuException("invalid database version, got " +
+						Integer.toHexString(flagged) + ", expected " + VERSION);
+			int shift = (ver == VERSION) ? buf.getInt() : DEFAULT_SHIFT;
+			if (shift != SHIFT)
+				throw new SuException("invalid database alignment");
+			if (mode == FileChannel.MapMode.READ_WRITE &&
+					(flagged | flags()) != flagged)
+				buf(0).putInt(MAGIC.length, flagged | flags());
 		}
 	}
 
+	/** @return The format extension flags for the enabled options */
+	private static int flags() {
+		return CompressedRecord.enabled ? COMPRESSED_RECORDS : 0;
+	}
+
+	/** @return The version from the file header, including the flags */
+	int headerVersion() {
+		return buf(0).getInt(MAGIC.length);
+	}
+
 	private long fileLength() {
 		try {
 			return Math.max(fin.length(), ALIGN);
@@ -110,20 +183,13 @@ class MmapFile extends Storage {
 		}
 	}
 
-	void mapAll() {
-		int n = offsetToChunk(storSize - 1);
-		for (int i = 0; i <= n; ++i)
-			chunks[i] = _get(i);
-		toForce.add((MappedByteBuffer) chunks[n]);
-	}
-
 	/** handle zero padding caused by memory mapping */
 	private void findEnd() {
 		if (storSize <= ALIGN)
 			return;
 		if (0 != (storSize % ALIGN))
 			return; // not aligned
-		ByteBuffer buf = chunks[offsetToChunk(storSize - 1)];
+		ByteBuffer buf = chunk(offsetToChunk(storSize - 1));
 		int i = (int) ((storSize - 1) % CHUNK_SIZE) + 1;
 		assert ALIGN >= 8;
 		while (i >= 8 && buf.getLong(i - 8) == 0)
@@ -141,7 +207,8 @@ class MmapFile extends Storage {
 		if (! open)
 			throw new RuntimeException("can't access database - it is not open");
 		MappedByteBuffer bb = _get(chunk);
-		toForce.add(bb);
+		if (chunk >= offsetToChunk(storSize - 1))
+			toForce.add(bb); // earlier chunks are only being read
 		return bb;
 	}
 
@@ -156,6 +223,25 @@ class MmapFile extends Storage {
 		}
 	}
 
+	/**
+	 * Used by {@link Replica} to see what another process has appended.
+	 * Sets the size to the file length, including any zero padding,
+	 * so the caller must find the actual end e.g. with {@link StorageIter}.
+	 * Chunks that were mapped short are remapped on their next access.
+	 */
+	void refresh() {
+		assert mode == FileChannel.MapMode.READ_ONLY;
+		long len = fileLength();
+		if (len <= storSize)
+			return;
+		for (int c = offsetToChunk(storSize - 1); c <= offsetToChunk(len - 1); ++c) {
+			ByteBuffer buf = chunks.get(c);
+			if (buf != null && buf.capacity() < CHUNK_SIZE)
+				chunks.set(c, null);
+		}
+		storSize = len;
+	}
+
 	@Override
 	void force() {
 		if (storSize == lastForceSize) // nothing written
@@ -179,6 +265,21 @@ class MmapFile extends Storage {
 			Errlog.error("failed to setLastModified on " + file);
 	}
 
+	/**
+	 * Loads the chunk following adr in the background
+	 * (like madvise WILLNEED)
+	 * so sequential reads are less likely to wait for page faults.
+	 */
+	@Override
+	void readAhead(int adr) {
+		int next = offsetToChunk(adrToOffset(adr)) + 1;
+		if (next == readAheadChunk || next > offsetToChunk(storSize - 1))
+			return;
+		readAheadChunk = next;
+		MappedByteBuffer bb = (MappedByteBuffer) chunk(next);
+		readAheadExecutor.execute(bb::load);
+	}
+
 	@Override
 	protected void growChunks(int chunk) {
 		Errlog.fatal("MmapFile chunks should not grow");
@@ -190,7 +291,8 @@ class MmapFile extends Storage {
 			return;
 		open = false;
 		force();
-		Arrays.fill(chunks, null); // might help gc
+		for (int i = 0; i < chunks.length(); ++i)
+			chunks.set(i, null); // might help gc
 		try {
 			fc.close();
 			fin.close();
@@ -0,0 +1,302 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import suneido.SuException;
+import suneido.util.FileUtils;
+
+/**
+ * Compacts a database while it is in use,
+ * unlike {@link DbCompact} which requires the server to be down.
+ * <ol>
+ * <li>The tables are copied from a read transaction snapshot by DbCompact
+ * <li>The update commits made since the snapshot are replayed
+ * 		(with {@link CommitProcessor}) from the old data file,
+ * 		repeatedly, until there are only a few left.
+ * 		Records are found in the new database by key since addresses differ.
+ * <li>Holding the old database's persist and commit locks
+ * 		(the brief pause) the last commits are replayed,
+ * 		a "sync" file is written to mark the switch,
+ * 		and the caller switches to the compacted database.
+ * 		After this the old database rejects new transactions and commits.
+ * <li>The old database is closed once its remaining transactions finish.
+ * <li>At the next startup, {@link #finish} renames the compacted files
+ * 		to replace the old ones. (Memory mapped files can't be renamed
+ * 		while they are open on Windows.)
+ * </ol>
+ * Schema changes and bulk loads can't be replayed
+ * so they are blocked while compacting.
+ * Any failure is thrown to the caller
+ * and the old database continues to be used.
+ */
+class OnlineCompact {
+	static final String SUFFIX = ".compact";
+	/** catch up until a pass replays at most this many commits */
+	private static final int CATCHUP_COMMITS = 100;
+	/** then finish holding the commit lock, even if not caught up */
+	private static final int MAX_PASSES = 20;
+	private static final AtomicBoolean running = new AtomicBoolean(false);
+	private final Database olddb;
+	private final Database newdb;
+	/** used for the old schema, does not change since schema changes abort */
+	private final ReadTransaction rt;
+	/** the last commit in the old database that has been applied */
+	private int lastadr;
+	private final TIntObjectHashMap<TableMap> tables = new TIntObjectHashMap<>();
+
+	/**
+	 * Compact db and switch to the compacted database.
+	 * switchTo is called holding db's commit lock,
+	 * it must make the new database the current one.
+	 * @return A description of the result
+	 */
+	static String compact(Database db, Consumer<Database> switchTo) {
+		if (db.filename.endsWith(SUFFIX))
+			throw new SuException("restart before compacting again");
+		if (! running.compareAndSet(false, true))
+			throw new SuException("compact is already running");
+		String newFilename = db.filename + SUFFIX;
+		Database newdb = null;
+		boolean switched = false;
+		try {
+			db.startCompacting();
+			Stopwatch sw = Stopwatch.createStarted();
+			new File(newFilename + "s").delete();
+			ReadTransaction rt = db.readTransaction();
+			int ntables;
+			int[] ncommits = { 0 };
+			Stopwatch pause;
+			try {
+				newdb = Database.create(newFilename);
+				ntables = DbCompact.compact(rt, newdb);
+				OnlineCompact oc = new OnlineCompact(db, newdb, rt,
+						rt.dbstate.lastadr);
+				ncommits[0] = oc.catchUp();
+				pause = Stopwatch.createStarted();
+				Database ndb = newdb;
+				db.withPersistLock(() -> db.withCommitLock(() -> {
+					ncommits[0] += oc.replayToEnd();
+					ndb.persist();
+					saveSync(newFilename);
+					db.setReplaced();
+					switchTo.accept(ndb);
+				}));
+				switched = true;
+				pause.stop();
+			} finally {
+				rt.complete();
+			}
+			closeWhenIdle(db);
+			return "compacted " + ntables + " tables and replayed " +
+					ncommits[0] + " commits in " + sw +
+					" (paused " + pause + ")";
+		} catch (Throwable e) {
+			if (! switched) {
+				if (newdb != null)
+					newdb.close();
+				delete(newFilename);
+			}
+			throw e;
+		} finally {
+			db.endCompacting();
+			running.set(false);
+		}
+	}
+
+	private OnlineCompact(Database olddb, Database newdb, ReadTransaction rt,
+			int lastadr) {
+		this.olddb = olddb;
+		this.newdb = newdb;
+		this.rt = rt;
+		this.lastadr = lastadr;
+	}
+
+	/**
+	 * Replay (without blocking commits) until only a few commits remain.
+	 * The number of passes is limited in case the commits are coming
+	 * faster than we can replay, replayToEnd will finish them.
+	 * @return The number of commits replayed
+	 */
+	private int catchUp() {
+		int total = 0;
+		for (int i = 0; i < MAX_PASSES; ++i) {
+			int n = replayToEnd();
+			total += n;
+			if (n <= CATCHUP_COMMITS)
+				break;
+		}
+		return total;
+	}
+
+	/**
+	 * Replay up to the current last commit.
+	 * When called holding the commit lock this is everything.
+	 * @return The number of commits replayed
+	 */
+	private int replayToEnd() {
+		int toAdr = olddb.state.lastadr;
+		if (toAdr == lastadr)
+			return 0;
+		Storage dstor = olddb.dstor;
+		return replay(dstor.offsetToAdr(new StorageIter(dstor, toAdr).sizeInc()));
+	}
+
+	/**
+	 * Replay the commits after lastadr, up to (but not including) upTo
+	 * @return The number of commits replayed
+	 */
+	private int replay(int upTo) {
+		StorageIter iter = new StorageIter(olddb.dstor, lastadr).upTo(upTo);
+		int n = 0;
+		for (iter.advance(); iter.notFinished(); iter.advance()) {
+			Replay r = new Replay(iter.adr());
+			try {
+				r.process();
+			} finally {
+				if (r.ut != null)
+					r.ut.abortIfNotComplete();
+			}
+			lastadr = iter.adr();
+			++n;
+		}
+		if (iter.status() != StorageIter.Status.OK)
+			throw new SuException("online compact: bad commit " + iter.status());
+		return n;
+	}
+
+	private class Replay extends CommitProcessor {
+		UpdateTransaction ut;
+
+		Replay(int adr) {
+			super(olddb.dstor, adr);
+		}
+
+		@Override
+		void type(char c) {
+			if (c != 'u') // should be prevented by Database.startCompacting
+				throw new SuException("online compact: " +
+						"can't replay schema changes or loads");
+			ut = new DbRebuild.RebuildTransaction(newdb);
+		}
+
+		@Override
+		void add(DataRecord r) {
+			TableMap tm = table(ut, r.tblnum());
+			ut.addRecord(tm.tblnum, tm.convert(r));
+		}
+
+		@Override
+		void remove(DataRecord r) {
+			TableMap tm = table(ut, r.tblnum());
+			ut.removeRecord(tm.tblnum, tm.convert(r));
+		}
+
+		@Override
+		void update(DataRecord from, DataRecord to) {
+			TableMap tm = table(ut, from.tblnum());
+			ut.updateRecord(tm.tblnum, tm.convert(from), tm.convert(to));
+		}
+
+		@Override
+		void after() {
+			ut.ck_complete();
+		}
+	}
+
+	private TableMap table(UpdateTransaction ut, int oldTblnum) {
+		TableMap tm = tables.get(oldTblnum);
+		if (tm == null) {
+			Table old = rt.ck_getTable(oldTblnum);
+			Table tbl = ut.ck_getTable(old.name);
+			tables.put(oldTblnum, tm = new TableMap(rt, old, tbl.num));
+		}
+		return tm;
+	}
+
+	/** Converts records to match the compacted table, like DbCompact */
+	private static class TableMap {
+		final int tblnum;
+		final List<String> fields;
+		final boolean squeeze;
+
+		TableMap(ReadTransaction rt, Table old, int tblnum) {
+			this.tblnum = tblnum;
+			fields = old.getFields();
+			squeeze = DbDump.needToSqueeze(rt, old.num, fields);
+		}
+
+		DataRecord convert(DataRecord r) {
+			if (squeeze)
+				return DbDump.squeezeRecord(r, fields).build();
+			r.address(0); // so it is found by key
+			return r;
+		}
+	}
+
+	// switch over -------------------------------------------------------------
+
+	/** Marks that the compacted database has replaced the old one */
+	private static void saveSync(String newFilename) {
+		try {
+			Files.write(new File(newFilename + "s").toPath(),
+					"switched".getBytes(UTF_8));
+		} catch (IOException e) {
+			throw new RuntimeException("online compact: can't save sync", e);
+		}
+	}
+
+	/**
+	 * Close the old database once its remaining transactions have finished.
+	 * Update transactions will fail to commit
+	 * so continue to limit their duration.
+	 */
+	private static void closeWhenIdle(Database olddb) {
+		Thread thread = new Thread(() -> {
+			while (! olddb.isIdle()) {
+				olddb.limitOutstandingTransactions();
+				Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+			}
+			olddb.close();
+		}, "online compact close");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Called at startup, before opening the database.
+	 * If a compacted database was switched to,
+	 * rename it to replace the old database.
+	 * @return true if the database was replaced
+	 */
+	static boolean finish(String filename) {
+		String newFilename = filename + SUFFIX;
+		File syncFile = new File(newFilename + "s");
+		if (! syncFile.exists())
+			return false;
+		Dbpkg.renameDbWithBackup(newFilename, filename);
+		syncFile.delete();
+		return true;
+	}
+
+	private static void delete(String newFilename) {
+		for (String suffix : new String[] { "d", "i", "c", "s", "t" })
+			FileUtils.deleteIfExisting(newFilename + suffix);
+	}
+
+}
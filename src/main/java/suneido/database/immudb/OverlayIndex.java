@@ -171,16 +171,16 @@ class OverlayIndex implements TranIndex {
 			if (eof())
 				return;
 			if (rewound)
-				ir.lo = from;
+				ir.setLo(from);
 			do {
 				super.next();
 				if (eof()) {
-					ir.hi = to;
+					ir.setHi(to);
 					return;
 				}
 			} while (shouldSkip());
 			if (curKey().compareTo(ir.hi) > 0)
-				ir.hi = curKey();
+				ir.setHi(curKey());
 		}
 
 		@Override
@@ -188,16 +188,16 @@ class OverlayIndex implements TranIndex {
 			if (eof())
 				return;
 			if (rewound)
-				ir.hi = to;
+				ir.setHi(to);
 			do {
 				super.prev();
 				if (eof()) {
-					ir.lo = from;
+					ir.setLo(from);
 					return;
 				}
 			} while (shouldSkip());
 			if (curKey().compareTo(ir.lo) < 0)
-				ir.lo = curKey();
+				ir.setLo(curKey());
 		}
 
 		private boolean shouldSkip() {
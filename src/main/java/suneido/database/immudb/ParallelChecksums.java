@@ -0,0 +1,181 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Stopwatch;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import suneido.database.immudb.Dbpkg.Observer;
+
+/**
+ * Verify the checksums of all the commits/persists in a Storage
+ * using multiple threads.
+ * <p>
+ * First the commit boundaries are found sequentially.
+ * This only reads the head and tail of each commit so it is fast.
+ * Then the commits are divided into ranges of chunks
+ * and each range is verified by a worker thread.
+ * <p>
+ * The result is the first commit with a bad checksum (if any).
+ * {@link Check} then iterates sequentially as before,
+ * using {@link #ok} instead of recalculating the checksums,
+ * so the commit boundaries and data/index matching are reconciled
+ * exactly as if the checksums had been verified sequentially.
+ */
+class ParallelChecksums {
+	static final int N_THREADS = Runtime.getRuntime().availableProcessors();
+	/** how often to report progress */
+	private static final int PROGRESS_SECS = 10;
+	/** tasks per thread, more gives better load balancing */
+	private static final int TASKS_PER_THREAD = 4;
+	private static final long NONE = Long.MAX_VALUE;
+	private final Storage stor;
+	private final String name;
+	private final Observer ob;
+	private final TIntArrayList adrs = new TIntArrayList();
+	private final TLongArrayList sizes = new TLongArrayList();
+	private final TIntArrayList cksums = new TIntArrayList();
+	private final AtomicLong nbytes = new AtomicLong();
+	/** offset of the first bad commit found so far */
+	private final AtomicLong firstBad = new AtomicLong(NONE);
+	private long total = 0;
+
+	/**
+	 * Verifies the checksums of stor from adr up to upTo.
+	 * @param name Used for progress messages e.g. "dbd"
+	 */
+	static ParallelChecksums verify(Storage stor, int adr, int upTo,
+			String name, Observer ob) {
+		ParallelChecksums pc = new ParallelChecksums(stor, name, ob);
+		pc.scan(adr, upTo);
+		pc.verify();
+		return pc;
+	}
+
+	private ParallelChecksums(Storage stor, String name, Observer ob) {
+		this.stor = stor;
+		this.name = name;
+		this.ob = ob;
+	}
+
+	/** Find the commit boundaries, skipping aborted commits */
+	private void scan(int adr, int upTo) {
+		StorageIter iter = new StorageIter(stor, adr, a -> true).upTo(upTo);
+		for (; iter.notFinished(); iter.advance2())
+			if (iter.date() != null) {
+				adrs.add(iter.adr());
+				sizes.add(iter.size());
+				cksums.add(iter.cksum());
+				total += iter.size();
+			}
+	}
+
+	private void verify() {
+		Stopwatch sw = Stopwatch.createStarted();
+		ExecutorService executor = Executors.newFixedThreadPool(N_THREADS);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (Range r : ranges())
+				futures.add(executor.submit(() -> verify(r.from, r.to)));
+			executor.shutdown();
+			while (! executor.awaitTermination(PROGRESS_SECS, TimeUnit.SECONDS))
+				println(progress(sw) + " " +
+						(100 * nbytes.get() / Math.max(1, total)) + "%");
+			for (Future<?> f : futures)
+				f.get(); // propagate exceptions
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("checksums interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("checksums failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		println(progress(sw) + " in " + sw);
+	}
+
+	/** Divide the commits into ranges of whole chunks */
+	private List<Range> ranges() {
+		long target = total / (N_THREADS * TASKS_PER_THREAD);
+		int chunksPerRange =
+				(int) Math.max(1, (target + stor.CHUNK_SIZE - 1) / stor.CHUNK_SIZE);
+		List<Range> ranges = new ArrayList<>();
+		int from = 0;
+		int fromChunk = 0;
+		for (int i = 0; i < adrs.size(); ++i) {
+			int chunk = stor.offsetToChunk(stor.adrToOffset(adrs.get(i)));
+			if (i == 0)
+				fromChunk = chunk;
+			else if (chunk >= fromChunk + chunksPerRange) {
+				ranges.add(new Range(from, i));
+				from = i;
+				fromChunk = chunk;
+			}
+		}
+		if (from < adrs.size())
+			ranges.add(new Range(from, adrs.size()));
+		return ranges;
+	}
+
+	/** Verify commits from up to (not including) to, stopping at the first bad */
+	private void verify(int from, int to) {
+		for (int i = from; i < to; ++i) {
+			int adr = adrs.get(i);
+			long offset = stor.adrToOffset(adr);
+			if (offset > firstBad.get())
+				return; // an earlier commit is already bad
+			if (! StorageIter.verifyChecksum(stor, adr, sizes.get(i), cksums.get(i))) {
+				firstBad.accumulateAndGet(offset, Math::min);
+				return;
+			}
+			nbytes.addAndGet(sizes.get(i));
+		}
+	}
+
+	/**
+	 * Used as the checksumOk for {@link StorageIter}
+	 * @return Whether the commit at adr is before the first bad commit.
+	 */
+	boolean ok(int adr) {
+		return stor.adrToOffset(adr) < firstBad.get();
+	}
+
+	/** @return The number of bytes of commits with valid checksums */
+	long nbytes() {
+		return nbytes.get();
+	}
+
+	private String progress(Stopwatch sw) {
+		long ms = Math.max(1, sw.elapsed(TimeUnit.MILLISECONDS));
+		long mb = nbytes.get() / (1024 * 1024);
+		return "checksums " + name + " " + mb + " mb " +
+				(mb * 1000 / ms) + " mb/s";
+	}
+
+	private void println(String s) {
+		ob.print(s + "\n");
+	}
+
+	private static class Range {
+		final int from;
+		final int to;
+
+		Range(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+}
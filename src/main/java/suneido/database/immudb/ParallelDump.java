@@ -0,0 +1,165 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static suneido.util.ByteBuffers.stringToBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Dumps a database with a thread per table (up to N_THREADS)
+ * writing directly to its own section of the output file.
+ * The output is the same format as the sequential {@link DbDump}
+ * so it can be loaded by either {@link DbLoad} or {@link ParallelLoad}.
+ * <p>
+ * The record addresses for each table are collected from the key index
+ * by a single read transaction, so the dump is a consistent snapshot.
+ * Then the size of each table's section is calculated
+ * so the sections can be written in parallel at their final positions.
+ */
+class ParallelDump {
+	static final int N_THREADS = ParallelChecksums.N_THREADS;
+	/** smaller databases are dumped sequentially */
+	static final long MIN_SIZE = 64 * 1024 * 1024;
+	private static final int BUFSIZE = 1024 * 1024;
+
+	static boolean worthwhile(Database db) {
+		return N_THREADS > 1 && db.size() >= MIN_SIZE;
+	}
+
+	/** @return The number of tables dumped */
+	static int dumpDatabase(Database db, FileChannel out) {
+		ReadTransaction t = db.readTransaction();
+		try {
+			List<TableDump> tables = tables(t);
+			ByteBuffer header = stringToBuffer(DbDump.FILE_HEADER);
+			long pos = header.remaining();
+			ExecutorService executor = Executors.newFixedThreadPool(N_THREADS);
+			try {
+				List<Future<Long>> sizes = new ArrayList<>();
+				for (TableDump td : tables)
+					sizes.add(executor.submit(td::size));
+				for (int i = 0; i < tables.size(); ++i) {
+					tables.get(i).pos = pos;
+					pos += sizes.get(i).get();
+				}
+				List<Future<?>> writes = new ArrayList<>();
+				for (TableDump td : tables)
+					writes.add(executor.submit(() -> td.write(out)));
+				for (Future<?> f : writes)
+					f.get();
+			} finally {
+				executor.shutdownNow();
+			}
+			out.write(header, 0);
+			out.position(pos);
+			return tables.size();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("dump interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("dump failed", e.getCause());
+		} catch (Exception e) {
+			throw new RuntimeException("dump failed", e);
+		} finally {
+			t.complete();
+		}
+	}
+
+	/** same order as DbDump, tables by name and then views */
+	private static List<TableDump> tables(ReadTransaction t) {
+		List<TableDump> tables = new ArrayList<>();
+		IndexIter iter = t.iter(Bootstrap.TN.TABLES, "tablename");
+		for (iter.next(); ! iter.eof(); iter.next()) {
+			Record r = t.input(iter.keyadr());
+			String tablename = r.getString(Table.TABLE);
+			if (! Database.isSystemTable(tablename))
+				tables.add(new TableDump(t, tablename));
+		}
+		tables.add(new TableDump(t, "views"));
+		return tables;
+	}
+
+	/** The section of the dump for one table */
+	private static class TableDump {
+		final Storage dstor;
+		final ByteBuffer header;
+		final List<String> fields;
+		final boolean squeeze;
+		final TIntArrayList adrs = new TIntArrayList();
+		long pos;
+
+		TableDump(ReadTransaction t, String tablename) {
+			dstor = t.tran.dstor;
+			header = stringToBuffer(DbDump.tableHeader(t, tablename, true));
+			Table table = t.getTable(tablename);
+			fields = table.getFields();
+			squeeze = DbDump.needToSqueeze(t, table.num, fields);
+			IndexIter iter = t.iter(table.num, null);
+			for (iter.next(); ! iter.eof(); iter.next())
+				adrs.add(iter.keyadr());
+		}
+
+		Record record(int i) {
+			Record r = new DataRecord(dstor, adrs.get(i));
+			return squeeze ? DbDump.squeezeRecord(r, fields).bufRec() : r;
+		}
+
+		/** @return The size of this table's section of the dump */
+		long size() {
+			long size = header.remaining();
+			for (int i = 0; i < adrs.size(); ++i)
+				size += Integer.BYTES + record(i).bufSize();
+			return size + Integer.BYTES;
+		}
+
+		void write(FileChannel out) {
+			ByteBuffer buf = ByteBuffer.allocate(BUFSIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buf.put(header.duplicate());
+			for (int i = 0; i < adrs.size(); ++i) {
+				ByteBuffer rec = record(i).getBuffer();
+				if (buf.remaining() < Integer.BYTES + rec.remaining())
+					flush(out, buf);
+				buf.putInt(rec.remaining());
+				if (rec.remaining() > buf.remaining()) { // too big for buffer
+					flush(out, buf);
+					write(out, rec);
+				} else
+					buf.put(rec);
+			}
+			if (buf.remaining() < Integer.BYTES)
+				flush(out, buf);
+			buf.putInt(0);
+			flush(out, buf);
+		}
+
+		private void flush(FileChannel out, ByteBuffer buf) {
+			buf.flip();
+			write(out, buf);
+			buf.clear();
+		}
+
+		private void write(FileChannel out, ByteBuffer buf) {
+			try {
+				while (buf.hasRemaining())
+					pos += out.write(buf, pos);
+			} catch (IOException e) {
+				throw new RuntimeException("dump write failed", e);
+			}
+		}
+	}
+
+}
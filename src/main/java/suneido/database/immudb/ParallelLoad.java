@@ -0,0 +1,193 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static suneido.util.Verify.verify;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import suneido.database.query.Request;
+
+/**
+ * Loads a dump file (the normal {@link DbDump} format)
+ * building the indexes for multiple tables in parallel.
+ * <ol>
+ * <li>The file is scanned to find where each table's data starts
+ * <li>All the tables are created
+ * <li>Tables are loaded in batches of up to BATCH_SIZE bytes of data
+ * 		with one {@link BulkTransaction} per batch.
+ * 		Since a bulk transaction is exclusive,
+ * 		the data is written to the database sequentially.
+ * <li>Then the indexes for all the tables in the batch are built in parallel
+ * 		(sorting the keys and building bottom up with {@link BtreeBuilder})
+ * 		and then saved by the batch's transaction.
+ * </ol>
+ * Requires a FileChannel to be able to position to each table's data.
+ * Used by {@link DbLoad}.loadDatabase for larger dumps.
+ */
+class ParallelLoad {
+	static final int N_THREADS = ParallelChecksums.N_THREADS;
+	/** smaller dumps are loaded sequentially */
+	static final long MIN_SIZE = 64 * 1024 * 1024;
+	/** limits the memory used by the unsaved btrees */
+	static final long BATCH_SIZE = 256 * 1024 * 1024;
+	private static final String HEADER = "====== ";
+
+	static boolean worthwhile(FileChannel in) throws IOException {
+		return N_THREADS > 1 && in.size() >= MIN_SIZE;
+	}
+
+	/** @return The number of tables loaded */
+	static int loadDatabase(Database db, FileChannel in) {
+		ExecutorService executor = Executors.newFixedThreadPool(N_THREADS);
+		try {
+			List<TableLoad> tables = scan(in);
+			for (TableLoad tl : tables)
+				if (! tl.name.equals("views"))
+					Request.execute(db, tl.schema);
+			int i = 0;
+			while (i < tables.size()) {
+				int start = i;
+				long size = 0;
+				do
+					size += tables.get(i++).size;
+				while (i < tables.size() && size < BATCH_SIZE);
+				loadBatch(db, in, tables.subList(start, i), executor);
+			}
+			return tables.size();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("load interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("load failed", e.getCause());
+		} catch (Exception e) {
+			throw new RuntimeException("load failed", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** Where each table's schema and data is in the dump */
+	private static class TableLoad {
+		final String name;
+		final String schema;
+		final long pos;
+		long size = 0;
+
+		TableLoad(String header, long pos) {
+			name = header.substring(HEADER.length(), header.indexOf(' ', HEADER.length()));
+			schema = "create" + header.substring(HEADER.length() - 1);
+			this.pos = pos;
+		}
+	}
+
+	private static List<TableLoad> scan(FileChannel in) throws IOException {
+		Reader reader = new Reader(in);
+		String s = reader.getline();
+		if (s == null || ! s.startsWith("Suneido dump"))
+			throw new RuntimeException("not a valid dump file");
+		List<TableLoad> tables = new ArrayList<>();
+		String header;
+		while (null != (header = reader.getline())) {
+			verify(header.startsWith(HEADER));
+			TableLoad tl = new TableLoad(header, reader.pos);
+			for (int n; 0 != (n = reader.readInt()); reader.pos += n)
+				tl.size += n;
+			tables.add(tl);
+		}
+		return tables;
+	}
+
+	private static void loadBatch(Database db, FileChannel in,
+			List<TableLoad> batch, ExecutorService executor)
+			throws IOException, InterruptedException, ExecutionException {
+		BulkTransaction t = db.bulkTransaction();
+		try {
+			List<Index> indexes = new ArrayList<>();
+			List<Callable<BtreeInfo>> tasks = new ArrayList<>();
+			for (TableLoad tl : batch) {
+				Table table = t.getTable(tl.name);
+				in.position(tl.pos);
+				DbLoad.Loaded loaded = DbLoad.loadRecords(in, t, table.num);
+				if (loaded.first == 0)
+					continue; // no data
+				for (Index index : table.indexes) {
+					List<BtreeKey> keys = DbLoad.existingKeys(t, index);
+					StoredRecordIterator iter =
+							t.storedRecordIterator(loaded.first, loaded.last);
+					indexes.add(index);
+					tasks.add(() -> DbLoad.buildIndex(
+							keys, iter, index.colNums, new BtreeBuilder()));
+				}
+			}
+			// not started until the data is loaded since Storage isn't thread safe
+			List<Future<BtreeInfo>> btrees = executor.invokeAll(tasks);
+			for (int i = 0; i < indexes.size(); ++i)
+				t.saveBtree(indexes.get(i), btrees.get(i).get());
+			t.ck_complete();
+		} finally {
+			t.abortIfNotComplete();
+		}
+	}
+
+	/** Buffered reading of the dump file, skipping over the record data */
+	private static class Reader {
+		private final FileChannel in;
+		private final ByteBuffer buf =
+				ByteBuffer.allocate(1024 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		/** the file position of the start of buf */
+		private long bufPos = 0;
+		long pos = 0;
+
+		Reader(FileChannel in) {
+			this.in = in;
+			buf.limit(0);
+		}
+
+		/** @return false if there are not n bytes at pos */
+		private boolean fill(int n) throws IOException {
+			if (bufPos <= pos && pos + n <= bufPos + buf.limit())
+				return true;
+			buf.clear();
+			bufPos = pos;
+			while (buf.hasRemaining() && in.read(buf, bufPos + buf.position()) >= 0)
+				;
+			buf.flip();
+			return n <= buf.limit();
+		}
+
+		/** like FileUtils.getline, returns null if no newline */
+		String getline() throws IOException {
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				if (! fill(1))
+					return null;
+				char c = (char) buf.get((int) (pos++ - bufPos));
+				if (c == '\n')
+					break;
+				sb.append(c);
+			}
+			return sb.toString();
+		}
+
+		int readInt() throws IOException {
+			verify(fill(Integer.BYTES));
+			int n = buf.getInt((int) (pos - bufPos));
+			pos += Integer.BYTES;
+			return n;
+		}
+	}
+
+}
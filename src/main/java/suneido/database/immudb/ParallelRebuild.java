@@ -0,0 +1,296 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import suneido.database.immudb.Bootstrap.TN;
+import suneido.database.immudb.Dbpkg.Status;
+import suneido.util.Errlog;
+import suneido.util.FileUtils;
+
+/**
+ * Rebuild a database from just the data file,
+ * much faster than replaying every commit with {@link DbRebuild}.
+ * <ol>
+ * <li>The checksums are verified with {@link ParallelChecksums}
+ * <li>The commits are scanned once to find the live records,
+ * 		i.e. a map of record address to table number.
+ * <li>The good part of the data file is copied as is,
+ * 		so record addresses are unchanged (and history is kept).
+ * <li>The schema is determined from the live system table records.
+ * <li>Each index is built by a worker thread,
+ * 		by sorting its keys and building bottom up with {@link BtreeBuilder}
+ * <li>The btrees and table info are stored in a single persist
+ * 		in a new index file.
+ * </ol>
+ * Used by {@link DbRebuild}.rebuildFromData
+ */
+class ParallelRebuild {
+	static final int N_THREADS = ParallelChecksums.N_THREADS;
+	private final Storage dstor;
+	/** live record address => table number */
+	private final TIntIntHashMap live = new TIntIntHashMap();
+	private int maxTblnum = 0;
+	private int lastadr = 0;
+	private int lastcksum = 0;
+	private long dOkSize = 0;
+	private Date lastOkDate = null;
+
+	/** @return A completion string if successful, null if not. */
+	static String rebuild(String oldFilename, String newFilename) {
+		Stopwatch sw = Stopwatch.createStarted();
+		try {
+			ParallelRebuild pr;
+			try (Storage dstor = new MmapFile(oldFilename + "d", "r")) {
+				pr = new ParallelRebuild(dstor);
+				pr.scan();
+				if (pr.lastadr == 0)
+					return null;
+				println("Copying " + fmt(pr.dOkSize) + " bytes of data file...");
+				FileUtils.copy(new File(oldFilename + "d"),
+						new File(newFilename + "d"), pr.dOkSize);
+				FileUtils.deleteIfExisting(newFilename + "i");
+				try (Storage istor = new MmapFile(newFilename + "i", "rw")) {
+					pr.build(istor);
+				}
+			}
+			println("Checking rebuilt database ...");
+			if (DbCheck.check(newFilename, Dbpkg.printObserver) != Status.OK) {
+				println("Check after parallel rebuild FAILED");
+				return null;
+			}
+			println("Parallel rebuild completed in " + sw);
+			return "Last good commit " + pr.lastOkDate();
+		} catch (Throwable e) {
+			Errlog.error("Parallel rebuild", e);
+			return null;
+		}
+	}
+
+	ParallelRebuild(Storage dstor) {
+		this.dstor = dstor;
+	}
+
+	/** Find the live records and the last good commit */
+	void scan() {
+		ParallelChecksums checksums = ParallelChecksums.verify(dstor,
+				Storage.FIRST_ADR, Integer.MAX_VALUE, "dbd", Dbpkg.printObserver);
+		println("Scanning commits...");
+		StorageIter iter = new StorageIter(dstor, Storage.FIRST_ADR, checksums::ok)
+				.checkType().readAhead();
+		for (; iter.notFinished(); iter.advance()) {
+			new Scanner(iter.adr()).process();
+			lastadr = iter.adr();
+			lastcksum = iter.cksum();
+			dOkSize = iter.sizeInc();
+			lastOkDate = iter.date();
+		}
+		if (iter.status() != StorageIter.Status.OK)
+			println("Data " + iter.status() + " after " + lastOkDate());
+		println("Found " + fmt(live.size()) + " records");
+	}
+
+	private class Scanner extends CommitProcessor {
+
+		Scanner(int adr) {
+			super(dstor, adr);
+		}
+
+		@Override
+		void add(int tblnum, int adr) {
+			live.put(adr, tblnum);
+			if (tblnum == TN.TABLES)
+				maxTblnum = Math.max(maxTblnum,
+						new DataRecord(stor, adr).getInt(Table.TBLNUM));
+		}
+
+		@Override
+		void update(int from, int to) {
+			assert live.containsKey(from) : "update of unknown record " + from;
+			live.put(to, live.remove(from));
+		}
+
+		@Override
+		void remove(int adr) {
+			assert live.containsKey(adr) : "remove of unknown record " + adr;
+			live.remove(adr);
+		}
+	}
+
+	/**
+	 * Build the indexes for all the tables
+	 * and store them, along with the table info, in istor
+	 */
+	void build(Storage istor) {
+		TIntObjectHashMap<TIntArrayList> byTable = byTable();
+		List<TableTask> tables = tables(byTable);
+		println("Building indexes for " + tables.size() + " tables...");
+		Stopwatch sw = Stopwatch.createStarted();
+		ExecutorService executor = Executors.newFixedThreadPool(N_THREADS);
+		DbHashTrie dbinfo = DbHashTrie.empty(istor);
+		try {
+			for (TableTask tt : tables)
+				tt.submit(executor);
+			for (TableTask tt : tables)
+				dbinfo = dbinfo.with(tt.tableInfo());
+		} finally {
+			executor.shutdownNow();
+		}
+		println("Built indexes in " + sw);
+		Persist persist = new Persist(dbinfo, istor);
+		persist.startStore();
+		persist.storeBtrees();
+		persist.finish(maxTblnum, lastcksum, lastadr);
+	}
+
+	/** @return The live record addresses for each table */
+	private TIntObjectHashMap<TIntArrayList> byTable() {
+		TIntObjectHashMap<TIntArrayList> byTable = new TIntObjectHashMap<>();
+		live.forEachEntry((adr, tblnum) -> {
+			TIntArrayList adrs = byTable.get(tblnum);
+			if (adrs == null)
+				byTable.put(tblnum, adrs = new TIntArrayList());
+			adrs.add(adr);
+			return true;
+		});
+		byTable.forEachValue(adrs -> {
+			adrs.sort(); // for sequential access
+			return true;
+		});
+		return byTable;
+	}
+
+	/** @return The tables and their indexes from the system tables */
+	private List<TableTask> tables(TIntObjectHashMap<TIntArrayList> byTable) {
+		TIntObjectHashMap<TableTask> tables = new TIntObjectHashMap<>();
+		List<TableTask> list = new ArrayList<>();
+		for (DataRecord rec : records(byTable, TN.TABLES)) {
+			int tblnum = rec.getInt(Table.TBLNUM);
+			TIntArrayList adrs = byTable.get(tblnum);
+			TableTask tt = new TableTask(tblnum,
+					adrs == null ? new TIntArrayList() : adrs);
+			tables.put(tblnum, tt);
+			list.add(tt);
+		}
+		for (DataRecord rec : records(byTable, TN.COLUMNS)) {
+			Column col = new Column(rec);
+			TableTask tt = tables.get(col.tblnum);
+			if (tt != null)
+				tt.nextfield = Math.max(tt.nextfield, col.field + 1);
+		}
+		for (DataRecord rec : records(byTable, TN.INDEXES)) {
+			Index index = new Index(rec);
+			TableTask tt = tables.get(index.tblnum);
+			if (tt != null)
+				tt.indexes.add(index);
+		}
+		return list;
+	}
+
+	private List<DataRecord> records(TIntObjectHashMap<TIntArrayList> byTable,
+			int tblnum) {
+		List<DataRecord> recs = new ArrayList<>();
+		TIntArrayList adrs = byTable.get(tblnum);
+		if (adrs != null)
+			for (int i = 0; i < adrs.size(); ++i)
+				recs.add(new DataRecord(dstor, adrs.get(i)));
+		return recs;
+	}
+
+	/** Builds the table info and indexes for one table */
+	private class TableTask {
+		final int tblnum;
+		final TIntArrayList adrs;
+		final List<Index> indexes = new ArrayList<>();
+		int nextfield = 0;
+		long totalsize = 0;
+		Future<?> stats;
+		final List<Future<BtreeInfo>> btrees = new ArrayList<>();
+
+		TableTask(int tblnum, TIntArrayList adrs) {
+			this.tblnum = tblnum;
+			this.adrs = adrs;
+		}
+
+		void submit(ExecutorService executor) {
+			stats = executor.submit(this::stats);
+			for (Index index : indexes)
+				btrees.add(executor.submit(() -> buildIndex(index.colNums)));
+		}
+
+		/**
+		 * Totals the record sizes.
+		 * Also ensures nextfield is past any dropped columns
+		 * since the records may still have data for them.
+		 */
+		void stats() {
+			for (int i = 0; i < adrs.size(); ++i) {
+				DataRecord rec = new DataRecord(dstor, adrs.get(i));
+				totalsize += rec.bufSize();
+				nextfield = Math.max(nextfield, rec.size());
+			}
+		}
+
+		BtreeInfo buildIndex(int[] colNums) {
+			BtreeKey[] keys = new BtreeKey[adrs.size()];
+			for (int i = 0; i < adrs.size(); ++i) {
+				int adr = adrs.get(i);
+				keys[i] = IndexedData.key(new DataRecord(dstor, adr), colNums, adr);
+			}
+			Arrays.sort(keys);
+			BtreeBuilder builder = new BtreeBuilder();
+			for (BtreeKey key : keys)
+				builder.add(key);
+			return builder.build();
+		}
+
+		/** waits for the tasks to finish */
+		TableInfo tableInfo() {
+			ImmutableList.Builder<IndexInfo> ii = ImmutableList.builder();
+			try {
+				stats.get();
+				for (int i = 0; i < indexes.size(); ++i)
+					ii.add(new IndexInfo(indexes.get(i).colNums, btrees.get(i).get()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("rebuild interrupted", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("rebuild failed", e.getCause());
+			}
+			return new TableInfo(tblnum, nextfield, adrs.size(), totalsize,
+					ii.build());
+		}
+	}
+
+	String lastOkDate() {
+		return lastOkDate == null ? "not found"
+				: new SimpleDateFormat("yyyy-MM-dd HH:mm").format(lastOkDate);
+	}
+
+	private static String fmt(long n) {
+		return String.format("%,d", n);
+	}
+
+	private static void println(String s) {
+		System.out.println(s);
+	}
+
+}
@@ -4,10 +4,13 @@
 
 package suneido.database.immudb;
 
-import static suneido.database.immudb.Storage.align;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
 
 import suneido.database.immudb.DbHashTrie.Entry;
@@ -25,22 +28,52 @@ import suneido.database.immudb.DbHashTrie.Translator;
  * body - btrees and dbinfo<br>
  * dbinfo root and dbstate.lastcksum<br>
  * tail - checksum and size (checksum zero if aborted)
+ * <p>
+ * To avoid blocking commits,
+ * the btrees from a snapshot of the database state
+ * are stored without holding the commit lock.
+ * Then the commit lock is only held to store what was committed
+ * in the meantime and to publish the new state.
+ * Since frozen btree nodes are not stored twice,
+ * this second pass only stores the nodes modified since the snapshot.
  */
 class Persist {
 	static final int HEAD_SIZE = 2 * Integer.BYTES; // size and timestamp
 	static final int TAIL_SIZE = 2 * Integer.BYTES; // checksum and size
-	{ assert TAIL_SIZE == align(TAIL_SIZE); }
-	static final int ENDING_SIZE = align(4 * Integer.BYTES);
+	static final int ENDING_SIZE = 4 * Integer.BYTES;
 	private final Storage istor;
 	private DbHashTrie dbinfo;
 	private int head_adr = 0;
 	private int dbinfoadr;
-
+	private long size;
+	/** the btree nodes stored by this persist, reset if it aborts */
+	private final List<BtreeMemNode> stored = new ArrayList<>();
+	private boolean finished = false;
+
+	/**
+	 * Called by Database.persist holding the persist lock.
+	 * If it fails (e.g. timing out waiting for the commit lock)
+	 * the partial persist is aborted.
+	 */
 	static void persist(Database db) {
-		db.withCommitLock(() -> {
-			Persist p = new Persist(db.state.dbinfo, db.istor);
-			p.run(db);
-		});
+		Stopwatch sw = Stopwatch.createStarted();
+		Stopwatch locked = Stopwatch.createUnstarted();
+		Database.State snapshot = db.state;
+		Persist p = new Persist(snapshot.dbinfo, db.istor);
+		p.startStore();
+		try {
+			p.storeBtrees();
+			db.withCommitLock(() -> {
+				locked.start();
+				p.run(db, snapshot);
+				locked.stop();
+			});
+		} catch (Throwable e) {
+			p.abort(db.state);
+			throw e;
+		}
+		db.persistStats.add(sw.elapsed(NANOSECONDS), locked.elapsed(NANOSECONDS),
+				p.size);
 	}
 
 	Persist(DbHashTrie dbinfo, Storage istor) {
@@ -48,10 +81,13 @@ class Persist {
 		this.istor = istor;
 	}
 
-	private void run(Database db) {
+	/** Called holding the commit lock */
+	private void run(Database db, Database.State snapshot) {
 		Database.State dbstate = db.state;
-		startStore();
-		storeBtrees();
+		if (dbstate != snapshot) { // commits since snapshot
+			dbinfo = dbstate.dbinfo;
+			storeBtrees();
+		}
 		finish(db, dbstate.schema, dbstate.lastcksum, dbstate.lastadr);
 	}
 
@@ -76,7 +112,9 @@ class Persist {
 				ImmutableList.Builder<IndexInfo> b = ImmutableList.builder();
 				for (IndexInfo ii : ti.indexInfo)
 					if (ii.rootNode != null) {
-						BtreeDbNode root = ii.rootNode.store(this.istor);
+						BtreeDbNode root = (ii.rootNode instanceof BtreeMemNode)
+								? ((BtreeMemNode) ii.rootNode).store(istor, stored)
+								: ii.rootNode.store(istor);
 						b.add(new IndexInfo(ii, root));
 						modified = true;
 					} else
@@ -92,19 +130,26 @@ class Persist {
 
 	/** also called by BulkTransaction */
 	void finish(Database db, Tables schema, int lastcksum, int lastadr) {
+		finish(schema.maxTblnum, lastcksum, lastadr);
+		db.setState(dbinfoadr, dbinfo, schema, lastcksum, lastadr);
+		db.setPersistState();
+	}
+
+	/** used directly by ParallelRebuild which does not have a Database */
+	void finish(int maxTblnum, int lastcksum, int lastadr) {
 		dbinfoadr = storeDbinfo();
-		ending(dbinfoadr, schema.maxTblnum, lastcksum, lastadr);
+		ending(dbinfoadr, maxTblnum, lastcksum, lastadr);
 
-		int tail_adr = istor.alloc(TAIL_SIZE);
-		int size = Storage.sizeToInt(istor.sizeFrom(head_adr));
-		istor.buffer(head_adr).putInt(size).putInt(Tran.datetime());
+		ByteBuffer tail = istor.allocTail(TAIL_SIZE);
+		size = istor.sizeFrom(head_adr);
+		int sizeInt = istor.sizeToInt(size);
+		istor.buffer(head_adr).putInt(sizeInt).putInt(Tran.datetime());
 
 		int cksum = istor.checksum(head_adr);
-		istor.buffer(tail_adr).putInt(cksum).putInt(size);
+		tail.putInt(cksum).putInt(sizeInt);
 		istor.protect();
-
-		db.setState(dbinfoadr, dbinfo, schema, lastcksum, lastadr);
-		db.setPersistState();
+		finished = true;
+		stored.clear();
 	}
 
 	private void ending(int dbinfoadr, int maxTblnum, int lastcksum, int lastadr) {
@@ -136,26 +181,42 @@ class Persist {
 		}
 	}
 
-	/** used by BulkTransaction */
+	/**
+	 * Used by BulkTransaction and persist.
+	 * Does nothing if the persist already finished.
+	 * The btree nodes stored by this persist are reset
+	 * so they will not be reused from the aborted storage.
+	 */
 	void abort(Database.State dbstate) {
+		if (finished)
+			return;
+		finished = true;
+		for (BtreeMemNode node : stored)
+			node.unstore();
+		stored.clear();
 		ending(dbstate.dbinfoadr, dbstate.schema.maxTblnum,
 				dbstate.lastcksum, dbstate.lastadr);
-		int tail_adr = istor.alloc(TAIL_SIZE);
-		int sizeInt = Storage.sizeToInt(istor.sizeFrom(head_adr));
+		ByteBuffer tail = istor.allocTail(TAIL_SIZE);
+		int sizeInt = istor.sizeToInt(istor.sizeFrom(head_adr));
 		istor.buffer(head_adr).putInt(sizeInt).putInt(0);
-		istor.buffer(tail_adr).putInt(0).putInt(sizeInt);
+		tail.putInt(0).putInt(sizeInt);
 		istor.protect();
 	}
 
 	/** used by Database open */
 	static int dbinfoadr(Storage istor) {
-		ByteBuffer buf = istor.rbuffer(-(Persist.TAIL_SIZE + ENDING_SIZE));
+		ByteBuffer buf = istor.rbuffer(-endingSize(istor));
 		return buf.getInt();
 	}
 	static int maxTblnum(Storage istor) {
-		ByteBuffer buf = istor.rbuffer(-(Persist.TAIL_SIZE + ENDING_SIZE));
+		ByteBuffer buf = istor.rbuffer(-endingSize(istor));
 		buf.getInt(); // dbinfoadr
 		return buf.getInt();
 	}
 
+	/** @return The stored size of the ending plus the tail */
+	static int endingSize(Storage istor) {
+		return istor.align(ENDING_SIZE) + istor.align(TAIL_SIZE);
+	}
+
 }
@@ -0,0 +1,61 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import suneido.util.ThreadSafe;
+
+/**
+ * Statistics for {@link Persist}
+ * so we can see how long it takes and how long it blocks commits.
+ */
+@ThreadSafe
+class PersistStats {
+	private long count = 0;
+	private long lastNanos = 0;
+	private long lastLockNanos = 0;
+	private long maxLockNanos = 0;
+	private long lastBytes = 0;
+	private long totalBytes = 0;
+
+	synchronized void add(long nanos, long lockNanos, long bytes) {
+		++count;
+		lastNanos = nanos;
+		lastLockNanos = lockNanos;
+		maxLockNanos = Math.max(maxLockNanos, lockNanos);
+		lastBytes = bytes;
+		totalBytes += bytes;
+	}
+
+	synchronized long count() {
+		return count;
+	}
+
+	synchronized long lastLockNanos() {
+		return lastLockNanos;
+	}
+
+	synchronized long maxLockNanos() {
+		return maxLockNanos;
+	}
+
+	synchronized long totalBytes() {
+		return totalBytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return count + " persists, last took " + ms(lastNanos) +
+				" ms, holding commit lock " + ms(lastLockNanos) +
+				" ms (max " + ms(maxLockNanos) + " ms), wrote " +
+				lastBytes + " bytes (total " + totalBytes + ")";
+	}
+
+	private static long ms(long nanos) {
+		return NANOSECONDS.toMillis(nanos);
+	}
+
+}
@@ -5,6 +5,7 @@
 package suneido.database.immudb;
 
 import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Set;
 import java.util.TreeMap;
 
@@ -36,9 +37,14 @@ class ReadTransaction extends Transaction {
 	protected boolean ended = false;
 
 	ReadTransaction(int num, Database db) {
+		this(num, db, db.state);
+	}
+
+	/** Used by Database to load the schema for a state before publishing it */
+	ReadTransaction(int num, Database db, Database.State dbstate) {
 		this.num = num;
 		this.db = db;
-		dbstate = db.state; // don't inline, read only once
+		this.dbstate = dbstate;
 		schema = dbstate.schema;
 		dbinfo = dbstate.dbinfo;
 		tran = new Tran(db.dstor, db.istor);
@@ -236,13 +242,59 @@ class ReadTransaction extends Transaction {
 	@Override
 	public float rangefrac(int tblnum, String columns, Record from, Record to) {
 		Index index = index(tblnum, columns);
-		if (index.mode() == Mode.KEY && sameKey(from, to)) {
-			int n = tableCount(tblnum);
+		int n = tableCount(tblnum);
+		boolean single = sameKey(from, to);
+		if (index.mode() == Mode.KEY && single)
 			return n > 0 ? 1.0f / n : Btree.MIN_FRAC;
-		}
+		IndexStats stats = db.indexStats.get(tblnum, index.colNums, n);
+		if (stats != null)
+			return stats.rangefrac(from, to, single ? from.size() : 0);
 		return getIndex(index).rangefrac(from, to);
 	}
 
+	/**
+	 * Uses a key containing the columns, otherwise the statistics
+	 * of an index whose leading columns are the columns (in any order).
+	 */
+	@Override
+	public int ndistinct(int tblnum, Collection<String> columns) {
+		Table table = getTable(tblnum);
+		if (table == null || columns.isEmpty())
+			return -1;
+		int[] fields = new int[columns.size()];
+		int i = 0;
+		for (String col : columns) {
+			Column c = table.getColumn(col);
+			if (c == null)
+				return -1; // e.g. rule
+			fields[i++] = c.field;
+		}
+		int n = tableCount(tblnum);
+		for (Index index : table.indexesList())
+			if (index.isKey() && contains(fields, index.colNums, 0))
+				return n;
+		for (Index index : table.indexesList())
+			if (index.colNums.length >= fields.length &&
+					contains(index.colNums, fields, fields.length)) {
+				IndexStats stats = db.indexStats.get(tblnum, index.colNums, n);
+				return stats == null ? -1 : stats.ndistinct(fields.length);
+			}
+		return -1;
+	}
+
+	/** @return Whether the first n of x (all if n is 0) contain all of y */
+	private static boolean contains(int[] x, int[] y, int n) {
+		if (n == 0)
+			n = x.length;
+		outer: for (int f : y) {
+			for (int i = 0; i < n; ++i)
+				if (x[i] == f)
+					continue outer;
+			return false;
+		}
+		return true;
+	}
+
 	private static boolean sameKey(Record from, Record to) {
 		if (from.size() != to.size() - 1)
 			return false;
@@ -314,7 +366,7 @@ class ReadTransaction extends Transaction {
 
 	@Override
 	public DataRecord input(int adr) {
-		return tran.getrec(adr);
+		return IntRefs.isIntRef(adr) ? tran.getrec(adr) : db.records.get(adr);
 	}
 
 	@Override
@@ -331,7 +383,7 @@ class ReadTransaction extends Transaction {
 	@Override
 	public Record fromRef(Object ref) {
 		return ref instanceof Integer
-				? tran.getrec((Integer) ref)
+				? input((Integer) ref)
 				: Record.from((ByteBuffer) ref);
 	}
 
@@ -61,6 +61,12 @@ public class RecordBuilder {
 		return this;
 	}
 
+	/** add a field from part of a buffer */
+	RecordBuilder add(ByteBuffer buf, int off, int len) {
+		add1(buf, off, len);
+		return this;
+	}
+
 	public RecordBuilder addMin() {
 		return add(Record.MIN_FIELD);
 	}
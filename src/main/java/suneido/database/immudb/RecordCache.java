@@ -0,0 +1,63 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Optional bounded cache of data records read by transactions,
+ * keyed by address, so hot records are not decoded (decompressed) repeatedly.
+ * This is safe because stored records are never modified
+ * (the data file is append only).
+ * Uncommitted records (IntRefs) are not cached.
+ * <p>
+ * DataRecord address and tblnum are mutable
+ * (e.g. by compact and addRecord)
+ * so callers get a new DataRecord sharing the cached buffer.
+ * <p>
+ * There is a cache per Database (addresses are per database)
+ * but the hit and miss counts are totals, for HttpServerMonitor.
+ */
+class RecordCache {
+	/** set by Dbpkg.setOption("record_cache"), 0 means disabled */
+	static int size = 0;
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+	private final Storage dstor;
+	private final Cache<Integer,DataRecord> cache;
+
+	RecordCache(Storage dstor) {
+		this.dstor = dstor;
+		cache = (size <= 0) ? null
+				: CacheBuilder.newBuilder().maximumSize(size).build();
+	}
+
+	DataRecord get(int adr) {
+		if (cache == null)
+			return new DataRecord(dstor, adr);
+		DataRecord r = cache.getIfPresent(adr);
+		if (r != null)
+			hits.increment();
+		else {
+			misses.increment();
+			r = new DataRecord(dstor, adr);
+			cache.put(adr, r);
+		}
+		return r.copy();
+	}
+
+	static String stats() {
+		if (size <= 0)
+			return "";
+		long h = hits.sum();
+		long m = misses.sum();
+		long pct = (h + m == 0) ? 0 : (100 * h) / (h + m);
+		return "size " + size + " hits " + h + " misses " + m + " (" + pct + "%)";
+	}
+
+}
@@ -0,0 +1,122 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.util.ArrayDeque;
+
+/**
+ * Hash map from Record keys to int values, like {@link RecordMap},
+ * used by Project (LOOKUP) with a limited amount of memory.
+ * Unlike {@link RecordMultiMap}, finds and adds can be interleaved.
+ * <p>
+ * If the memory limit is exceeded, the entries are written (spilled)
+ * to {@link RecordPartitions} and subsequent adds are written to it.
+ * Finds load the partition for the key into memory,
+ * keeping as many of the most recently used partitions as fit.
+ * Adds to a loaded partition also update it.
+ */
+public class RecordLookup {
+	/** the per entry overhead, in addition to the key */
+	public static final int ENTRY_OVERHEAD = RecordMap.ENTRY_OVERHEAD;
+	private final long memoryLimit;
+	/** all the entries, until spilled */
+	private RecordMap mem = new RecordMap();
+	private RecordPartitions parts;
+	/** indexed by partition, only used after spilling */
+	private RecordMap[] loaded;
+	/** the loaded partitions, least recently used first */
+	private final ArrayDeque<Integer> lru = new ArrayDeque<>();
+	private long loadedMemory = 0;
+	/** the map used by the last find, for value */
+	private RecordMap last;
+
+	public RecordLookup(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * @return A handle for value, valid until the next find or add,
+	 * or -1 if the key is not in the map
+	 */
+	public int find(Record key) {
+		last = (parts == null) ? mem : part(RecordPartitions.partition(key));
+		return last.find(key);
+	}
+
+	public int value(int h) {
+		return last.value(h);
+	}
+
+	/** The key must not already be in the map */
+	public void add(Record key, int value) {
+		if (parts == null) {
+			mem.add(key, value);
+			if (mem.memory() > memoryLimit)
+				spill();
+			return;
+		}
+		int p = RecordPartitions.partition(key);
+		parts.add(p, value, key);
+		RecordMap part = loaded[p];
+		if (part != null) {
+			loadedMemory -= part.memory();
+			part.add(key, value);
+			loadedMemory += part.memory();
+		}
+	}
+
+	/** @return Whether the entries have been written to the temporary file */
+	public boolean spilled() {
+		return parts != null;
+	}
+
+	/** Releases the temporary file, if any */
+	public void close() {
+		if (parts != null)
+			parts.close();
+		parts = null;
+		loaded = null;
+		last = null;
+		lru.clear();
+	}
+
+	private void spill() {
+		parts = new RecordPartitions();
+		loaded = new RecordMap[RecordPartitions.NPARTS];
+		for (int h = 0; h < mem.size(); ++h) {
+			Record key = mem.key(h);
+			parts.add(RecordPartitions.partition(key), mem.value(h), key);
+		}
+		mem = null;
+	}
+
+	/** @return The estimated memory to load a partition */
+	private long partMemory(int p) {
+		return parts.bytes(p) + (long) parts.count(p) * ENTRY_OVERHEAD;
+	}
+
+	/** @return The partition, loading it if necessary */
+	private RecordMap part(int p) {
+		if (loaded[p] != null) {
+			if (lru.peekLast() != p) {
+				lru.remove(p);
+				lru.add(p);
+			}
+			return loaded[p];
+		}
+		while (! lru.isEmpty() && loadedMemory + partMemory(p) > memoryLimit) {
+			int q = lru.remove();
+			loadedMemory -= loaded[q].memory();
+			loaded[q] = null;
+		}
+		RecordMap part = new RecordMap();
+		parts.read(p, (value, key) -> part.add(key, value));
+		loaded[p] = part;
+		loadedMemory += part.memory();
+		lru.add(p);
+		return part;
+	}
+
+}
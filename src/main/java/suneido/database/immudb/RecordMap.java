@@ -0,0 +1,139 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import suneido.util.IntComparator;
+import suneido.util.IntMergeTree;
+
+/**
+ * Open addressing hash map from Record keys to int values
+ * used by Summarize (MAP), {@link RecordLookup}, and {@link RecordMultiMap}.
+ * <p>
+ * Keys are packed in a {@link RecordStore}
+ * and entries are identified by int handles (0 to size - 1)
+ * so there are no per-entry objects.
+ * Keys larger than MAX_PACKED are kept as Records.
+ * <p>
+ * Memory is not limited here, users check memory()
+ * against RecordStore.memoryLimit and spill.
+ */
+public class RecordMap {
+	/** the per entry overhead (table at most half full), in addition to the key */
+	public static final int ENTRY_OVERHEAD = 4 * (2 * 2 + 3);
+	private static final int MAX_PACKED = 4000;
+	private final RecordStore stor = new RecordStore();
+	private final List<Record> large = new ArrayList<>();
+	/** handle + 1, 0 means empty slot */
+	private int[] table = new int[16];
+	// the following are indexed by handle
+	/** address in stor, or -(index in large) - 1 */
+	private int[] keys = new int[8];
+	private int[] hashes = new int[8];
+	private int[] values = new int[8];
+	private int size = 0;
+
+	/** @return The handle for key, or -1 if it is not in the map */
+	public int find(Record key) {
+		int hash = hash(key);
+		int mask = table.length - 1;
+		for (int i = hash & mask; table[i] != 0; i = (i + 1) & mask) {
+			int h = table[i] - 1;
+			if (hashes[h] == hash && key(h).equals(key))
+				return h;
+		}
+		return -1;
+	}
+
+	/**
+	 * Add a key that is not already in the map
+	 * @return The handle for the new entry
+	 */
+	public int add(Record key, int value) {
+		if (size >= keys.length) {
+			keys = Arrays.copyOf(keys, 2 * size);
+			hashes = Arrays.copyOf(hashes, 2 * size);
+			values = Arrays.copyOf(values, 2 * size);
+		}
+		int h = size++;
+		if (key.packSize() <= MAX_PACKED)
+			keys[h] = stor.add(key);
+		else {
+			keys[h] = -large.size() - 1;
+			large.add(key);
+		}
+		hashes[h] = hash(key);
+		values[h] = value;
+		if (2 * size > table.length)
+			rehash();
+		else
+			insert(h);
+		return h;
+	}
+
+	private void insert(int h) {
+		int mask = table.length - 1;
+		int i = hashes[h] & mask;
+		while (table[i] != 0)
+			i = (i + 1) & mask;
+		table[i] = h + 1;
+	}
+
+	private void rehash() {
+		table = new int[2 * table.length];
+		for (int h = 0; h < size; ++h)
+			insert(h);
+	}
+
+	/** Equivalent to the hashCode of the packed key, spread for masking */
+	static int hash(Record key) {
+		int hash = 17;
+		for (int f = 0; f < key.size(); ++f) {
+			ByteBuffer buf = key.fieldBuffer(f);
+			int off = key.fieldOffset(f);
+			int len = key.fieldLength(f);
+			for (int i = 0; i < len; ++i)
+				hash = 31 * hash + buf.get(off + i);
+			hash = 31 * hash + len;
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Record key(int h) {
+		int k = keys[h];
+		return k >= 0 ? stor.get(k) : large.get(-k - 1);
+	}
+
+	public int value(int h) {
+		return values[h];
+	}
+
+	/** @return The handles in key order */
+	public int[] sorted() {
+		IntComparator cmp = (int x, int y) -> key(x).compareTo(key(y));
+		IntMergeTree tree = new IntMergeTree(cmp);
+		for (int h = 0; h < size; ++h)
+			tree.add(h);
+		int[] sorted = new int[size];
+		IntMergeTree.Iter iter = tree.iter();
+		for (int i = 0; i < size; ++i)
+			sorted[i] = iter.next();
+		return sorted;
+	}
+
+	/** @return The approximate number of bytes used */
+	public long memory() {
+		return stor.size() + 4L * (table.length + 3 * keys.length);
+	}
+
+}
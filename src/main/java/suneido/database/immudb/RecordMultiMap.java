@@ -0,0 +1,174 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Hash map from Record keys to lists of int values
+ * used by Join (hash join) with a limited amount of memory.
+ * <p>
+ * Keys are held in a {@link RecordMap}.
+ * The values for each key are kept in the order they were added.
+ * <p>
+ * If the memory limit is exceeded, the entries are written (spilled)
+ * to {@link RecordPartitions} and subsequent adds are written directly to it.
+ * Lookups load the partition for the key into memory,
+ * keeping as many of the most recently used partitions as fit.
+ */
+public class RecordMultiMap {
+	/** the per entry overhead, in addition to the key */
+	public static final int ENTRY_OVERHEAD = RecordMap.ENTRY_OVERHEAD + 8;
+	public static final int NPARTS = RecordPartitions.NPARTS;
+	private final long memoryLimit;
+	/** all the entries, until spilled */
+	private Part mem = new Part();
+	private boolean finished = false;
+	private RecordPartitions parts;
+	/** indexed by partition, only used after spilling */
+	private Part[] loaded;
+	/** the loaded partitions, least recently used first */
+	private final ArrayDeque<Integer> lru = new ArrayDeque<>();
+	private long loadedMemory = 0;
+
+	public RecordMultiMap(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	public void add(Record key, int value) {
+		assert ! finished;
+		if (parts != null)
+			parts.add(RecordPartitions.partition(key), value, key);
+		else {
+			mem.add(key, value);
+			if (mem.memory() > memoryLimit)
+				spill();
+		}
+	}
+
+	/** @return Whether the entries have been written to the temporary file */
+	public boolean spilled() {
+		return parts != null;
+	}
+
+	/**
+	 * The first call finishes adding, after this add must not be called.
+	 * @return The values for key, in the order they were added,
+	 * or null if the key is not in the map
+	 */
+	public int[] get(Record key) {
+		if (! finished) {
+			finished = true;
+			if (parts == null)
+				mem.finish();
+		}
+		return (parts == null) ? mem.get(key)
+				: part(RecordPartitions.partition(key)).get(key);
+	}
+
+	/** Releases the temporary file, if any */
+	public void close() {
+		if (parts != null)
+			parts.close();
+		parts = null;
+		loaded = null;
+		lru.clear();
+	}
+
+	private void spill() {
+		parts = new RecordPartitions();
+		loaded = new Part[NPARTS];
+		for (int i = 0; i < mem.size(); ++i) {
+			Record key = mem.key(i);
+			parts.add(RecordPartitions.partition(key), mem.value(i), key);
+		}
+		mem = null;
+	}
+
+	/** @return The estimated memory to load a partition */
+	private long partMemory(int p) {
+		return parts.bytes(p) + (long) parts.count(p) * ENTRY_OVERHEAD;
+	}
+
+	/** @return The partition, loading it if necessary */
+	private Part part(int p) {
+		if (loaded[p] != null) {
+			lru.remove(p);
+			lru.add(p);
+			return loaded[p];
+		}
+		while (! lru.isEmpty() && loadedMemory + partMemory(p) > memoryLimit) {
+			int q = lru.remove();
+			loadedMemory -= loaded[q].memory();
+			loaded[q] = null;
+		}
+		Part part = new Part();
+		parts.read(p, (value, key) -> part.add(key, value));
+		part.finish();
+		loaded[p] = part;
+		loadedMemory += part.memory();
+		lru.add(p);
+		return part;
+	}
+	/** The entries in memory, either all of them or one partition */
+	private static class Part {
+		final RecordMap map = new RecordMap();
+		// while adding, the handle and value of each entry in order
+		TIntArrayList handles = new TIntArrayList();
+		TIntArrayList values = new TIntArrayList();
+		// after finish, the values for handle h are vals[start[h]] to vals[start[h + 1]]
+		int[] start;
+		int[] vals;
+
+		void add(Record key, int value) {
+			int h = map.find(key);
+			if (h < 0)
+				h = map.add(key, 0);
+			handles.add(h);
+			values.add(value);
+		}
+
+		int size() {
+			return handles.size();
+		}
+
+		Record key(int i) {
+			return map.key(handles.get(i));
+		}
+
+		int value(int i) {
+			return values.get(i);
+		}
+
+		/** group the values by handle, keeping their order */
+		void finish() {
+			int n = map.size();
+			start = new int[n + 1];
+			for (int i = 0; i < handles.size(); ++i)
+				++start[handles.get(i) + 1];
+			for (int h = 0; h < n; ++h)
+				start[h + 1] += start[h];
+			vals = new int[handles.size()];
+			int[] pos = Arrays.copyOf(start, n);
+			for (int i = 0; i < handles.size(); ++i)
+				vals[pos[handles.get(i)]++] = values.get(i);
+			handles = values = null;
+		}
+
+		int[] get(Record key) {
+			int h = map.find(key);
+			return h < 0 ? null : Arrays.copyOfRange(vals, start[h], start[h + 1]);
+		}
+
+		long memory() {
+			int n = (handles == null) ? vals.length : handles.size();
+			return map.memory() + 8L * n;
+		}
+	}
+
+}
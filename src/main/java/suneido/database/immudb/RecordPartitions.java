@@ -0,0 +1,127 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.nio.ByteBuffer;
+
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * Entries (an int value and a Record) divided by hash into NPARTS partitions
+ * and written to a {@link TempFile}.
+ * Used to spill hash tables that exceed the memory limit
+ * by {@link RecordMultiMap}, {@link RecordLookup},
+ * and Summarize (SummarizeStrategyMap)
+ * <p>
+ * Each partition has its own write buffer
+ * and a list of the chunks of the file it has written.
+ * Each entry is written as value, record length, record.
+ */
+public class RecordPartitions {
+	private static final int PARTBITS = 5;
+	public static final int NPARTS = 1 << PARTBITS;
+	private static final int BUFSIZE = 16 * 1024;
+	private final TempFile file = new TempFile();
+	private final ByteBuffer[] bufs = new ByteBuffer[NPARTS];
+	/** file offset and length of each chunk written by the partition */
+	private final TLongArrayList[] chunks = new TLongArrayList[NPARTS];
+	private final long[] bytes = new long[NPARTS];
+	private final int[] counts = new int[NPARTS];
+
+	public RecordPartitions() {
+		for (int p = 0; p < NPARTS; ++p)
+			chunks[p] = new TLongArrayList();
+	}
+
+	/** the number of levels of partitioning, each uses different hash bits */
+	public static final int NLEVELS = 32 / PARTBITS;
+
+	/**
+	 * Uses the high bits of the hash of the key
+	 * so it is independent of RecordMap slots
+	 */
+	public static int partition(Record key) {
+		return partition(key, 0);
+	}
+
+	/**
+	 * For repartitioning a partition that is still too large.
+	 * Level 0 uses the high bits, each subsequent level the next lower bits.
+	 */
+	public static int partition(Record key, int level) {
+		assert 0 <= level && level < NLEVELS;
+		return ((RecordMap.hash(key) * 0x9E3779B9) >>>
+				(32 - PARTBITS * (level + 1))) & (NPARTS - 1);
+	}
+
+	public void add(int p, int value, Record rec) {
+		int len = rec.packSize();
+		ByteBuffer buf = bufs[p];
+		if (buf == null || buf.remaining() < len + 8) {
+			flush(p);
+			if (buf == null || buf.capacity() < len + 8)
+				buf = bufs[p] = ByteBuffer.allocate(Math.max(BUFSIZE, len + 8));
+		}
+		buf.putInt(value);
+		buf.putInt(len);
+		rec.pack(buf);
+		bytes[p] += len;
+		++counts[p];
+	}
+
+	/** @return The number of entries in the partition */
+	public int count(int p) {
+		return counts[p];
+	}
+
+	/** @return The total size of the records in the partition */
+	public long bytes(int p) {
+		return bytes[p];
+	}
+
+	private void flush(int p) {
+		ByteBuffer buf = bufs[p];
+		if (buf == null || buf.position() == 0)
+			return;
+		buf.flip();
+		chunks[p].add(file.size());
+		chunks[p].add(buf.remaining());
+		file.write(buf);
+		buf.clear();
+	}
+
+	public interface Reader {
+		void entry(int value, Record rec);
+	}
+
+	/**
+	 * Calls reader for each of the entries in a partition,
+	 * in the order they were added.
+	 * The records are only valid during the call.
+	 */
+	public void read(int p, Reader reader) {
+		flush(p);
+		TLongArrayList ch = chunks[p];
+		for (int i = 0; i < ch.size(); i += 2) {
+			ByteBuffer buf = ByteBuffer.allocate((int) ch.get(i + 1));
+			file.read(buf, ch.get(i));
+			buf.flip();
+			while (buf.hasRemaining()) {
+				int value = buf.getInt();
+				int len = buf.getInt();
+				ByteBuffer rec = buf.slice();
+				rec.limit(len);
+				reader.entry(value, new BufRecord(rec));
+				buf.position(buf.position() + len);
+			}
+		}
+	}
+
+	/** Releases the temporary file */
+	public void close() {
+		file.close();
+	}
+
+}
@@ -0,0 +1,428 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gnu.trove.list.array.TLongArrayList;
+import suneido.util.IntComparator;
+import suneido.util.IntSort;
+
+/**
+ * Sorts records (keys) for TempIndex and Summarize (MAP)
+ * with a limited amount of memory.
+ * <p>
+ * Records are accumulated in a {@link RecordStore}
+ * along with an array of their addresses.
+ * If the memory limit is exceeded, the addresses are sorted,
+ * and the records are written (spilled) in order
+ * as a "run" to a {@link TempFile}, and accumulation starts over.
+ * Iteration is a k-way merge of the runs
+ * plus the final records, which are sorted and left in memory.
+ * <p>
+ * Reading the source is sequential,
+ * but large sorts are done in parallel by {@link IntSort}.
+ * The RecordStore is not modified during the sort,
+ * so it is safe for the comparator to read it from multiple threads.
+ * <p>
+ * Each record in the file is written as length, record, length
+ * so runs can be read in either direction.
+ * The offset of every SAMPLE'th record is kept in memory
+ * so seeking within a run is a binary search followed by a short scan.
+ * <p>
+ * Records must be unique (TempIndex adds the address to the key,
+ * Summarize results start with the unique by values)
+ * so that switching directions is unambiguous.
+ */
+public class RecordSorter {
+	private static final int SAMPLE = 64;
+	private static final int BUFSIZE = 64 * 1024;
+	private final long memoryLimit;
+	private RecordStore stor;
+	private int[] adrs = new int[64];
+	private int n = 0;
+	private TempFile file;
+	private final List<Run> runs = new ArrayList<>();
+
+	public RecordSorter(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+		stor = new RecordStore();
+	}
+
+	public void add(Record rec) {
+		if (n >= adrs.length)
+			adrs = Arrays.copyOf(adrs, 2 * n);
+		adrs[n++] = stor.add(rec);
+		// approximate, an int per record plus a temporary int for sorting
+		if (stor.size() + 8L * n > memoryLimit)
+			spill();
+	}
+
+	/** @return The number of runs written to the temporary file */
+	public int nruns() {
+		return runs.size();
+	}
+
+	/**
+	 * Finishes adding, after this add must not be called.
+	 * @return An iterator over the sorted records
+	 */
+	public Iter iter() {
+		sort();
+		List<Cursor> cursors = new ArrayList<>();
+		for (Run run : runs)
+			cursors.add(new FileCursor(run));
+		if (n > 0 || cursors.isEmpty())
+			cursors.add(new MemCursor(stor, Arrays.copyOf(adrs, n)));
+		adrs = null;
+		return new MergeIter(cursors);
+	}
+
+	private void sort() {
+		RecordStore stor = this.stor;
+		IntComparator cmp = (int x, int y) -> stor.get(x).compareTo(stor.get(y));
+		IntSort.sort(adrs, n, cmp);
+	}
+
+	/** Releases the temporary file, if any */
+	public void close() {
+		if (file != null)
+			file.close();
+		file = null;
+	}
+
+	private void spill() {
+		if (file == null)
+			file = new TempFile();
+		long start = file.size();
+		sort();
+		TLongArrayList samples = new TLongArrayList();
+		ByteBuffer buf = ByteBuffer.allocate(BUFSIZE);
+		for (int i = 0; i < n; ++i) {
+			Record rec = stor.get(adrs[i]);
+			int len = rec.packSize();
+			if (buf.remaining() < len + 8) {
+				write(buf);
+				if (buf.capacity() < len + 8)
+					buf = ByteBuffer.allocate(len + 8);
+			}
+			if (i % SAMPLE == 0)
+				samples.add(file.size() + buf.position());
+			buf.putInt(len);
+			rec.pack(buf);
+			buf.putInt(len);
+		}
+		write(buf);
+		runs.add(new Run(start, file.size(), samples.toArray()));
+		stor = new RecordStore();
+		n = 0;
+	}
+
+	private void write(ByteBuffer buf) {
+		buf.flip();
+		file.write(buf);
+		buf.clear();
+	}
+
+	/**
+	 * Iterates over the sorted records in either direction.
+	 * next and prev return null at the ends.
+	 */
+	public interface Iter {
+		/** Position before the first record >= key */
+		void seekFirst(Record key);
+		/** Position after the last record <= key */
+		void seekLast(Record key);
+		Record next();
+		Record prev();
+	}
+
+	private enum Dir { NEXT, PREV }
+
+	/**
+	 * k-way merge of the runs.
+	 * Like IntMergeTree.Iter, each run is positioned between records
+	 * so when changing direction the current record must be skipped.
+	 */
+	private static class MergeIter implements Iter {
+		private final List<Cursor> cursors;
+		private Dir dir = null;
+
+		MergeIter(List<Cursor> cursors) {
+			this.cursors = cursors;
+		}
+
+		@Override
+		public void seekFirst(Record key) {
+			for (Cursor c : cursors)
+				c.seek(key, false);
+			dir = Dir.NEXT;
+		}
+
+		@Override
+		public void seekLast(Record key) {
+			for (Cursor c : cursors)
+				c.seek(key, true);
+			dir = Dir.PREV;
+		}
+
+		@Override
+		public Record next() {
+			if (dir == null)
+				for (Cursor c : cursors)
+					c.first();
+			else if (dir == Dir.PREV)
+				next2(); // have to skip when changing direction
+			return next2();
+		}
+
+		private Record next2() {
+			Cursor cMin = null;
+			Record min = null;
+			for (Cursor c : cursors) {
+				Record rec = c.peekNext();
+				if (rec != null && (min == null || rec.compareTo(min) < 0)) {
+					min = rec;
+					cMin = c;
+				}
+			}
+			if (cMin == null)
+				dir = Dir.PREV;
+			else {
+				dir = Dir.NEXT;
+				cMin.next();
+			}
+			return min;
+		}
+
+		@Override
+		public Record prev() {
+			if (dir == null)
+				for (Cursor c : cursors)
+					c.last();
+			else if (dir == Dir.NEXT)
+				prev2(); // have to skip when changing direction
+			return prev2();
+		}
+
+		private Record prev2() {
+			Cursor cMax = null;
+			Record max = null;
+			for (Cursor c : cursors) {
+				Record rec = c.peekPrev();
+				if (rec != null && (max == null || rec.compareTo(max) > 0)) {
+					max = rec;
+					cMax = c;
+				}
+			}
+			if (cMax == null)
+				dir = Dir.NEXT;
+			else {
+				dir = Dir.PREV;
+				cMax.prev();
+			}
+			return max;
+		}
+	}
+
+	/** A sorted run within the temporary file */
+	private static class Run {
+		final long start;
+		final long end;
+		/** file offsets of every SAMPLE'th record */
+		final long[] samples;
+
+		Run(long start, long end, long[] samples) {
+			this.start = start;
+			this.end = end;
+			this.samples = samples;
+		}
+	}
+
+	/** A position between records within a sorted run */
+	private abstract static class Cursor {
+		abstract void first();
+		abstract void last();
+		/** @return The record after the position, or null if at the end */
+		abstract Record peekNext();
+		abstract void next();
+		/** @return The record before the position, or null if at the start */
+		abstract Record peekPrev();
+		abstract void prev();
+		/**
+		 * Position before the first record > key (after = true)
+		 * or >= key (after = false)
+		 */
+		abstract void seek(Record key, boolean after);
+
+		static boolean before(Record rec, Record key, boolean after) {
+			int c = rec.compareTo(key);
+			return after ? c <= 0 : c < 0;
+		}
+	}
+
+	/** The final sorted records, left in memory */
+	private static class MemCursor extends Cursor {
+		private final RecordStore stor;
+		private final int[] adrs;
+		private int pos = 0;
+
+		MemCursor(RecordStore stor, int[] adrs) {
+			this.stor = stor;
+			this.adrs = adrs;
+		}
+
+		@Override
+		void first() {
+			pos = 0;
+		}
+
+		@Override
+		void last() {
+			pos = adrs.length;
+		}
+
+		@Override
+		Record peekNext() {
+			return pos >= adrs.length ? null : stor.get(adrs[pos]);
+		}
+
+		@Override
+		void next() {
+			++pos;
+		}
+
+		@Override
+		Record peekPrev() {
+			return pos <= 0 ? null : stor.get(adrs[pos - 1]);
+		}
+
+		@Override
+		void prev() {
+			--pos;
+		}
+
+		@Override
+		void seek(Record key, boolean after) {
+			int lo = 0;
+			int hi = adrs.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (before(stor.get(adrs[mid]), key, after))
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			pos = lo;
+		}
+	}
+
+	/** A run in the temporary file, read through a buffered window */
+	private class FileCursor extends Cursor {
+		final Run run;
+		/** file offset between records */
+		long pos;
+		private ByteBuffer buf;
+		private long bufStart = 0;
+		private int bufLen = 0;
+
+		FileCursor(Run run) {
+			this.run = run;
+			pos = run.start;
+			buf = ByteBuffer.allocate((int) Math.min(BUFSIZE, run.end - run.start));
+		}
+
+		@Override
+		void first() {
+			pos = run.start;
+		}
+
+		@Override
+		void last() {
+			pos = run.end;
+		}
+
+		@Override
+		Record peekNext() {
+			return pos >= run.end ? null : recordAt(pos);
+		}
+
+		@Override
+		void next() {
+			pos += lengthAt(pos, true) + 8;
+		}
+
+		@Override
+		Record peekPrev() {
+			if (pos <= run.start)
+				return null;
+			int len = lengthAt(pos - 4, false);
+			return recordAt(pos - len - 8);
+		}
+
+		@Override
+		void prev() {
+			pos -= lengthAt(pos - 4, false) + 8;
+		}
+
+		@Override
+		void seek(Record key, boolean after) {
+			// binary search for the last sample that is before the position
+			int lo = 0;
+			int hi = run.samples.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (before(recordAt(run.samples[mid]), key, after))
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			pos = lo == 0 ? run.start : run.samples[lo - 1];
+			// then scan forward
+			for (Record rec; null != (rec = peekNext()) && before(rec, key, after); )
+				next();
+		}
+
+		/** @return A copy of the record at the given file offset */
+		private Record recordAt(long off) {
+			int len = lengthAt(off, true);
+			load(off, len + 4, true);
+			ByteBuffer b = buf.duplicate();
+			int i = (int) (off - bufStart) + 4;
+			b.limit(i + len).position(i);
+			ByteBuffer copy = ByteBuffer.allocate(len);
+			copy.put(b);
+			return new BufRecord(copy);
+		}
+
+		private int lengthAt(long off, boolean forward) {
+			load(off, 4, forward);
+			return buf.getInt((int) (off - bufStart));
+		}
+
+		/**
+		 * Ensure the buffer contains len bytes at off.
+		 * Reads ahead if forward, otherwise behind.
+		 */
+		private void load(long off, int len, boolean forward) {
+			if (bufStart <= off && off + len <= bufStart + bufLen)
+				return;
+			if (buf.capacity() < len)
+				buf = ByteBuffer.allocate(len);
+			int size = buf.capacity();
+			long from = forward
+					? off
+					: Math.max(run.start, off + len - size);
+			bufLen = (int) Math.min(size, run.end - from);
+			bufStart = from;
+			buf.clear().limit(bufLen);
+			file.read(buf, from);
+		}
+	}
+
+}
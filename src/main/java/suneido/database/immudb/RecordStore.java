@@ -9,6 +9,8 @@ package suneido.database.immudb;
  * to avoid per-object overhead for large numbers of keys.
  */
 public class RecordStore {
+	/** set by Dbpkg.setOption("query_memory"), the budget for one operator */
+	public static long memoryLimit = 256 * 1024 * 1024;
 	private final HeapStorage stor = new HeapStorage(16 * 1024);
 
 	public int add(Record rec) {
@@ -20,4 +22,9 @@ public class RecordStore {
 	public Record get(int adr) {
 		return new BufRecord(stor.buffer(adr));
 	}
+
+	/** @return The number of bytes used */
+	public long size() {
+		return stor.sizeFrom(0);
+	}
 }
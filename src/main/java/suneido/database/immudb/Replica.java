@@ -0,0 +1,236 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import suneido.SuException;
+import suneido.database.immudb.Check.PersistInfo;
+
+/**
+ * A read-only copy of a database that is being updated by another process
+ * (the primary) on the same machine, used to serve read-only queries.
+ * The data and index files are memory mapped read-only.
+ * Since they are append only, the replica can follow the primary:
+ * <ul>
+ * <li>New persists in the index file are loaded (like open).
+ * <li>Update commits in the data file after the last persist
+ * 		are applied to in memory btrees (like an update transaction commit,
+ * 		but the data is already stored).
+ * <li>Schema changes and bulk loads are not applied,
+ * 		instead the replica waits for the primary to persist them.
+ * </ul>
+ * Only complete commits and persists (with valid checksums) are used,
+ * so partial writes by the primary are ignored until they are finished.
+ * <p>
+ * Read transactions see a snapshot of the state, as usual.
+ * Update transactions, persist, and check are not allowed.
+ * <p>
+ * The state is updated holding the commit lock,
+ * as a commit would, for visibility.
+ */
+class Replica {
+	private static final int OPEN_TRIES = 10;
+	private final Database db;
+	private final MmapFile dstor;
+	private final MmapFile istor;
+	/** the last persist that has been loaded */
+	private int persistAdr;
+	/** the last data commit that has been applied, 0 for none */
+	private int commitAdr;
+
+	/**
+	 * The latest persist may be in the process of being written
+	 * in which case we wait and try again.
+	 */
+	static Database open(String filename) {
+		for (int i = 1; ; ++i) {
+			MmapFile dstor = new MmapFile(filename + "d", "r");
+			MmapFile istor = new MmapFile(filename + "i", "r");
+			try {
+				return new Replica(filename, dstor, istor).db;
+			} catch (Throwable e) {
+				dstor.close();
+				istor.close();
+				if (i >= OPEN_TRIES)
+					throw new SuException("replica: can't open database", e);
+			}
+			Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
+		}
+	}
+
+	private Replica(String filename, MmapFile dstor, MmapFile istor) {
+		this.dstor = dstor;
+		this.istor = istor;
+		persistAdr = new StorageIterReverse(istor).prev();
+		StorageIter iter = new StorageIter(istor, persistAdr);
+		if (iter.status() != StorageIter.Status.OK || iter.date() == null)
+			throw new SuException("replica: incomplete persist");
+		PersistInfo info = Check.info(istor, persistAdr, iter.size());
+		commitAdr = info.lastadr;
+		db = new Database(filename, dstor, istor, info.dbinfoadr,
+				info.maxtblnum, info.lastcksum, info.lastadr);
+		db.setReplica(this);
+		poll();
+	}
+
+	/** Load any new persist and then apply any new commits */
+	void poll() {
+		db.withCommitLock(() -> {
+			istor.refresh();
+			dstor.refresh();
+			loadPersist();
+			applyCommits();
+		});
+	}
+
+	private void loadPersist() {
+		StorageIter iter = new StorageIter(istor, persistAdr);
+		int adr = 0;
+		long size = 0;
+		for (iter.advance(); iter.notFinished(); iter.advance()) {
+			adr = iter.adr();
+			size = iter.size();
+		}
+		if (adr == 0)
+			return; // no new persist
+		PersistInfo info = Check.info(istor, adr, size);
+		db.loadPersist(info.dbinfoadr, info.maxtblnum,
+				info.lastcksum, info.lastadr);
+		persistAdr = adr;
+		commitAdr = info.lastadr;
+	}
+
+	private void applyCommits() {
+		StorageIter iter = new StorageIter(dstor,
+				commitAdr == 0 ? Storage.FIRST_ADR : commitAdr);
+		if (commitAdr != 0)
+			iter.advance();
+		for (; iter.notFinished(); iter.advance()) {
+			if (iter.date() != null) { // not aborted
+				if (type(iter.adr()) != 'u')
+					return; // wait for the primary to persist
+				Apply a = new Apply(iter.adr());
+				a.process();
+				Database.State s = db.state;
+				db.setState(s.dbinfoadr, a.dbinfo(), s.schema,
+						iter.cksum(), iter.adr());
+			}
+			commitAdr = iter.adr();
+		}
+	}
+
+	private char type(int adr) {
+		return (char) dstor.buffer(dstor.advance(adr, Tran.HEAD_SIZE)).get();
+	}
+
+	/** Applies the index changes of one update commit */
+	private class Apply extends CommitProcessor {
+		final Tran tran = new Tran(dstor, istor);
+		final Tables schema = db.state.schema;
+		DbHashTrie dbinfo = db.state.dbinfo;
+		final TreeMap<Index,Btree> btrees = new TreeMap<>();
+		final TIntObjectHashMap<long[]> deltas = new TIntObjectHashMap<>();
+
+		Apply(int adr) {
+			super(dstor, adr);
+		}
+
+		@Override
+		void add(int tblnum, int adr) {
+			add(adr);
+		}
+
+		private void add(int adr) {
+			DataRecord r = new DataRecord(dstor, adr);
+			int tblnum = r.tblnum();
+			for (Index index : table(tblnum).indexesList())
+				btree(index).add(IndexedData.key(r, index.colNums, adr), false);
+			delta(tblnum, 1, r.bufSize());
+		}
+
+		@Override
+		void remove(int adr) {
+			DataRecord r = new DataRecord(dstor, adr);
+			int tblnum = r.tblnum();
+			for (Index index : table(tblnum).indexesList())
+				if (! btree(index).remove(IndexedData.key(r, index.colNums, adr)))
+					throw new SuException("replica: missing key");
+			delta(tblnum, -1, -r.bufSize());
+		}
+
+		@Override
+		void update(int from, int to) {
+			remove(from);
+			add(to);
+		}
+
+		private Table table(int tblnum) {
+			Table table = schema.get(tblnum);
+			if (table == null)
+				throw new SuException("replica: unknown table " + tblnum);
+			return table;
+		}
+
+		private Btree btree(Index index) {
+			Btree btree = btrees.get(index);
+			if (btree == null) {
+				TableInfo ti = (TableInfo) dbinfo.get(index.tblnum);
+				btrees.put(index,
+						btree = new Btree(tran, ti.getIndex(index.colNums)));
+			}
+			return btree;
+		}
+
+		private void delta(int tblnum, int nrows, int size) {
+			long[] d = deltas.get(tblnum);
+			if (d == null)
+				deltas.put(tblnum, d = new long[2]);
+			d[0] += nrows;
+			d[1] += size;
+		}
+
+		/** @return dbinfo updated with the new btrees and table sizes */
+		DbHashTrie dbinfo() {
+			for (int tblnum : deltas.keys()) {
+				TableInfo ti = (TableInfo) dbinfo.get(tblnum);
+				ImmutableList.Builder<IndexInfo> list = ImmutableList.builder();
+				for (IndexInfo ii : ti.indexInfo)
+					list.add(indexInfo(tblnum, ii));
+				long[] d = deltas.get(tblnum);
+				dbinfo = dbinfo.with(new TableInfo(tblnum, ti.nextfield,
+						ti.nrows() + (int) d[0], ti.totalsize() + d[1],
+						list.build()));
+			}
+			dbinfo.freeze();
+			return dbinfo;
+		}
+
+		private IndexInfo indexInfo(int tblnum, IndexInfo ii) {
+			for (Map.Entry<Index,Btree> e : btrees.entrySet()) {
+				Index index = e.getKey();
+				if (index.tblnum == tblnum && Arrays.equals(index.colNums, ii.columns)) {
+					Btree btree = e.getValue();
+					btree.freeze();
+					return new IndexInfo(index.colNums, btree.info());
+				}
+			}
+			return ii;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Replica persist " + persistAdr + " commit " + commitAdr;
+	}
+
+}
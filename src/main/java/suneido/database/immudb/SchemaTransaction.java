@@ -38,6 +38,12 @@ class SchemaTransaction extends UpdateTransaction {
 		indexes.put(index, btree);
 	}
 
+	/** used by TableBuilder to add an index built from existing data */
+	void setIndex(Index index, BtreeInfo info) {
+		assert indexes.get(index) instanceof Btree;
+		indexes.put(index, new Btree(tran, info));
+	}
+
 	void updateTableSchema(Table tbl) {
 		assert ! ended;
 		Table oldTbl = getTable(tbl.num);
@@ -6,7 +6,7 @@ package suneido.database.immudb;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.google.common.primitives.UnsignedInts;
 
@@ -18,19 +18,23 @@ import com.google.common.primitives.UnsignedInts;
  * Chunked storage access. Abstract base class for MemStorage and MmapFile.
  * <ul>
  * <li>derived classes must set storSize
- * <li>data is aligned to multiples of ALIGN (8)
+ * <li>data is aligned to multiples of ALIGN (8 by default, see SHIFT)
  * <li>maximum allocation is CHUNK_SIZE
+ * <li>chunks are mapped (by get) on demand, see chunk
  * <li>allocations cannot straddle chunks and will be bumped to next chunk
  * <li>long offsets are divided by ALIGN and passed as int "addresses" (adr),
  * 		to reduce the space to store them.
  *		 Addresses are really unsigned ints, but we use int since that's all Java has.
  * 		To keep 0 as a special value, addresses start at 1.
  * 		See offsetToAdr and adrToOffset.
- * <li>therefore maximum file size is unsigned int max * ALIGN (32gb)
+ * <li>therefore maximum file size is unsigned int max * ALIGN
+ * 		(32gb with the default 8 byte alignment, 64gb with 16, etc.)
+ * <li>tails (e.g. of commits) are allocated with allocTail
+ * 		so they are at the end of their aligned block
  * <li>blocks should not start with (long) 0 since that is used to detect padding
  * </ul>
  * WARNING: Operations are <b>not</b> synchronized.
- * In particular, access to chunks is <b>not</b> thread safe.
+ * In particular, growing chunks (HeapStorage only) is <b>not</b> thread safe.
  * Thread safety and visibility must be ensured externally.
  * <ul>
  * <li>For visibility, readers must acquire a lock when starting
@@ -44,29 +48,49 @@ import com.google.common.primitives.UnsignedInts;
  */
 abstract class Storage implements AutoCloseable {
 	protected final static int FIRST_ADR = 2;
-	protected static final int SHIFT = 3; // i.e. 8 byte alignment
-	private static final long MAX_SIZE = 0xffffffffL << SHIFT;
-	static final int ALIGN = (1 << SHIFT); // must be power of 2
-	protected static final int MASK = ALIGN - 1;
+	static final int DEFAULT_SHIFT = 3; // i.e. 8 byte alignment
+	static final int MAX_SHIFT = 6; // i.e. 64 byte alignment
+	final int SHIFT;
+	final int ALIGN; // must be power of 2
+	protected final int MASK;
+	private final long MAX_SIZE;
 	final int CHUNK_SIZE;
 	/** INIT_CHUNKS should be the max for database chunk size & align
 	 * i.e. unsigned int max * align / chunk size
 	 * so that chunks never grow, to avoid concurrency issues.
 	 * Ok to grow for temp index storage since it's not concurrent */
-	protected final int INIT_CHUNKS = 512;
-	protected ByteBuffer[] chunks = new ByteBuffer[INIT_CHUNKS];
-	protected long storSize = ALIGN; // one unit reserved
+	protected final int INIT_CHUNKS;
+	protected AtomicReferenceArray<ByteBuffer> chunks;
+	protected long storSize; // one unit reserved
 	private long protect = 0;
 
 	Storage(int chunkSize) {
+		this(chunkSize, DEFAULT_SHIFT);
+	}
+
+	Storage(int chunkSize, int shift) {
+		checkShift(shift);
+		SHIFT = shift;
+		ALIGN = 1 << SHIFT;
+		MASK = ALIGN - 1;
+		MAX_SIZE = 0xffffffffL << SHIFT;
 		CHUNK_SIZE = align(chunkSize);
+		INIT_CHUNKS = 512 << (SHIFT - DEFAULT_SHIFT);
+		chunks = new AtomicReferenceArray<>(INIT_CHUNKS);
+		storSize = ALIGN;
+	}
+
+	static void checkShift(int shift) {
+		if (shift < DEFAULT_SHIFT || shift > MAX_SHIFT)
+			throw new IllegalArgumentException("invalid storage alignment " +
+					(1 << shift));
 	}
 
 	/**
 	 * Allocate a block of storage.
 	 * It will be aligned, and may require advancing to next chunk.
 	 * (Leaving padding filled with zero bytes.)
-	 * This is where chunks are mapped by calling get.
+	 * This is where new chunks are mapped by calling get.
 	 * @param n The size of the block required.
 	 * @return The "address" of the block. (Not just an offset.)
 	 */
@@ -79,21 +103,20 @@ abstract class Storage implements AutoCloseable {
 		if (n > remaining)
 			storSize += remaining;
 		int chunk = offsetToChunk(storSize);
-		if (chunk >= chunks.length)
+		if (chunk >= chunks.length())
 			growChunks(chunk);
-		if (chunks[chunk] == null)
-			chunks[chunk] = get(chunk).order(ByteOrder.BIG_ENDIAN); // map
+		chunk(chunk); // map
 		long offset = storSize;
 		storSize += n;
 		return offsetToAdr(offset);
 	}
 
-	static int align(int n) {
+	int align(int n) {
 		// requires ALIGN to be power of 2
 		return ((n - 1) | (ALIGN - 1)) + 1;
 	}
 
-	static long align(long n) {
+	long align(long n) {
 		// requires ALIGN to be power of 2
 		return ((n - 1) | (ALIGN - 1)) + 1;
 	}
@@ -128,6 +151,26 @@ abstract class Storage implements AutoCloseable {
 		return buf(adrToOffset(adr));
 	}
 
+	/**
+	 * Allocate n bytes at the <b>end</b> of an aligned block.
+	 * Used for tails (e.g. size and checksum) that are read backwards.
+	 * @return A buffer positioned at the start of the n bytes
+	 */
+	ByteBuffer allocTail(int n) {
+		assert n <= ALIGN;
+		ByteBuffer buf = buffer(alloc(n));
+		buf.position(align(n) - n);
+		return buf;
+	}
+
+	/**
+	 * @param end An offset e.g. the end of a commit
+	 * @return A buffer for the n bytes before end, e.g. a tail
+	 */
+	ByteBuffer tail(long end, int n) {
+		return buf(end - n);
+	}
+
 	/**
 	 * @param rpos A negative offset from the end of the file
 	 */
@@ -148,7 +191,7 @@ abstract class Storage implements AutoCloseable {
 	 * @return The buffer containing the address.
 	 */
 	ByteBuffer bufferBase(int adr) {
-		return chunks[offsetToChunk(adrToOffset(adr))];
+		return chunk(offsetToChunk(adrToOffset(adr)));
 	}
 
 	/** @return The position of adr in bufferBase */
@@ -161,7 +204,7 @@ abstract class Storage implements AutoCloseable {
 	}
 
 	protected ByteBuffer buf(long offset) {
-		ByteBuffer buf = chunks[offsetToChunk(offset)];
+		ByteBuffer buf = chunk(offsetToChunk(offset));
 		buf = (offset < protect) ? buf.asReadOnlyBuffer() : buf.duplicate();
 		buf.position((int) (offset % CHUNK_SIZE));
 		long startOfLastChunk = (storSize / CHUNK_SIZE) * CHUNK_SIZE;
@@ -174,19 +217,48 @@ abstract class Storage implements AutoCloseable {
 		return (int) (offset / CHUNK_SIZE);
 	}
 
+	/**
+	 * Maps the chunk on first access.
+	 * Readers can call this concurrently,
+	 * so chunks is atomic and mapping is synchronized.
+	 */
+	protected ByteBuffer chunk(int chunk) {
+		ByteBuffer buf = chunks.get(chunk);
+		return (buf != null) ? buf : map(chunk);
+	}
+
+	private synchronized ByteBuffer map(int chunk) {
+		ByteBuffer buf = chunks.get(chunk);
+		if (buf == null) {
+			buf = get(chunk).order(ByteOrder.BIG_ENDIAN);
+			chunks.set(chunk, buf);
+		}
+		return buf;
+	}
+
 	protected void growChunks(int chunk) {
-		chunks = Arrays.copyOf(chunks, (3 * chunk) / 2);
+		AtomicReferenceArray<ByteBuffer> old = chunks;
+		chunks = new AtomicReferenceArray<>((3 * chunk) / 2);
+		for (int i = 0; i < old.length(); ++i)
+			chunks.set(i, old.get(i));
 	}
 
 	protected abstract ByteBuffer get(int chunk);
 
-	static int offsetToAdr(long n) {
+	/**
+	 * A hint that the caller is reading sequentially from adr.
+	 * Overridden by MmapFile.
+	 */
+	void readAhead(int adr) {
+	}
+
+	int offsetToAdr(long n) {
 		assert (n & MASK) == 0;
 		assert n <= MAX_SIZE;
 		return (int) (n >>> SHIFT) + 1; // +1 to avoid 0
 	}
 
-	static long adrToOffset(int adr) {
+	long adrToOffset(int adr) {
 		assert adr != 0;
 		return UnsignedInts.toLong(adr - 1) << SHIFT;
 	}
@@ -194,11 +266,11 @@ abstract class Storage implements AutoCloseable {
 	/**
 	 * Convert a long size up to unsigned int max.
 	 * Throw if out of range.
-	 * NOTE: this approach only handles sizes up to 4gb.
-	 * This is a problem if a table or index > 4gb
+	 * NOTE: this approach only handles sizes up to 4gb * ALIGN.
+	 * This is a problem if a table or index is larger
 	 * because load puts entire table / index into one commit.
 	 */
-	static int sizeToInt(long size) {
+	int sizeToInt(long size) {
 		assert (size & MASK) == 0;
 		size = size >>> SHIFT;
 		assert size < 0x100000000L; // unsigned int max
@@ -206,7 +278,7 @@ abstract class Storage implements AutoCloseable {
 	}
 
 	/** convert an unsigned int to a long size */
-	static long intToSize(int size) {
+	long intToSize(int size) {
 		return UnsignedInts.toLong(size) << SHIFT;
 	}
 
@@ -6,6 +6,7 @@ package suneido.database.immudb;
 
 import java.nio.ByteBuffer;
 import java.util.Date;
+import java.util.function.IntPredicate;
 
 import com.google.common.base.MoreObjects;
 
@@ -34,7 +35,10 @@ class StorageIter {
 	private int cksum; // of current commit/persist
 	private boolean verifyChecksums = true;
 	private boolean checkType = false; // only applies to data not index file
+	private boolean readAhead = false;
 	private int upTo = Integer.MAX_VALUE;
+	/** if set, used instead of verifyChecksum, see {@link ParallelChecksums} */
+	private IntPredicate checksumOk = null;
 
 	StorageIter(Storage stor) {
 		this(stor, Storage.FIRST_ADR);
@@ -45,6 +49,17 @@ class StorageIter {
 		seek(adr);
 	}
 
+	/**
+	 * @param checksumOk Given the address of a commit/persist,
+	 * returns whether its checksum is valid.
+	 * Used when the checksums have already been verified.
+	 */
+	StorageIter(Storage stor, int adr, IntPredicate checksumOk) {
+		this.stor = stor;
+		this.checksumOk = checksumOk;
+		seek(adr);
+	}
+
 	/** used by dump */
 	// NOTE: first block must have checksum to get past seek in constructor
 	StorageIter dontChecksum() {
@@ -57,6 +72,13 @@ class StorageIter {
 		return this;
 	}
 
+	/** hint to the storage that we are reading sequentially */
+	StorageIter readAhead() {
+		readAhead = true;
+		stor.readAhead(adr);
+		return this;
+	}
+
 	StorageIter upTo(int adr) {
 		this.upTo = adr;
 		return this;
@@ -67,31 +89,32 @@ class StorageIter {
 		if (eof())
 			return ;
 		ByteBuffer buf = stor.buffer(adr);
-		if (buf.remaining() < Storage.ALIGN) {
+		if (buf.remaining() < stor.ALIGN) {
 			status = Status.FILE_TRUNCATED;
 			return;
 		}
-		size = Storage.intToSize(buf.getInt());
+		size = stor.intToSize(buf.getInt());
 		if (size < MIN_SIZE) {
 			status = Status.BAD_SIZE;
 			return;
 		}
 		date = buf.getInt();
-		int end = stor.advance(adr, size - Tran.TAIL_SIZE);
-		if (! stor.isValidAdr(end)) {
+		long end = sizeInc();
+		if (! stor.isValidPos(end - Tran.TAIL_SIZE)) {
 			status = Status.BAD_SIZE;
 			return;
 		}
-		ByteBuffer endbuf = stor.buffer(end);
+		ByteBuffer endbuf = stor.tail(end, Tran.TAIL_SIZE);
 		cksum = endbuf.getInt();
-		long endsize = Storage.intToSize(endbuf.getInt());
+		long endsize = stor.intToSize(endbuf.getInt());
 		if (endsize != size) {
 			status = Status.SIZE_MISMATCH;
 			return;
 		}
 		if (date == 0) // aborted commit
 			return;
-		if (verifyChecksums && ! verifyChecksum()) {
+		if (verifyChecksums && ! (checksumOk == null
+				? verifyChecksum() : checksumOk.test(adr))) {
 			status = Status.CHECKSUM_FAIL;
 			return;
 		}
@@ -118,6 +141,8 @@ class StorageIter {
 
 	void advance2() {
 		seek(stor.advance(adr, size));
+		if (readAhead && ! eof())
+			stor.readAhead(adr);
 	}
 
 	Status status() {
@@ -134,7 +159,7 @@ class StorageIter {
 
 	/** size of file up to and including the current commit/persist */
 	long sizeInc() {
-		return Storage.adrToOffset(adr) + size;
+		return stor.adrToOffset(adr) + size;
 	}
 
 	/** @return null for aborted commit */
@@ -146,8 +171,12 @@ class StorageIter {
 		return cksum;
 	}
 
-	// depends on buf.remaining() going to end of storage chunk
 	public boolean verifyChecksum() {
+		return verifyChecksum(stor, adr, size, cksum);
+	}
+
+	// depends on buf.remaining() going to end of storage chunk
+	static boolean verifyChecksum(Storage stor, int adr, long size, int cksum) {
 		Checksum cs = new Checksum();
 		long remaining = size - Tran.HEAD_SIZE;
 		int pos = adr;
@@ -33,19 +33,21 @@ class StoredRecordIterator extends UnmodifiableIterator<Record> {
 		ByteBuffer buf = stor.buffer(adr);
 		DataRecord r = new DataRecord(stor, adr);
 		int len = r.storSize();
-		if (adr < last)
+		if (adr < last) {
 			adr = stor.advance(adr, skipPadding(buf, len));
+			stor.readAhead(adr);
+		}
 		else
 			adr = last + 1;
 		return r;
 	}
 
-	// assumes ALIGN = long (8)
-	private static int skipPadding(ByteBuffer buf, int len) {
-		len = Storage.align(len);
+	// assumes ALIGN >= long (8)
+	private int skipPadding(ByteBuffer buf, int len) {
+		len = stor.align(len);
 		int limit = buf.limit();
 		while (len < limit && buf.getLong(len) == 0)
-			len += Storage.ALIGN;
+			len += stor.ALIGN;
 		return len;
 	}
 
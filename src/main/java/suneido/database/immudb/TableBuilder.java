@@ -19,6 +19,7 @@ import com.google.common.primitives.Ints;
 
 import suneido.SuException;
 import suneido.database.immudb.Bootstrap.TN;
+import suneido.database.immudb.IndexedData.Mode;
 import suneido.util.Util;
 
 public class TableBuilder {
@@ -335,6 +336,10 @@ public class TableBuilder {
 			return; // no data
 		t.exclusive();
 		String colNames = table.numsToNames(newIndex.colNums);
+		if (newIndex.fksrc == null) {
+			buildIndex(newIndex, iter, colNames);
+			return;
+		}
 		IndexedData id = new IndexedData(t)
 				.index(btree, newIndex.mode(), newIndex.colNums, colNames,
 						newIndex.fksrc, t.getForeignKeys(tableName, colNames));
@@ -345,6 +350,31 @@ public class TableBuilder {
 		btree.freeze();
 	}
 
+	/**
+	 * Without a foreign key there is nothing to check per record
+	 * so the index can be built bottom up from the sorted keys
+	 * instead of adding them one at a time.
+	 */
+	private void buildIndex(Index newIndex, IndexIter iter, String colNames) {
+		List<BtreeKey> keys = Lists.newArrayList();
+		for (; ! iter.eof(); iter.next()) {
+			int adr = iter.keyadr();
+			keys.add(IndexedData.key(t.input(adr), newIndex.colNums, adr));
+		}
+		Collections.sort(keys);
+		Mode mode = newIndex.mode();
+		BtreeBuilder builder = new BtreeBuilder();
+		BtreeKey prev = null;
+		for (BtreeKey key : keys) {
+			if (prev != null && prev.key.equals(key.key) && (mode == Mode.KEY ||
+					(mode == Mode.UNIQUE && ! key.isEmptyKey())))
+				throw new SuException("duplicate key: " + colNames + " = " + key.key);
+			builder.add(key);
+			prev = key;
+		}
+		t.setIndex(newIndex, builder.build());
+	}
+
 	private void updateTableInfo() {
 		TableInfo ti = t.getTableInfo(tblnum);
 		ImmutableList.Builder<IndexInfo> ii = ImmutableList.builder();
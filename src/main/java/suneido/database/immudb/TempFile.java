@@ -0,0 +1,77 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import suneido.SuException;
+
+/**
+ * An append only temporary file for spilling query data to disk.
+ * The file is deleted when it is closed.
+ * Used by {@link RecordSorter} and {@link RecordPartitions}
+ */
+class TempFile {
+	private FileChannel file;
+	private long size = 0;
+
+	TempFile() {
+		try {
+			file = FileChannel.open(Files.createTempFile("sutmp", null),
+					READ, WRITE, TRUNCATE_EXISTING, DELETE_ON_CLOSE);
+		} catch (IOException e) {
+			throw new SuException("can't create temp file", e);
+		}
+	}
+
+	/** @return The current size of the file i.e. the offset of the next write */
+	long size() {
+		return size;
+	}
+
+	/** Append the remaining contents of buf to the end of the file */
+	void write(ByteBuffer buf) {
+		try {
+			while (buf.hasRemaining())
+				size += file.write(buf, size);
+		} catch (IOException e) {
+			throw new SuException("temp file write failed", e);
+		}
+	}
+
+	/** Fill the remaining space in buf from the file starting at pos */
+	void read(ByteBuffer buf, long pos) {
+		try {
+			while (buf.hasRemaining()) {
+				int n = file.read(buf, pos);
+				if (n < 0)
+					throw new SuException("temp file premature eof");
+				pos += n;
+			}
+		} catch (IOException e) {
+			throw new SuException("temp file read failed", e);
+		}
+	}
+
+	void close() {
+		if (file == null)
+			return;
+		try {
+			file.close(); // DELETE_ON_CLOSE
+		} catch (IOException e) {
+			throw new SuException("temp file close failed", e);
+		}
+		file = null;
+	}
+
+}
@@ -4,6 +4,8 @@
 
 package suneido.database.immudb;
 
+import java.nio.ByteBuffer;
+
 import suneido.util.NotThreadSafe;
 
 import com.google.common.base.MoreObjects;
@@ -21,7 +23,6 @@ import suneido.database.immudb.DbHashTrie.Translator;
 class Tran implements Translator {
 	static final int HEAD_SIZE = 2 * Integer.BYTES; // size and datetime
 	static final int TAIL_SIZE = 2 * Integer.BYTES; // checksum and size
-	{ assert TAIL_SIZE == MmapFile.align(TAIL_SIZE); }
 	final Storage dstor;
 	final Storage istor;
 	final IntRefs intrefs = new IntRefs();
@@ -50,6 +51,17 @@ class Tran implements Translator {
 		allowStore();
 	}
 
+	/** used by {@link CommitGroup}, the group has its own Tran for the head */
+	void startGroupStore() {
+		assert head_adr == 0;
+		intrefs.startStore();
+	}
+
+	/** used by {@link CommitGroup} when a group commit is aborted */
+	void abortGroupStore() {
+		intrefs.abortStore();
+	}
+
 	void allowStore() {
 		head_adr = dstor.alloc(HEAD_SIZE); // to hold size and datetime
 	}
@@ -63,12 +75,12 @@ class Tran implements Translator {
 	 */
 	StoreInfo endStore() {
 		assert head_adr != 0;
-		int tail_adr = dstor.alloc(TAIL_SIZE);
-		int sizeInt = Storage.sizeToInt(dstor.sizeFrom(head_adr));
+		ByteBuffer tail = dstor.allocTail(TAIL_SIZE);
+		int sizeInt = dstor.sizeToInt(dstor.sizeFrom(head_adr));
 		dstor.buffer(head_adr).putInt(sizeInt).putInt(datetime());
 
 		int cksum = dstor.checksum(head_adr);
-		dstor.buffer(tail_adr).putInt(cksum).putInt(sizeInt);
+		tail.putInt(cksum).putInt(sizeInt);
 		dstor.protect(); // can't output outside tran
 
 		return new StoreInfo(cksum, head_adr);
@@ -81,10 +93,10 @@ class Tran implements Translator {
 	void abortIncompleteStore() {
 		if (head_adr == 0) // didn't start store
 			return;
-		int tail_adr = dstor.alloc(TAIL_SIZE);
-		int sizeInt = Storage.sizeToInt(dstor.sizeFrom(head_adr));
+		ByteBuffer tail = dstor.allocTail(TAIL_SIZE);
+		int sizeInt = dstor.sizeToInt(dstor.sizeFrom(head_adr));
 		dstor.buffer(head_adr).putInt(sizeInt).putInt(0); // zero date
-		dstor.buffer(tail_adr).putInt(0).putInt(sizeInt); // zero checksum
+		tail.putInt(0).putInt(sizeInt); // zero checksum
 		dstor.protect(); // can't output outside tran
 		head_adr = 0;
 	}
@@ -4,6 +4,8 @@
 
 package suneido.database.immudb;
 
+import java.util.Collection;
+
 public abstract class Transaction {
 
 	public abstract boolean isReadonly();
@@ -29,6 +31,8 @@ public abstract class Transaction {
 	public abstract int indexSize(int tblnum, String columns);
 	public abstract int keySize(int tblnum, String columns);
 	public abstract float rangefrac(int tblnum, String columns, Record from, Record to);
+	/** @return The number of distinct values of the columns, or -1 if unknown */
+	public abstract int ndistinct(int tblnum, Collection<String> columns);
 
 	public abstract void abortIfNotComplete();
 
@@ -4,67 +4,101 @@
 
 package suneido.database.immudb;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-
-import suneido.util.MergeTree;
+import java.util.List;
 
 /**
  * Accumulates reads done by a transaction on a single index.
- * Operates in two stages, first simply accumulating a list of reads.
- * Then build combines overlapping ranges.
+ * <p>
+ * Ranges are added to a pending list.
+ * Because the ranges are still being extended by their iterators,
+ * when the pending list gets large enough
+ * copies of them are merged into a sorted array of disjoint ranges.
+ * If a range changes after being merged, it is added to pending again.
+ * <p>
+ * To bound memory, if there are more than MAX_READS disjoint ranges,
+ * adjacent pairs are combined.
+ * This is conservative, it may give false conflicts but never misses one.
+ * <p>
  * After build, contains can be used to validate a transaction's reads.
  */
 class TransactionReads {
 	private static final int MAX_READS = 10000;
-	private final UpdateTransaction t;
-	private final MergeTree<IndexRange> list  = new MergeTree<>();
-	private IndexRange[] reads;
-	private int rlen;
+	private static final int MIN_MERGE = 1000;
+	private final List<IndexRange> pending = new ArrayList<>();
+	/** sorted, disjoint, copies of the merged ranges */
+	private IndexRange[] reads = new IndexRange[0];
+	private int rlen = 0;
+	private int nreads = 0;
 
-	TransactionReads(UpdateTransaction t) {
-		this.t = t;
+	void add(IndexRange keyRange) {
+		++nreads;
+		keyRange.owner = this;
+		addPending(keyRange);
 	}
 
-	void add(IndexRange keyRange) {
-		if (list.size() > MAX_READS)
-			t.abortThrow("too many reads in update transaction");
-		list.add(keyRange);
+	/** called by IndexRange when it is extended after being merged */
+	void changed(IndexRange keyRange) {
+		addPending(keyRange);
 	}
 
-	boolean isEmpty() {
-		return list.size() == 0;
+	private void addPending(IndexRange keyRange) {
+		keyRange.pending = true;
+		pending.add(keyRange);
+		if (pending.size() >= Math.max(MIN_MERGE, rlen))
+			merge();
 	}
 
 	int readCount() {
-		return list.size();
+		return nreads;
 	}
 
 	void build() {
+		merge();
+	}
+
+	private void merge() {
+		IndexRange[] a = Arrays.copyOf(reads, rlen + pending.size());
+		int n = rlen;
+		for (IndexRange ir : pending) {
+			ir.pending = false;
+			if (! ir.isEmpty())
+				a[n++] = new IndexRange(ir.lo, ir.hi);
+		}
+		pending.clear();
+		Arrays.sort(a, 0, n);
 		int i = 0;
-		IndexRange[] a = new IndexRange[list.size()];
-		if (a.length > 0) {
-			MergeTree<IndexRange>.Iter iter = list.iter();
-			IndexRange prev = iter.next();
-			IndexRange x;
-			while (null != (x = iter.next()))
-				if (prev.isConnected(x))
-					prev.extendToSpan(x);
+		if (n > 0) {
+			IndexRange prev = a[0];
+			for (int j = 1; j < n; ++j)
+				if (prev.isConnected(a[j]))
+					prev.extendToSpan(a[j]);
 				else {
 					a[i++] = prev;
-					prev = x;
+					prev = a[j];
 				}
 			a[i++] = prev;
 		}
-		if (i < list.size() / 2)
+		while (i > MAX_READS)
+			i = coarsen(a, i);
+		if (i < a.length / 2)
 			a = Arrays.copyOf(a, i);
-		list.clear();
 		reads = a;
 		rlen = i;
 	}
 
+	/** combine adjacent pairs of ranges, halving the number */
+	private static int coarsen(IndexRange[] a, int n) {
+		int j = 0;
+		for (int i = 0; i < n; i += 2)
+			a[j++] = (i + 1 < n) ? new IndexRange(a[i].lo, a[i + 1].hi) : a[i];
+		return j;
+	}
+
 	/**
 	 * Uses a binary search.
-	 * Note: Cannot be used until after build
+	 * Note: Only includes pending ranges after build
 	 * @param key is assumed to have the correct number of fields for the index
 	 * @return Whether or not the key is contained in any of the ranges.
 	 */
@@ -73,6 +107,31 @@ class TransactionReads {
 		return i < rlen && reads[i].contains(key);
 	}
 
+	/**
+	 * Searches whichever of the keys or the ranges is larger
+	 * for each of the other.
+	 * Note: Only includes pending ranges after build
+	 * @param keys must be sorted without duplicates
+	 * @return Whether any of the keys are contained in any of the ranges.
+	 */
+	boolean intersects(Record[] keys) {
+		if (keys.length <= rlen) {
+			for (Record key : keys)
+				if (contains(key))
+					return true;
+		} else {
+			for (int i = 0; i < rlen; ++i) {
+				int k = Arrays.binarySearch(keys, reads[i].lo);
+				if (k >= 0)
+					return true;
+				k = -k - 1;
+				if (k < keys.length && reads[i].hi.compareTo(keys[k]) >= 0)
+					return true;
+			}
+		}
+		return false;
+	}
+
 	// use our own binary search so we can compare Range to Record
 	private int lowerBound(Record value) {
 		int first = 0;
@@ -5,15 +5,16 @@
 package suneido.database.immudb;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import suneido.util.ThreadSafe;
 
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
-
 import suneido.SuException;
 import suneido.util.Errlog;
 
@@ -21,25 +22,41 @@ import suneido.util.Errlog;
  * Manages transactions.
  * {@link Database} has an instance.
  * Mostly for {@link UpdateTransactions}
+ * <p>
+ * Lock free, using concurrent maps.
+ * Commits are already serialized (by the commit lock or {@link CommitGroup})
+ * but begin, abort, and read transaction completion are not.
+ * <p>
+ * overlapping is a log of committed update transactions by commit time,
+ * so getOverlapping is just a view of its tail.
+ * It is cleaned of transactions that committed before
+ * the oldest active update transaction started.
+ * Since an update transaction gets its asof before it is added to utrans,
+ * starting counts update transactions in between
+ * and cleaning is skipped (until the next commit or abort) if there are any.
  */
 @ThreadSafe
 class Transactions {
 	private final AtomicLong clock = new AtomicLong(1); // zero is reserved
 	private final AtomicInteger nextNum = new AtomicInteger();
 	/** all active transactions (read and update), for Database.Transactions() */
-	private final Set<Transaction> trans = Sets.newHashSet();
+	private final Set<Transaction> trans = ConcurrentHashMap.newKeySet();
 	/** active update transactions by asof (when they started)
 	 *  used to track oldest active update transaction */
-	private final TreeSet<UpdateTransaction> utrans =
-			new TreeSet<>(UpdateTransaction.byAsof);
-	/** committed update transactions that overlap active transactions */
-	private final TreeSet<UpdateTransaction> overlapping =
-			new TreeSet<>(UpdateTransaction.byCommit);
-	private static final long FUTURE = Long.MAX_VALUE;
+	private final ConcurrentNavigableMap<Long, UpdateTransaction> utrans =
+			new ConcurrentSkipListMap<>();
+	/** committed update transactions that overlap active transactions,
+	 *  by commit time */
+	private final ConcurrentNavigableMap<Long, UpdateTransaction> overlapping =
+			new ConcurrentSkipListMap<>();
+	/** the number of update transactions between asof and addUpdateTran */
+	private final AtomicInteger starting = new AtomicInteger();
 	private static final int MAX_ACTIVE = 200;
 	private static final int MAX_OVERLAPPING = 200;
 	static int MAX_UPDATE_TRAN_DURATION_SEC = 10;
-	private volatile boolean exclusive = false;
+	/** the exclusive (schema or bulk) transaction, if any */
+	private final AtomicReference<ReadWriteTransaction> exclusive =
+			new AtomicReference<>();
 	private volatile boolean locked = false;
 
 	long clock() {
@@ -56,23 +73,53 @@ class Transactions {
 	}
 
 	// used by tests
-	synchronized void checkTransEmpty() {
+	void checkTransEmpty() {
 		assert trans.isEmpty() : "trans " + trans;
 		assert utrans.isEmpty() : "utrans " + utrans;
 		assert overlapping.isEmpty() : "overlapping " + overlapping;
 	}
 
-	synchronized void add(Transaction t) {
+	/** @return Whether there are active schema or bulk transactions */
+	boolean hasSchemaOrBulk() {
+		for (Transaction t : trans)
+			if (t instanceof SchemaTransaction || t instanceof BulkTransaction)
+				return true;
+		return false;
+	}
+
+	boolean isEmpty() {
+		return trans.isEmpty();
+	}
+
+	void add(Transaction t) {
 		limitTrans();
 		trans.add(t);
 	}
 
-	synchronized void addUpdateTran(UpdateTransaction t) {
-		if (exclusive)
+	/**
+	 * Used by UpdateTransaction to get its asof,
+	 * must be followed by addUpdateTran
+	 */
+	long updateTranAsof() {
+		starting.incrementAndGet();
+		return clock();
+	}
+
+	void addUpdateTran(UpdateTransaction t) {
+		try {
+			if (exclusive.get() != null)
+				throw new SuException("blocked by exclusive transaction");
+			limitTrans();
+			assert t.asof() > 0;
+			utrans.put(t.asof(), t);
+		} finally {
+			starting.decrementAndGet();
+		}
+		// recheck after adding, in case setExclusive missed us
+		if (exclusive.get() != null) {
+			utrans.remove(t.asof(), t);
 			throw new SuException("blocked by exclusive transaction");
-		limitTrans();
-		assert t.asof() > 0;
-		utrans.add(t);
+		}
 	}
 
 	private void limitTrans() {
@@ -80,55 +127,55 @@ class Transactions {
 			throw new SuException("too many active transactions");
 	}
 
-	synchronized void setExclusive(Transaction t) {
+	/**
+	 * Claims exclusive before checking utrans (the reverse of addUpdateTran)
+	 * so a concurrent update transaction will see one or the other.
+	 * A failed attempt only releases exclusive if it claimed it.
+	 */
+	void setExclusive(ReadWriteTransaction t) {
+		if (! exclusive.compareAndSet(null, t)) {
+			if (exclusive.get() == t)
+				return; // already exclusive
+			throw new SuException("cannot make transaction exclusive");
+		}
 		if ((t instanceof BulkTransaction)
-				? ! utrans.isEmpty()
-				: utrans.size() != 1 || utrans.first() != t)
+				? ! utrans.isEmpty() || starting.get() > 0
+				: utrans.size() != 1 || utrans.firstEntry().getValue() != t) {
+			exclusive.compareAndSet(t, null);
 			throw new SuException("cannot make transaction exclusive");
-		exclusive = true;
+		}
 	}
 
 	/**
-	 * return the set of transactions that committed since asof
+	 * @return A view of the transactions that committed since asof
 	 * called by UpdateTransaction checkForConflicts
 	 */
-	synchronized Set<UpdateTransaction> getOverlapping(long asof) {
-		if (overlapping.isEmpty())
-			return Collections.emptySet();
-		boolean inclusive = true;
-		UpdateTransaction t = overlapping.first();
-		Iterator<UpdateTransaction> iter = overlapping.descendingIterator();
-		while (iter.hasNext()) {
-			t = iter.next();
-			if (t.commitTime() < asof) {
-				inclusive = false;
-				break;
-			}
-		}
-		return ImmutableSet.copyOf(overlapping.tailSet(t, inclusive));
+	Collection<UpdateTransaction> getOverlapping(long asof) {
+		return overlapping.tailMap(asof).values();
 	}
 
-	synchronized void commit(Transaction t) {
+	void commit(Transaction t) {
 		if (t instanceof ReadWriteTransaction)
-			exclusive = false;
+			exclusive.compareAndSet((ReadWriteTransaction) t, null);
 		Errlog.verify(trans.remove(t),
 				"Transactions.commit missing from trans");
 		if (t instanceof UpdateTransaction) {
-			Errlog.verify(utrans.remove(t),
+			UpdateTransaction ut = (UpdateTransaction) t;
+			Errlog.verify(utrans.remove(ut.asof(), ut),
 					"Transactions.commit missing from utrans");
+			overlapping.put(ut.commitTime(), ut);
 			cleanOverlapping();
-			if (! utrans.isEmpty())
-				overlapping.add((UpdateTransaction) t);
 		}
 	}
 
-	synchronized void abort(Transaction t) {
+	void abort(Transaction t) {
 		if (t instanceof ReadWriteTransaction)
-			exclusive = false;
+			exclusive.compareAndSet((ReadWriteTransaction) t, null);
 		Errlog.verify(trans.remove(t),
 				"Transactions.abort missing from trans");
 		if (t instanceof UpdateTransaction) {
-			Errlog.verify(utrans.remove(t),
+			UpdateTransaction ut = (UpdateTransaction) t;
+			Errlog.verify(utrans.remove(ut.asof(), ut),
 					"Transactions.abort missing from utrans");
 			cleanOverlapping();
 		}
@@ -137,12 +184,17 @@ class Transactions {
 	/**
 	 * Remove transactions from overlapping that no longer overlap
 	 * i.e. commitTime before the oldest outstanding update transaction.
+	 * An update transaction that is starting but not yet in utrans
+	 * will have an asof after the clock value read first.
 	 */
 	private void cleanOverlapping() {
-		long oldest = utrans.isEmpty() ? FUTURE : utrans.first().asof();
-		while (! overlapping.isEmpty() && overlapping.first().commitTime() <= oldest)
-			overlapping.remove(overlapping.first());
-		assert ! utrans.isEmpty() || overlapping.isEmpty();
+		long oldest = clock.get();
+		if (starting.get() > 0)
+			return;
+		Map.Entry<Long, UpdateTransaction> e = utrans.firstEntry();
+		if (e != null)
+			oldest = Math.min(oldest, e.getKey());
+		overlapping.headMap(oldest, true).clear();
 	}
 
 	// should be called periodically
@@ -152,29 +204,24 @@ class Transactions {
 	}
 
 	private void limitOverlapping() {
-		UpdateTransaction t = null;
-		synchronized (this) {
-			if (overlapping.size() <= MAX_OVERLAPPING)
-				return;
-			t = utrans.first();
-		}
-		// abort outside synchronized to avoid deadlock
-		abort(t, "too many overlapping update transactions");
+		cleanOverlapping();
+		if (overlapping.size() <= MAX_OVERLAPPING)
+			return;
+		Map.Entry<Long, UpdateTransaction> e = utrans.firstEntry();
+		if (e != null)
+			abort(e.getValue(), "too many overlapping update transactions");
 	}
 
 	private void limitUpdateDuration() {
-		if (exclusive)
+		if (exclusive.get() != null)
 			return;
 		while (true) {
-			UpdateTransaction t = null;
-			synchronized (this) {
-				if (utrans.isEmpty())
-					return;
-				t = utrans.first();
-				if (t.stopwatch.elapsed(TimeUnit.SECONDS) < MAX_UPDATE_TRAN_DURATION_SEC)
-					return;
-			}
-			// abort outside synchronized to avoid deadlock
+			Map.Entry<Long, UpdateTransaction> e = utrans.firstEntry();
+			if (e == null)
+				return;
+			UpdateTransaction t = e.getValue();
+			if (t.stopwatch.elapsed(TimeUnit.SECONDS) < MAX_UPDATE_TRAN_DURATION_SEC)
+				return;
 			abort(t, "update transaction longer than " + MAX_UPDATE_TRAN_DURATION_SEC + " seconds");
 		}
 	}
@@ -184,7 +231,7 @@ class Transactions {
 		Errlog.info("aborted " + t + " - " + msg);
 	}
 
-	synchronized List<Integer> tranlist() {
+	List<Integer> tranlist() {
 		List<Integer> list = new ArrayList<>(trans.size());
 		for (Transaction t : trans)
 			list.add(t.num());
@@ -195,15 +242,15 @@ class Transactions {
 	 * @return The number of committed update transactions
 	 * that are still outstanding because they overlap active transactions
 	 */
-	synchronized int finalSize() {
+	int finalSize() {
 		return overlapping.size();
 	}
 
-	synchronized void lock() {
+	void lock() {
 		locked = true;
 	}
 
-	synchronized boolean isLocked() {
+	boolean isLocked() {
 		return locked;
 	}
 
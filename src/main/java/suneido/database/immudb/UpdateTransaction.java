@@ -28,7 +28,8 @@ import suneido.util.ThreadConfined;
  * They take a "snapshot" of the database state at the start
  * and then update the database state when they commit.
  * Storage is only written during commit.
- * Commit is single-threaded.
+ * Commit is single-threaded,
+ * either one at a time, or as a group by {@link CommitGroup}.
  * <p>
  * Need to synchronize abort and commit because transactions may be aborted
  * from Transactions.limitOutstanding.
@@ -41,12 +42,18 @@ class UpdateTransaction extends ReadWriteTransaction {
 	private final Map<Index,TransactionReads> reads = Maps.newHashMap();
 	/** updated by IndexedData, used by OverlayIndex */
 	protected final TIntHashSet deletes = new TIntHashSet();
-	/** used after commit by other transactions checking for conflicts */
-	private final TIntHashSet inserts = new TIntHashSet();
+	/**
+	 * The index keys added or removed, sorted and without duplicates.
+	 * Built before commit, used after commit by other transactions
+	 * checking for conflicts.
+	 */
+	private final TreeMap<Index,Record[]> writes = Maps.newTreeMap();
 	/** needs to be ordered tree for ReadWriteTransaction updateDbInfo */
 	protected final TreeMap<Index,TranIndex> updatedIndexes = Maps.newTreeMap();
 	private final TIntArrayList actions = new TIntArrayList();
 	private int writeCount = 0;
+	/** set while committing as part of a {@link CommitGroup} */
+	private DbHashTrie groupDbinfo = null;
 	static int MAX_WRITES_PER_TRANSACTION = 10000;
 	protected static final short UPDATE = (short) 0;
 	protected static final short REMOVE = (short) -1;
@@ -56,7 +63,7 @@ class UpdateTransaction extends ReadWriteTransaction {
 
 	UpdateTransaction(int num, Database db) {
 		super(num, db);
-		asof = db.trans.clock();
+		asof = db.trans.updateTranAsof();
 		trans.addUpdateTran(this); // must be after setting asof
 	}
 
@@ -163,7 +170,7 @@ class UpdateTransaction extends ReadWriteTransaction {
 	private IndexRange indexRange(Index index) {
 		TransactionReads tr = reads.get(index);
 		if (tr == null)
-			reads.put(index, tr = new TransactionReads(this));
+			reads.put(index, tr = new TransactionReads());
 		IndexRange ir = new IndexRange();
 		tr.add(ir);
 		return ir;
@@ -209,11 +216,17 @@ class UpdateTransaction extends ReadWriteTransaction {
 		checkLimits();
 		StepTimer st = new StepTimer("transaction commit", COMMIT_LIMIT);
 		buildReads();
+		buildWrites();
 		st.step();
+		if (CommitGroup.enabled && tranType() == 'u') {
+			db.commitGroup.commit(this);
+			st.finish();
+			return;
+		}
 		db.withCommitLock(() -> {
 			st.step();
-			if (db.state.schema != dbstate.schema)
-				throw new Conflict("schema changed");
+			db.checkNotReplaced();
+			checkSchema();
 			checkForConflicts();
 			st.step();
 			tran.startStore(); // everything after this must be in try block
@@ -255,49 +268,68 @@ class UpdateTransaction extends ReadWriteTransaction {
 			tr.build();
 	}
 
-	protected void checkForConflicts() {
-		// for each overlapping transaction
-		Set<UpdateTransaction> overlapping = trans.getOverlapping(asof);
-		for (UpdateTransaction t : overlapping) {
-			assert t != this;
-			TIntIterator iter = t.deletes.iterator();
-			while (iter.hasNext()) {
-				int del = iter.next();
-				// check if it deleted from an index range that we read
-				readValidation(del);
-				// check if we deleted the same record
-				checkForDeleteConflict(del);
+	/** Gathers the keys added and removed for each index from OverlayIndex */
+	private void buildWrites() {
+		for (Entry<Index, TranIndex> e : indexes.entrySet()) {
+			TranIndex idx = e.getValue();
+			Btree local;
+			List<Record> keys = new ArrayList<>();
+			if (idx instanceof OverlayIndex) {
+				OverlayIndex oti = (OverlayIndex) idx;
+				for (BtreeKey key : oti.removedKeys)
+					keys.add(key.key);
+				local = oti.local();
+			} else {
+				local = (Btree) idx;
+				if (local.frozen())
+					continue; // created by TableBuilder, schema changed
 			}
-			iter = t.inserts.iterator();
-			while (iter.hasNext())
-				// check if it inserted into an index range that we read
-				readValidation(iter.next());
+			Btree.Iter iter = local.iterator();
+			for (iter.next(); ! iter.eof(); iter.next())
+				keys.add(iter.curKey());
+			if (! keys.isEmpty())
+				writes.put(e.getKey(), sortUnique(keys));
 		}
 	}
 
-	// COULD make reads a Table<tblnum,index>
-	// so you could easily get all the indexes for a tblnum
-	private void readValidation(int adr) {
-		DataRecord r = input(adr);
-		Table table = ck_getTable(r.tblnum());
-		List<Index> indexes = table.indexesList();
-		for (Index index : indexes) {
-			TransactionReads tr = reads.get(index);
-			if (tr == null)
-				continue;
-			Record key = key(r, index.colNums);
-			if (tr.contains(key))
-				throw new Conflict("read in " + table.name);
-		}
+	private static Record[] sortUnique(List<Record> list) {
+		Record[] keys = list.toArray(new Record[list.size()]);
+		Arrays.sort(keys);
+		int n = 1;
+		for (int i = 1; i < keys.length; ++i)
+			if (! keys[i].equals(keys[n - 1]))
+				keys[n++] = keys[i];
+		return n < keys.length ? Arrays.copyOf(keys, n) : keys;
 	}
 
-	private static Record key(Record r, int[] colNums) {
-		return new RecordBuilder().addFields(r, colNums).arrayRec();
+	private void checkSchema() {
+		if (db.state.schema != dbstate.schema)
+			throw new Conflict("schema changed");
 	}
 
-	private void checkForDeleteConflict(int del) {
-		if (deletes.contains(del))
-			throw new Conflict("delete");
+	protected void checkForConflicts() {
+		// for each overlapping transaction
+		Collection<UpdateTransaction> overlapping = trans.getOverlapping(asof);
+		for (UpdateTransaction t : overlapping) {
+			assert t != this;
+			checkForConflicts(t);
+		}
+	}
+
+	private void checkForConflicts(UpdateTransaction t) {
+		// check if it added or removed keys in an index range that we read
+		for (Entry<Index, TransactionReads> e : reads.entrySet()) {
+			Record[] keys = t.writes.get(e.getKey());
+			if (keys != null && e.getValue().intersects(keys))
+				throw new Conflict("read in " +
+						ck_getTable(e.getKey().tblnum).name);
+		}
+		// check if we deleted the same record
+		TIntHashSet smaller = deletes.size() < t.deletes.size() ? deletes : t.deletes;
+		TIntHashSet larger = smaller == deletes ? t.deletes : deletes;
+		for (TIntIterator iter = smaller.iterator(); iter.hasNext(); )
+			if (larger.contains(iter.next()))
+				throw new Conflict("delete");
 	}
 
 	// store data --------------------------------------------------------------
@@ -309,8 +341,12 @@ class UpdateTransaction extends ReadWriteTransaction {
 	}
 
 	protected void startCommit() {
-		ByteBuffer buf = tran.dstor.buffer(tran.dstor.alloc(1));
-		buf.put((byte) tranType());
+		startCommit(tran.dstor, tranType());
+	}
+
+	static void startCommit(Storage stor, char type) {
+		ByteBuffer buf = stor.buffer(stor.alloc(1));
+		buf.put((byte) type);
 	}
 
 	/** overridden by SchemaTransaction */
@@ -341,7 +377,6 @@ class UpdateTransaction extends ReadWriteTransaction {
 		DataRecord rec = (DataRecord) tran.intToRef(act);
 		int adr = rec.store(tran.dstor);
 		tran.setAdr(act, adr);
-		inserts.add(adr);
 	}
 
 	/** overridden by tests */
@@ -443,7 +478,7 @@ class UpdateTransaction extends ReadWriteTransaction {
 
 	/** overridden by SchemaTransaction */
 	protected Btree getLatestIndex(Index index) {
-		TableInfo ti = (TableInfo) db.state.dbinfo.get(index.tblnum);
+		TableInfo ti = (TableInfo) latestDbinfo().get(index.tblnum);
 		IndexInfo ii = ti.getIndex(index.colNums);
 		return new Btree(tran, ii);
 	}
@@ -460,11 +495,20 @@ class UpdateTransaction extends ReadWriteTransaction {
 
 	/** overridden by SchemaTransaction */
 	protected void updateDbInfo() {
-		dbinfo = db.state.dbinfo; // the latest
+		dbinfo = latestDbinfo();
 		updateDbInfo(updatedIndexes);
 		assert schema == db.state.schema;
 	}
 
+	/**
+	 * @return The dbinfo to apply this transaction's changes to.
+	 * Normally db.state.dbinfo, but for a group commit
+	 * it includes the earlier members of the group.
+	 */
+	private DbHashTrie latestDbinfo() {
+		return groupDbinfo != null ? groupDbinfo : db.state.dbinfo;
+	}
+
 	/**
 	 * This is the final step that makes the commit permanent.
 	 * An exception part way through this will be bad.
@@ -481,6 +525,45 @@ class UpdateTransaction extends ReadWriteTransaction {
 		}
 	}
 
+	// group commit (see CommitGroup) -----------------------------------------
+
+	/** Checks for conflicts with overlapping and earlier group members */
+	void groupCheck(List<UpdateTransaction> earlier) {
+		db.checkNotReplaced();
+		checkSchema();
+		checkForConflicts();
+		for (UpdateTransaction t : earlier)
+			checkForConflicts(t);
+	}
+
+	/**
+	 * Stores this transaction's actions into the group's commit
+	 * and applies its index changes to the group's dbinfo.
+	 * @return The updated dbinfo
+	 */
+	DbHashTrie groupStore(DbHashTrie latest) {
+		groupDbinfo = latest;
+		tran.startGroupStore();
+		storeActions();
+		updateBtrees();
+		updateDbInfo();
+		return dbinfo;
+	}
+
+	/** Undo groupStore so the transaction can be retried in another group */
+	void groupAbort() {
+		groupDbinfo = null;
+		updatedIndexes.clear();
+		tran.abortGroupStore();
+	}
+
+	/** Called after the group's commit is stored and the state published */
+	void groupFinish() {
+		groupDbinfo = null;
+		commitTime = trans.clock();
+		trans.commit(this);
+	}
+
 	// end of commit =========================================================
 
 	long asof() {
@@ -501,12 +584,6 @@ class UpdateTransaction extends ReadWriteTransaction {
 		return writeCount;
 	}
 
-	// needed for PriorityQueue's in Transactions
-	static final Comparator<UpdateTransaction> byCommit =
-			(t1, t2) -> Long.compare(t1.commitTime, t2.commitTime);
-	static final Comparator<UpdateTransaction> byAsof =
-			(t1, t2) -> Long.compare(t1.asof, t2.asof);
-
 	@Override
 	public String toString() {
 		return "ut" + num;
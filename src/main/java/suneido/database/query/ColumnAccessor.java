@@ -0,0 +1,80 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.query;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import suneido.database.immudb.Record;
+import suneido.database.immudb.RecordBuilder;
+import suneido.runtime.Pack;
+
+/**
+ * A list of columns resolved against a {@link Header}
+ * so each access is an array index instead of searching the header.
+ * Used by operators that access the same columns of every row
+ * e.g. Join, TempIndex, Project, Summarize,
+ * and the classes generated for query expressions (CompiledExpr)
+ * <p>
+ * Rules (columns not in the data) are still handled by Row.
+ * @see Header#accessor
+ */
+public class ColumnAccessor {
+	private final Header hdr;
+	private final List<String> cols;
+	private final int[][] positions;
+
+	ColumnAccessor(Header hdr, List<String> cols) {
+		this.hdr = hdr;
+		this.cols = cols;
+		positions = new int[cols.size()][];
+		for (int i = 0; i < positions.length; ++i)
+			positions[i] = hdr.positions(cols.get(i));
+	}
+
+	int size() {
+		return positions.length;
+	}
+
+	/** equivalent to row.getraw(hdr, cols[i]) */
+	public ByteBuffer getraw(Row row, int i) {
+		ByteBuffer b = row.getraw(positions[i]);
+		return b == null ? Record.MIN_FIELD : b;
+	}
+
+	/** equivalent to row.getval(hdr, cols[i]) */
+	public Object getval(Row row, int i) {
+		ByteBuffer b = row.getraw(positions[i]);
+		return b == null ? row.getval(hdr, cols.get(i)) : Pack.unpack(b);
+	}
+
+	/** equivalent to hdr.equal(r1, r2) if cols is hdr.columns() */
+	boolean equal(Row r1, Row r2) {
+		for (int i = 0; i < positions.length; ++i)
+			if (! getraw(r1, i).equals(getraw(r2, i)))
+				return false;
+		return true;
+	}
+
+	/** equivalent to row.project(hdr, cols) */
+	Record project(Row row) {
+		return build(row).build();
+	}
+
+	/** used by TempIndex */
+	Record project(Row row, int adr) {
+		return build(row).add(adr).build();
+	}
+
+	private RecordBuilder build(Row row) {
+		RecordBuilder key = new RecordBuilder();
+		for (int i = 0; i < positions.length; ++i) {
+			ByteBuffer b = row.getraw(positions[i]);
+			key.add(b != null ? b : row.getrawval(hdr, cols.get(i)));
+		}
+		return key;
+	}
+
+}
@@ -16,6 +16,8 @@ public abstract class Compatible extends Query2 {
 	protected List<String> ki;
 	protected List<String> allcols;
 	protected Header hdr1, hdr2;
+	protected ColumnAccessor keys1, keys2;
+	private ColumnAccessor all1, all2;
 	protected String disjoint;
 
 	Compatible(Query source1, Query source2) {
@@ -65,11 +67,9 @@ public abstract class Compatible extends Query2 {
 			return false;
 
 		// test if row is in source2
-		if (hdr1 == null) {
-			hdr1 = source.header();
-			hdr2 = source2.header();
-		}
-		Record key = row.project(hdr1, ki);
+		if (hdr1 == null)
+			setHeaders();
+		Record key = keys1.project(row);
 		source2.select(ki, key);
 		Row row2 = source2.get(Dir.NEXT);
 		if (row2 == null)
@@ -81,12 +81,21 @@ public abstract class Compatible extends Query2 {
 		if (disjoint != null)
 			return false;
 
-		for (String col : allcols)
-			if (!r1.getraw(hdr1, col).equals(r2.getraw(hdr2, col)))
+		for (int i = 0; i < all1.size(); ++i)
+			if (!all1.getraw(r1, i).equals(all2.getraw(r2, i)))
 				return false;
 		return true;
 	}
 
+	protected void setHeaders() {
+		hdr1 = source.header();
+		hdr2 = source2.header();
+		keys1 = hdr1.accessor(ki);
+		keys2 = hdr2.accessor(ki);
+		all1 = hdr1.accessor(allcols);
+		all2 = hdr2.accessor(allcols);
+	}
+
 	@Override
 	public void rewind() {
 		source.rewind();
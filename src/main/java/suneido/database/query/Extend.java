@@ -18,6 +18,7 @@ import com.google.common.collect.Sets;
 import suneido.SuException;
 import suneido.database.immudb.Dbpkg;
 import suneido.database.immudb.RecordBuilder;
+import suneido.database.query.expr.CompiledExpr;
 import suneido.database.query.expr.Constant;
 import suneido.database.query.expr.Expr;
 
@@ -26,6 +27,7 @@ public class Extend extends Query1 {
 	List<Expr> exprs; // modified by Project.transform
 	private List<String> eflds;
 	private Header hdr = null;
+	private CompiledExpr[] compiled;
 	private List<Fixed> fix;
 
 	Extend(Query source, List<String> flds, List<Expr> exprs) {
@@ -122,8 +124,13 @@ public class Extend extends Query1 {
 
 	@Override
 	public Row get(Dir dir) {
-		if (hdr == null)
+		if (hdr == null) {
 			hdr = header();
+			compiled = new CompiledExpr[exprs.size()];
+			for (int i = 0; i < exprs.size(); ++i)
+				if (exprs.get(i) != null)
+					compiled[i] = CompiledExpr.of(exprs.get(i), hdr);
+		}
 		Row srcrow = source.get(dir);
 		if (srcrow == null)
 			return null;
@@ -132,7 +139,7 @@ public class Extend extends Query1 {
 			if (exprs.get(i) != null) {
 //				Row row = new Row(srcrow, rb.build(), Dbpkg.MIN_RECORD);
 				Row row = new Row(srcrow, Dbpkg.MIN_RECORD, rb.build());
-				rb.add(exprs.get(i).eval(hdr, row));
+				rb.add(compiled[i].eval(row));
 			}
 //		return new Row(srcrow, rb.build(), Dbpkg.MIN_RECORD);
 		return new Row(srcrow, Dbpkg.MIN_RECORD, rb.build());
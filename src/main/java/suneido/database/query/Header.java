@@ -11,14 +11,21 @@ import static suneido.util.Verify.verify;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.common.base.MoreObjects;
 
+import gnu.trove.list.array.TIntArrayList;
+
 public class Header {
 	List<List<String>> flds;
 	List<String> cols;
 	private List<String> fldsyms;
 	private String timestamp = "";
+	private static final int[] NO_POSITIONS = new int[0];
+	/** resolved columns, concurrent since a header may be used by more than one thread */
+	private final ConcurrentHashMap<String,int[]> positions =
+			new ConcurrentHashMap<>();
 
 	public Header(List<List<String>> flds, List<String> cols) {
 		this.flds = flds;
@@ -151,6 +158,36 @@ public class Header {
 		return timestamp;
 	}
 
+	/**
+	 * Resolves a column once (cached) so rows can be accessed without searching.
+	 * @return Pairs of (record index, field index), one per record
+	 * that contains the column, in the order they are searched.
+	 * @see Row#getraw(int[])
+	 */
+	public int[] positions(String col) {
+		if (col == null) // e.g. Summarize count has no on column
+			return NO_POSITIONS;
+		return positions.computeIfAbsent(col, this::resolve);
+	}
+
+	private int[] resolve(String col) {
+		TIntArrayList pos = new TIntArrayList();
+		if (! "-".equals(col))
+			for (int i = 0; i < flds.size(); ++i) {
+				int j = flds.get(i).indexOf(col);
+				if (j != -1) {
+					pos.add(i);
+					pos.add(j);
+				}
+			}
+		return pos.toArray();
+	}
+
+	/** @return An accessor for the given columns of rows with this header */
+	public ColumnAccessor accessor(List<String> cols) {
+		return new ColumnAccessor(this, cols);
+	}
+
 	static boolean inflds(List<List<String>> flds, String field) {
 		for (List<String> f : flds)
 			if (f.contains(field))
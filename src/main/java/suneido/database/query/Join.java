@@ -6,6 +6,9 @@ package suneido.database.query;
 
 import static java.util.Collections.disjoint;
 import static suneido.SuInternalError.unreachable;
+import static suneido.Trace.trace;
+import static suneido.Trace.tracing;
+import static suneido.Trace.Type.QUERYOPT;
 import static suneido.util.Util.*;
 import static suneido.util.Verify.verify;
 
@@ -13,21 +16,40 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableSet;
 
 import suneido.SuException;
+import suneido.database.immudb.Dbpkg;
 import suneido.database.immudb.Record;
+import suneido.database.immudb.RecordMultiMap;
+import suneido.database.immudb.Transaction;
+import suneido.util.ArraysList;
 
 public class Join extends Query2 {
 	List<String> joincols;
 	protected Type type;
 	Header hdr1;
+	private ColumnAccessor joincols1;
 	Row row1;
 	Row row2;
 	short[] cols1;
 	short[] cols2;
 	Row empty2;
 	protected double nrecs = -1;
+	/** joins (other than the top) in a chain of joins are not reordered */
+	private boolean inChain = false;
+	/** chains with more sources than this are left in the original order */
+	private static final int MAX_REORDER = 5;
+	/** set by optimize when source2 is read into a hash table, see opt */
+	private boolean hash = false;
+	private Transaction tran;
+	/** key is the joincols, values are row references as for TempIndex */
+	private RecordMultiMap hashTable;
+	private final ArraysList<Object> refs = new ArraysList<>();
+	private boolean single2;
+	private int[] matches;
+	private int matchPos;
 
 	enum Type {
 		NONE(""), ONE_ONE("1:1"), ONE_N("1:n"), N_ONE("n:1"), N_N("n:n");
@@ -68,7 +90,8 @@ public class Join extends Query2 {
 
 	@Override
 	public String toString() {
-		return "(" + source + " " + name() + " " + type.name + " on "
+		return "(" + source + " " + name() + (hash ? "-HASH" : "") +
+				" " + type.name + " on "
 				+ listToParens(joincols)
 				+ " " + source2 + ")";
 	}
@@ -77,9 +100,104 @@ public class Join extends Query2 {
 		return "JOIN";
 	}
 
+	@Override
+	Query transform() {
+		super.transform();
+		if (can_swap()) {
+			markChain(source);
+			markChain(source2);
+		}
+		return this;
+	}
+
+	private static void markChain(Query q) {
+		if (isChain(q))
+			((Join) q).inChain = true;
+	}
+
+	/** LeftJoin is not reordered, it is treated as a single source */
+	private static boolean isChain(Query q) {
+		return q instanceof Join && ((Join) q).can_swap();
+	}
+
 	@Override
 	double optimize2(List<String> index, Set<String> needs,
 			Set<String> firstneeds, boolean is_cursor, boolean freeze) {
+		if (! inChain && can_swap()) {
+			List<Query> sources = new ArrayList<>();
+			chainSources(source, sources);
+			chainSources(source2, sources);
+			if (2 < sources.size() && sources.size() <= MAX_REORDER)
+				return reorder(sources, index, needs, firstneeds, is_cursor, freeze);
+		}
+		return optimizeJoin(index, needs, firstneeds, is_cursor, freeze);
+	}
+
+	private static void chainSources(Query q, List<Query> sources) {
+		if (isChain(q)) {
+			chainSources(((Join) q).source, sources);
+			chainSources(((Join) q).source2, sources);
+		} else
+			sources.add(q);
+	}
+
+	/**
+	 * Natural joins are associative and commutative
+	 * so a chain of joins can be done in any order.
+	 * Compares the cost of the original order
+	 * to all the left deep orders of the sources
+	 * (that have common columns at each step)
+	 * On freeze, the cheapest order replaces our sources.
+	 */
+	private double reorder(List<Query> sources, List<String> index,
+			Set<String> needs, Set<String> firstneeds, boolean is_cursor,
+			boolean freeze) {
+		double best = optimizeJoin(index, needs, firstneeds, is_cursor, false);
+		Join bestJoin = null;
+		for (List<Query> order : Collections2.permutations(sources)) {
+			Join j = leftDeep(order);
+			if (j == null)
+				continue;
+			double cost = j.optimize1(index, needs, firstneeds, is_cursor, false);
+			if (cost < best) {
+				best = cost;
+				bestJoin = j;
+			}
+		}
+		if (best >= IMPOSSIBLE)
+			return IMPOSSIBLE;
+		if (bestJoin != null)
+			nrecs = bestJoin.nrecs;
+		if (freeze) {
+			if (bestJoin != null) {
+				source = bestJoin.source;
+				source2 = bestJoin.source2;
+				joincols = bestJoin.joincols;
+				type = bestJoin.type;
+				if (tracing(QUERYOPT))
+					trace(QUERYOPT, "REORDER JOIN " + this + " cost " + best);
+			}
+			optimizeJoin(index, needs, firstneeds, is_cursor, true);
+		}
+		return best;
+	}
+
+	/** @return null if a step has no common columns */
+	private static Join leftDeep(List<Query> order) {
+		Query q = order.get(0);
+		for (int i = 1; i < order.size(); ++i) {
+			Query q2 = order.get(i);
+			if (disjoint(q.columns(), q2.columns()))
+				return null;
+			Join j = new Join(q, q2, null);
+			j.inChain = true;
+			q = j;
+		}
+		return (Join) q;
+	}
+
+	private double optimizeJoin(List<String> index, Set<String> needs,
+			Set<String> firstneeds, boolean is_cursor, boolean freeze) {
 		Set<String> needs1 = setIntersect(needs, source.columns());
 		Set<String> needs2 = setIntersect(needs, source2.columns());
 		assert setUnion(needs1, needs2).size() == needs.size();
@@ -121,12 +239,11 @@ public class Join extends Query2 {
 			return IMPOSSIBLE;
 		double nrecs1 = src1.nrecords();
 
-		// for each of source 1, select on source2
-		cost1 += nrecs1 * SELECT_COST;
+		double hashCost = hashCost(src2, nrecs1, needs2, is_cursor, SELECT_COST);
 
 		// cost of reading all of source 2
 		double cost2 = src2.optimize(joincols, needs2, noNeeds, is_cursor, false);
-		if (cost2 >= IMPOSSIBLE)
+		if (cost2 >= IMPOSSIBLE && hashCost >= IMPOSSIBLE)
 			return IMPOSSIBLE;
 		double nrecs2 = src2.nrecords();
 
@@ -145,8 +262,20 @@ public class Join extends Query2 {
 			if (p < 1 && is_cursor2)
 				cost2 *= p;
 		}
-		if (freeze)
-			src2.optimize(joincols, needs2, noNeeds, is_cursor2, true);
+		// for each of source 1, select on source2
+		cost2 += nrecs1 * SELECT_COST;
+
+		boolean useHash = hashCost < cost2;
+		if (useHash)
+			cost2 = hashCost;
+		if (freeze) {
+			hash = useHash;
+			if (hash)
+				src2.optimize(noFields, setUnion(needs2, joincols), noNeeds,
+						false, true);
+			else
+				src2.optimize(joincols, needs2, noNeeds, is_cursor2, true);
+		}
 
 		switch (type) {
 		case ONE_ONE:
@@ -164,7 +293,13 @@ public class Join extends Query2 {
 		default:
 			throw unreachable();
 		}
-		nrecs /= 2; // convert from max to guess of expected PROBABLY TOO LOW
+		double nd = type == Type.N_N
+				? Math.max(src1.ndistinct(joincols), src2.ndistinct(joincols))
+				: -1;
+		if (nd > 0)
+			nrecs /= nd; // each distinct value matches nrecs1/nd * nrecs2/nd
+		else
+			nrecs /= 2; // convert from max to guess of expected PROBABLY TOO LOW
 
 		if (nrecs <= 0)
 			cost2 = 0;
@@ -172,6 +307,37 @@ public class Join extends Query2 {
 		return cost1 + cost2;
 	}
 
+	/**
+	 * Hash join is only considered when source2 does not have an index
+	 * on the join columns (so a lookup join would need a temp index)
+	 * and not for cursors (like temp indexes).
+	 * Instead of selecting source2 for each row of source1,
+	 * source2 is read once (in any order) into a hash table.
+	 * Like TempIndex, only row references are kept in memory, not data.
+	 * Probing still has to read the matching data,
+	 * so it is costed like a select on an index.
+	 * <p>
+	 * If the hash table is larger than RecordStore.memoryLimit (query_memory)
+	 * {@link RecordMultiMap} spills it to disk, see {@link Query#spillCost}.
+	 * @return The cost of reading source2 and building and probing
+	 * the hash table, or IMPOSSIBLE
+	 */
+	private double hashCost(Query src2, double nrecs1, Set<String> needs2,
+			boolean is_cursor, double selectCost) {
+		if (is_cursor ||
+				src2.optimize1(joincols, needs2, noNeeds, false, false) < IMPOSSIBLE)
+			return IMPOSSIBLE;
+		double cost = src2.optimize(noFields, setUnion(needs2, joincols),
+				noNeeds, false, false);
+		if (cost >= IMPOSSIBLE)
+			return IMPOSSIBLE;
+		double nrecs2 = src2.nrecords();
+		int keysize = joincols.size() * src2.columnsize() * 2;
+		cost += nrecs2 * keysize * 2 + nrecs1 * selectCost;
+		double mem = nrecs2 * (keysize + RecordMultiMap.ENTRY_OVERHEAD);
+		return cost + spillCost(mem, nrecs1);
+	}
+
 	private static Type reverse(Type type) {
 		return type == Type.ONE_N ? Type.N_ONE
 				: type == Type.N_ONE ? Type.ONE_N : type;
@@ -255,12 +421,13 @@ public class Join extends Query2 {
 	public Row get(Dir dir) {
 		if (hdr1 == null) {
 			hdr1 = source.header();
+			joincols1 = hdr1.accessor(joincols);
 			empty2 = new Row(source2.header().size());
 		}
 		while (true) {
 			if (row2 == null && !next_row1(dir))
 				return null;
-			row2 = source2.get(dir);
+			row2 = hash ? hashGet(dir) : source2.get(dir);
 			if (should_output(row2)) {
 				assert row2 == null || (row1.project(hdr1, joincols).equals(
 						row2.project(source2.header(), joincols)));
@@ -272,11 +439,46 @@ public class Join extends Query2 {
 	protected boolean next_row1(Dir dir) {
 		if (null == (row1 = source.get(dir)))
 			return false;
-		Record key = row1.project(hdr1, joincols);
-		source2.select(joincols, key);
+		Record key = joincols1.project(row1);
+		if (hash)
+			hashSelect(key, dir);
+		else
+			source2.select(joincols, key);
 		return true;
 	}
 
+	private void hashSelect(Record key, Dir dir) {
+		if (hashTable == null)
+			buildHashTable();
+		matches = hashTable.get(key);
+		matchPos = (dir == Dir.NEXT || matches == null) ? -1 : matches.length;
+	}
+
+	private void buildHashTable() {
+		hashTable = Dbpkg.recordMultiMap();
+		refs.clear();
+		single2 = source2.singleDbTable();
+		ColumnAccessor joincols2 = source2.header().accessor(joincols);
+		source2.rewind();
+		Row row;
+		while (null != (row = source2.get(Dir.NEXT))) {
+			int ref = single2 ? row.firstData().address() : row.getRefs(refs);
+			hashTable.add(joincols2.project(row), ref);
+		}
+	}
+
+	private Row hashGet(Dir dir) {
+		if (matches == null)
+			return null;
+		matchPos += (dir == Dir.NEXT) ? 1 : -1;
+		if (matchPos < 0 || matchPos >= matches.length)
+			return null;
+		int ref = matches[matchPos];
+		return single2
+				? new Row(new Record[] { null, tran.input(ref) })
+				: Row.fromRefs(tran, refs, ref);
+	}
+
 	protected boolean should_output(Row row) {
 		return row != null;
 	}
@@ -287,6 +489,32 @@ public class Join extends Query2 {
 		row2 = null;
 	}
 
+	@Override
+	Query addindex(Transaction t) {
+		tran = t;
+		return super.addindex(t);
+	}
+
+	@Override
+	public void setTransaction(Transaction tran) {
+		super.setTransaction(tran);
+		if (this.tran != tran)
+			closeHashTable(); // rebuild with the new transaction
+		this.tran = tran;
+	}
+
+	private void closeHashTable() {
+		if (hashTable != null)
+			hashTable.close();
+		hashTable = null;
+	}
+
+	@Override
+	public void close() {
+		closeHashTable();
+		super.close();
+	}
+
 	@Override
 	void select(List<String> index, Record from, Record to) {
 		source.select(index, from, to);
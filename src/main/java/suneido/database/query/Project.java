@@ -12,16 +12,24 @@ import java.util.*;
 import com.google.common.collect.ImmutableList;
 
 import suneido.SuException;
+import suneido.database.immudb.Dbpkg;
 import suneido.database.immudb.Record;
+import suneido.database.immudb.RecordLookup;
+import suneido.database.immudb.RecordStore;
 import suneido.database.query.expr.Expr;
+import suneido.util.ArraysList;
 
 public class Project extends Query1 {
 	private List<String> flds;
 	private Strategy strategy = Strategy.NONE;
 	private boolean first = true;
-	private Header projHdr;
-	private Header srcHdr;
-	private Lookup map = null;
+	private ColumnAccessor srcKey; // flds of source rows
+	private ColumnAccessor projKey; // flds of projected rows
+	private ColumnAccessor projCols; // all the columns of projected rows
+	// used by LOOKUP, values are the address if single else an offset in refs
+	private RecordLookup map = null;
+	private final ArraysList<Object> refs = new ArraysList<>();
+	private boolean single;
 	private final Keyrange sel = new Keyrange();
 	private boolean rewound = true;
 	private boolean indexed;
@@ -91,7 +99,11 @@ public class Project extends Query1 {
 
 	@Override
 	double nrecords() {
-		return source.nrecords() / (strategy == Strategy.COPY ? 1 : 2);
+		double nr = source.nrecords();
+		if (strategy == Strategy.COPY)
+			return nr;
+		double nd = source.ndistinct(flds);
+		return nd >= 0 ? Math.min(nd, nr) : nr / 2;
 	}
 
 	@Override
@@ -270,10 +282,28 @@ public class Project extends Query1 {
 		if (nil(best_index)) {
 			if (is_cursor)
 				return IMPOSSIBLE;
-			if (freeze)
+			double lookupCost = 2 * source.optimize(index, needs, firstneeds,
+					is_cursor, false); // 2 for lookups
+			// NOTE: after optimize so source nrecords is known
+			lookupCost += lookupSpillCost();
+			if (nil(index) && ! lookupFits()) {
+				// sort (tempindex) if cheaper than spilling the lookup
+				double seqCost = source.optimize(flds, needs, firstneeds,
+						is_cursor, false);
+				if (seqCost <= lookupCost) {
+					if (! freeze)
+						return seqCost;
+					strategy = Strategy.SEQUENTIAL;
+					via = flds;
+					return source.optimize(flds, needs, firstneeds, is_cursor,
+							freeze);
+				}
+			}
+			if (freeze) {
 				strategy = Strategy.LOOKUP;
-			return 2 * source.optimize(index, needs, firstneeds, is_cursor,
-					freeze); // 2 for lookups
+				source.optimize(index, needs, firstneeds, is_cursor, freeze);
+			}
+			return lookupCost;
 		} else {
 			if (!freeze)
 				return best_cost;
@@ -285,6 +315,25 @@ public class Project extends Query1 {
 		}
 	}
 
+	/** @return Whether the estimated size of the LOOKUP map is within budget */
+	private boolean lookupFits() {
+		return lookupMemory() <= RecordStore.memoryLimit;
+	}
+
+	/** @return The additional cost if the LOOKUP map spills to disk */
+	private double lookupSpillCost() {
+		return spillCost(lookupMemory(), source.nrecords());
+	}
+
+	/**
+	 * @return The estimated memory for the LOOKUP map,
+	 * it has an entry for each result record
+	 */
+	private double lookupMemory() {
+		double keysize = flds.size() * source.columnsize();
+		return nrecords() * (keysize + RecordLookup.ENTRY_OVERHEAD);
+	}
+
 	List<String> withoutFixed(List<String> list, List<Fixed> fixed) {
 		if (! hasFixed(list, fixed))
 			return list;
@@ -320,10 +369,16 @@ public class Project extends Query1 {
 	public Row get(Dir dir) {
 		if (first) {
 			first = false;
-			srcHdr = source.header();
-			projHdr = srcHdr.project(flds);
+			Header srcHdr = source.header();
+			Header projHdr = srcHdr.project(flds);
+			srcKey = srcHdr.accessor(flds);
+			projKey = projHdr.accessor(flds);
+			projCols = projHdr.accessor(projHdr.columns());
 			if (strategy == Strategy.LOOKUP) {
-				map = new Lookup();
+				closeMap();
+				map = Dbpkg.recordLookup();
+				refs.clear();
+				single = source.singleDbTable();
 				indexed = false;
 			}
 		}
@@ -352,7 +407,7 @@ public class Project extends Query1 {
 			do
 				if (null == (row = source.get(Dir.NEXT)))
 					return null;
-				while (! rewound && projHdr.equal(row, currow));
+				while (! rewound && projCols.equal(row, currow));
 			rewound = false;
 			prevrow = currow;
 			currow = row;
@@ -368,7 +423,7 @@ public class Project extends Query1 {
 				if (null == (row = prevrow))
 					return null;
 				prevrow = source.get(Dir.PREV);
-			} while (prevrow != null && projHdr.equal(row, prevrow));
+			} while (prevrow != null && projCols.equal(row, prevrow));
 			// output the last row of a group
 			currow = row;
 			return row;
@@ -377,8 +432,6 @@ public class Project extends Query1 {
 		}
 	}
 
-	//TODO pack keys into RecordStorage to reduce per-object overhead
-	// not easy because then you need int to object map with custom hash
 	private Row getLookup(Dir dir) {
 		if (rewound) {
 			rewound = false;
@@ -387,12 +440,12 @@ public class Project extends Query1 {
 		}
 		Row row;
 		while (null != (row = source.get(dir))) {
-			Record key = row.project(srcHdr, flds);
-			Object[] data = map.get(key);
-			if (data == null) {
-				map.put(key, row.getRefs());
+			Record key = srcKey.project(row);
+			int h = map.find(key);
+			if (h == -1) {
+				map.add(key, ref(row));
 				return row;
-			} else if (Arrays.equals(data, row.getRefs()))
+			} else if (sameRow(map.value(h), row))
 				return row;
 		}
 		if (dir == Dir.NEXT)
@@ -403,14 +456,22 @@ public class Project extends Query1 {
 	private void buildLookupIndex() {
 		Row row;
 		while (null != (row = source.get(Dir.NEXT))) {
-			Record key = row.project(projHdr, flds);
-			if (null == map.get(key))
-				map.put(key, row.getRefs());
+			Record key = projKey.project(row);
+			if (-1 == map.find(key))
+				map.add(key, ref(row));
 		}
 		source.rewind();
 		indexed = true;
 	}
 
+	private int ref(Row row) {
+		return single ? row.address() : row.getRefs(refs);
+	}
+
+	private boolean sameRow(int ref, Row row) {
+		return single ? ref == row.address() : row.refsEqual(refs, ref);
+	}
+
 	@Override
 	void select(List<String> index, Record from, Record to) {
 		source.select(index, from, to);
@@ -427,6 +488,18 @@ public class Project extends Query1 {
 		rewound = true;
 	}
 
+	private void closeMap() {
+		if (map != null)
+			map.close();
+		map = null;
+	}
+
+	@Override
+	public void close() {
+		closeMap();
+		super.close();
+	}
+
 	@Override
 	public void output(Record r) {
 		ckmodify("output");
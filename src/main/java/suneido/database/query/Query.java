@@ -20,6 +20,8 @@ import com.google.common.collect.ImmutableSet;
 import suneido.SuException;
 import suneido.database.immudb.Record;
 import suneido.database.immudb.RecordBuilder;
+import suneido.database.immudb.RecordPartitions;
+import suneido.database.immudb.RecordStore;
 import suneido.database.immudb.Transaction;
 
 /**
@@ -199,6 +201,29 @@ public abstract class Query {
 	/** @return The estimated number of records resulting from this query */
 	abstract double nrecords();
 
+	/**
+	 * @return The estimated number of distinct values of the columns
+	 * or -1 if unknown. Redefined by Table and Select.
+	 */
+	double ndistinct(List<String> cols) {
+		return -1;
+	}
+
+	/**
+	 * @return The additional cost when a hash table of mem bytes
+	 * is larger than RecordStore.memoryLimit (query_memory)
+	 * and is spilled to disk by hash partition (see RecordPartitions).
+	 * It is written and read back, and partitions that don't fit
+	 * are reloaded when probed. Assuming the probes are not in key order
+	 * a probe reloads a partition with the probability it is not loaded.
+	 */
+	static double spillCost(double mem, double nprobes) {
+		if (mem <= RecordStore.memoryLimit)
+			return 0;
+		double miss = 1 - RecordStore.memoryLimit / mem;
+		return 2 * mem + nprobes * miss * mem / RecordPartitions.NPARTS;
+	}
+
 	/** @return The estimated average size of a record in this query */
 	abstract int recordsize();
 
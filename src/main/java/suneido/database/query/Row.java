@@ -12,8 +12,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
-import com.google.common.base.MoreObjects;
-
 import suneido.SuRecord;
 import suneido.database.immudb.Dbpkg;
 import suneido.database.immudb.Record;
@@ -85,7 +83,8 @@ public class Row {
 	}
 
 	public ByteBuffer getraw(Header hdr, String col) {
-		return getraw(find(hdr, col));
+		ByteBuffer b = getraw(hdr.positions(col));
+		return b == null ? Record.MIN_FIELD : b;
 	}
 
 	public Record project(Header hdr, List<String> flds) {
@@ -95,23 +94,14 @@ public class Row {
 		return key.build();
 	}
 
-	/** used by TempIndex */
-	Record project(Header hdr, List<String> flds, int adr) {
-		RecordBuilder key = new RecordBuilder();
-		for (String f : flds)
-			key.add(getrawval(hdr, f));
-		key.add(adr);
-		return key.build();
-	}
-
 	public Record firstData() {
 		return data[data.length > 1 ? 1 : 0]; // 0 is usually index key
 	}
 
 	ByteBuffer getrawval(Header hdr, String col) {
-		Which w = find(hdr, col);
-		if (w != null)
-			return getraw(w);
+		ByteBuffer b = getraw(hdr.positions(col));
+		if (b != null)
+			return b;
 		// else rule
 		return Pack.pack(surec(hdr).get(col));
 	}
@@ -126,52 +116,34 @@ public class Row {
 		return surec;
 	}
 
-	private ByteBuffer getraw(Which w) {
-		return w == null ? Record.MIN_FIELD : data[w.di].getRaw(w.ri);
-	}
-
-	Which find(Header hdr, String col) {
-		if ("-".equals(col))
-			return null;
-		int j;
-		for (int i = 0; i < data.length; ++i)
-			if (data[i] != null && !data[i].isEmpty()
-					&& -1 != (j = hdr.flds.get(i).indexOf(col)))
-				return new Which(i, j);
+	/**
+	 * Used instead of searching the header for each access
+	 * @param positions From {@link Header#positions}
+	 * @return The field, or null if the column is not in this row
+	 */
+	public ByteBuffer getraw(int[] positions) {
+		for (int i = 0; i < positions.length; i += 2) {
+			int di = positions[i];
+			if (di < data.length && data[di] != null && !data[di].isEmpty())
+				return data[di].getRaw(positions[i + 1]);
+		}
 		return null;
 	}
 
 	public Object getval(Header hdr, String col) {
-		Which w = find(hdr, col);
-		if (w != null || ! hdr.cols.contains(col))
-			return Pack.unpack(getraw(w));
+		ByteBuffer b = getraw(hdr.positions(col));
+		if (b != null || ! hdr.cols.contains(col))
+			return Pack.unpack(b == null ? Record.MIN_FIELD : b);
 		if (suneido.database.immudb.Table.isSpecialField(col)) {
 			String base = Util.beforeLast(col, "_");
-			w = find(hdr, base);
-			return (w == null) ? ""
-				: data[w.di].getString(w.ri).toLowerCase();
+			b = getraw(hdr.positions(base));
+			return (b == null) ? ""
+				: ((String) Pack.unpack(b)).toLowerCase();
 		}
 		// else rule
 		return surec(hdr).get(col);
 	}
 
-	static class Which {
-		int di; // index into flds
-		int ri; // index into flds[i]
-
-		Which(int di, int ri) {
-			this.di = di;
-			this.ri = ri;
-		}
-		@Override
-		public String toString() {
-			return MoreObjects.toStringHelper(this)
-					.addValue(di)
-					.addValue(ri)
-					.toString();
-		}
-	}
-
 	public void setTransaction(DbmsTran tran) {
 		this.tran = tran;
 	}
@@ -220,6 +192,15 @@ public class Row {
 		refs.add(END);
 		return offset;
 	}
+	/** @return Whether the refs at offset (from getRefs) are for this row */
+	boolean refsEqual(List<Object> refs, int offset) {
+		int ri = offset;
+		for (int di = 1; di < data.length; di += 2)
+			if (! data[di].getRef().equals(refs.get(ri++)))
+				return false;
+		return refs.get(ri) == END;
+	}
+
 	static Row fromRefs(Transaction t, List<Object> refs, int offset) {
 		int n = size(refs, offset);
 		Record[] data = new Record[2 * n];
@@ -69,6 +69,10 @@ public class Select extends Query1 {
 	int n_out = 0;
 	private TIntHashSet filterSet;
 	private Header hdr;
+	private CompiledExpr compiled;
+	// isels in the same order as iselCols, for matches
+	private Iselect[] iselArray;
+	private ColumnAccessor iselCols;
 	private Transaction tran;
 
 	public Select(Transaction tran, Query source, Expr expr) {
@@ -652,6 +656,12 @@ public class Select extends Query1 {
 		return nrecs;
 	}
 
+	@Override
+	double ndistinct(List<String> cols) {
+		double nd = source.ndistinct(cols);
+		return nd < 0 ? nd : Math.min(nd, nrecords());
+	}
+
 	@Override
 	public void setTransaction(Transaction tran) {
 		super.setTransaction(tran);
@@ -701,6 +711,16 @@ public class Select extends Query1 {
 	private void iterate_setup() {
 		processFilters();
 		hdr = source.header();
+		compiled = CompiledExpr.of(expr, hdr);
+		List<String> iselFlds = new ArrayList<>();
+		List<Iselect> iselList = new ArrayList<>();
+		if (isels != null)
+			for (Map.Entry<String,Iselect> e : isels.entrySet()) {
+				iselFlds.add(e.getKey());
+				iselList.add(e.getValue());
+			}
+		iselCols = hdr.accessor(iselFlds);
+		iselArray = iselList.toArray(new Iselect[0]);
 		ranges = selects(source_index, iselects(source_index));
 		if (tracing(SELECT))
 			trace(SELECT, "ranges: " + ranges);
@@ -802,15 +822,12 @@ public class Select extends Query1 {
 
 		// then check against isels
 		// PERF: check keys before data (every other one)
-		for (Map.Entry<String,Iselect> e : isels.entrySet()) {
-			Iselect isel = e.getValue();
-			ByteBuffer value = row.getraw(hdr, e.getKey());
-			if (! isel.matches(value))
+		for (int i = 0; i < iselArray.length; ++i)
+			if (! iselArray[i].matches(iselCols.getraw(row, i)))
 				return false;
-		}
 		// finally check remaining expressions
 		row.setTransaction(new DbmsTranLocal(tran));
-		return expr.eval(hdr, row) == Boolean.TRUE;
+		return compiled.eval(row) == Boolean.TRUE;
 	}
 
 	private boolean matches(List<String> idx, Record key) {
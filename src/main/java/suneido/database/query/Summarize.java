@@ -19,6 +19,8 @@ import suneido.SuContainer;
 import suneido.SuException;
 import suneido.SuInternalError;
 import suneido.database.immudb.Record;
+import suneido.database.immudb.RecordMap;
+import suneido.database.immudb.RecordStore;
 import suneido.runtime.Ops;
 
 public class Summarize extends Query1 {
@@ -33,7 +35,11 @@ public class Summarize extends Query1 {
 	private boolean first = true;
 	private boolean rewound = true;
 	private Header hdr;
+	private ColumnAccessor byCols;
+	private ColumnAccessor onCols;
 	private SummarizeStrategy strategyImp;
+	/** estimated memory for the List of Summary for a MAP group */
+	static final int GROUP_OVERHEAD = 48;
 	final boolean wholeRecord;
 
 	/**
@@ -125,6 +131,19 @@ public class Summarize extends Query1 {
 					srcneeds, ImmutableSet.copyOf(by), is_cursor, freeze);
 		} else {
 			Best best = best_prefixed(sourceIndexes(index), by, srcneeds, is_cursor);
+			if (best.cost >= IMPOSSIBLE && nil(index)) {
+				// sort (tempindex) if an in-memory map would not fit
+				// NOTE: optimize before mapFits so source nrecords is known
+				double cost = source.optimize(by, srcneeds, noNeeds, is_cursor,
+						false);
+				if (! mapFits()) {
+					if (! freeze)
+						return cost;
+					via = by;
+					return source.optimize(by, srcneeds, noNeeds, is_cursor,
+							freeze);
+				}
+			}
 			if (! freeze || best.cost >= IMPOSSIBLE)
 				return best.cost;
 			via = best.index;
@@ -166,6 +185,12 @@ public class Summarize extends Query1 {
 		return cost;
 	}
 
+	/**
+	 * If the groups don't fit in RecordStore.memoryLimit (query_memory)
+	 * SummarizeStrategyMap writes the rows for the groups that don't fit
+	 * to disk and reads them back,
+	 * and the results are sorted with a RecordSorter (which may also spill).
+	 */
 	private double mapCost(List<String> index, Set<String> srcneeds,
 			boolean is_cursor,	boolean freeze) {
 		// can only provide 'by' as index
@@ -175,11 +200,38 @@ public class Summarize extends Query1 {
 		// add 50% for map overhead
 		double cost = 1.5 *
 				source.optimize1(noFields, srcneeds, noNeeds, is_cursor, freeze);
+		double mem = mapMemory();
+		if (mem > RecordStore.memoryLimit) {
+			double miss = 1 - RecordStore.memoryLimit / mem;
+			double rowsize = (by.size() + on.size()) * source.columnsize();
+			cost += 2 * miss * source.nrecords() * rowsize +
+					2 * nrecords() * recordsize();
+		}
 		if (freeze)
 			strategy = Strategy.MAP;
 		return cost;
 	}
 
+	/** @return Whether the estimated size of the MAP groups is within budget */
+	private boolean mapFits() {
+		return mapMemory() <= RecordStore.memoryLimit;
+	}
+
+	/**
+	 * @return The estimated memory for the MAP groups,
+	 * the keys plus the Summary state for each group.
+	 * list also keeps the distinct values, assume they all are.
+	 */
+	private double mapMemory() {
+		double keysize = by.size() * source.columnsize();
+		double mem = nrecords() * (keysize + RecordMap.ENTRY_OVERHEAD +
+				GROUP_OVERHEAD + funcs.size() * Summary.OVERHEAD);
+		for (String f : funcs)
+			if (f.equalsIgnoreCase("list"))
+				mem += source.nrecords() * ListSum.VALUE_OVERHEAD;
+		return mem;
+	}
+
 	// end of optimize ---------------------------------------------------------
 
 	@Override
@@ -216,10 +268,14 @@ public class Summarize extends Query1 {
 	@Override
 	double nrecords() {
 		double nr = source.nrecords();
-		return nr == 0 ? 0
-				: by.isEmpty() ? 1
-				: by_contains_key() ? nr
-				: nr / 2;					//TODO review this estimate
+		if (nr == 0)
+			return 0;
+		if (by.isEmpty())
+			return 1;
+		if (by_contains_key())
+			return nr;
+		double nd = source.ndistinct(by);
+		return nd >= 0 ? Math.min(nd, nr) : nr / 2;
 	}
 
 	@Override
@@ -246,6 +302,8 @@ public class Summarize extends Query1 {
 	private void iterate_setup() {
 		first = false;
 		hdr = source.header();
+		byCols = hdr.accessor(by);
+		onCols = hdr.accessor(on);
 		strategyImp =
 				(strategy == Strategy.MAP) ? new SummarizeStrategyMap(this)
 				: (strategy == Strategy.IDX) ? new SummarizeStrategyIdx(this)
@@ -282,10 +340,27 @@ public class Summarize extends Query1 {
 		return false; // override Query1 source->updateable
 	}
 
+	@Override
+	public void close() {
+		if (strategyImp != null)
+			strategyImp.close();
+		super.close();
+	}
+
 	Header getHdr() {
 		return hdr;
 	}
 
+	/** @return The by columns of source rows */
+	ColumnAccessor getBy() {
+		return byCols;
+	}
+
+	/** @return The on columns of source rows */
+	ColumnAccessor getOn() {
+		return onCols;
+	}
+
 	public abstract static class Summary {
 		abstract void init();
 		void add(Object x) {
@@ -298,6 +373,12 @@ public class Summarize extends Query1 {
 		Row getRow() {
 			return null;
 		}
+		/** estimated memory for a Summary object and its value */
+		static final int OVERHEAD = 40;
+		/** @return The estimated memory used, for SummarizeStrategyMap */
+		long memory() {
+			return OVERHEAD;
+		}
 
 		static Summary valueOf(String summary) {
 			summary = summary.toLowerCase();
@@ -420,6 +501,8 @@ public class Summarize extends Query1 {
 	}
 
 	private static class ListSum extends Summary {
+		/** estimated memory for a HashSet entry, in addition to the value */
+		static final int VALUE_OVERHEAD = 48;
 		HashSet<Object> set;
 
 		@Override
@@ -432,6 +515,12 @@ public class Summarize extends Query1 {
 			set.add(x);
 		}
 
+		@Override
+		long memory() {
+			// the values themselves are mostly shared with the rows
+			return OVERHEAD + set.size() * (long) VALUE_OVERHEAD;
+		}
+
 		@Override
 		Object result() {
 			SuContainer list = new SuContainer();
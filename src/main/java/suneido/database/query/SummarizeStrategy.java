@@ -37,14 +37,22 @@ public abstract class SummarizeStrategy {
 	}
 
 	Row makeRow(Record r, List<Summary> sums) {
+		return new Row(Dbpkg.MIN_RECORD, makeRecord(r, sums));
+	}
+
+	Record makeRecord(Record r, List<Summary> sums) {
 		RecordBuilder rb = new RecordBuilder();
 		rb.addAll(r);
 		for (Summary s : sums)
 			rb.add(s.result());
-		return new Row(Dbpkg.MIN_RECORD, rb.build());
+		return rb.build();
 	}
 
 	abstract Row get(Dir dir, boolean rewound);
 
 	abstract void select(List<String> index, Record from, Record to);
+
+	/** Release resources e.g. temporary files */
+	void close() {
+	}
 }
@@ -32,7 +32,7 @@ public class SummarizeStrategyIdx extends SummarizeStrategy {
 				return null;
 		}
 		RecordBuilder rb = new RecordBuilder();
-		rb.add(row.getraw(q.getHdr(), q.on.get(0)));
+		rb.add(q.getOn().getraw(row, 0));
 		Row result = new Row(Dbpkg.MIN_RECORD, rb.build());
 		if (q.wholeRecord)
 			result = new Row(row, result);
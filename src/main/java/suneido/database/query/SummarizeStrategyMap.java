@@ -6,24 +6,45 @@ package suneido.database.query;
 
 import static suneido.util.Util.startsWith;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.NavigableMap;
-import java.util.TreeMap;
 
+import suneido.database.immudb.Dbpkg;
 import suneido.database.immudb.Record;
+import suneido.database.immudb.RecordBuilder;
+import suneido.database.immudb.RecordMap;
+import suneido.database.immudb.RecordPartitions;
+import suneido.database.immudb.RecordSorter;
+import suneido.database.immudb.RecordStore;
 import suneido.database.query.Query.Dir;
 import suneido.database.query.Summarize.Summary;
 
 /**
  * accumulate results in memory
  * doesn't require any order, can only supply in order of "by"
+ * <p>
+ * The by keys are in a {@link RecordMap}, sorted after they are accumulated
+ * <p>
+ * If the groups exceed RecordStore.memoryLimit (query_memory)
+ * the groups already in memory continue to be accumulated,
+ * but the rows (by and on values) for other groups
+ * are written to {@link RecordPartitions} by hash of the by values.
+ * Each partition is then accumulated separately (the same way, recursively).
+ * The results are put through a {@link RecordSorter} to get them in by order.
  */
 public class SummarizeStrategyMap extends SummarizeStrategy {
-	TreeMap<Record, List<Summary>> results = new TreeMap<>();
-	NavigableMap<Record, List<Summary>> selected;
-	Map.Entry<Record, List<Summary>> cur;
-	boolean first = true;
+	/** the groups if they fit in memory */
+	private Groups groups;
+	/** handles in by order */
+	private int[] sorted;
+	/** the range of sorted that is selected */
+	private int lo;
+	private int hi;
+	private int cur;
+	private boolean first = true;
+	/** the results, if the groups did not fit in memory */
+	private RecordSorter sorter;
+	private RecordSorter.Iter iter;
 
 	SummarizeStrategyMap(Summarize source) {
 		super(source);
@@ -35,23 +56,77 @@ public class SummarizeStrategyMap extends SummarizeStrategy {
 			process();
 			first = false;
 		}
+		return (sorter == null) ? getMem(dir, rewound) : getSorted(dir, rewound);
+	}
+
+	private Row getMem(Dir dir, boolean rewound) {
 		if (rewound) {
-			selected = results.subMap(sel.org, true, sel.end, true);
-			if (dir == Dir.NEXT)
-				cur = selected.firstEntry();
-			else
-				cur = selected.lastEntry();
+			lo = lowerBound(sel.org);
+			hi = upperBound(sel.end);
+			cur = (dir == Dir.NEXT) ? lo : hi - 1;
 		}
 		else if (dir == Dir.NEXT)
-			cur = selected.higherEntry(cur.getKey());
+			cur = Math.min(cur + 1, hi);
 		else // dir == PREV
-			cur = selected.lowerEntry(cur.getKey());
-		if (cur == null) {
-			rewound = true;
+			cur = Math.max(cur - 1, lo - 1);
+		if (cur < lo || cur >= hi)
 			return null;
+
+		int h = sorted[cur];
+		return makeRow(groups.map.key(h), groups.sums.get(h));
+	}
+
+	/** @return The position of the first key >= key */
+	private int lowerBound(Record key) {
+		int first = 0;
+		int len = sorted.length;
+		while (len > 0) {
+			int half = len >> 1;
+			int middle = first + half;
+			if (groups.map.key(sorted[middle]).compareTo(key) < 0) {
+				first = middle + 1;
+				len -= half + 1;
+			} else
+				len = half;
+		}
+		return first;
+	}
+
+	/** @return The position of the first key > key */
+	private int upperBound(Record key) {
+		int first = 0;
+		int len = sorted.length;
+		while (len > 0) {
+			int half = len >> 1;
+			int middle = first + half;
+			if (key.compareTo(groups.map.key(sorted[middle])) < 0)
+				len = half;
+			else {
+				first = middle + 1;
+				len -= half + 1;
+			}
 		}
+		return first;
+	}
 
-		return makeRow(cur.getKey(), cur.getValue());
+	/**
+	 * The sorted records are the by values followed by the results
+	 * so the range is checked on the by values
+	 */
+	private Row getSorted(Dir dir, boolean rewound) {
+		if (rewound) {
+			if (dir == Dir.NEXT)
+				iter.seekFirst(sel.org);
+			else // results with by equal to end are after end
+				iter.seekLast(new RecordBuilder().addAll(sel.end).addMax().build());
+		}
+		Record rec = (dir == Dir.NEXT) ? iter.next() : iter.prev();
+		if (rec == null)
+			return null;
+		Record key = byKey(rec);
+		if (key.compareTo(sel.org) < 0 || key.compareTo(sel.end) > 0)
+			return null;
+		return new Row(Dbpkg.MIN_RECORD, rec);
 	}
 
 	@Override
@@ -59,19 +134,122 @@ public class SummarizeStrategyMap extends SummarizeStrategy {
 		assert startsWith(q.by, index); //TODO review if we need this
 	}
 
+	@Override
+	void close() {
+		if (sorter != null)
+			sorter.close();
+		sorter = null;
+	}
+
 	void process() {
-		results.clear();
+		Groups g = new Groups(0);
+		Object[] vals = new Object[q.funcs.size()];
 		Row row;
 		while (null != (row = source.get(Dir.NEXT))) {
-			Record byRec = row.project(q.getHdr(), q.by);
-			List<Summary> sums = results.get(byRec);
-			if (sums == null) {
-				sums = funcSums();
-				initSums(sums);
-				results.put(byRec, sums);
+			for (int i = 0; i < vals.length; ++i)
+				vals[i] = q.getOn().getval(row, i);
+			g.add(q.getBy().project(row), vals, null);
+		}
+		if (g.overflow == null) {
+			groups = g;
+			sorted = g.map.sorted();
+		} else {
+			sorter = Dbpkg.recordSorter();
+			g.output(sorter);
+			iter = sorter.iter();
+		}
+	}
+
+	/** @return The by values from the start of a spilled row or result */
+	private Record byKey(Record rec) {
+		RecordBuilder rb = new RecordBuilder();
+		for (int i = 0; i < q.by.size(); ++i)
+			rb.add(rec.getRaw(i));
+		return rb.build();
+	}
+
+	/** A set of groups, spilling the rows for groups that don't fit */
+	private class Groups {
+		final int level;
+		final long memoryLimit = RecordStore.memoryLimit;
+		RecordMap map = new RecordMap();
+		/** indexed by RecordMap handle */
+		List<List<Summary>> sums = new ArrayList<>();
+		/** estimated memory used by sums */
+		long sumsMemory = 0;
+		/** the rows for groups that did not fit, null if none */
+		RecordPartitions overflow;
+
+		Groups(int level) {
+			this.level = level;
+		}
+
+		/**
+		 * @param row The row as written to overflow (by values then vals)
+		 * if it came from there, otherwise null
+		 */
+		void add(Record byRec, Object[] vals, Record row) {
+			int h = map.find(byRec);
+			if (h == -1) {
+				if (map.size() > 0 && level < RecordPartitions.NLEVELS &&
+						map.memory() + sumsMemory > memoryLimit) {
+					spill(byRec, vals, row);
+					return;
+				}
+				List<Summary> s = funcSums();
+				initSums(s);
+				h = map.add(byRec, 0);
+				sums.add(s);
+				sumsMemory += Summarize.GROUP_OVERHEAD;
+				for (Summary sum : s)
+					sumsMemory += sum.memory();
+			}
+			List<Summary> s = sums.get(h);
+			for (int i = 0; i < s.size(); ++i) {
+				Summary sum = s.get(i);
+				sumsMemory -= sum.memory();
+				sum.add(vals[i]);
+				sumsMemory += sum.memory();
+			}
+		}
+
+		private void spill(Record byRec, Object[] vals, Record row) {
+			if (row == null) {
+				RecordBuilder rb = new RecordBuilder().addAll(byRec);
+				for (Object x : vals)
+					rb.add(x);
+				row = rb.build();
+			}
+			if (overflow == null)
+				overflow = new RecordPartitions();
+			overflow.add(RecordPartitions.partition(byRec, level), 0, row);
+		}
+
+		/** Adds the results to sorter, processing any overflow */
+		void output(RecordSorter sorter) {
+			for (int h = 0; h < map.size(); ++h)
+				sorter.add(makeRecord(map.key(h), sums.get(h)));
+			if (overflow == null)
+				return;
+			map = null; // release memory before processing the overflow
+			sums = null;
+			try {
+				int nby = q.by.size();
+				Object[] vals = new Object[q.funcs.size()];
+				for (int p = 0; p < RecordPartitions.NPARTS; ++p) {
+					if (overflow.count(p) == 0)
+						continue;
+					Groups g = new Groups(level + 1);
+					overflow.read(p, (value, row) -> {
+						for (int i = 0; i < vals.length; ++i)
+							vals[i] = row.get(nby + i);
+						g.add(byKey(row), vals, row);
+					});
+					g.output(sorter);
+				}
+			} finally {
+				overflow.close();
 			}
-			for (int i = 0; i < sums.size(); ++i)
-				sums.get(i).add(row.getval(q.getHdr(), q.on.get(i)));
 		}
 	}
 
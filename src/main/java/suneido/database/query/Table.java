@@ -167,6 +167,11 @@ public class Table extends Query {
 		return nrecs();
 	}
 
+	@Override
+	double ndistinct(List<String> cols) {
+		return tran.ndistinct(tbl.num(), cols);
+	}
+
 	int num() {
 		return tbl.num();
 	}
@@ -14,27 +14,25 @@ import java.util.List;
 import suneido.SuException;
 import suneido.database.immudb.Dbpkg;
 import suneido.database.immudb.Record;
-import suneido.database.immudb.RecordStore;
+import suneido.database.immudb.RecordSorter;
 import suneido.database.immudb.Transaction;
 import suneido.util.ArraysList;
-import suneido.util.IntComparator;
-import suneido.util.IntMergeTree;
 
+/**
+ * Sorts its source by order.
+ * Only keys and row references are kept, not data.
+ * Large sorts are spilled to disk by {@link RecordSorter}
+ * according to RecordStore.memoryLimit (query_memory)
+ */
 public class TempIndex extends Query1 {
 	private final List<String> order;
 	private final boolean unique;
 	private Transaction tran;
 	private boolean first = true;
 	private boolean rewound = true;
-	private RecordStore stor;
+	private RecordSorter sorter;
 	private final ArraysList<Object> refs = new ArraysList<>();
-	private final IntComparator cmp = (int xi, int yi) -> {
-		Record xkey = stor.get(xi);
-		Record ykey = stor.get(yi);
-		return xkey.compareTo(ykey);
-	};
-	private final IntMergeTree index = new IntMergeTree(cmp);
-	private IntMergeTree.Iter iter;
+	private RecordSorter.Iter iter;
 	private final Keyrange sel = new Keyrange();
 	private final boolean single;
 
@@ -72,14 +70,12 @@ public class TempIndex extends Query1 {
 		if (rewound) {
 			rewound = false;
 			if (dir == Dir.NEXT)
-				iter.seekFirst(stor.add(sel.org));
+				iter.seekFirst(sel.org);
 			else // prev
-				iter.seekLast(stor.add(sel.end));
+				iter.seekLast(sel.end);
 		}
-		Record key;
-		int cur = (dir == Dir.NEXT) ? iter.next() : iter.prev();
-		if (cur == Integer.MIN_VALUE || cur == Integer.MAX_VALUE ||
-				! sel.contains(key = stor.get(cur))) {
+		Record key = (dir == Dir.NEXT) ? iter.next() : iter.prev();
+		if (key == null || ! sel.contains(key)) {
 			rewound = true;
 			return null;
 		}
@@ -90,20 +86,32 @@ public class TempIndex extends Query1 {
 	}
 
 	private void iterate_setup(Dir dir) {
-		stor = Dbpkg.recordStore();
-		index.clear();
+		close_sorter();
+		sorter = Dbpkg.recordSorter();
 		refs.clear();
-		Header srchdr = source.header();
+		ColumnAccessor cols = source.header().accessor(order);
 		Row row;
 		while (null != (row = source.get(Dir.NEXT))) {
 			int adr = single ? row.firstData().address() : row.getRefs(refs);
 			assert ! single || adr != 0;
-			Record key = row.project(srchdr, order, adr);
+			Record key = cols.project(row, adr);
 			if (key.bufSize() > 4000)
 				throw new SuException("temp index entry size > 4000: " + order);
-			index.add(stor.add(key));
+			sorter.add(key);
 		}
-		iter = index.iter();
+		iter = sorter.iter();
+	}
+
+	private void close_sorter() {
+		if (sorter != null)
+			sorter.close();
+		sorter = null;
+	}
+
+	@Override
+	public void close() {
+		close_sorter();
+		super.close();
 	}
 
 	@Override
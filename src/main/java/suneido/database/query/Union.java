@@ -263,8 +263,7 @@ public class Union extends Compatible {
 	private Row getMerge(Dir dir) {
 		if (first) {
 			first = false;
-			hdr1 = source.header();
-			hdr2 = source2.header();
+			setHeaders();
 		}
 
 		// read from the appropriate source(s)
@@ -312,14 +311,14 @@ public class Union extends Compatible {
 		row1 = source.get(dir);
 		key1 = (row1 == null
 				? (dir == Dir.NEXT ? Dbpkg.MAX_RECORD : Dbpkg.MIN_RECORD)
-				: row1.project(hdr1, ki));
+				: keys1.project(row1));
 	}
 
 	private void fetch2(Dir dir) {
 		row2 = source2.get(dir);
 		key2 = (row2 == null
 				? (dir == Dir.NEXT ? Dbpkg.MAX_RECORD : Dbpkg.MIN_RECORD)
-				: row2.project(hdr2, ki));
+				: keys2.project(row2));
 	}
 
 	private static boolean before(Dir dir, Record key1, int src1, Record key2, int src2) {
@@ -97,7 +97,7 @@ public class BinOp extends Expr {
 
 	// override Ops.cmp to make "" < all other values
 	// to match packed comparison
-	private static int cmp(Object x, Object y) {
+	static int cmp(Object x, Object y) {
 		if (x == y)
 			return 0;
 		if ("".equals(x))
@@ -125,9 +125,7 @@ public class BinOp extends Expr {
 
 	@Override
 	public Object eval(Header hdr, Row row) {
-		// only use raw comparison if isTerm has been used (by Select)
-		// NOTE: do NOT want to use raw for Extend because of rule issues
-		if (isTerm && hdr.fields().equals(isTermFields)) {
+		if (isRaw(hdr)) {
 			Identifier id = (Identifier) left;
 			ByteBuffer field = row.getraw(hdr, id.ident);
 			Constant c = (Constant) right;
@@ -148,6 +146,14 @@ public class BinOp extends Expr {
 			return eval2(left.eval(hdr, row), right.eval(hdr, row));
 	}
 
+	/**
+	 * Only use raw comparison if isTerm has been used (by Select)
+	 * NOTE: do NOT want to use raw for Extend because of rule issues
+	 */
+	boolean isRaw(Header hdr) {
+		return isTerm && hdr.fields().equals(isTermFields);
+	}
+
 	@Override
 	public Expr rename(List<String> from, List<String> to) {
 		Expr new_left = left.rename(from, to);
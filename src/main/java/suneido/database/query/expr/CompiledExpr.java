@@ -0,0 +1,112 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.query.expr;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import suneido.database.immudb.Record;
+import suneido.database.query.ColumnAccessor;
+import suneido.database.query.Header;
+import suneido.database.query.Row;
+import suneido.runtime.Ops;
+
+/**
+ * Evaluates an {@link Expr} for a particular {@link Header}.
+ * Used by Select and Extend instead of Expr.eval
+ * <p>
+ * Expressions are first interpreted (Expr.eval)
+ * and then after COMPILE_AFTER rows
+ * they are compiled to Java byte code by {@link ExprCompiler}
+ * so small queries do not pay the cost of generating a class.
+ * <p>
+ * If the expression has already been compiled (see ExprCompiler's cache)
+ * it is used immediately.
+ * If it was too large to compile it is just interpreted.
+ * <p>
+ * The generated classes extend this class.
+ * The members used by generated code must be public or protected
+ * because the generated classes are in their own class loader.
+ */
+public abstract class CompiledExpr {
+	static final int COMPILE_AFTER = 100;
+	protected final Header hdr;
+	/** constants, packed values, and expressions to interpret */
+	protected final Object[] values;
+	/** the columns used by the expression */
+	protected final ColumnAccessor cols;
+
+	protected CompiledExpr(Header hdr, Object[] values, ColumnAccessor cols) {
+		this.hdr = hdr;
+		this.values = values;
+		this.cols = cols;
+	}
+
+	/**
+	 * @return The cached compiled expression if there is one,
+	 * otherwise an evaluator that interprets expr until COMPILE_AFTER rows
+	 */
+	public static CompiledExpr of(Expr expr, Header hdr) {
+		CompiledExpr c = ExprCompiler.cached(expr, hdr);
+		return c != null ? c : new Lazy(expr, hdr);
+	}
+
+	/** @return An evaluator that only interprets expr */
+	static CompiledExpr interpreted(Expr expr, Header hdr) {
+		Lazy c = new Lazy(expr, hdr);
+		c.n = COMPILE_AFTER; // don't try to compile
+		return c;
+	}
+
+	/**
+	 * Compiles immediately, used by tests
+	 * @return The compiled expression, or null if it could not be compiled
+	 */
+	public static CompiledExpr compile(Expr expr, Header hdr) {
+		return ExprCompiler.compile(expr, hdr);
+	}
+
+	public abstract Object eval(Row row);
+
+	/** the comparison used by BinOp i.e. "" is less than other values */
+	public static int cmp(Object x, Object y) {
+		return BinOp.cmp(x, y);
+	}
+
+	public static boolean in(Object x, Set<?> values) {
+		for (Object y : values)
+			if (Ops.is_(x, y))
+				return true;
+		return false;
+	}
+
+	public static boolean inRaw(ByteBuffer value, Record packed) {
+		for (ByteBuffer v : packed)
+			if (v.equals(value))
+				return true;
+		return false;
+	}
+
+	private static class Lazy extends CompiledExpr {
+		private final Expr expr;
+		private CompiledExpr compiled;
+		private int n = 0;
+
+		Lazy(Expr expr, Header hdr) {
+			super(hdr, null, null);
+			this.expr = expr;
+		}
+
+		@Override
+		public Object eval(Row row) {
+			if (compiled != null)
+				return compiled.eval(row);
+			if (n < COMPILE_AFTER && ++n == COMPILE_AFTER)
+				compiled = ExprCompiler.compile(expr, hdr); // null if too large
+			return expr.eval(hdr, row);
+		}
+	}
+
+}
@@ -0,0 +1,454 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.query.expr;
+
+import static org.objectweb.asm.Opcodes.*;
+import static suneido.SuInternalError.unreachable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import suneido.SuException;
+import suneido.compiler.Token;
+import suneido.database.immudb.Record;
+import suneido.database.query.ColumnAccessor;
+import suneido.database.query.Header;
+import suneido.database.query.Row;
+import suneido.runtime.Ops;
+import suneido.util.ByteBuffers;
+
+/**
+ * Generates a {@link CompiledExpr} subclass for a query expression.
+ * <p>
+ * Comparisons, and, or, ?:, and in are compiled to branches
+ * so intermediate results are not boxed.
+ * Columns are accessed by position through a {@link ColumnAccessor}
+ * that is passed in when the class is instantiated.
+ * Like Expr.eval, raw (packed) comparisons are only used
+ * if isTerm has been used (by Select).
+ * Other operators call the same {@link Ops} methods as Expr.eval.
+ * Anything else e.g. FunCall is interpreted by calling its eval.
+ * <p>
+ * Generated classes are cached by the expression text
+ * so repeated queries reuse them, even with different headers.
+ * Constants are not part of the text, they are passed in (values)
+ * when the class is instantiated, so they can also differ.
+ * The text is built by the same traversal that generates the code
+ * (first with a visitor that ignores the code)
+ * so it reflects every choice that affects the code.
+ * Expressions that are too large to compile are also cached (as empty)
+ * so they are only attempted once.
+ */
+class ExprCompiler {
+	private static final AtomicInteger count = new AtomicInteger();
+	private static final Cache<String,Optional<Constructor<?>>> cache =
+			CacheBuilder.newBuilder().maximumSize(1000).build();
+	private static final String BASE = Type.getInternalName(CompiledExpr.class);
+	private static final String OPS = Type.getInternalName(Ops.class);
+	private static final String OBJECT = "Ljava/lang/Object;";
+	private static final String BYTEBUFFER = Type.getDescriptor(ByteBuffer.class);
+	private static final String HEADER = Type.getDescriptor(Header.class);
+	private static final String ROW = Type.getDescriptor(Row.class);
+	private static final String ACCESSOR = Type.getDescriptor(ColumnAccessor.class);
+	private static final String CTOR_DESC =
+			"(" + HEADER + "[" + OBJECT + ACCESSOR + ")V";
+	private static final int THIS = 0;
+	private static final int ROWVAR = 1;
+	private final Header hdr;
+	private final List<Object> values = new ArrayList<>();
+	private final List<String> cols = new ArrayList<>();
+	/** the expression text, see class comment */
+	private final StringBuilder text = new StringBuilder();
+	private String className;
+	private MethodVisitor mv;
+
+	private ExprCompiler(Header hdr) {
+		this.hdr = hdr;
+	}
+
+	/** @return The compiled expression, or null if it could not be compiled */
+	static CompiledExpr compile(Expr expr, Header hdr) {
+		ExprCompiler ec = new ExprCompiler(hdr).scan(expr);
+		Optional<Constructor<?>> ctor;
+		try {
+			ctor = cache.get(ec.key(), () -> new ExprCompiler(hdr).generate(expr));
+		} catch (ExecutionException e) {
+			throw new SuException("compile query expression", e.getCause());
+		}
+		return ctor.isPresent() ? ec.instance(ctor.get()) : null;
+	}
+
+	/**
+	 * @return The compiled expression if it is cached,
+	 * an interpreter if it is cached as too large to compile,
+	 * otherwise null
+	 */
+	static CompiledExpr cached(Expr expr, Header hdr) {
+		ExprCompiler ec = new ExprCompiler(hdr).scan(expr);
+		Optional<Constructor<?>> ctor = cache.getIfPresent(ec.key());
+		if (ctor == null)
+			return null;
+		return ctor.isPresent() ? ec.instance(ctor.get())
+				: CompiledExpr.interpreted(expr, hdr);
+	}
+
+	/** traverse expr without generating code, to get the text and values */
+	private ExprCompiler scan(Expr expr) {
+		mv = new MethodVisitor(ASM6) { };
+		value(expr);
+		return this;
+	}
+
+	private String key() {
+		return text.toString();
+	}
+
+	private CompiledExpr instance(Constructor<?> ctor) {
+		try {
+			return (CompiledExpr) ctor.newInstance(hdr, values.toArray(),
+					hdr.accessor(cols));
+		} catch (InstantiationException | IllegalAccessException |
+				InvocationTargetException e) {
+			throw new SuException("newInstance error: " + e);
+		}
+	}
+
+	/** @return The constructor, or empty if the class would be too large */
+	private Optional<Constructor<?>> generate(Expr expr) {
+		className = "suneido/code/QueryExpr" + count.incrementAndGet();
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+		cw.visit(V1_8, ACC_PUBLIC + ACC_SUPER + ACC_FINAL, className, null,
+				BASE, null);
+		mv = cw.visitMethod(ACC_PUBLIC, "<init>", CTOR_DESC, null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, THIS);
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitVarInsn(ALOAD, 2);
+		mv.visitVarInsn(ALOAD, 3);
+		mv.visitMethodInsn(INVOKESPECIAL, BASE, "<init>", CTOR_DESC, false);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(ACC_PUBLIC, "eval", "(" + ROW + ")" + OBJECT,
+				null, null);
+		mv.visitCode();
+		value(expr);
+		mv.visitInsn(ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		cw.visitEnd();
+
+		byte[] byteCode;
+		try {
+			byteCode = cw.toByteArray();
+		} catch (RuntimeException e) {
+			return Optional.empty(); // e.g. method too large
+		}
+		Class<?> c = new Loader().defineClass(className.replace('/', '.'),
+				byteCode);
+		try {
+			return Optional.of(c.getConstructor(Header.class, Object[].class,
+					ColumnAccessor.class));
+		} catch (NoSuchMethodException e) {
+			throw new SuException("getConstructor error: " + e);
+		}
+	}
+
+	/** generate code to push the value of e */
+	private void value(Expr e) {
+		if (e instanceof Constant) {
+			text.append("?");
+			loadValue(((Constant) e).value, null);
+		} else if (e instanceof Identifier)
+			column("getval", ((Identifier) e).ident, OBJECT);
+		else if (e instanceof BinOp && ! isCompare(((BinOp) e).op))
+			binop((BinOp) e);
+		else if (e instanceof BinOp || e instanceof In ||
+				e instanceof And || e instanceof Or)
+			bool(e);
+		else if (e instanceof UnOp)
+			unop((UnOp) e);
+		else if (e instanceof TriOp) {
+			TriOp t = (TriOp) e;
+			Label iffalse = new Label();
+			Label end = new Label();
+			text.append("(");
+			cond(t.expr, iffalse);
+			text.append(" ? ");
+			value(t.iftrue);
+			mv.visitJumpInsn(GOTO, end);
+			mv.visitLabel(iffalse);
+			text.append(" : ");
+			value(t.iffalse);
+			mv.visitLabel(end);
+			text.append(")");
+		} else
+			interpret(e);
+	}
+
+	private static boolean isCompare(Token op) {
+		switch (op) {
+		case IS: case ISNT: case LT: case LTE: case GT: case GTE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private void binop(BinOp e) {
+		text.append("(");
+		value(e.left);
+		text.append(" ").append(e.op.string).append(" ");
+		value(e.right);
+		text.append(")");
+		String name;
+		String result;
+		switch (e.op) {
+		case ADD :	name = "add"; result = "Ljava/lang/Number;"; break;
+		case SUB :	name = "sub"; result = "Ljava/lang/Number;"; break;
+		case MUL :	name = "mul"; result = "Ljava/lang/Number;"; break;
+		case DIV :	name = "div"; result = "Ljava/lang/Number;"; break;
+		case MOD :	name = "mod"; result = "Ljava/lang/Number;"; break;
+		case CAT :	name = "cat"; result = OBJECT; break;
+		case LSHIFT :	name = "lshift"; result = "Ljava/lang/Integer;"; break;
+		case RSHIFT :	name = "rshift"; result = "Ljava/lang/Integer;"; break;
+		case BITAND :	name = "bitand"; result = "Ljava/lang/Integer;"; break;
+		case BITOR :	name = "bitor"; result = "Ljava/lang/Integer;"; break;
+		case BITXOR :	name = "bitxor"; result = "Ljava/lang/Integer;"; break;
+		case MATCH :	name = "match"; result = "Ljava/lang/Boolean;"; break;
+		case MATCHNOT :	name = "matchnot"; result = "Ljava/lang/Boolean;"; break;
+		default :	throw unreachable();
+		}
+		mv.visitMethodInsn(INVOKESTATIC, OPS, name,
+				"(" + OBJECT + OBJECT + ")" + result, false);
+	}
+
+	private void unop(UnOp e) {
+		text.append("(").append(e.op.string).append(" ");
+		value(e.expr);
+		text.append(")");
+		switch (e.op) {
+		case NOT:
+			mv.visitMethodInsn(INVOKESTATIC, OPS, "not",
+					"(" + OBJECT + ")Ljava/lang/Boolean;", false);
+			break;
+		case ADD:
+			break;
+		case SUB:
+			mv.visitMethodInsn(INVOKESTATIC, OPS, "uminus",
+					"(" + OBJECT + ")Ljava/lang/Number;", false);
+			break;
+		case BITNOT:
+			mv.visitMethodInsn(INVOKESTATIC, OPS, "bitnot",
+					"(" + OBJECT + ")Ljava/lang/Integer;", false);
+			break;
+		default:
+			throw unreachable();
+		}
+	}
+
+	/** push Boolean.TRUE or Boolean.FALSE (not a new Boolean) */
+	private void bool(Expr e) {
+		Label iffalse = new Label();
+		Label end = new Label();
+		text.append("bool");
+		cond(e, iffalse);
+		mv.visitFieldInsn(GETSTATIC, "java/lang/Boolean", "TRUE",
+				"Ljava/lang/Boolean;");
+		mv.visitJumpInsn(GOTO, end);
+		mv.visitLabel(iffalse);
+		mv.visitFieldInsn(GETSTATIC, "java/lang/Boolean", "FALSE",
+				"Ljava/lang/Boolean;");
+		mv.visitLabel(end);
+	}
+
+	/**
+	 * generate code that falls through if e is true, else jumps to iffalse.
+	 * Constants are tested at run time, like Expr.eval,
+	 * so a non-boolean constant only throws if there are rows.
+	 */
+	private void cond(Expr e, Label iffalse) {
+		if (e instanceof And)
+			and((And) e, iffalse);
+		else if (e instanceof Or)
+			or((Or) e, iffalse);
+		else if (e instanceof BinOp && isCompare(((BinOp) e).op))
+			compare((BinOp) e, iffalse);
+		else if (e instanceof In)
+			in((In) e, iffalse);
+		else {
+			text.append("toBoolean(");
+			value(e);
+			text.append(")");
+			mv.visitMethodInsn(INVOKESTATIC, OPS, "toBoolean_",
+					"(" + OBJECT + ")Z", false);
+			mv.visitJumpInsn(IFEQ, iffalse);
+		}
+	}
+
+	private void and(And e, Label iffalse) {
+		text.append("(and");
+		for (Expr x : e.exprs) {
+			text.append(" ");
+			cond(x, iffalse);
+		}
+		text.append(")");
+	}
+
+	private void or(Or e, Label iffalse) {
+		List<Expr> exprs = e.exprs;
+		text.append("(or");
+		if (exprs.isEmpty()) {
+			mv.visitJumpInsn(GOTO, iffalse);
+			text.append(")");
+			return;
+		}
+		Label iftrue = new Label();
+		for (int i = 0; i < exprs.size() - 1; ++i) {
+			Label next = new Label();
+			text.append(" ");
+			cond(exprs.get(i), next);
+			mv.visitJumpInsn(GOTO, iftrue);
+			mv.visitLabel(next);
+		}
+		text.append(" ");
+		cond(exprs.get(exprs.size() - 1), iffalse);
+		mv.visitLabel(iftrue);
+		text.append(")");
+	}
+
+	private void compare(BinOp e, Label iffalse) {
+		text.append("(");
+		if (e.isRaw(hdr)) {
+			text.append("raw ");
+			column("getraw", ((Identifier) e.left).ident, BYTEBUFFER);
+			text.append(" ").append(e.op.string).append(" ?");
+			loadValue(((Constant) e.right).packed, ByteBuffer.class);
+			if (e.op == Token.IS || e.op == Token.ISNT)
+				mv.visitMethodInsn(INVOKEVIRTUAL, "java/nio/ByteBuffer",
+						"equals", "(" + OBJECT + ")Z", false);
+			else
+				mv.visitMethodInsn(INVOKESTATIC,
+						Type.getInternalName(ByteBuffers.class),
+						"bufferUcompare", "(" + BYTEBUFFER + BYTEBUFFER + ")I",
+						false);
+		} else {
+			value(e.left);
+			text.append(" ").append(e.op.string).append(" ");
+			value(e.right);
+			if (e.op == Token.IS || e.op == Token.ISNT)
+				mv.visitMethodInsn(INVOKESTATIC, OPS, "is_",
+						"(" + OBJECT + OBJECT + ")Z", false);
+			else
+				mv.visitMethodInsn(INVOKESTATIC, BASE, "cmp",
+						"(" + OBJECT + OBJECT + ")I", false);
+		}
+		text.append(")");
+		// jump if the comparison is false
+		switch (e.op) {
+		case IS :	mv.visitJumpInsn(IFEQ, iffalse); break;
+		case ISNT :	mv.visitJumpInsn(IFNE, iffalse); break;
+		case LT :	mv.visitJumpInsn(IFGE, iffalse); break;
+		case LTE :	mv.visitJumpInsn(IFGT, iffalse); break;
+		case GT :	mv.visitJumpInsn(IFLE, iffalse); break;
+		case GTE :	mv.visitJumpInsn(IFLT, iffalse); break;
+		default :	throw unreachable();
+		}
+	}
+
+	private void in(In e, Label iffalse) {
+		text.append("(");
+		if (e.isRaw(hdr)) {
+			text.append("raw ");
+			column("getraw", ((Identifier) e.expr).ident, BYTEBUFFER);
+			loadValue(e.packed, Record.class);
+			mv.visitMethodInsn(INVOKESTATIC, BASE, "inRaw",
+					"(" + BYTEBUFFER + Type.getDescriptor(Record.class) + ")Z",
+					false);
+		} else {
+			value(e.expr);
+			loadValue(e.values, Set.class);
+			mv.visitMethodInsn(INVOKESTATIC, BASE, "in",
+					"(" + OBJECT + "Ljava/util/Set;)Z", false);
+		}
+		text.append(" in ?)");
+		mv.visitJumpInsn(IFEQ, iffalse);
+	}
+
+	/** fall back to Expr.eval */
+	private void interpret(Expr e) {
+		text.append("eval");
+		loadValue(e, Expr.class);
+		mv.visitVarInsn(ALOAD, THIS);
+		mv.visitFieldInsn(GETFIELD, BASE, "hdr", HEADER);
+		mv.visitVarInsn(ALOAD, ROWVAR);
+		mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Expr.class),
+				"eval", "(" + HEADER + ROW + ")" + OBJECT, false);
+	}
+
+	/** call cols.getval or cols.getraw with the index of the column */
+	private void column(String method, String col, String result) {
+		text.append(col);
+		int i = cols.indexOf(col);
+		if (i == -1) {
+			i = cols.size();
+			cols.add(col);
+		}
+		mv.visitVarInsn(ALOAD, THIS);
+		mv.visitFieldInsn(GETFIELD, BASE, "cols", ACCESSOR);
+		mv.visitVarInsn(ALOAD, ROWVAR);
+		iconst(i);
+		mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(ColumnAccessor.class),
+				method, "(" + ROW + "I)" + result, false);
+	}
+
+	/** push values[i] */
+	private void loadValue(Object x, Class<?> type) {
+		mv.visitVarInsn(ALOAD, THIS);
+		mv.visitFieldInsn(GETFIELD, BASE, "values", "[" + OBJECT);
+		iconst(values.size());
+		mv.visitInsn(AALOAD);
+		if (type != null)
+			mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+		values.add(x);
+	}
+
+	private void iconst(int i) {
+		if (0 <= i && i <= 5)
+			mv.visitInsn(ICONST_0 + i);
+		else if (Short.MIN_VALUE <= i && i <= Short.MAX_VALUE)
+			mv.visitIntInsn(SIPUSH, i);
+		else
+			mv.visitLdcInsn(i);
+	}
+
+	private static class Loader extends ClassLoader {
+		Loader() {
+			super(CompiledExpr.class.getClassLoader());
+		}
+
+		Class<?> defineClass(String name, byte[] b) {
+			return defineClass(name, b, 0, b.length);
+		}
+	}
+
+}
@@ -21,7 +21,7 @@ import suneido.runtime.Ops;
 
 public class In extends Expr {
 	public final Expr expr;
-	private final Set<Object> values;
+	final Set<Object> values;
 	public final Record packed;
 	private boolean isTerm = false; // valid for isTermFields
 	private List<String> isTermFields = null;
@@ -86,9 +86,7 @@ public class In extends Expr {
 
 	@Override
 	public Object eval(Header hdr, Row row) {
-		// only use raw comparison if isTerm has been used (by Select)
-		// NOTE: do NOT want to use raw for Extend because of rule issues
-		if (isTerm && hdr.fields().equals(isTermFields)) {
+		if (isRaw(hdr)) {
 			Identifier id = (Identifier) expr;
 			ByteBuffer value = row.getraw(hdr, id.ident);
 			for (ByteBuffer v : packed)
@@ -101,6 +99,11 @@ public class In extends Expr {
 		}
 	}
 
+	/** @see BinOp#isRaw */
+	boolean isRaw(Header hdr) {
+		return isTerm && hdr.fields().equals(isTermFields);
+	}
+
 	private Object eval2(Object x) {
 		for (Object y : values)
 			if (Ops.is(x, y))
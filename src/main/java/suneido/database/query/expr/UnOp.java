@@ -14,8 +14,8 @@ import suneido.database.query.Row;
 import suneido.runtime.Ops;
 
 public class UnOp extends Expr {
-	private final Token op;
-	private Expr expr;
+	final Token op;
+	Expr expr;
 
 	public UnOp(Token op, Expr expr) {
 		this.op = op;
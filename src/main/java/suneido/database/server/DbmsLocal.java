@@ -21,7 +21,8 @@ import suneido.util.Errlog;
 
 /** Connects Suneido to a local database. */
 public class DbmsLocal extends Dbms {
-	private final Database db;
+	/** changed by an online compact */
+	private volatile Database db;
 	private static final List<String> libraries =
 			new CopyOnWriteArrayList<String>(new String[] { "stdlib" });
 
@@ -84,6 +85,11 @@ public class DbmsLocal extends Dbms {
 		return db.check();
 	}
 
+	/** Not part of Dbms since it only runs on the server */
+	public String compact() {
+		return Dbpkg.compactOnline(db, newdb -> db = newdb);
+	}
+
 	@Override
 	public int finalSize() {
 		return db.finalSize();
@@ -210,7 +216,8 @@ public class DbmsLocal extends Dbms {
 		return Auth.token();
 	}
 
-	Database getDb() {
+	/** @return The current database, it changes after an online compact */
+	public Database getDb() {
 		return db;
 	}
 
@@ -7,6 +7,8 @@ package suneido.runtime.builtin;
 import suneido.SuContainer;
 import suneido.SuException;
 import suneido.TheDbms;
+import suneido.database.server.Dbms;
+import suneido.database.server.DbmsLocal;
 import suneido.runtime.*;
 import suneido.util.Dnum;
 import suneido.util.Util;
@@ -87,6 +89,13 @@ public class Database extends BuiltinClass {
 		return TheDbms.dbms().check();
 	}
 
+	public static Object Compact(Object self) {
+		Dbms dbms = TheDbms.dbms();
+		if (! (dbms instanceof DbmsLocal))
+			throw new SuException("Database.Compact must be run on the server");
+		return ((DbmsLocal) dbms).compact();
+	}
+
 	public static Object Nonce(Object self) {
 		return Util.bytesToString(TheDbms.dbms().nonce());
 	}
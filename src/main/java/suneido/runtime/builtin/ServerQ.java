@@ -4,13 +4,15 @@
 
 package suneido.runtime.builtin;
 
+import static suneido.CommandLineOptions.Action.REPLICA;
 import static suneido.CommandLineOptions.Action.SERVER;
 import suneido.Suneido;
 
 public class ServerQ {
 
 	public static boolean ServerQ() {
-		return Suneido.cmdlineoptions.action == SERVER;
+		return Suneido.cmdlineoptions.action == SERVER ||
+				Suneido.cmdlineoptions.action == REPLICA;
 	}
 
 }
@@ -0,0 +1,99 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts an int array with an {@link IntComparator}
+ * e.g. handles into a RecordStore.
+ * <p>
+ * Merge sort, large arrays are sorted in parallel
+ * using the common ForkJoinPool.
+ * The comparator must be safe to call from multiple threads.
+ */
+public class IntSort {
+	/** below this, sort sequentially */
+	static final int PARALLEL_THRESHOLD = 8 * 1024;
+	private static final int INSERTION_THRESHOLD = 16;
+
+	/** Sorts the first n elements of a */
+	public static void sort(int[] a, int n, IntComparator cmp) {
+		int[] tmp = new int[n];
+		if (n < 2 * PARALLEL_THRESHOLD)
+			sort(a, tmp, 0, n, cmp);
+		else
+			ForkJoinPool.commonPool().invoke(new SortTask(a, tmp, 0, n, cmp));
+	}
+
+	@SuppressWarnings("serial")
+	private static class SortTask extends RecursiveAction {
+		final int[] a;
+		final int[] tmp;
+		final int lo;
+		final int hi;
+		final IntComparator cmp;
+
+		SortTask(int[] a, int[] tmp, int lo, int hi, IntComparator cmp) {
+			this.a = a;
+			this.tmp = tmp;
+			this.lo = lo;
+			this.hi = hi;
+			this.cmp = cmp;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo <= PARALLEL_THRESHOLD) {
+				sort(a, tmp, lo, hi, cmp);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new SortTask(a, tmp, lo, mid, cmp),
+					new SortTask(a, tmp, mid, hi, cmp));
+			merge(a, tmp, lo, mid, hi, cmp);
+		}
+	}
+
+	private static void sort(int[] a, int[] tmp, int lo, int hi,
+			IntComparator cmp) {
+		if (hi - lo <= INSERTION_THRESHOLD) {
+			insertionSort(a, lo, hi, cmp);
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		sort(a, tmp, lo, mid, cmp);
+		sort(a, tmp, mid, hi, cmp);
+		merge(a, tmp, lo, mid, hi, cmp);
+	}
+
+	private static void insertionSort(int[] a, int lo, int hi,
+			IntComparator cmp) {
+		for (int i = lo + 1; i < hi; ++i) {
+			int x = a[i];
+			int j = i;
+			for (; j > lo && cmp.compare(a[j - 1], x) > 0; --j)
+				a[j] = a[j - 1];
+			a[j] = x;
+		}
+	}
+
+	/** merge the sorted ranges lo to mid and mid to hi */
+	private static void merge(int[] a, int[] tmp, int lo, int mid, int hi,
+			IntComparator cmp) {
+		if (cmp.compare(a[mid - 1], a[mid]) <= 0)
+			return; // already in order
+		System.arraycopy(a, lo, tmp, lo, hi - lo);
+		int i = lo;
+		int j = mid;
+		for (int k = lo; k < hi; ++k)
+			if (j >= hi || (i < mid && cmp.compare(tmp[i], tmp[j]) <= 0))
+				a[k] = tmp[i++];
+			else
+				a[k] = tmp[j++];
+	}
+
+}
@@ -52,6 +52,8 @@ public class CommandLineOptionsTest {
 				CommandLineOptions.parse("-s", "-p", "1234").toString());
 		assertEquals("SERVER port=1234",
 				CommandLineOptions.parse("-s", "-p", "1234").toString());
+		assertEquals("REPLICA port=1236",
+				CommandLineOptions.parse("-replica", "-p", "1236").toString());
 	}
 
 	@Test
@@ -62,10 +64,22 @@ public class CommandLineOptionsTest {
 
 	@Test
 	public void port_without_server() {
-		assertEquals("ERROR port should only be specifed with -server or -client, not DUMP",
+		assertEquals("ERROR port should only be specifed with -server, -replica, or -client, not DUMP",
 				CommandLineOptions.parse("-dump", "-port",  "123").toString());
 	}
 
+	@Test
+	public void replica_port() {
+		assertEquals("REPLICA port=1234 primary=1236",
+				CommandLineOptions.parse("-replica", "1236", "-p", "1234").toString());
+		assertEquals("ERROR replica port (3147) must differ from the primary's port (3147) by more than 1, use -port",
+				CommandLineOptions.parse("-replica").toString());
+		assertEquals("ERROR replica port (3148) must differ from the primary's port (3147) by more than 1, use -port",
+				CommandLineOptions.parse("-replica", "-p", "3148").toString());
+		assertEquals("ERROR replica port (1235) must differ from the primary's port (1234) by more than 1, use -port",
+				CommandLineOptions.parse("-replica", "1234", "-p", "1235").toString());
+	}
+
 	@Test
 	public void unknown() {
 		assertEquals("ERROR unknown option: -abc",
@@ -0,0 +1,111 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BtreeBuilderTest {
+	private final Storage stor = new HeapStorage();
+	private final Tran tran = new Tran(stor, null);
+
+	@Test
+	public void empty() {
+		Btree btree = new Btree(tran, new BtreeBuilder().build());
+		assertTrue(btree.isEmpty());
+		btree.check();
+	}
+
+	@Test
+	public void sizes() {
+		for (int nodeSize : new int[] { 4, 5, Btree.MAX_NODE_SIZE })
+			for (int n : new int[] { 1, 3, 4, 5, 16, 17, 20, 21, 400, 1000 })
+				build(nodeSize, n);
+	}
+
+	/** keys that are not unique ignoring the data address */
+	@Test
+	public void duplicates() {
+		List<BtreeKey> keys = new ArrayList<>();
+		for (int i = 0; i < 200; ++i)
+			keys.add(key(i / 7, i + 1));
+		check(4, keys);
+	}
+
+	/** the built btree should allow normal adds and removes */
+	@Test
+	public void add_after() {
+		List<BtreeKey> keys = keys(100);
+		Btree btree = check(4, keys);
+		for (int i = 0; i < 100; ++i)
+			assertTrue(btree.add(key(i, 1), false));
+		for (int i = 0; i < 100; i += 2)
+			assertTrue(btree.remove(keys.get(i)));
+		btree.check();
+	}
+
+	/** nodes are stored as they are finished, only the root is in memory */
+	@Test
+	public void stored() {
+		List<BtreeKey> keys = keys(1000);
+		BtreeBuilder builder = new BtreeBuilder(stor, 4);
+		for (BtreeKey key : keys)
+			builder.add(key);
+		BtreeInfo info = builder.build();
+		for (int i = 0; i < info.rootNode.size(); ++i)
+			assertThat(((BtreeTreeKey) info.rootNode.get(i)).child(), equalTo(null));
+		Btree btree = new Btree(new Tran(null, stor), info);
+		btree.check();
+		int i = 0;
+		Btree.Iter iter = btree.iterator();
+		for (iter.next(); ! iter.eof(); iter.next())
+			assertThat(iter.cur(), equalTo(keys.get(i++)));
+		assertThat(i, equalTo(keys.size()));
+	}
+
+	private static void build(int nodeSize, int n) {
+		new BtreeBuilderTest().check(nodeSize, keys(n));
+	}
+
+	private Btree check(int nodeSize, List<BtreeKey> keys) {
+		BtreeBuilder builder = new BtreeBuilder(nodeSize);
+		int totalSize = 0;
+		for (BtreeKey key : keys) {
+			builder.add(key);
+			totalSize += key.keySize();
+		}
+		assertThat(builder.nkeys(), equalTo(keys.size()));
+		BtreeInfo info = builder.build();
+		assertThat(info.totalSize, equalTo(totalSize));
+		Btree btree = new Btree(tran, info);
+		btree.check(); // includes nnodes
+		Btree.Iter iter = btree.iterator();
+		int i = 0;
+		for (iter.next(); ! iter.eof(); iter.next())
+			assertThat(iter.cur(), equalTo(keys.get(i++)));
+		assertThat(i, equalTo(keys.size()));
+		for (BtreeKey key : keys)
+			assertThat(btree.get(key), equalTo(key.adr()));
+		return btree;
+	}
+
+	private static List<BtreeKey> keys(int n) {
+		List<BtreeKey> keys = new ArrayList<>();
+		for (int i = 0; i < n; ++i)
+			keys.add(key(i, i + 1000));
+		return keys;
+	}
+
+	private static BtreeKey key(int n, int adr) {
+		return new RecordBuilder().add(n).add("hello world").btreeKey(adr);
+	}
+
+}
@@ -0,0 +1,143 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BtreePrefixNodeTest {
+	private final Storage stor = new HeapStorage();
+
+	@After
+	public void restore() {
+		BtreePrefixNode.enabled = false;
+	}
+
+	@Test
+	public void smaller() {
+		List<BtreeKey> keys = keys(1000);
+		int plain = store(keys, false);
+		int prefix = store(keys, true);
+		assertTrue(prefix < plain * 3 / 4);
+	}
+
+	@Test
+	public void leaf() {
+		BtreePrefixNode.enabled = true;
+		BtreeMemNode node = new BtreeMemNode(0);
+		for (BtreeKey key : keys(10))
+			node = node.with(key);
+		BtreeDbNode dbnode = node.store(stor);
+		assertThat(dbnode, instanceOf(BtreePrefixNode.class));
+		dbnode = BtreeDbNode.from(0, stor.buffer(dbnode.address()), dbnode.address());
+		assertThat(dbnode, instanceOf(BtreePrefixNode.class));
+		for (int i = 0; i < 10; ++i) {
+			BtreeKey key = key(i);
+			assertThat(dbnode.get(i), equalTo(key));
+			assertThat(dbnode.lowerBound(key), equalTo(i));
+			assertTrue(dbnode.keyEquals(i, key.key));
+			assertThat(dbnode.adr(i), equalTo(key.adr()));
+			assertThat(dbnode.keyLength(i), equalTo(key.packSize()));
+		}
+		assertThat(dbnode.lowerBound(key("a", 0)), equalTo(0));
+		assertThat(dbnode.lowerBound(key("customer", 0)), equalTo(0));
+		assertThat(dbnode.lowerBound(key("customer00000", 0)), equalTo(0));
+		assertThat(dbnode.lowerBound(key("customer000005", 0)), equalTo(5));
+		assertThat(dbnode.lowerBound(key("customer0000055", 0)), equalTo(6));
+		assertThat(dbnode.lowerBound(key("customer1", 0)), equalTo(10));
+		assertThat(dbnode.lowerBound(key("z", 0)), equalTo(10));
+		assertThat(dbnode.lowerBound(key("customer000003", 0)), equalTo(3));
+	}
+
+	/** the minimal first key in tree nodes is stored as is */
+	@Test
+	public void btree() {
+		BtreePrefixNode.enabled = true;
+		List<BtreeKey> keys = keys(1000);
+		Btree btree = open(keys);
+		assertThat(btree.rootNode, instanceOf(BtreePrefixNode.class));
+		btree.check();
+		check(btree, keys);
+
+		// modify the stored nodes and store again
+		List<BtreeKey> keys2 = new ArrayList<>();
+		for (int i = 0; i < keys.size(); ++i)
+			if (i % 3 == 0)
+				assertTrue(btree.remove(keys.get(i)));
+			else
+				keys2.add(keys.get(i));
+		BtreeKey extra = new RecordBuilder().add("other").add(0).btreeKey(99999);
+		btree.add(extra);
+		keys2.add(extra);
+		btree.freeze();
+		BtreeInfo info = btree.info();
+		BtreeDbNode root = btree.rootNode.store(stor);
+		btree = new Btree(new Tran(null, stor), new BtreeInfo(root.address(),
+				info.treeLevels, info.nnodes, info.totalSize));
+		btree.check();
+		check(btree, keys2);
+	}
+
+	@Test
+	public void without_prefix_not_used() {
+		BtreePrefixNode.enabled = true;
+		BtreeMemNode node = new BtreeMemNode(0);
+		node = node.with(new RecordBuilder().add("abc").btreeKey(1));
+		node = node.with(new RecordBuilder().add("xyz").btreeKey(2));
+		assertThat(node.store(stor).getClass(), equalTo(BtreeDbNode.class));
+	}
+
+	private void check(Btree btree, List<BtreeKey> keys) {
+		Btree.Iter iter = btree.iterator();
+		int i = 0;
+		for (iter.next(); ! iter.eof(); iter.next())
+			assertThat(iter.cur(), equalTo(keys.get(i++)));
+		assertThat(i, equalTo(keys.size()));
+		for (BtreeKey key : keys)
+			assertThat(btree.get(key.key), equalTo(key.adr()));
+	}
+
+	private int store(List<BtreeKey> keys, boolean prefix) {
+		BtreePrefixNode.enabled = prefix;
+		long before = stor.sizeFrom(0);
+		open(keys);
+		return (int) (stor.sizeFrom(0) - before);
+	}
+
+	private Btree open(List<BtreeKey> keys) {
+		BtreeBuilder builder = new BtreeBuilder(stor, 16);
+		for (BtreeKey key : keys)
+			builder.add(key);
+		BtreeInfo info = builder.build();
+		int root = info.rootNode.store(stor).address();
+		return new Btree(new Tran(null, stor), new BtreeInfo(root,
+				info.treeLevels, info.nnodes, info.totalSize));
+	}
+
+	private static List<BtreeKey> keys(int n) {
+		List<BtreeKey> keys = new ArrayList<>();
+		for (int i = 0; i < n; ++i)
+			keys.add(key(i));
+		return keys;
+	}
+
+	private static BtreeKey key(int i) {
+		return new RecordBuilder().add(String.format("customer%06d", i))
+				.add("x" + i).btreeKey(i + 1);
+	}
+
+	private static BtreeKey key(String s, int adr) {
+		return new RecordBuilder().add(s).btreeKey(adr);
+	}
+
+}
@@ -0,0 +1,92 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommitGroupTest extends TestBase {
+	private static final int NTHREADS = 8;
+	private static final int NREPS = 100;
+
+	@Before
+	public void enable() {
+		CommitGroup.enabled = true;
+	}
+
+	@After
+	public void disable() {
+		CommitGroup.enabled = false;
+	}
+
+	@Test
+	public void single() {
+		makeTable(10);
+		assertThat(getNrecords("test"), equalTo(10));
+		assertTrue(db.commitGroup.tranCount() > 0);
+		assertEquals("", db.check());
+	}
+
+	@Test
+	public void concurrent_adds() throws InterruptedException {
+		makeTable();
+		AtomicInteger next = new AtomicInteger();
+		run(() -> {
+			Transaction t = db.updateTransaction();
+			t.addRecord("test", record(next.getAndIncrement()));
+			t.ck_complete();
+		});
+		assertThat(getNrecords("test"), equalTo(NTHREADS * NREPS));
+		assertEquals("", db.check());
+		db.checkTransEmpty();
+	}
+
+	/** concurrent read-modify-write of the same record must conflict */
+	@Test
+	public void concurrent_updates() throws InterruptedException {
+		makeTable(1);
+		AtomicInteger ncommitted = new AtomicInteger();
+		run(() -> {
+			Transaction t = db.updateTransaction();
+			IndexIter iter = t.iter(getTable("test").num(), "a");
+			iter.next();
+			Record rec = t.input(iter.keyadr());
+			int n = rec.getInt(0);
+			t.updateRecord(rec.address(), record(n + 1));
+			if (t.complete() == null)
+				ncommitted.incrementAndGet();
+		});
+		Transaction t = db.readTransaction();
+		IndexIter iter = t.iter(getTable("test").num(), "a");
+		iter.next();
+		assertThat(t.input(iter.keyadr()).getInt(0),
+				equalTo(ncommitted.get()));
+		t.complete();
+		assertEquals("", db.check());
+		db.checkTransEmpty();
+	}
+
+	private static void run(Runnable fn) throws InterruptedException {
+		Thread[] threads = new Thread[NTHREADS];
+		for (int i = 0; i < NTHREADS; ++i) {
+			threads[i] = new Thread(() -> {
+				for (int j = 0; j < NREPS; ++j)
+					fn.run();
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+	}
+
+}
@@ -0,0 +1,109 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+public class CompressedRecordTest extends TestBase {
+	private final Storage stor = new HeapStorage(4096);
+
+	@After
+	public void disable() {
+		CompressedRecord.enabled = false;
+	}
+
+	@Test
+	public void store_and_read() {
+		CompressedRecord.enabled = true;
+		DataRecord small = memo(10);
+		DataRecord big = memo(1000);
+		int smallAdr = small.store(stor);
+		int bigAdr = big.store(stor);
+		assertThat(small.storSize(), equalTo(2 + small.bufSize()));
+		assertTrue(big.storSize() < big.bufSize() / 2);
+
+		DataRecord r = new DataRecord(stor, bigAdr);
+		assertThat(r, equalTo(big));
+		assertThat(r.tblnum(), equalTo(123));
+		assertThat(r.address(), equalTo(bigAdr));
+		assertThat(r.storSize(), equalTo(big.storSize()));
+		assertThat(new DataRecord(stor, smallAdr), equalTo(small));
+	}
+
+	@Test
+	public void not_worth_compressing() {
+		CompressedRecord.enabled = true;
+		byte[] random = new byte[500];
+		new Random(1234).nextBytes(random);
+		DataRecord rec = new RecordBuilder().add(ByteBuffer.wrap(random)).build();
+		rec.tblnum(123);
+		assertTrue(rec.bufSize() >= CompressedRecord.MIN_SIZE);
+		int adr = rec.store(stor);
+		assertFalse(CompressedRecord.isCompressed(stor.buffer(adr), 2));
+	}
+
+	@Test
+	public void iterate_mixed() {
+		int first = memo(1000).store(stor);
+		CompressedRecord.enabled = true;
+		memo(10).store(stor);
+		memo(2000).store(stor);
+		CompressedRecord.enabled = false;
+		int last = memo(300).store(stor);
+		StoredRecordIterator iter = new StoredRecordIterator(stor, first, last);
+		for (int n : new int[] { 1000, 10, 2000, 300 })
+			assertThat(iter.next(), equalTo(memo(n)));
+		assertFalse(iter.hasNext());
+	}
+
+	@Test
+	public void database() {
+		CompressedRecord.enabled = true;
+		db.createTable("test")
+			.addColumn("a")
+			.addColumn("b")
+			.addIndex("a", true, false, "", "", 0)
+			.finish();
+		Transaction t = db.updateTransaction();
+		for (int i = 0; i < 10; ++i)
+			t.addRecord("test", rec(i, Strings.repeat("hello world ", 10 * i)));
+		t.ck_complete();
+		t = db.updateTransaction();
+		Table tbl = t.getTable("test");
+		t.updateRecord(tbl.num(), t.lookup(tbl.num(), "a", key(5)),
+				rec(5, Strings.repeat("updated ", 100)));
+		t.removeRecord(tbl.num(), t.lookup(tbl.num(), "a", key(9)));
+		t.ck_complete();
+		CompressedRecord.enabled = false;
+
+		List<Record> recs = get("test");
+		assertThat(recs.size(), equalTo(9));
+		assertThat(recs.get(5), equalTo(rec(5, Strings.repeat("updated ", 100))));
+		assertEquals("", db.check());
+		db = db.reopen();
+		assertThat(get("test"), equalTo(recs));
+		assertEquals("", db.check());
+	}
+
+	private static DataRecord memo(int n) {
+		DataRecord r = new RecordBuilder().add(n).add(Strings.repeat("x", n)).build();
+		r.tblnum(123);
+		return r;
+	}
+
+}
@@ -94,6 +94,22 @@ public class DatabaseTest extends TestBase {
 		t.ck_complete();
 	}
 
+	@Test
+	public void add_unique_index_to_existing_table() {
+		makeTable(3);
+		// empty values are allowed in unique (but not key) indexes
+		db.alterTable("test").addColumn("c")
+			.addIndex("c", false, true, null, null, 0).finish();
+		try {
+			db.alterTable("test").addIndex("b", true, false, null, null, 0).finish();
+			fail("expected exception");
+		} catch (RuntimeException e) {
+			assertThat(e.toString(), containsString("duplicate key"));
+		}
+		assertThat(db.getSchema("test"), containsString("index unique(c)"));
+		assertThat(db.getSchema("test"), not(containsString("key(b)")));
+	}
+
 	@Test
 	public void duplicate_key_add() {
 		makeTable(3);
@@ -0,0 +1,108 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class IndexStatsTest extends TestBase {
+	private static final int N = 5000;
+
+	/** 80% of the rows have b = 0, the rest have unique b */
+	@Test
+	public void skewed() {
+		db.createTable("skew")
+			.addColumn("a")
+			.addColumn("b")
+			.addIndex("a", true, false, "", "", 0)
+			.addIndex("b", false, false, "", "", 0)
+			.finish();
+		Transaction t = db.updateTransaction();
+		for (int i = 0; i < N; ++i)
+			t.addRecord("skew", rec(i, i < N * 4 / 5 ? 0 : i));
+		t.ck_complete();
+
+		t = db.readTransaction();
+		int tblnum = t.getTable("skew").num();
+		assertThat(db.indexStats.get(tblnum, new int[] { 1 }, N), nullValue());
+		t.complete();
+		db.indexStats.update(db);
+
+		t = db.readTransaction();
+		double frequent = t.rangefrac(tblnum, "b", key(0), keyMax(0));
+		assertThat(frequent, closeTo(.8, .05));
+		double rare = t.rangefrac(tblnum, "b", key(N - 1), keyMax(N - 1));
+		assertThat(rare, lessThan(.01));
+		double range = t.rangefrac(tblnum, "b", key(N / 2), keyMax(N));
+		assertThat(range, closeTo(.2, .05));
+		t.complete();
+	}
+
+	@Test
+	public void distinct() {
+		makeTable(N);
+		Transaction t = db.readTransaction();
+		int tblnum = t.getTable("test").num();
+		IndexStats stats = IndexStats.compute(t.iter(tblnum, "b,a"), N, 2);
+		assertThat(stats.ndistinct(1), equalTo(1));
+		assertThat(stats.ndistinct(2), equalTo(N));
+		assertThat(stats.nkeys, equalTo(N));
+		t.complete();
+	}
+
+	@Test
+	public void save_and_load() throws IOException {
+		makeTable(N);
+		Transaction t = db.readTransaction();
+		int tblnum = t.getTable("test").num();
+		assertThat(t.ndistinct(tblnum, ImmutableList.of("b")), equalTo(-1));
+		t.complete();
+		db.indexStats.update(db);
+
+		File file = File.createTempFile("sutmp", null);
+		try {
+			db.indexStats.save(db, file.getPath());
+			IndexStatsCache cache = new IndexStatsCache();
+			cache.load(db, file.getPath());
+			IndexStats stats = cache.get(tblnum, new int[] { 1, 0 }, N);
+			assertThat(stats.nkeys, equalTo(N));
+			assertThat(stats.ndistinct(1), equalTo(1));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void ndistinct() {
+		makeTable(N);
+		Transaction t = db.readTransaction();
+		int tblnum = t.getTable("test").num();
+		assertThat(t.ndistinct(tblnum, ImmutableList.of("a")), equalTo(N));
+		assertThat(t.ndistinct(tblnum, ImmutableList.of("b")), equalTo(-1));
+		t.complete();
+		db.indexStats.update(db);
+
+		t = db.readTransaction();
+		assertThat(t.ndistinct(tblnum, ImmutableList.of("b")), equalTo(1));
+		assertThat(t.ndistinct(tblnum, ImmutableList.of("a", "b")), equalTo(N));
+		assertThat(t.ndistinct(tblnum, ImmutableList.of("x")), equalTo(-1));
+		t.complete();
+	}
+
+	private static Record keyMax(int i) {
+		return new RecordBuilder().add(i).addMax().build();
+	}
+
+}
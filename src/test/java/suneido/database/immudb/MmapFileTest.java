@@ -5,12 +5,17 @@
 package suneido.database.immudb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 
 import org.junit.Test;
 
+import suneido.SuException;
 import suneido.util.FileUtils;
 
 public class MmapFileTest {
@@ -39,4 +44,80 @@ public class MmapFileTest {
 		mmf.close();
 	}
 
+	@Test
+	public void alignment() {
+		File tmp = FileUtils.tempfile();
+		MmapFile.newFileShift = 5;
+		MmapFile mmf;
+		try {
+			mmf = new MmapFile(tmp, "rw");
+		} finally {
+			MmapFile.newFileShift = Storage.DEFAULT_SHIFT;
+		}
+		assertEquals(32, mmf.ALIGN);
+		int adr = mmf.alloc(4);
+		mmf.buffer(adr).putInt(12345678);
+		mmf.close();
+
+		mmf = new MmapFile(tmp, "r"); // existing files keep their alignment
+		assertEquals(32, mmf.ALIGN);
+		assertEquals(12345678, mmf.buffer(adr).getInt());
+		mmf.close();
+	}
+
+	@Test
+	public void compressed_records_flag() {
+		File tmp = FileUtils.tempfile();
+		MmapFile mmf = new MmapFile(tmp, "rw");
+		assertEquals(1, mmf.headerVersion()); // older versions can read it
+		mmf.buffer(mmf.alloc(4)).putInt(123);
+		mmf.close();
+
+		CompressedRecord.enabled = true;
+		try {
+			mmf = new MmapFile(tmp, "rw"); // existing file gets the flag
+		} finally {
+			CompressedRecord.enabled = false;
+		}
+		mmf.close();
+		mmf = new MmapFile(tmp, "r");
+		assertEquals(1 | MmapFile.COMPRESSED_RECORDS, mmf.headerVersion());
+		mmf.close();
+	}
+
+	@Test(expected = SuException.class)
+	public void unknown_flag() throws IOException {
+		File tmp = FileUtils.tempfile();
+		MmapFile mmf = new MmapFile(tmp, "rw");
+		mmf.buffer(mmf.alloc(4)).putInt(123);
+		mmf.close();
+		try (RandomAccessFile f = new RandomAccessFile(tmp, "rw")) {
+			f.seek(MmapFile.MAGIC.length);
+			f.writeInt(1 | (1 << 30));
+		}
+		new MmapFile(tmp, "r").close();
+	}
+
+	@Test
+	public void lazy_mapping() {
+		File tmp = FileUtils.tempfile();
+		MmapFile mmf = new MmapFile(tmp, "rw");
+		final int N = MmapFile.MMAP_CHUNK_SIZE / 2 + 1; // one per chunk
+		int[] adrs = new int[3];
+		for (int i = 0; i < adrs.length; ++i) {
+			adrs[i] = mmf.alloc(N);
+			mmf.buffer(adrs[i]).putInt(i + 1);
+		}
+		mmf.close();
+
+		mmf = new MmapFile(tmp, "r");
+		assertNotNull(mmf.chunks.get(2)); // last chunk is mapped on open
+		assertNull(mmf.chunks.get(1));
+		assertEquals(2, mmf.buffer(adrs[1]).getInt());
+		assertNotNull(mmf.chunks.get(1));
+		assertEquals(1, mmf.buffer(adrs[0]).getInt());
+		assertEquals(3, mmf.buffer(adrs[2]).getInt());
+		mmf.close();
+	}
+
 }
@@ -0,0 +1,120 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import suneido.SuException;
+import suneido.util.FileUtils;
+
+public class OnlineCompactTest extends TestBase {
+	private String filename;
+
+	@Before
+	public void create() {
+		filename = FileUtils.tempfile("d", "i", "c").toString();
+		db = Dbpkg.create(filename);
+	}
+
+	@After
+	public void delete() {
+		for (String suffix : new String[] { "d", "i", "c" }) {
+			new File(filename + suffix + ".bak").delete();
+			new File(filename + OnlineCompact.SUFFIX + suffix).delete();
+		}
+	}
+
+	@Test
+	public void switch_over() {
+		makeTable("test", 100);
+		makeTable("other", 10);
+		db.alterTable("other").addColumn("c").finish();
+		db.alterTable("other").dropColumn("c").finish(); // needs squeeze
+		addRecords("test", 100, 109); // commits to replay
+		Transaction outstanding = db.updateTransaction();
+		outstanding.addRecord("test", record(999));
+		Database olddb = db;
+		Database[] current = { null };
+		assertThat(Dbpkg.compactOnline(db, newdb -> current[0] = newdb),
+				containsString("compacted 3 tables"));
+		db = current[0];
+		assertNotSame(olddb, db);
+		assertTrue(new File(filename + OnlineCompact.SUFFIX + "s").exists());
+
+		// the old database can't be used
+		try {
+			outstanding.ck_complete();
+			fail();
+		} catch (SuException e) {
+			assertThat(e.toString(), containsString("replaced"));
+		}
+		try {
+			olddb.readTransaction();
+			fail();
+		} catch (SuException e) {
+			assertThat(e.toString(), containsString("replaced"));
+		}
+
+		// commits after the switch go to the compacted database
+		Transaction t = db.updateTransaction();
+		Table tbl = t.getTable("test");
+		t.removeRecord(tbl.num(), t.lookup(tbl.num(), "a", key(1)));
+		t.updateRecord(tbl.num(), t.lookup(tbl.num(), "a", key(2)), record(1002));
+		t.addRecord("other", record(1003));
+		t.ck_complete();
+		assertEquals("", db.check());
+		List<Record> test = get("test");
+		List<Record> other = get("other");
+		assertEquals(109, test.size());
+		db.close();
+		olddb.close(); // normally done when idle
+
+		assertTrue(Dbpkg.finishCompactOnline(filename));
+		assertFalse(new File(filename + OnlineCompact.SUFFIX + "s").exists());
+		db = Dbpkg.open(filename);
+		assertEquals("", db.check());
+		assertThat(get("test"), equalTo(test));
+		assertThat(get("other"), equalTo(other));
+		db.close();
+	}
+
+	@Test
+	public void schema_change_blocks() {
+		makeTable("test", 10);
+		SchemaTransaction st = db.schemaTransaction();
+		try {
+			Dbpkg.compactOnline(db, newdb -> fail());
+			fail();
+		} catch (SuException e) {
+			assertThat(e.toString(), containsString("schema changes"));
+		} finally {
+			st.abort();
+		}
+		assertFalse(new File(filename + OnlineCompact.SUFFIX + "d").exists());
+		makeTable("other", 10); // no longer blocked
+		db.close();
+	}
+
+	@Test
+	public void nothing_to_finish() {
+		assertFalse(Dbpkg.finishCompactOnline(filename));
+		db.close();
+	}
+
+}
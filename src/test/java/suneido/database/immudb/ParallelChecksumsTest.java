@@ -0,0 +1,93 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ParallelChecksumsTest {
+	private final Storage dstor = new HeapStorage(4096);
+	private final Storage istor = new HeapStorage(4096);
+
+	@Test
+	public void good() {
+		build();
+		ParallelChecksums pc = verify(dstor);
+		assertTrue(pc.ok(dstor.upTo() - 1));
+		Check check = new Check(dstor, istor);
+		assertTrue(check.fullcheck());
+		assertEquals(dstor.sizeFrom(0), check.dOkSize());
+		assertEquals(istor.sizeFrom(0), check.iOkSize());
+	}
+
+	@Test
+	public void corrupt_data() {
+		build();
+		int bad = nthCommit(dstor, 100);
+		corrupt(dstor, bad);
+		ParallelChecksums pc = verify(dstor);
+		assertTrue(pc.ok(nthCommit(dstor, 99)));
+		assertFalse(pc.ok(bad));
+		Check check = new Check(dstor, istor);
+		assertFalse(check.fullcheck());
+		assertEquals("dbd CHECKSUM_FAIL\n", check.status());
+		assertTrue(check.dOkSize() <= dstor.adrToOffset(bad));
+		assertTrue(check.dOkSize() > 0);
+	}
+
+	@Test
+	public void corrupt_index() {
+		build();
+		int bad = nthCommit(istor, 3);
+		corrupt(istor, bad);
+		Check check = new Check(dstor, istor);
+		assertFalse(check.fullcheck());
+		assertEquals("dbi CHECKSUM_FAIL\n", check.status());
+		assertTrue(check.iOkSize() <= istor.adrToOffset(bad));
+	}
+
+	/** many small commits spanning many chunks, with some persists */
+	private void build() {
+		Database db = Database.create("", dstor, istor);
+		db.createTable("test")
+			.addColumn("a")
+			.addColumn("b")
+			.addIndex("a", true, false, "", "", 0)
+			.finish();
+		for (int i = 0; i < 300; ++i) {
+			Transaction t = db.updateTransaction();
+			t.addRecord("test", new RecordBuilder().add(i).add("hello world").build());
+			t.ck_complete();
+			if (i % 50 == 0)
+				db.persist();
+		}
+		db.close();
+	}
+
+	private static ParallelChecksums verify(Storage stor) {
+		return ParallelChecksums.verify(stor, Storage.FIRST_ADR,
+				Integer.MAX_VALUE, "test", Dbpkg.nullObserver);
+	}
+
+	private static int nthCommit(Storage stor, int n) {
+		StorageIter iter = new StorageIter(stor);
+		for (int i = 0; i < n; ++i)
+			iter.advance();
+		assertTrue(iter.notFinished());
+		return iter.adr();
+	}
+
+	private static void corrupt(Storage stor, int adr) {
+		ByteBuffer buf = stor.bufferBase(adr);
+		int pos = stor.bufferPos(adr) + Tran.HEAD_SIZE + 1;
+		buf.put(pos, (byte) ~buf.get(pos));
+	}
+
+}
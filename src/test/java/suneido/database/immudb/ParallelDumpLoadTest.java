@@ -0,0 +1,69 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import suneido.util.FileUtils;
+
+public class ParallelDumpLoadTest extends TestBase {
+	private final File seqfile = FileUtils.tempfile();
+	private final File parfile = FileUtils.tempfile();
+
+	@After
+	public void delete() {
+		seqfile.delete();
+		parfile.delete();
+	}
+
+	@Test
+	public void dump_load() throws IOException {
+		makeTable("test", 1000);
+		makeTable("empty", 0);
+		makeTable("other", 3000);
+		db.alterTable("other").addColumn("c").finish();
+		db.alterTable("other").dropColumn("c").finish(); // needs squeeze
+		db.addView("myview", "test where a > 5");
+
+		try (FileOutputStream fout = new FileOutputStream(seqfile)) {
+			assertThat(DbDump.dumpDatabase(db, fout.getChannel()), equalTo(4));
+		}
+		try (FileOutputStream fout = new FileOutputStream(parfile)) {
+			assertThat(ParallelDump.dumpDatabase(db, fout.getChannel()), equalTo(4));
+		}
+		assertArrayEquals(Files.readAllBytes(seqfile.toPath()),
+				Files.readAllBytes(parfile.toPath()));
+
+		String schema = db.getSchema("other");
+		List<Record> test = get("test");
+		List<Record> other = get("other");
+		db.close();
+
+		db = Dbpkg.testdb();
+		try (FileInputStream fin = new FileInputStream(parfile)) {
+			assertThat(ParallelLoad.loadDatabase(db, fin.getChannel()), equalTo(4));
+		}
+		assertEquals("", db.check());
+		assertThat(db.getSchema("other"), equalTo(schema));
+		assertThat(get("test"), equalTo(test));
+		assertThat(get("other"), equalTo(other));
+		assertThat(getNrecords("empty"), equalTo(0));
+		assertThat(db.getView("myview"), equalTo("test where a > 5"));
+	}
+
+}
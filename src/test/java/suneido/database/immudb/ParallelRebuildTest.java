@@ -0,0 +1,115 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static suneido.database.immudb.Dbpkg.nullObserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import suneido.database.immudb.Dbpkg.Status;
+import suneido.util.FileUtils;
+
+public class ParallelRebuildTest extends TestBase {
+	private static final String[] TABLES = { "test", "tmp", "other" };
+	private String filename;
+	private String outfilename;
+
+	@Before
+	public void create() {
+		filename = FileUtils.tempfile("d", "i", "c").toString();
+		outfilename = filename + ".out";
+		db = Dbpkg.create(filename);
+	}
+
+	@After
+	public void delete() {
+		for (String suffix : new String[] { "d", "i", "c" })
+			new File(outfilename + suffix).deleteOnExit();
+	}
+
+	@Test
+	public void multiple_tables() {
+		makeTable("test", 1000);
+		makeTable("tmp", 500);
+		makeTable("other", 3000);
+		db.alterTable("other").addIndex("b", false, false, null, null, 0).finish();
+		Transaction t = db.updateTransaction();
+		Table tbl = t.getTable("test");
+		for (int i = 0; i < 1000; i += 3)
+			t.removeRecord(tbl.num(), t.lookup(tbl.num(), "a", key(i)));
+		for (int i = 1; i < 1000; i += 3)
+			t.updateRecord(tbl.num(), t.lookup(tbl.num(), "a", key(i)),
+					record(i + 10000));
+		t.ck_complete();
+		rebuildAndCompare();
+	}
+
+	/** nextfield must stay past dropped columns that records still have */
+	@Test
+	public void drop_column() {
+		db.createTable("test")
+			.addColumn("a")
+			.addColumn("b")
+			.addColumn("c")
+			.addIndex("a", true, false, "", "", 0)
+			.finish();
+		Transaction t = db.updateTransaction();
+		for (int i = 0; i < 10; ++i)
+			t.addRecord("test", rec(i, "b", "c"));
+		t.ck_complete();
+		db.alterTable("test").dropColumn("c").finish();
+		db.alterTable("test").addColumn("d").finish();
+		rebuildAndCompare();
+	}
+
+	@Test
+	public void drop_table() {
+		makeTable("tmp", 100);
+		makeTable("test", 100);
+		db.dropTable("tmp");
+		rebuildAndCompare();
+	}
+
+	private void rebuildAndCompare() {
+		String schema = schemas();
+		List<List<Record>> data = data();
+		db.close();
+		assertNotNull(ParallelRebuild.rebuild(filename, outfilename));
+		assertEquals(Status.OK, Dbpkg.check(outfilename, nullObserver));
+		db = Dbpkg.openReadonly(outfilename);
+		try {
+			assertThat(schemas(), equalTo(schema));
+			assertThat(data(), equalTo(data));
+		} finally {
+			db.close();
+		}
+	}
+
+	private String schemas() {
+		StringBuilder sb = new StringBuilder();
+		for (String table : TABLES)
+			sb.append(db.getSchema(table)).append("\n");
+		return sb.toString();
+	}
+
+	private List<List<Record>> data() {
+		List<List<Record>> data = new ArrayList<>();
+		for (String table : TABLES)
+			if (getTable(table) != null)
+				data.add(get(table));
+		return data;
+	}
+
+}
@@ -0,0 +1,92 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PersistTest extends TestBase {
+
+	@Test
+	public void only_stores_changes() {
+		makeTable(1000);
+		db.persist();
+		long count = db.persistStats.count();
+		long total = db.persistStats.totalBytes();
+
+		addRecords("test", 1000, 1000);
+		db.persist();
+		assertThat(db.persistStats.count(), equalTo(count + 1));
+		long bytes = db.persistStats.totalBytes() - total;
+		assertTrue(0 < bytes && bytes < total / 10);
+
+		db.persist(); // nothing to do
+		assertThat(db.persistStats.count(), equalTo(count + 1));
+		assertEquals("", db.check());
+	}
+
+	@Test
+	public void abort_resets_stored_nodes() {
+		makeTable(1000);
+		db.persist();
+		addRecords("test", 1000, 1010);
+		int tblnum = db.state.schema.get("test").num;
+		Persist p = new Persist(db.state.dbinfo, db.istor);
+		db.persistLock();
+		try {
+			p.startStore();
+			p.storeBtrees();
+			assertTrue(rootNode(tblnum).address() != 0);
+			p.abort(db.state);
+		} finally {
+			db.persistUnlock();
+		}
+		// so the next persist does not reference the aborted storage
+		assertEquals(0, rootNode(tblnum).address());
+		db.persist();
+		assertEquals("", db.check());
+		db = db.reopen();
+		assertThat(getNrecords("test"), equalTo(1011));
+	}
+
+	private BtreeNode rootNode(int tblnum) {
+		TableInfo ti = (TableInfo) db.state.dbinfo.get(tblnum);
+		return ti.indexInfo.get(0).rootNode;
+	}
+
+	@Test
+	public void concurrent_commits() throws InterruptedException {
+		makeTable();
+		AtomicBoolean done = new AtomicBoolean(false);
+		AtomicInteger next = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; ++i) {
+			threads[i] = new Thread(() -> {
+				while (! done.get()) {
+					int n = next.getAndIncrement();
+					addRecords("test", n, n);
+				}
+			});
+			threads[i].start();
+		}
+		for (int i = 0; i < 20; ++i)
+			db.persist();
+		done.set(true);
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals("", db.check());
+		db = db.reopen();
+		assertThat(getNrecords("test"), equalTo(next.get()));
+		db.checkTransEmpty();
+	}
+
+}
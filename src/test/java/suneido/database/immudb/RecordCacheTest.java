@@ -0,0 +1,54 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+public class RecordCacheTest {
+
+	@After
+	public void restore() {
+		RecordCache.size = 0;
+		CompressedRecord.enabled = false;
+	}
+
+	@Test
+	public void cached() {
+		RecordCache.size = 10;
+		CompressedRecord.enabled = true;
+		Database db = Dbpkg.testdb();
+		db.createTable("test").addColumn("a").addColumn("b")
+				.addIndex("a", true, false, "", "", 0).finish();
+		Record big = new RecordBuilder().add(1).add(Strings.repeat("x", 1000)).build();
+		Transaction t = db.updateTransaction();
+		t.addRecord("test", big);
+		t.ck_complete();
+
+		t = db.readTransaction();
+		int tblnum = t.getTable("test").num();
+		int adr = t.lookup(tblnum, "a", new RecordBuilder().add(1).build()).address();
+		DataRecord r1 = (DataRecord) t.input(adr);
+		DataRecord r2 = (DataRecord) t.input(adr);
+		assertThat(r1, not(sameInstance(r2)));
+		assertThat(r2, equalTo(big));
+		// callers may modify their copy
+		r1.address(0);
+		r1.tblnum(99);
+		DataRecord r3 = (DataRecord) t.input(adr);
+		assertThat(r3.address(), equalTo(adr));
+		assertThat(r3.tblnum(), equalTo(tblnum));
+		assertThat(r3, equalTo(big));
+		t.ck_complete();
+	}
+
+}
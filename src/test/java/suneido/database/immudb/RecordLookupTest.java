@@ -0,0 +1,65 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RecordLookupTest {
+	private static final int N = 2000;
+
+	@Test
+	public void in_memory() {
+		test(Long.MAX_VALUE, false);
+	}
+
+	@Test
+	public void spilled() {
+		test(20_000, true);
+	}
+
+	@Test
+	public void one_partition_at_a_time() {
+		test(0, true);
+	}
+
+	/** interleaved finds and adds, like Project */
+	private static void test(long memoryLimit, boolean spilled) {
+		RecordLookup map = new RecordLookup(memoryLimit);
+		try {
+			Random rand = new Random(789);
+			boolean[] added = new boolean[N];
+			for (int j = 0; j < 3 * N; ++j) {
+				int k = rand.nextInt(N);
+				int h = map.find(rec(k));
+				if (added[k])
+					assertEquals(k * 10, map.value(h));
+				else {
+					assertEquals(-1, h);
+					map.add(rec(k), k * 10);
+					added[k] = true;
+				}
+			}
+			assertEquals(spilled, map.spilled());
+			for (int k = 0; k < N; ++k) {
+				int h = map.find(rec(k));
+				if (added[k])
+					assertEquals(k * 10, map.value(h));
+				else
+					assertEquals(-1, h);
+			}
+		} finally {
+			map.close();
+		}
+	}
+
+	private static Record rec(int k) {
+		return new RecordBuilder().add(k).add("key" + k).build();
+	}
+
+}
@@ -0,0 +1,63 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+public class RecordMapTest {
+
+	@Test
+	public void empty() {
+		RecordMap map = new RecordMap();
+		assertEquals(0, map.size());
+		assertEquals(-1, map.find(rec(123)));
+		assertEquals(0, map.sorted().length);
+	}
+
+	@Test
+	public void random() {
+		RecordMap map = new RecordMap();
+		final int N = 1000;
+		for (int i = 0; i < N; ++i) {
+			int k = (i * 7919) % N;
+			assertEquals(-1, map.find(rec(k)));
+			assertEquals(i, map.add(rec(k), k * 2));
+		}
+		assertEquals(N, map.size());
+		for (int k = 0; k < N; ++k) {
+			int h = map.find(rec(k));
+			assertEquals(rec(k), map.key(h));
+			assertEquals(k * 2, map.value(h));
+		}
+		int[] sorted = map.sorted();
+		for (int i = 0; i < N; ++i)
+			assertEquals(rec(i), map.key(sorted[i]));
+	}
+
+	@Test
+	public void large_keys() {
+		RecordMap map = new RecordMap();
+		String big = Strings.repeat("x", 5000);
+		map.add(rec(big + "b"), 1);
+		map.add(rec("a"), 2);
+		map.add(rec(big + "a"), 3);
+		assertEquals(3, map.value(map.find(rec(big + "a"))));
+		assertEquals(1, map.value(map.find(rec(big + "b"))));
+		assertEquals(-1, map.find(rec(big)));
+		int[] sorted = map.sorted();
+		assertEquals(2, map.value(sorted[0]));
+		assertEquals(3, map.value(sorted[1]));
+		assertEquals(1, map.value(sorted[2]));
+	}
+
+	private static Record rec(Object x) {
+		return new RecordBuilder().add(x).build();
+	}
+
+}
@@ -0,0 +1,72 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RecordMultiMapTest {
+	private static final int N = 2000;
+	private static final int NKEYS = 300;
+
+	@Test
+	public void empty() {
+		RecordMultiMap map = new RecordMultiMap(1000);
+		assertNull(map.get(rec(123)));
+		map.close();
+	}
+
+	@Test
+	public void in_memory() {
+		test(Long.MAX_VALUE, false);
+	}
+
+	@Test
+	public void spilled() {
+		test(20_000, true);
+	}
+
+	@Test
+	public void one_partition_at_a_time() {
+		test(0, true);
+	}
+
+	/** key i % NKEYS has values i, in order */
+	private static void test(long memoryLimit, boolean spilled) {
+		RecordMultiMap map = new RecordMultiMap(memoryLimit);
+		try {
+			for (int i = 0; i < N; ++i)
+				map.add(rec(i % NKEYS), i);
+			assertEquals(spilled, map.spilled());
+			Random rand = new Random(456);
+			for (int j = 0; j < 1000; ++j) {
+				int k = rand.nextInt(NKEYS + 10);
+				int[] values = map.get(rec(k));
+				if (k >= NKEYS)
+					assertNull(values);
+				else {
+					assertEquals((N - k + NKEYS - 1) / NKEYS, values.length);
+					for (int i = 0; i < values.length; ++i)
+						assertEquals(k + i * NKEYS, values[i]);
+				}
+			}
+			assertArrayEquals(new int[] { 7, 7 + NKEYS, 7 + 2 * NKEYS,
+					7 + 3 * NKEYS, 7 + 4 * NKEYS, 7 + 5 * NKEYS, 7 + 6 * NKEYS },
+					map.get(rec(7)));
+		} finally {
+			map.close();
+		}
+	}
+
+	private static Record rec(int k) {
+		return new RecordBuilder().add(k).add("key" + k).build();
+	}
+
+}
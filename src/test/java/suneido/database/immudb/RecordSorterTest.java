@@ -0,0 +1,92 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RecordSorterTest {
+	@Test
+	public void empty() {
+		RecordSorter sorter = new RecordSorter(1000);
+		RecordSorter.Iter iter = sorter.iter();
+		assertNull(iter.next());
+		assertNull(iter.prev());
+	}
+
+	@Test
+	public void in_memory() {
+		test(2000, Long.MAX_VALUE, 0);
+	}
+
+	@Test
+	public void parallel_sort() {
+		test(50_000, Long.MAX_VALUE, 0);
+	}
+
+	@Test
+	public void spilled() {
+		test(2000, 4000, 2);
+	}
+
+	@Test
+	public void one_per_run() {
+		test(2000, 0, 2000);
+	}
+
+	private static void test(int n, long memoryLimit, int minRuns) {
+		RecordSorter sorter = new RecordSorter(memoryLimit);
+		try {
+			Random rand = new Random(123);
+			List<Integer> keys = new ArrayList<>();
+			for (int i = 0; i < n; ++i)
+				keys.add(i * 2);
+			Collections.shuffle(keys, rand);
+			for (int k : keys)
+				sorter.add(rec(k));
+			assertTrue(sorter.nruns() >= minRuns);
+			RecordSorter.Iter iter = sorter.iter();
+
+			for (int i = 0; i < n; ++i)
+				assertEquals(rec(i * 2), iter.next());
+			assertNull(iter.next());
+			for (int i = n - 1; i >= 0; --i)
+				assertEquals(rec(i * 2), iter.prev());
+			assertNull(iter.prev());
+
+			// switching direction
+			iter.seekFirst(rec(0));
+			for (int i = 0; i < 10; ++i)
+				assertEquals(rec(i * 2), iter.next());
+			assertEquals(rec(16), iter.prev());
+			assertEquals(rec(18), iter.next());
+
+			for (int i = 0; i < 100; ++i) {
+				int k = rand.nextInt(2 * n);
+				iter.seekFirst(rec(k));
+				int first = (k + 1) / 2 * 2;
+				assertEquals(first < 2 * n ? rec(first) : null, iter.next());
+				iter.seekLast(rec(k));
+				int last = k / 2 * 2;
+				assertEquals(rec(last), iter.prev());
+			}
+		} finally {
+			sorter.close();
+		}
+	}
+
+	private static Record rec(int k) {
+		return new RecordBuilder().add(k).add("data" + k).build();
+	}
+
+}
@@ -0,0 +1,115 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import suneido.SuException;
+import suneido.util.FileUtils;
+
+public class ReplicaTest extends TestBase {
+	private String filename;
+	private Database replica;
+
+	@Before
+	public void create() {
+		filename = FileUtils.tempfile("d", "i", "c").toString();
+		db = Dbpkg.create(filename);
+		makeTable(10);
+		db.persist();
+		replica = Replica.open(filename);
+	}
+
+	@After
+	public void close() {
+		replica.close();
+		db.close();
+		for (String suffix : new String[] { "d", "i", "c" })
+			new File(filename + suffix).delete();
+	}
+
+	@Test
+	public void follows_update_commits() {
+		check();
+		addRecords("test", 10, 19);
+		remove(3);
+		update(5, record(105));
+		assertThat(count(replica.readTransaction()), equalTo(10));
+		replica.pollReplica();
+		check();
+	}
+
+	@Test
+	public void read_transaction_snapshot() {
+		Transaction t = replica.readTransaction();
+		addRecords("test", 10, 19);
+		replica.pollReplica();
+		assertThat(get(t).size(), equalTo(10));
+		t.ck_complete();
+		check();
+	}
+
+	@Test
+	public void schema_changes_wait_for_persist() {
+		makeTable("other", 5);
+		addRecords("test", 10, 11);
+		replica.pollReplica();
+		assertThat(replica.getSchema("other"), nullValue());
+		assertThat(count(replica.readTransaction()), equalTo(10));
+		db.persist();
+		replica.pollReplica();
+		assertThat(replica.getSchema("other"), equalTo(db.getSchema("other")));
+		check();
+		// update commits after the persist
+		addRecords("other", 5, 9);
+		replica.pollReplica();
+		Transaction t = replica.readTransaction();
+		assertThat(get("other", t), equalTo(get("other")));
+		t.ck_complete();
+	}
+
+	@Test
+	public void read_only() {
+		try {
+			replica.updateTransaction();
+			fail();
+		} catch (SuException e) {
+			assertThat(e.getMessage(), equalTo("can't update a read-only replica database"));
+		}
+		try {
+			replica.createTable("tmp");
+			fail();
+		} catch (SuException e) {
+			assertThat(e.getMessage(), equalTo("can't update a read-only replica database"));
+		}
+	}
+
+	/** the replica sees the same records and table size as the primary */
+	private void check() {
+		List<Record> expected = get();
+		Transaction t = replica.readTransaction();
+		assertThat(get(t), equalTo(expected));
+		Table tbl = t.getTable("test");
+		assertThat(t.tableCount(tbl.num()), equalTo(count()));
+		t.ck_complete();
+	}
+
+	private static int count(Transaction t) {
+		int n = t.tableCount(t.getTable("test").num());
+		t.ck_complete();
+		return n;
+	}
+
+}
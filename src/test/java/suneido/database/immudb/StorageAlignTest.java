@@ -0,0 +1,68 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import suneido.database.immudb.Dbpkg.Status;
+import suneido.util.FileUtils;
+
+/** Databases with larger than default storage alignment */
+public class StorageAlignTest extends TestBase {
+	private static final int SHIFT = 5; // 32 byte alignment
+
+	{
+		db = Database.create("",
+				new HeapStorage(1024, SHIFT), new HeapStorage(1024, SHIFT));
+	}
+
+	@After
+	public void after() {
+		MmapFile.newFileShift = Storage.DEFAULT_SHIFT;
+	}
+
+	@Test
+	public void update() {
+		makeTable(100);
+		Transaction t = db.updateTransaction();
+		Record r = getFirst("test", t);
+		t.updateRecord(r.address(), record(1000));
+		t.removeRecord(getLast("test", t).address());
+		t.ck_complete();
+		assertEquals("", db.check());
+
+		db = db.reopen();
+		assertEquals(99, getNrecords("test"));
+		assertEquals("", db.check());
+
+		t = db.readTransaction();
+		HistoryIterator iter = t.historyIterator(getTable("test").num());
+		assertNotNull(iter.getPrev());
+		assertNotNull(iter.getNext());
+		t.complete();
+	}
+
+	@Test
+	public void compact_to_larger_alignment() {
+		makeTable(100);
+		String filename = FileUtils.tempfile().toString();
+		MmapFile.newFileShift = 4;
+		Database dstdb = Dbpkg.create(filename);
+		MmapFile.newFileShift = Storage.DEFAULT_SHIFT;
+		Dbpkg.compact(db, dstdb);
+		assertEquals(16, dstdb.dstor.ALIGN);
+		dstdb.close();
+		assertEquals(Status.OK, Dbpkg.check(filename, Dbpkg.nullObserver));
+		dstdb = Dbpkg.open(filename);
+		assertEquals(16, dstdb.istor.ALIGN);
+		assertEquals("", dstdb.check());
+		dstdb.close();
+	}
+
+}
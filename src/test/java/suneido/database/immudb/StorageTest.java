@@ -6,6 +6,8 @@ package suneido.database.immudb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.nio.ByteBuffer;
+
 import org.junit.Test;
 
 public class StorageTest {
@@ -29,4 +31,25 @@ public class StorageTest {
 			stor.buffer(stor.alloc(40)).putInt(12345678);
 	}
 
+	@Test
+	public void test_align() {
+		Storage stor16 = new HeapStorage(64, 4);
+		assertEquals(16, stor16.ALIGN);
+		assertEquals(32, stor16.align(17));
+		long big = 40L * 1024 * 1024 * 1024; // 40gb
+		assertEquals(big, stor16.adrToOffset(stor16.offsetToAdr(big)));
+		assertEquals(big, stor16.intToSize(stor16.sizeToInt(big)));
+	}
+
+	@Test
+	public void test_allocTail() {
+		Storage stor16 = new HeapStorage(64, 4);
+		stor16.alloc(4);
+		stor16.allocTail(8).putInt(123).putInt(456);
+		ByteBuffer buf = stor16.rbuffer(-8);
+		assertEquals(123, buf.getInt());
+		assertEquals(456, buf.getInt());
+		assertEquals(123, stor16.tail(stor16.sizeFrom(0), 8).getInt());
+	}
+
 }
@@ -90,7 +90,7 @@ public class TestBase {
 		return get(DEFAULT_TABLENAME, t);
 	}
 
-	private static List<Record> get(String tablename, Transaction t) {
+	protected static List<Record> get(String tablename, Transaction t) {
 		List<Record> recs = new ArrayList<>();
 		Table tbl = t.getTable(tablename);
 		IndexIter iter = t.iter(tbl.num(), null);
@@ -0,0 +1,87 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static suneido.util.Verify.verify;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Benchmark point lookups and iterator seeks on a stored multi-level btree
+ * i.e. searching {@link BtreeDbNode}s.
+ * Reports the time and the bytes allocated per operation
+ * after warmup iterations (similar to JMH's gc profiler).
+ */
+public class TestBtreeLookup {
+	static final int NKEYS = 1_000_000;
+	static final int NOPS = 1_000_000;
+	static final int WARMUP = 5;
+	static final int ITERATIONS = 5;
+	static int sink; // to prevent dead code elimination
+
+	public static void main(String[] args) {
+		Storage stor = new HeapStorage();
+		BtreeBuilder builder = new BtreeBuilder(stor);
+		for (int i = 0; i < NKEYS; ++i)
+			builder.add(key(i).btreeKey(i + 1));
+		BtreeInfo info = builder.build();
+		int root = info.rootNode.store(stor).address();
+		Btree btree = new Btree(new Tran(null, stor), new BtreeInfo(root,
+				info.treeLevels, info.nnodes, info.totalSize));
+		System.out.println(NKEYS + " keys, " + (info.treeLevels + 1) + " levels");
+
+		Record[] keys = new Record[NOPS];
+		Random rand = new Random(1234);
+		for (int i = 0; i < NOPS; ++i)
+			keys[i] = key(rand.nextInt(NKEYS)).build();
+		BtreeKey[] btreeKeys = new BtreeKey[NOPS];
+		for (int i = 0; i < NOPS; ++i)
+			btreeKeys[i] = new BtreeKey(keys[i]);
+
+		for (int i = 0; i < WARMUP; ++i) {
+			get(btree, keys);
+			seek(btree, btreeKeys);
+		}
+		for (int i = 0; i < ITERATIONS; ++i)
+			measure("get ", () -> get(btree, keys));
+		for (int i = 0; i < ITERATIONS; ++i)
+			measure("seek", () -> seek(btree, btreeKeys));
+	}
+
+	private static RecordBuilder key(int i) {
+		return new RecordBuilder().add(String.format("customer%06d", i / 16)).add(i);
+	}
+
+	private static void get(Btree btree, Record[] keys) {
+		for (Record key : keys)
+			sink += btree.get(key);
+		verify(sink != 0);
+	}
+
+	private static void seek(Btree btree, BtreeKey[] keys) {
+		Btree.Iter iter = btree.iterator();
+		for (BtreeKey key : keys) {
+			iter.seek(key);
+			sink += iter.keyadr();
+		}
+	}
+
+	private static void measure(String name, Runnable op) {
+		long bytes = allocated();
+		long t = System.nanoTime();
+		op.run();
+		t = System.nanoTime() - t;
+		bytes = allocated() - bytes;
+		System.out.printf("%s %6.1f ns/op %6.1f bytes/op%n",
+				name, (double) t / NOPS, (double) bytes / NOPS);
+	}
+
+	private static long allocated() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+}
@@ -0,0 +1,74 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static suneido.util.Verify.verifyEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Stopwatch;
+
+import suneido.database.immudb.Dbpkg.Status;
+import suneido.database.query.Request;
+import suneido.util.FileUtils;
+
+/**
+ * Compare commit throughput of serial commits versus {@link CommitGroup}
+ * with many threads doing small update transactions.
+ */
+public class TestGroupCommit {
+	static final int NTHREADS = 64;
+	static final long DURATION_MS = TimeUnit.SECONDS.toMillis(10);
+
+	public static void main(String[] args) throws InterruptedException {
+		run(false);
+		run(true);
+	}
+
+	static void run(boolean group) throws InterruptedException {
+		CommitGroup.enabled = group;
+		String filename = FileUtils.tempfile().toString();
+		Database db = Database.create(filename);
+		Request.execute(db, "create tmp (a,b,c) key(a) index(b)");
+		AtomicInteger ncommits = new AtomicInteger();
+		AtomicInteger nfailed = new AtomicInteger();
+		Stopwatch sw = Stopwatch.createStarted();
+		Thread[] threads = new Thread[NTHREADS];
+		for (int i = 0; i < NTHREADS; ++i) {
+			int thread = i;
+			threads[i] = new Thread(() -> {
+				for (int n = 0; sw.elapsed(MILLISECONDS) < DURATION_MS; ++n) {
+					Transaction t = db.updateTransaction();
+					t.addRecord("tmp", new RecordBuilder()
+							.add(thread * 10_000_000 + n).add(n % 100).add("hello world")
+							.build());
+					if (t.complete() == null)
+						ncommits.incrementAndGet();
+					else
+						nfailed.incrementAndGet();
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		long ms = sw.elapsed(MILLISECONDS);
+		System.out.println((group ? "group" : "serial") + " commits: " +
+				ncommits.get() + " in " + ms + " ms = " +
+				(ncommits.get() * 1000L / ms) + " per second" +
+				" (" + nfailed.get() + " failed)" +
+				(group ? String.format(" average group size %.1f",
+						(double) db.commitGroup.tranCount() /
+						Math.max(1, db.commitGroup.groupCount()))
+						: ""));
+		db.checkTransEmpty();
+		db.close();
+		verifyEquals(Status.OK, Dbpkg.check(filename, Dbpkg.nullObserver));
+		CommitGroup.enabled = false;
+	}
+
+}
@@ -0,0 +1,60 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static suneido.util.Verify.verify;
+
+import java.util.Random;
+
+import com.google.common.base.Stopwatch;
+
+import suneido.database.query.Request;
+import suneido.util.FileUtils;
+
+/**
+ * Compare rebuilding from data by reprocessing every commit
+ * versus {@link ParallelRebuild} on a generated multi-table database.
+ */
+public class TestParallelRebuild {
+	static final int NTABLES = 16;
+	static final int NRECORDS = 100_000;
+	static final int PER_TRAN = 1000;
+
+	public static void main(String[] args) {
+		String filename = FileUtils.tempfile().toString();
+		create(filename);
+		Stopwatch sw = Stopwatch.createStarted();
+		verify(DbRebuild.reprocessFromData(filename, filename + "s") != null);
+		System.out.println("reprocess commits: " + sw);
+		sw = Stopwatch.createStarted();
+		verify(ParallelRebuild.rebuild(filename, filename + "p") != null);
+		System.out.println("parallel rebuild (" + ParallelRebuild.N_THREADS +
+				" threads): " + sw);
+	}
+
+	private static void create(String filename) {
+		Stopwatch sw = Stopwatch.createStarted();
+		Database db = Database.create(filename);
+		Random rand = new Random(1234);
+		for (int tn = 0; tn < NTABLES; ++tn) {
+			String table = "tbl" + tn;
+			Request.execute(db, "create " + table +
+					" (a,b,c,d) key(a) index(b) index(c,d)");
+			for (int i = 0; i < NRECORDS; i += PER_TRAN) {
+				Transaction t = db.updateTransaction();
+				for (int j = i; j < i + PER_TRAN; ++j)
+					t.addRecord(table, new RecordBuilder()
+							.add(j).add(rand.nextInt(1000))
+							.add("hello world " + rand.nextInt())
+							.add(rand.nextInt(NRECORDS)).build());
+				t.ck_complete();
+			}
+		}
+		db.close();
+		System.out.println("created " + NTABLES + " tables of " + NRECORDS +
+				" records in " + sw);
+	}
+
+}
@@ -0,0 +1,86 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static suneido.util.Verify.verify;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+
+import suneido.database.query.Request;
+import suneido.util.FileUtils;
+
+/**
+ * Compare the data file size and the write and read times
+ * with and without {@link CompressedRecord}
+ * on a generated table with memo like text fields.
+ */
+public class TestRecordCompression {
+	static final int NRECORDS = 200_000;
+	static final int PER_TRAN = 1000;
+	static final String[] WORDS = { "the", "customer", "invoice", "shipped",
+			"order", "please", "contact", "regarding", "payment", "received",
+			"account", "balance", "delivery", "schedule", "thank", "you" };
+
+	public static void main(String[] args) {
+		run(false);
+		run(true);
+	}
+
+	private static void run(boolean compress) {
+		CompressedRecord.enabled = compress;
+		String filename = FileUtils.tempfile().toString();
+		Stopwatch sw = Stopwatch.createStarted();
+		long size;
+		try (Database db = Database.create(filename)) {
+			create(db);
+			size = db.dstor.sizeFrom(0);
+		}
+		String write = sw.toString();
+		sw = Stopwatch.createStarted();
+		long nbytes = 0;
+		try (Database db = Database.openReadonly(filename)) {
+			ReadTransaction t = db.readTransaction();
+			IndexIter iter = t.iter(t.getTable("memos").num, null);
+			int n = 0;
+			for (iter.next(); ! iter.eof(); iter.next(), ++n)
+				nbytes += t.input(iter.keyadr()).getString(1).length();
+			t.complete();
+			verify(n == NRECORDS);
+		}
+		long ms = Math.max(1, sw.elapsed(TimeUnit.MILLISECONDS));
+		System.out.println((compress ? "compressed" : "uncompressed") +
+				": data file " + size / 1024 + " kb" +
+				", write " + write +
+				", read " + sw + " (" + (nbytes / 1024 * 1000 / ms) + " kb/sec)");
+		for (String suffix : new String[] { "d", "i", "c" })
+			new File(filename + suffix).delete();
+		CompressedRecord.enabled = false;
+	}
+
+	private static void create(Database db) {
+		Request.execute(db, "create memos (num, text) key(num)");
+		Random rand = new Random(1234);
+		for (int i = 0; i < NRECORDS; i += PER_TRAN) {
+			Transaction t = db.updateTransaction();
+			for (int j = i; j < i + PER_TRAN; ++j)
+				t.addRecord("memos", new RecordBuilder()
+						.add(j).add(text(rand)).build());
+			t.ck_complete();
+		}
+	}
+
+	private static String text(Random rand) {
+		StringBuilder sb = new StringBuilder();
+		int n = 20 + rand.nextInt(200);
+		for (int i = 0; i < n; ++i)
+			sb.append(WORDS[rand.nextInt(WORDS.length)]).append(' ');
+		return sb.toString();
+	}
+
+}
@@ -11,7 +11,7 @@ import static org.junit.Assert.assertThat;
 import org.junit.Test;
 
 public class TransactionReadsTest {
-	private final TransactionReads trs = new TransactionReads(null);
+	private final TransactionReads trs = new TransactionReads();
 
 	@Test
 	public void empty() {
@@ -63,6 +63,50 @@ public class TransactionReadsTest {
 		assertEquals(str(), "[[[1]..[2]], [[3]..[6]], [[7]..[8]]]");
 	}
 
+	@Test
+	public void intersects() {
+		add(10, 20);
+		add(30, 40);
+		str();
+		assert ! trs.intersects(recs());
+		// fewer keys than ranges
+		assert ! trs.intersects(recs(25));
+		assert trs.intersects(recs(40));
+		// more keys than ranges
+		assert ! trs.intersects(recs(1, 5, 25, 29, 41, 50));
+		assert trs.intersects(recs(1, 5, 10));
+		assert trs.intersects(recs(1, 25, 35, 50));
+		assert trs.intersects(recs(1, 2, 3, 20));
+	}
+
+	/** ranges extended after being merged are merged again */
+	@Test
+	public void extended_after_merge() {
+		IndexRange ir = new IndexRange();
+		trs.add(ir);
+		for (int i = 0; i < 2000; ++i)
+			add(i * 10, i * 10);
+		ir.setLo(rec(5));
+		ir.setHi(rec(7));
+		trs.build();
+		assert trs.contains(rec(6));
+		assert ! trs.contains(rec(8));
+		assertThat(trs.readCount(), equalTo(2001));
+	}
+
+	/** more than MAX_READS disjoint ranges are combined, not aborted */
+	@Test
+	public void coarsen() {
+		for (int i = 0; i < 50000; ++i)
+			add(i * 10, i * 10);
+		trs.build();
+		for (int i = 0; i < 50000; ++i)
+			assert trs.contains(rec(i * 10));
+		assert ! trs.contains(rec(-1));
+		assert ! trs.contains(rec(500000));
+		assertThat(trs.readCount(), equalTo(50000));
+	}
+
 	void add(int lo, int hi) {
 		trs.add(new IndexRange(rec(lo), rec(hi)));
 	}
@@ -71,6 +115,13 @@ public class TransactionReadsTest {
 		return new RecordBuilder().add(n).build();
 	}
 
+	Record[] recs(int... ns) {
+		Record[] recs = new Record[ns.length];
+		for (int i = 0; i < ns.length; ++i)
+			recs[i] = rec(ns[i]);
+		return recs;
+	}
+
 	String str() {
 		trs.build();
 		return trs.toString();
@@ -0,0 +1,108 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.immudb;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import suneido.SuException;
+
+public class TransactionsTest extends TestBase {
+	private static final int NTHREADS = 8;
+	private static final int NREPS = 100;
+
+	@Test
+	public void overlapping_view() {
+		makeTable();
+		UpdateTransaction t1 = db.updateTransaction();
+		UpdateTransaction t2 = db.updateTransaction();
+		Collection<UpdateTransaction> view = db.trans.getOverlapping(t1.asof());
+		assertTrue(view.isEmpty());
+		t2.addRecord("test", record(1));
+		t2.ck_complete();
+		assertThat(ImmutableList.copyOf(view), equalTo(ImmutableList.of(t2)));
+		assertTrue(db.trans.getOverlapping(t2.commitTime() + 1).isEmpty());
+		t1.abort();
+		db.checkTransEmpty();
+	}
+
+	@Test
+	public void exclusive_owner() {
+		makeTable();
+		UpdateTransaction u = db.updateTransaction();
+		SchemaTransaction st = db.schemaTransaction();
+		try {
+			st.exclusive(); // fails because of u
+			fail();
+		} catch (SuException e) {
+			assertThat(e.toString(), containsString("cannot make"));
+		}
+		u.abort();
+		st.exclusive();
+		st.exclusive(); // already exclusive
+		// a failed attempt must not release another's exclusive
+		try {
+			db.bulkTransaction();
+			fail();
+		} catch (SuException e) {
+			assertThat(e.toString(), containsString("cannot make"));
+		}
+		try {
+			db.updateTransaction();
+			fail();
+		} catch (SuException e) {
+			assertThat(e.toString(), containsString("blocked"));
+		}
+		st.abort();
+		db.updateTransaction().abort(); // no longer blocked
+	}
+
+	/** concurrent begin, abort, and commit without group commit */
+	@Test
+	public void concurrent() throws InterruptedException {
+		makeTable(1);
+		AtomicInteger ncommitted = new AtomicInteger();
+		Thread[] threads = new Thread[NTHREADS];
+		for (int i = 0; i < NTHREADS; ++i) {
+			threads[i] = new Thread(() -> {
+				for (int j = 0; j < NREPS; ++j) {
+					Transaction rt = db.readTransaction();
+					Transaction t = db.updateTransaction();
+					IndexIter iter = t.iter(getTable("test").num(), "a");
+					iter.next();
+					Record rec = t.input(iter.keyadr());
+					t.updateRecord(rec.address(), record(rec.getInt(0) + 1));
+					if (j % 5 == 0)
+						t.abort();
+					else if (t.complete() == null)
+						ncommitted.incrementAndGet();
+					rt.complete();
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		Transaction t = db.readTransaction();
+		IndexIter iter = t.iter(getTable("test").num(), "a");
+		iter.next();
+		assertThat(t.input(iter.keyadr()).getInt(0), equalTo(ncommitted.get()));
+		t.complete();
+		assertEquals("", db.check());
+		db.checkTransEmpty();
+	}
+
+}
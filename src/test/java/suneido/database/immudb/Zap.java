@@ -21,7 +21,7 @@ public class Zap {
 			long offset = 500000; // not detected by fast check, slower rebuild
 			ByteBuffer buf = offset < 0
 					? mmf.rbuffer(offset)
-					: mmf.buffer(Storage.offsetToAdr(offset));
+					: mmf.buffer(mmf.offsetToAdr(offset));
 			buf.putLong(~0L);
 			System.out.println("zapped " + filename + " at " + offset);
 		}
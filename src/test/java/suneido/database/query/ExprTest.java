@@ -8,6 +8,7 @@ import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.Collections;
 import java.util.List;
@@ -19,6 +20,7 @@ import org.junit.Test;
 import suneido.SuDate;
 import suneido.database.immudb.Record;
 import suneido.database.immudb.RecordBuilder;
+import suneido.database.query.expr.CompiledExpr;
 import suneido.database.query.expr.Expr;
 import suneido.runtime.Ops;
 
@@ -124,10 +126,110 @@ public class ExprTest {
 		eval("d in (3,4,5)", "true");
 		eval("e < #20081216.152744828", "false");
 		eval("e < #20081216.155544828", "true");
+		eval("a = 1 and b = 2", "true");
+		eval("a = 1 and b = 3", "false");
+		eval("a = 2 or b = 2", "true");
+		eval("a = 2 or b = 3 or c = 4", "false");
+		eval("a < b ? c : d", "3");
+		eval("a > b ? c : d", "4");
+		eval("not (a > b)", "true");
+		eval("-b", "-2");
+		eval("d in (3,4,5) and not (c in (1,2))", "true");
+		eval("x", "''");
+		eval("x < 1", "true");
+		eval("x is ''", "true");
 	}
 	private void eval(String expr, String result) {
 		Expr e = CompileQuery.expr(expr);
 		assertEquals(e.toString(), result, Ops.display(e.eval(hdr, row)));
+		CompiledExpr c = CompiledExpr.compile(e, hdr);
+		assertEquals(e.toString(), result, Ops.display(c.eval(row)));
+	}
+
+	@Test
+	public void eval_raw() {
+		hdr = new Header(asList(asList("a"), asList("a", "b", "c")),
+				asList("a", "b", "c"));
+		row = new Row(new RecordBuilder().add(1).build(),
+				new RecordBuilder().add(1).add("abc").add(3).build());
+		evalRaw("a = 1", "true");
+		evalRaw("b > 'abb'", "true");
+		evalRaw("b < 'abc'", "false");
+		evalRaw("b <= 'abc'", "true");
+		evalRaw("c >= 4", "false");
+		evalRaw("c != 3", "false");
+		evalRaw("c in (2,3)", "true");
+		evalRaw("b in ('x', 'y')", "false");
+	}
+	@Test
+	public void compiled_class_reused() {
+		hdr = new Header(asList(asList("a"), asList("a", "b")), asList("a", "b"));
+		row = new Row(new RecordBuilder().add(1).build(),
+				new RecordBuilder().add(1).add(2).build());
+		CompiledExpr c1 = CompiledExpr.compile(CompileQuery.expr("b > 1"), hdr);
+		CompiledExpr c2 = CompiledExpr.compile(CompileQuery.expr("b > 3"), hdr);
+		assertEquals(c1.getClass(), c2.getClass()); // constants are values
+		assertEquals(Boolean.TRUE, c1.eval(row));
+		assertEquals(Boolean.FALSE, c2.eval(row));
+		CompiledExpr c3 = CompiledExpr.of(CompileQuery.expr("b > 2"), hdr);
+		assertEquals(c1.getClass(), c3.getClass()); // cached, not interpreted first
+		assertEquals(Boolean.FALSE, c3.eval(row));
+
+		Header hdr2 = new Header(asList(asList("b"), asList("b", "a")),
+				asList("b", "a")); // different positions
+		CompiledExpr c4 = CompiledExpr.compile(CompileQuery.expr("b > 1"), hdr2);
+		assertEquals(c1.getClass(), c4.getClass()); // positions are in cols
+		assertEquals(Boolean.FALSE, c4.eval(row)); // b is 1 in hdr2
+	}
+
+	@Test
+	public void too_large_to_compile() {
+		hdr = new Header(asList(asList("a"), asList("a", "b")), asList("a", "b"));
+		row = new Row(new RecordBuilder().add(1).build(),
+				new RecordBuilder().add(1).add(2).build());
+		StringBuilder sb = new StringBuilder("b is 0");
+		for (int i = 1; i < 10000; ++i)
+			sb.append(" or b + ").append(i).append(" is a");
+		Expr e = CompileQuery.expr(sb.toString());
+		assertEquals(null, CompiledExpr.compile(e, hdr));
+		assertEquals(null, CompiledExpr.compile(e, hdr)); // cached failure
+		CompiledExpr c = CompiledExpr.of(e, hdr);
+		for (int i = 0; i < 200; ++i)
+			assertEquals(Boolean.FALSE, c.eval(row));
+	}
+
+	@Test
+	public void constant_condition() {
+		hdr = new Header(asList(asList("a"), asList("a", "b")), asList("a", "b"));
+		row = new Row(new RecordBuilder().add(1).build(),
+				new RecordBuilder().add(1).add(2).build());
+		// not boolean, so an error when evaluated (like Expr.eval)
+		// but not when compiled
+		Expr e = CompileQuery.expr("5 ? a : b");
+		CompiledExpr c = CompiledExpr.compile(e, hdr);
+		String expected = null;
+		try {
+			e.eval(hdr, row);
+			fail();
+		} catch (RuntimeException ex) {
+			expected = ex.toString();
+		}
+		try {
+			c.eval(row);
+			fail();
+		} catch (RuntimeException ex) {
+			assertEquals(expected, ex.toString());
+		}
+		eval("true ? a : b", "1");
+		eval("false ? a : b", "2");
+	}
+
+	private void evalRaw(String expr, String result) {
+		Expr e = CompileQuery.expr(expr);
+		assertTrue(e.isTerm(hdr.fields()));
+		assertEquals(e.toString(), result, Ops.display(e.eval(hdr, row)));
+		CompiledExpr c = CompiledExpr.compile(e, hdr);
+		assertEquals(e.toString(), result, Ops.display(c.eval(row)));
 	}
 
 	private final List<String> from = asList("x", "y", "z");
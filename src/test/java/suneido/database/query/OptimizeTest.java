@@ -10,6 +10,7 @@ import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 import suneido.database.immudb.RecordBuilder;
+import suneido.database.immudb.RecordStore;
 import suneido.database.immudb.Transaction;
 
 public class OptimizeTest extends TestBase {
@@ -152,11 +153,10 @@ public class OptimizeTest extends TestBase {
 		test1("inven times customer",
 			"(inven^(item) TIMES customer^(id))");
 
+		// hash join instead of temp index
 		test1("(customer times inven) join trans",
-			"((customer^(id) TIMES inven^(item)) JOIN 1:n on (id,item) " +
-				"trans^(date,item,id) TEMPINDEX(id,item))",
-			"((customer^(id) TIMES inven^(item)) JOIN 1:n on (id,item) " +
-				"trans^(item) TEMPINDEX(id,item))");
+			"((customer^(id) TIMES inven^(item)) JOIN-HASH 1:n on (id,item) " +
+				"trans^(item))");
 
 		test1("hist join customer",
 			"(hist^(date,item,id) JOIN n:1 on (id) customer^(id))",
@@ -173,25 +173,29 @@ public class OptimizeTest extends TestBase {
 			"(co^(tnum) JOIN 1:1 on (tnum) task^(tnum))");
 
 		test1("(trans union trans) join (inven union inven)",
-			"((trans^(date,item,id) " +
-				"UNION-MERGE^(date,item,id) trans^(date,item,id)) " +
-				"JOIN n:n on (item) (inven^(item) " +
-				"UNION-MERGE^(item) inven^(item)))");
+			"((inven^(item) UNION-MERGE^(item) inven^(item)) " +
+				"JOIN-HASH n:n on (item) (trans^(date,item,id) " +
+				"UNION-MERGE^(date,item,id) trans^(date,item,id)))");
 
 		test1("customer join alias",
 			"(alias^(id) JOIN 1:1 on (id) customer^(id))");
 
 		test1("customer join supplier",
-			"(supplier^(city) JOIN n:n on (name,city) customer^(id) " +
-				"TEMPINDEX(name,city))",
-			"(supplier^(supplier) JOIN n:n on (name,city) customer^(id) " +
-				"TEMPINDEX(name,city))");
+			"(supplier^(city) JOIN-HASH n:n on (name,city) customer^(id))",
+			"(supplier^(supplier) JOIN-HASH n:n on (name,city) customer^(id))");
 
+		// join chains are reordered
 		test1("trans join customer join inven",
-			"((trans^(date,item,id) JOIN n:1 on (id) customer^(id)) " +
-				"JOIN n:1 on (item) inven^(item))",
-			"((trans^(item) JOIN n:1 on (id) customer^(id)) " +
-				"JOIN n:1 on (item) inven^(item))");
+			"((inven^(item) JOIN 1:n on (item) trans^(item)) " +
+				"JOIN n:1 on (id) customer^(id))");
+		test1("customer join trans join inven",
+			"((inven^(item) JOIN 1:n on (item) trans^(item)) " +
+				"JOIN n:1 on (id) customer^(id))");
+		// leftjoin is reordered as a unit
+		test1("(customer leftjoin hist2) join trans join inven",
+			"((inven^(item) JOIN-HASH 1:n on (item) " +
+				"(customer^(id) LEFTJOIN 1:n on (id) hist2^(id))) " +
+				"JOIN-HASH 1:1 on (item,id,date,cost) trans^(item))");
 
 		test1("(trans join customer) union (hist join customer)",
 			"((trans^(date,item,id) JOIN n:1 on (id) customer^(id)) " +
@@ -206,13 +210,16 @@ public class OptimizeTest extends TestBase {
 				"INTERSECT^(date,item,id) (hist^(date,item,id) " +
 				"JOIN n:1 on (id) customer^(id)))");
 
+		// task has no cnum index, so all of task is read either way
+		// (by tnum for co) but the hash table of task fits in query_memory
+		// so only the matching co are read, see memory_limit for the alternative
 		test1("(((task join co)) join (cus where abbrev = 'a'))",
-			"((co^(tnum) JOIN 1:1 on (tnum) task^(tnum)) "
-				+ "JOIN n:1 on (cnum) cus^(cnum) WHERE^(cnum))");
+			"((cus^(abbrev) WHERE^(abbrev) JOIN-HASH 1:n on (cnum) task^(tnum)) "
+				+ "JOIN 1:1 on (tnum) co^(tnum))");
 
 		test1("((task join (co where signed = 990103)) join (cus where abbrev = 'a'))",
-			"((co^(tnum) WHERE^(tnum) JOIN 1:1 on (tnum) task^(tnum)) "
-				+ "JOIN n:1 on (cnum) cus^(cnum) WHERE^(cnum))");
+			"((cus^(abbrev) WHERE^(abbrev) JOIN-HASH 1:n on (cnum) task^(tnum)) "
+				+ "JOIN 1:1 on (tnum) co^(tnum) WHERE^(tnum))");
 
 		test1("inven leftjoin trans",
 			"(inven^(item) LEFTJOIN 1:n on (item) trans^(item))");
@@ -308,6 +315,26 @@ public class OptimizeTest extends TestBase {
 				"inven^(item) EXTEND a = 1, b = a");
 	}
 
+	@Test
+	public void memory_limit() {
+		makeDB();
+		RecordStore.memoryLimit = 0;
+		// lookup and map spill, but for small tables
+		// that is still cheaper than a temp index
+		test1("customer project city",
+			"customer^(id) PROJECT-LOOKUP (city)");
+		test1("trans summarize id, total cost",
+			"trans^(item) SUMMARIZE-MAP (id) total_cost = total cost");
+		// hash join build side spills, index lookups are cheaper
+		test1("(((task join co)) join (cus where abbrev = 'a'))",
+			"((co^(tnum) JOIN 1:1 on (tnum) task^(tnum)) " +
+				"JOIN n:1 on (cnum) cus^(cnum) WHERE^(cnum))");
+		// spilling is still cheaper than a temp index
+		test1("customer join supplier",
+			"(supplier^(city) JOIN-HASH n:n on (name,city) customer^(id))",
+			"(supplier^(supplier) JOIN-HASH n:n on (name,city) customer^(id))");
+	}
+
 	public void extend_invalid_column() {
 		try {
 			CompileQuery.query(db, serverData, "inven extend a = b, b = 1");
@@ -17,6 +17,7 @@ import org.junit.Test;
 
 import com.google.common.collect.Lists;
 
+import suneido.database.immudb.RecordStore;
 import suneido.database.immudb.Transaction;
 import suneido.database.query.Query.Dir;
 import suneido.runtime.Ops;
@@ -152,6 +153,11 @@ public class QueryTest extends TestBase {
 			"970101	'disk'	'e'	200\n" +
 			"970102	'mouse'	'c'	200\n" +
 			"970103	'pencil'	'e'	300\n");
+		test1("(customer times inven) join trans", // hash join
+			"id	name	city	item	qty	cost	date\n" +
+			"'a'	'axon'	'saskatoon'	'disk'	5	100	970101\n" +
+			"'c'	'calac'	'calgary'	'mouse'	2	200	970101\n" +
+			"'e'	'emerald'	'vancouver'	'mouse'	2	200	960204\n");
 		test1("hist join customer",
 			"date	item	id	cost	name	city\n" +
 			"970101	'disk'	'a'	100	'axon'	'saskatoon'\n" +
@@ -267,6 +273,56 @@ public class QueryTest extends TestBase {
 				"'i'	'intercon'	'saskatoon'\n");
 	}
 
+	@Test
+	public void temp_index_spill() {
+		makeDB();
+		RecordStore.memoryLimit = 0; // every row is a separate run
+		test1("customer sort reverse city",
+			"id	name	city\n" +
+			"'e'	'emerald'	'vancouver'\n" +
+			"'i'	'intercon'	'saskatoon'\n" +
+			"'a'	'axon'	'saskatoon'\n" +
+			"'c'	'calac'	'calgary'\n");
+		test1("trans minus hist sort date",
+			"item	id	cost	date\n" +
+			"'mouse'	'e'	200	960204\n" +
+			"'mouse'	'c'	200	970101\n" +
+			"'eraser'	'c'	150	970201\n");
+	}
+
+	@Test
+	public void hash_join_spill() {
+		makeDB();
+		RecordStore.memoryLimit = 0; // one partition loaded at a time
+		test1("(customer times inven) join trans",
+			"id	name	city	item	qty	cost	date\n" +
+			"'a'	'axon'	'saskatoon'	'disk'	5	100	970101\n" +
+			"'c'	'calac'	'calgary'	'mouse'	2	200	970101\n" +
+			"'e'	'emerald'	'vancouver'	'mouse'	2	200	960204\n");
+	}
+
+	@Test
+	public void lookup_and_map_spill() {
+		makeDB();
+		RecordStore.memoryLimit = 0; // one group in memory at each level
+		test1("customer project city",
+			"city\n" +
+			"'saskatoon'\n" +
+			"'calgary'\n" +
+			"'vancouver'\n");
+		test1("hist summarize item, count, min cost, list id",
+			"item	count	min_cost	list_id\n" +
+			"'disk'	2	100	#('a', 'e')\n" +
+			"'mouse'	1	200	#('c')\n" +
+			"'pencil'	1	300	#('e')\n");
+		// selects on the spilled summarize
+		test1("customer join (trans summarize id, count, total cost)",
+			"id	count	total_cost	name	city\n" +
+			"'a'	1	100	'axon'	'saskatoon'\n" +
+			"'c'	2	350	'calac'	'calgary'\n" +
+			"'e'	1	200	'emerald'	'vancouver'\n");
+	}
+
 	private void test1(String query, String result) {
 		one_way(Dir.NEXT, query, result);
 		one_way(Dir.PREV, query, result);
@@ -7,11 +7,13 @@ package suneido.database.query;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Iterator;
 
 import org.junit.Test;
 
+import suneido.database.immudb.Dbpkg;
 import suneido.database.immudb.Record;
 import suneido.database.immudb.RecordBuilder;
 
@@ -44,4 +46,23 @@ public class RowTest {
 		assertFalse(iter.hasNext());
 	}
 
+	@Test
+	public void accessor() {
+		Record rec1 = new RecordBuilder().add(123).build();
+		Record rec2 = new RecordBuilder().add(123).add(456).build();
+		Header hdr = HeaderTest.makeHeader();
+		ColumnAccessor cols = hdr.accessor(asList("b", "a", "x"));
+		Row row = new Row(rec1, rec2);
+		assertEquals(rec2.getRaw(1), cols.getraw(row, 0));
+		assertEquals(rec1.getRaw(0), cols.getraw(row, 1));
+		assertEquals(Record.MIN_FIELD, cols.getraw(row, 2));
+		assertEquals(456, cols.getval(row, 0));
+		assertEquals(row.project(hdr, asList("b", "a", "x")), cols.project(row));
+		// first record empty so "a" comes from the second
+		row = new Row(Dbpkg.MIN_RECORD, rec2);
+		assertEquals(rec2.getRaw(0), cols.getraw(row, 1));
+		assertEquals(row.getraw(hdr, "a"), cols.getraw(row, 1));
+		assertTrue(cols.equal(row, new Row(rec1, rec2)));
+	}
+
 }
@@ -21,6 +21,8 @@ import suneido.runtime.Ops;
 public class TestBase {
 	protected final Database db;
 	protected final ServerData serverData = new ServerData();
+	/** tests may change RecordStore.memoryLimit, it is restored by close */
+	private final long memoryLimit = RecordStore.memoryLimit;
 
 	TestBase() {
 		db = Dbpkg.testdb();
@@ -35,6 +37,7 @@ public class TestBase {
 	public void close() {
 		db.close();
 		Ops.default_single_quotes = false;
+		RecordStore.memoryLimit = memoryLimit;
 	}
 
 	protected void makeDB() {
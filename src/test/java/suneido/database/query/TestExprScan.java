@@ -0,0 +1,82 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.database.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import suneido.database.immudb.Database;
+import suneido.database.immudb.Dbpkg;
+import suneido.database.immudb.RecordBuilder;
+import suneido.database.immudb.Transaction;
+import suneido.database.query.Query.Dir;
+import suneido.database.query.expr.CompiledExpr;
+import suneido.database.query.expr.Expr;
+import suneido.database.server.ServerData;
+
+/**
+ * Benchmark a large filtered scan, reporting rows per second
+ * for interpreted (Expr.eval) and compiled ({@link CompiledExpr}) predicates
+ * and for the complete query.
+ */
+public class TestExprScan {
+	static final int NROWS = 1_000_000;
+	static final String WHERE = "b % 7 = 3 and c > 'name5' and a in (1,2,3) or b < 5";
+	static final int ITERATIONS = 5;
+	static int sink; // to prevent dead code elimination
+
+	public static void main(String[] args) {
+		Database db = Dbpkg.testdb();
+		Request.execute(db, "create bench (a, b, c) key(a)");
+		for (int i = 0; i < NROWS; ) {
+			Transaction t = db.updateTransaction();
+			for (int j = 0; j < 1000; ++j, ++i)
+				t.addRecord("bench", new RecordBuilder()
+						.add(i).add(i % 100).add("name" + (i % 1000)).build());
+			t.ck_complete();
+		}
+		ServerData serverData = new ServerData();
+		Transaction t = db.readTransaction();
+
+		Query q = CompileQuery.query(t, serverData, "bench");
+		Header hdr = q.header();
+		List<Row> rows = new ArrayList<>(NROWS);
+		for (Row row; null != (row = q.get(Dir.NEXT)); )
+			rows.add(row);
+		Expr expr = CompileQuery.expr(WHERE).fold();
+		expr.isTerm(hdr.fields()); // enable raw comparisons, as Select does
+		CompiledExpr compiled = CompiledExpr.compile(expr, hdr);
+
+		for (int i = 0; i < ITERATIONS; ++i) {
+			measure("interpreted", () -> {
+				for (Row row : rows)
+					if (expr.eval(hdr, row) == Boolean.TRUE)
+						++sink;
+			});
+			measure("compiled   ", () -> {
+				for (Row row : rows)
+					if (compiled.eval(row) == Boolean.TRUE)
+						++sink;
+			});
+		}
+		for (int i = 0; i < ITERATIONS; ++i)
+			measure("query      ", () -> {
+				Query sq = CompileQuery.query(t, serverData,
+						"bench where " + WHERE);
+				for (Row row; null != (row = sq.get(Dir.NEXT)); )
+					++sink;
+			});
+		t.complete();
+		db.close();
+	}
+
+	private static void measure(String name, Runnable f) {
+		long t0 = System.nanoTime();
+		f.run();
+		long t = System.nanoTime() - t0;
+		System.out.println(name + " " + (NROWS * 1_000_000_000L / t) + " rows/sec");
+	}
+
+}
@@ -0,0 +1,55 @@
+/* Copyright 2018 (c) Suneido Software Corp. All rights reserved.
+ * Licensed under GPLv2.
+ */
+
+package suneido.util;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntSortTest {
+
+	@Test
+	public void small() {
+		test(0);
+		test(1);
+		test(2);
+		test(17);
+		test(1000);
+	}
+
+	@Test
+	public void parallel() {
+		test(5 * IntSort.PARALLEL_THRESHOLD + 123);
+	}
+
+	@Test
+	public void partial() {
+		int[] a = { 5, 3, 1, 4, 2, 0 };
+		IntSort.sort(a, 4, Integer::compare);
+		assertArrayEquals(new int[] { 1, 3, 4, 5, 2, 0 }, a);
+	}
+
+	@Test
+	public void comparator() {
+		int[] a = { 1, 2, 3, 4 };
+		IntSort.sort(a, a.length, (x, y) -> Integer.compare(y, x));
+		assertArrayEquals(new int[] { 4, 3, 2, 1 }, a);
+	}
+
+	private static void test(int n) {
+		Random rand = new Random(7321);
+		int[] a = new int[n];
+		for (int i = 0; i < n; ++i)
+			a[i] = rand.nextInt(n / 2 + 1); // with duplicates
+		int[] expected = a.clone();
+		Arrays.sort(expected);
+		IntSort.sort(a, n, Integer::compare);
+		assertArrayEquals(expected, a);
+	}
+
+}